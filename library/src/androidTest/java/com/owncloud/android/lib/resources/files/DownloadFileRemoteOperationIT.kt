@@ -27,6 +27,7 @@
 package com.owncloud.android.lib.resources.files
 
 import com.owncloud.android.AbstractIT
+import org.junit.Assert.assertArrayEquals
 import org.junit.Assert.assertSame
 import org.junit.Assert.assertTrue
 import org.junit.Test
@@ -52,4 +53,28 @@ class DownloadFileRemoteOperationIT : AbstractIT() {
         val newFile = File(context.externalCacheDir?.absolutePath + remotePath)
         assertSame(oldFile.length(), newFile.length())
     }
+
+    @Test
+    fun downloadWithNextcloudClient() {
+        val oldFile = File(createFile("downloadNextcloudClient"))
+        oldFile.writeBytes(ByteArray(CONTENT_SIZE) { it.toByte() })
+        val remotePath = "/downloadNextcloudClient.bin"
+        assertTrue(
+            UploadFileRemoteOperation(oldFile.absolutePath, remotePath, "application/octet-stream", "1464818400")
+                .execute(client).isSuccess
+        )
+
+        assertTrue(
+            DownloadFileRemoteOperation(remotePath, context.externalCacheDir?.absolutePath)
+                .execute(nextcloudClient)
+                .isSuccess
+        )
+
+        val newFile = File(context.externalCacheDir?.absolutePath + remotePath)
+        assertArrayEquals(oldFile.readBytes(), newFile.readBytes())
+    }
+
+    companion object {
+        const val CONTENT_SIZE = 100 * 1024
+    }
 }
@@ -94,6 +94,58 @@ class UploadFileRemoteOperationIT : AbstractIT() {
         )
     }
 
+    @Test
+    fun uploadWithNextcloudClient() {
+        val file = File(createFile("nextcloudClient"))
+        file.writeBytes(ByteArray(CONTENT_SIZE) { it.toByte() })
+        val remotePath = "/nextcloudClient.bin"
+
+        val uploadResult = UploadFileRemoteOperation(
+            file.absolutePath,
+            remotePath,
+            "application/octet-stream",
+            RANDOM_MTIME
+        ).execute(nextcloudClient)
+        assertTrue(uploadResult.isSuccess)
+
+        val result = ReadFileRemoteOperation(remotePath).execute(client)
+        assertTrue(result.isSuccess)
+        val remoteFile = result.data[0] as RemoteFile
+        assertEquals(file.length(), remoteFile.length)
+        assertEquals(uploadResult.resultData, remoteFile.etag)
+    }
+
+    @Test
+    fun uploadChunkedWithNextcloudClient() {
+        val file = File(createFile("chunked"))
+        file.writeBytes(ByteArray(CHUNKED_CONTENT_SIZE) { (it % PRIME).toByte() })
+        val remotePath = "/chunked.bin"
+
+        val sut = ChunkedFileUploadRemoteOperation(
+            file.absolutePath,
+            remotePath,
+            "application/octet-stream",
+            null,
+            RANDOM_MTIME,
+            true
+        )
+        sut.setChunkSizeController(
+            ChunkSizeController(
+                CHUNK_SIZE,
+                CHUNK_SIZE,
+                CHUNK_SIZE,
+                ChunkSizeController.DEFAULT_TARGET_CHUNK_DURATION
+            )
+        )
+        sut.parallelChunks = 2
+        assertTrue(sut.execute(nextcloudClient).isSuccess)
+        assertEquals(3, sut.metrics.uploadedChunks)
+
+        val result = ReadFileRemoteOperation(remotePath).execute(client)
+        assertTrue(result.isSuccess)
+        assertEquals(file.length(), (result.data[0] as RemoteFile).length)
+    }
+
     private fun getCreationTimestamp(file: File): Long? {
         return if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
             return null
@@ -114,5 +166,9 @@ class UploadFileRemoteOperationIT : AbstractIT() {
 
     companion object {
         const val TIME_OFFSET = 10
+        const val CONTENT_SIZE = 100 * 1024
+        const val CHUNK_SIZE = ChunkSizeController.DEFAULT_MIN_CHUNK_SIZE
+        const val CHUNKED_CONTENT_SIZE = 3 * 256 * 1024 - 100
+        const val PRIME = 251
     }
 }
@@ -0,0 +1,168 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import com.nextcloud.android.lib.core.ClockImpl
+import org.apache.commons.httpclient.HttpStatus
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.locks.ReentrantLock
+import kotlin.concurrent.withLock
+
+/**
+ * Limits the number of concurrent requests to one server, adapting the limit with AIMD.
+ *
+ * The limit grows by one every time a full window of requests succeeds with a latency close to the best observed
+ * one, and is cut down multiplicatively as soon as the server signals overload (503, 429, gateway errors or
+ * timeouts). A burst of overloaded responses to requests sent at the same time cuts the limit only once: requests
+ * sent before the last decrease do not decrease it again. Requests beyond the current limit wait in [acquire].
+ */
+class AdaptiveConcurrencyLimiter @JvmOverloads constructor(
+    private val minLimit: Int = DEFAULT_MIN_LIMIT,
+    private val maxLimit: Int = DEFAULT_MAX_LIMIT,
+    initialLimit: Int = DEFAULT_INITIAL_LIMIT,
+    private val clock: Clock = ClockImpl()
+) {
+    companion object {
+        const val DEFAULT_MIN_LIMIT = 1
+        const val DEFAULT_MAX_LIMIT = 64
+        const val DEFAULT_INITIAL_LIMIT = 8
+
+        private const val BACKOFF_RATIO = 0.5
+        private const val LATENCY_TOLERANCE = 2.0
+        private const val BASELINE_DRIFT = 0.01
+        private const val SC_TOO_MANY_REQUESTS = 429
+
+        @JvmStatic
+        fun isOverload(statusCode: Int): Boolean = when (statusCode) {
+            HttpStatus.SC_SERVICE_UNAVAILABLE,
+            HttpStatus.SC_BAD_GATEWAY,
+            HttpStatus.SC_GATEWAY_TIMEOUT,
+            SC_TOO_MANY_REQUESTS -> true
+            else -> false
+        }
+    }
+
+    private val lock = ReentrantLock()
+    private val permitAvailable = lock.newCondition()
+    private var limitValue = initialLimit.coerceIn(minLimit, maxLimit).toDouble()
+    private var inFlight = 0
+    private var waiting = 0
+    private var baselineLatencyMillis = -1.0
+
+    /** Incremented on every decrease of the limit */
+    private var decreases = 0L
+
+    /**
+     * Current number of requests allowed in flight
+     */
+    val limit: Int
+        get() = lock.withLock { limitValue.toInt() }
+
+    val inFlightCount: Int
+        get() = lock.withLock { inFlight }
+
+    /**
+     * Number of requests waiting for a free slot
+     */
+    val queueLength: Int
+        get() = lock.withLock { waiting }
+
+    /**
+     * Waits until a request can be sent without exceeding the limit.
+     *
+     * @return permit to be released exactly once when the response was received
+     */
+    @Throws(InterruptedException::class)
+    fun acquire(): Permit {
+        val decreasesBefore = lock.withLock {
+            waiting++
+            try {
+                while (inFlight >= limitValue.toInt()) {
+                    permitAvailable.await()
+                }
+            } finally {
+                waiting--
+            }
+            inFlight++
+            decreases
+        }
+        return Permit(clock.currentTimeMillis, decreasesBefore)
+    }
+
+    private fun onRelease(latencyMillis: Long, overloaded: Boolean, decreasesBefore: Long) {
+        lock.withLock {
+            val usedLimit = inFlight >= limitValue.toInt()
+            inFlight--
+            if (overloaded) {
+                // one decrease per window: requests sent at the old limit were already accounted for
+                if (decreasesBefore == decreases) {
+                    limitValue = (limitValue * BACKOFF_RATIO).coerceAtLeast(minLimit.toDouble())
+                    decreases++
+                }
+            } else {
+                updateBaseline(latencyMillis)
+                // only grow when the current limit was actually needed and the server is not slowing down
+                if (usedLimit && latencyMillis <= baselineLatencyMillis * LATENCY_TOLERANCE) {
+                    limitValue = (limitValue + 1.0 / limitValue).coerceAtMost(maxLimit.toDouble())
+                }
+            }
+            permitAvailable.signalAll()
+        }
+    }
+
+    /**
+     * Best observed latency, slowly drifting upwards so that a permanent change of network is accepted eventually
+     */
+    private fun updateBaseline(latencyMillis: Long) {
+        baselineLatencyMillis = when {
+            baselineLatencyMillis < 0 || latencyMillis < baselineLatencyMillis -> latencyMillis.toDouble()
+            else -> baselineLatencyMillis + (latencyMillis - baselineLatencyMillis) * BASELINE_DRIFT
+        }
+    }
+
+    inner class Permit internal constructor(private val startMillis: Long, private val decreasesBefore: Long) {
+        private val released = AtomicBoolean(false)
+
+        /**
+         * Releases the permit, with the status code received from the server
+         */
+        fun release(statusCode: Int) {
+            release(isOverload(statusCode))
+        }
+
+        /**
+         * Releases the permit
+         *
+         * @param overloaded true if the request failed in a way hinting to an overloaded server, e.g. a timeout
+         */
+        fun release(overloaded: Boolean) {
+            if (released.compareAndSet(false, true)) {
+                onRelease(clock.currentTimeMillis - startMillis, overloaded, decreasesBefore)
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import com.nextcloud.android.lib.core.ClockImpl
+import org.apache.commons.httpclient.HttpStatus
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.ConnectException
+import java.net.NoRouteToHostException
+import java.net.UnknownHostException
+
+/**
+ * Circuit breaker of one server.
+ *
+ * While CLOSED, the outcome of the last [Config.windowSize] requests is recorded. When at least
+ * [Config.minimumRequests] were recorded and the share of failures reaches [Config.failureRateThreshold], the
+ * breaker OPENs: operations fail immediately instead of waiting for the connection timeout. After
+ * [Config.openDurationMillis], one caller is allowed to probe the server (HALF_OPEN); a successful probe closes the
+ * breaker, a failed one opens it again.
+ *
+ * Failures are connection errors, timeouts and 502, 503 and 504 responses; any other response means the server is
+ * up.
+ */
+class CircuitBreaker @JvmOverloads constructor(
+    val config: Config = Config(),
+    private val clock: Clock = ClockImpl()
+) {
+    companion object {
+        const val DEFAULT_FAILURE_RATE_THRESHOLD = 0.5f
+        const val DEFAULT_MINIMUM_REQUESTS = 10
+        const val DEFAULT_WINDOW_SIZE = 20
+        const val DEFAULT_OPEN_DURATION_MILLIS = 30_000L
+
+        @JvmStatic
+        fun isServerFailure(status: Int): Boolean =
+            status == HttpStatus.SC_BAD_GATEWAY ||
+                status == HttpStatus.SC_SERVICE_UNAVAILABLE ||
+                status == HttpStatus.SC_GATEWAY_TIMEOUT
+
+        /**
+         * Timeouts are reported as [InterruptedIOException] or subclasses by both HTTP stacks.
+         */
+        @JvmStatic
+        fun isServerFailure(exception: IOException): Boolean =
+            exception is ConnectException ||
+                exception is NoRouteToHostException ||
+                exception is UnknownHostException ||
+                exception is InterruptedIOException
+    }
+
+    data class Config @JvmOverloads constructor(
+        val failureRateThreshold: Float = DEFAULT_FAILURE_RATE_THRESHOLD,
+        val minimumRequests: Int = DEFAULT_MINIMUM_REQUESTS,
+        val windowSize: Int = DEFAULT_WINDOW_SIZE,
+        val openDurationMillis: Long = DEFAULT_OPEN_DURATION_MILLIS
+    )
+
+    enum class State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    /** Outcomes of the last requests, true for failures, used as a ring buffer */
+    private val outcomes = BooleanArray(config.windowSize)
+    private var recordedCount = 0
+    private var nextIndex = 0
+    private var failureCount = 0
+    private var openedAt = 0L
+
+    var state = State.CLOSED
+        @Synchronized get
+        private set
+
+    val failureRate: Float
+        @Synchronized get() = if (recordedCount == 0) 0f else failureCount.toFloat() / recordedCount
+
+    /**
+     * @return true if requests may be sent to the server
+     */
+    @Synchronized
+    fun allowRequest(): Boolean = state == State.CLOSED
+
+    /**
+     * Moves an open breaker to HALF_OPEN once it has been open long enough.
+     *
+     * @return true if the caller must probe the server and report with [onProbeFinished]; only one caller at a time
+     * is asked to
+     */
+    @Synchronized
+    fun tryStartProbe(): Boolean {
+        if (state != State.OPEN || clock.currentTimeMillis - openedAt < config.openDurationMillis) {
+            return false
+        }
+        state = State.HALF_OPEN
+        return true
+    }
+
+    @Synchronized
+    fun onProbeFinished(serverAvailable: Boolean) {
+        if (serverAvailable) {
+            close()
+        } else {
+            open()
+        }
+    }
+
+    @Synchronized
+    fun onResponse(status: Int) {
+        record(isServerFailure(status))
+    }
+
+    @Synchronized
+    fun onException(exception: IOException) {
+        if (isServerFailure(exception)) {
+            record(true)
+        }
+    }
+
+    private fun record(failure: Boolean) {
+        if (state != State.CLOSED) {
+            // requests started before the breaker opened are not relevant anymore
+            return
+        }
+        if (recordedCount == outcomes.size) {
+            if (outcomes[nextIndex]) {
+                failureCount--
+            }
+        } else {
+            recordedCount++
+        }
+        outcomes[nextIndex] = failure
+        if (failure) {
+            failureCount++
+        }
+        nextIndex = (nextIndex + 1) % outcomes.size
+
+        if (recordedCount >= config.minimumRequests && failureRate >= config.failureRateThreshold) {
+            open()
+        }
+    }
+
+    private fun open() {
+        state = State.OPEN
+        openedAt = clock.currentTimeMillis
+    }
+
+    private fun close() {
+        state = State.CLOSED
+        outcomes.fill(false)
+        recordedCount = 0
+        nextIndex = 0
+        failureCount = 0
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package com.nextcloud.common
+
+import android.net.Uri
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Per-server [CircuitBreaker]s shared by OwnCloudClient and NextcloudClient, keyed by base URI.
+ *
+ * Disabled by default; when disabled, operations are never failed fast.
+ */
+object CircuitBreakers {
+
+    @JvmStatic
+    var isEnabled = false
+
+    /**
+     * Configuration of breakers created from now on
+     */
+    @JvmStatic
+    var config = CircuitBreaker.Config()
+
+    private val breakers: ConcurrentHashMap<String, CircuitBreaker> = ConcurrentHashMap()
+
+    /**
+     * @return breaker of the server, or null if circuit breaking is disabled
+     */
+    @JvmStatic
+    fun forServer(baseUri: Uri?): CircuitBreaker? {
+        if (!isEnabled || baseUri == null) {
+            return null
+        }
+        return breakers.getOrPut(baseUri.toString()) { CircuitBreaker(config) }
+    }
+
+    /**
+     * Snapshot of all the breakers, by base URI
+     */
+    @JvmStatic
+    fun getBreakers(): Map<String, CircuitBreaker> = HashMap(breakers)
+
+    @JvmStatic
+    fun clear() {
+        breakers.clear()
+    }
+}
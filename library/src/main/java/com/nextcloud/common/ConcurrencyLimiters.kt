@@ -0,0 +1,69 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Per-server [AdaptiveConcurrencyLimiter]s shared by OwnCloudClient and NextcloudClient.
+ *
+ * Disabled by default; when disabled, requests are never delayed.
+ */
+object ConcurrencyLimiters {
+
+    @JvmStatic
+    var isEnabled = false
+
+    private val limiters: ConcurrentHashMap<String, AdaptiveConcurrencyLimiter> = ConcurrentHashMap()
+
+    /**
+     * Waits for a permit to send a request to the given host.
+     *
+     * @return permit to release when the response was received, or null if limiting is disabled
+     */
+    @JvmStatic
+    @Throws(InterruptedException::class)
+    fun acquire(host: String): AdaptiveConcurrencyLimiter.Permit? {
+        if (!isEnabled) {
+            return null
+        }
+        return forHost(host).acquire()
+    }
+
+    @JvmStatic
+    fun forHost(host: String): AdaptiveConcurrencyLimiter = limiters.getOrPut(host) { AdaptiveConcurrencyLimiter() }
+
+    /**
+     * Snapshot of all the limiters, by host
+     */
+    @JvmStatic
+    fun getLimiters(): Map<String, AdaptiveConcurrencyLimiter> = HashMap(limiters)
+
+    @JvmStatic
+    fun clear() {
+        limiters.clear()
+    }
+}
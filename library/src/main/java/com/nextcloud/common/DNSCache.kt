@@ -30,19 +30,34 @@ package com.nextcloud.common
 import androidx.annotation.VisibleForTesting
 import com.nextcloud.android.lib.core.Clock
 import com.nextcloud.android.lib.core.ClockImpl
+import com.owncloud.android.lib.common.utils.Log_OC
 import okhttp3.Dns
 import java.net.Inet4Address
 import java.net.Inet6Address
 import java.net.InetAddress
 import java.net.UnknownHostException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.Executor
+import java.util.concurrent.Executors
+import java.util.concurrent.RejectedExecutionException
 
 /**
  * DNS Cache which prefers IPv6 unless otherwise specified
+ *
+ * Lookups never block on each other: entries live in a concurrent map, and entries close to expiration are
+ * refreshed in the background while the cached addresses keep being served.
  */
 object DNSCache {
 
     const val DEFAULT_TTL = 30 * 1000L
 
+    /**
+     * Part of the TTL after which an entry is refreshed in the background
+     */
+    private const val REFRESH_AHEAD_FACTOR = 0.8
+
+    private val TAG = DNSCache::class.java.simpleName
+
     // 30 seconds is the Java default. Let's keep it.
     @VisibleForTesting
     var ttlMillis: Long = DEFAULT_TTL
@@ -53,54 +68,64 @@ object DNSCache {
     @VisibleForTesting
     var dns: Dns = Dns.SYSTEM
 
+    @VisibleForTesting
+    var refreshExecutor: Executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "DNSCache refresh").apply { isDaemon = true }
+    }
+
     data class DNSInfo(
         val addresses: List<InetAddress>,
         val preferIPV4: Boolean = false,
         val timestamp: Long = clock.currentTimeMillis
     ) {
         fun isExpired(): Boolean = clock.currentTimeMillis - timestamp > ttlMillis
+
+        fun isDueForRefresh(): Boolean = clock.currentTimeMillis - timestamp > ttlMillis * REFRESH_AHEAD_FACTOR
     }
 
-    private val cache: MutableMap<String, DNSInfo> = HashMap()
+    private val cache: ConcurrentHashMap<String, DNSInfo> = ConcurrentHashMap()
+    private val refreshing: ConcurrentHashMap<String, Boolean> = ConcurrentHashMap()
+
+    /**
+     * [Dns] implementation backed by this cache, to be installed in OkHttp clients
+     */
+    @JvmField
+    val asDns: Dns = object : Dns {
+        override fun lookup(hostname: String): List<InetAddress> = DNSCache.lookup(hostname)
+    }
 
     @Throws(UnknownHostException::class)
-    @Synchronized
     @JvmStatic
     fun lookup(hostname: String): List<InetAddress> {
-        val entry = cache[hostname]
-        if (entry?.addresses?.isNotEmpty() == true && !entry.isExpired()) {
-            return entry.addresses
+        val entry = cache[hostname]?.takeIf { it.addresses.isNotEmpty() }
+        return when {
+            entry == null -> resolve(hostname)
+            !entry.isExpired() -> {
+                if (entry.isDueForRefresh()) {
+                    scheduleRefresh(hostname)
+                }
+                entry.addresses
+            }
+            // serve stale addresses while the running refresh completes
+            refreshing.containsKey(hostname) -> entry.addresses
+            else -> resolve(hostname)
         }
-        val preferIPV4 = when (entry) {
-            null -> false
-            else -> entry.preferIPV4
-        }
-
-        val addresses = dns.lookup(hostname).toMutableList()
-        if (addresses.isEmpty()) {
-            throw UnknownHostException("Unknown host $hostname")
-        }
-        val sortedAddresses = sortAddresses(addresses, preferIPV4)
-
-        val newEntry = DNSInfo(sortedAddresses, preferIPV4)
-        cache[hostname] = newEntry
-
-        return sortedAddresses
     }
 
     /**
      * Set IP version preference for a hostname, and re-sort addresses if needed
      */
-    @Synchronized
     @JvmStatic
     fun setIPVersionPreference(hostname: String, preferIPV4: Boolean) {
-        val entry = cache[hostname]
-        if (entry != null) {
-            val addresses = sortAddresses(entry.addresses, preferIPV4)
-            cache[hostname] = DNSInfo(addresses, preferIPV4)
-        } else {
-            cache[hostname] = DNSInfo(emptyList(), preferIPV4)
-        }
+        do {
+            val entry = cache[hostname]
+            val updated = if (entry != null) {
+                val newEntry = DNSInfo(sortAddresses(entry.addresses, preferIPV4), preferIPV4, entry.timestamp)
+                cache.replace(hostname, entry, newEntry)
+            } else {
+                cache.putIfAbsent(hostname, DNSInfo(emptyList(), preferIPV4)) == null
+            }
+        } while (!updated)
     }
 
     /**
@@ -109,21 +134,56 @@ object DNSCache {
      *  - The first address is an IPv6 address
      *  - There are IPv4 addresses available too
      */
-    @Synchronized
     @JvmStatic
     fun isIPV6First(hostname: String): Boolean {
-        val firstV6 = cache[hostname]?.addresses?.firstOrNull() is Inet6Address
-        val anyV4 = cache[hostname]?.addresses?.any { it is Inet4Address } == true
+        val addresses = cache[hostname]?.addresses
+        val firstV6 = addresses?.firstOrNull() is Inet6Address
+        val anyV4 = addresses?.any { it is Inet4Address } == true
         return firstV6 && anyV4
     }
 
     /**
      * Clears the cache
      */
-    @Synchronized
     @JvmStatic
     fun clear() {
         cache.clear()
+        refreshing.clear()
+    }
+
+    @Throws(UnknownHostException::class)
+    private fun resolve(hostname: String): List<InetAddress> {
+        val addresses = dns.lookup(hostname)
+        if (addresses.isEmpty()) {
+            throw UnknownHostException("Unknown host $hostname")
+        }
+
+        // preference may have been changed concurrently, so read it as late as possible
+        val preferIPV4 = cache[hostname]?.preferIPV4 ?: false
+        val sortedAddresses = sortAddresses(addresses, preferIPV4)
+        cache[hostname] = DNSInfo(sortedAddresses, preferIPV4)
+
+        return sortedAddresses
+    }
+
+    private fun scheduleRefresh(hostname: String) {
+        if (refreshing.putIfAbsent(hostname, true) != null) {
+            return
+        }
+        try {
+            refreshExecutor.execute {
+                try {
+                    resolve(hostname)
+                } catch (e: UnknownHostException) {
+                    Log_OC.w(TAG, "Background refresh of $hostname failed: ${e.message}")
+                } finally {
+                    refreshing.remove(hostname)
+                }
+            }
+        } catch (e: RejectedExecutionException) {
+            refreshing.remove(hostname)
+            Log_OC.w(TAG, "Background refresh of $hostname rejected: ${e.message}")
+        }
     }
 
     private fun sortAddresses(
@@ -31,23 +31,15 @@ package com.nextcloud.common
 import android.content.Context
 import android.net.Uri
 import com.owncloud.android.lib.common.OwnCloudClient
-import com.owncloud.android.lib.common.OwnCloudClientFactory.DEFAULT_CONNECTION_TIMEOUT_LONG
-import com.owncloud.android.lib.common.OwnCloudClientFactory.DEFAULT_DATA_TIMEOUT_LONG
 import com.owncloud.android.lib.common.accounts.AccountUtils
-import com.owncloud.android.lib.common.network.AdvancedX509TrustManager
-import com.owncloud.android.lib.common.network.NetworkUtils
 import com.owncloud.android.lib.common.network.RedirectionPath
 import com.owncloud.android.lib.common.operations.RemoteOperation
 import com.owncloud.android.lib.common.operations.RemoteOperationResult
 import com.owncloud.android.lib.common.utils.Log_OC
-import okhttp3.CookieJar
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import org.apache.commons.httpclient.HttpStatus
 import java.io.IOException
-import java.util.concurrent.TimeUnit
-import javax.net.ssl.SSLSession
-import javax.net.ssl.TrustManager
 
 class NextcloudClient private constructor(
     val delegate: NextcloudUriDelegate,
@@ -56,6 +48,22 @@ class NextcloudClient private constructor(
 ) : NextcloudUriProvider by delegate {
     var followRedirects = true
 
+    /**
+     * Share the result of identical read operations executed at the same time,
+     * see [com.owncloud.android.lib.common.operations.CoalescableOperation]
+     */
+    var coalesceRequests = false
+
+    /**
+     * Decides which failed requests are repeated, see [RetryPolicy]; [RetryPolicy.none] disables retries
+     */
+    var retryPolicy = RetryPolicy()
+
+    /**
+     * Permanent redirections followed by this client, applied to later requests; null, the default, disables it
+     */
+    var permanentRedirects: PermanentRedirectCache? = null
+
     constructor(
         baseUri: Uri,
         userId: String,
@@ -72,25 +80,6 @@ class NextcloudClient private constructor(
     companion object {
         @JvmStatic
         val TAG = NextcloudClient::class.java.simpleName
-
-        private fun createDefaultClient(context: Context): OkHttpClient {
-            val trustManager = AdvancedX509TrustManager(NetworkUtils.getKnownServersStore(context))
-
-            val sslContext = NetworkUtils.getSSLContext()
-
-            sslContext.init(null, arrayOf<TrustManager>(trustManager), null)
-            val sslSocketFactory = sslContext.socketFactory
-
-            return OkHttpClient.Builder()
-                .cookieJar(CookieJar.NO_COOKIES)
-                .connectTimeout(DEFAULT_CONNECTION_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
-                .readTimeout(DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
-                .callTimeout(DEFAULT_CONNECTION_TIMEOUT_LONG + DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
-                .sslSocketFactory(sslSocketFactory, trustManager)
-                .hostnameVerifier { _: String?, _: SSLSession? -> true }
-                .fastFallback(true)
-                .build()
-        }
     }
 
     constructor(
@@ -98,12 +87,12 @@ class NextcloudClient private constructor(
         userId: String,
         credentials: String,
         context: Context
-    ) : this(baseUri, userId, credentials, createDefaultClient(context))
+    ) : this(baseUri, userId, credentials, TransportRegistry.newNextcloudClient(context))
 
     @Suppress("TooGenericExceptionCaught")
     fun <T> execute(remoteOperation: RemoteOperation<T>): RemoteOperationResult<T> {
         return try {
-            remoteOperation.run(this)
+            remoteOperation.execute(this)
         } catch (ex: Exception) {
             RemoteOperationResult(ex)
         }
@@ -131,7 +120,8 @@ class NextcloudClient private constructor(
 
         val statusIsRedirection = status == HttpStatus.SC_MOVED_PERMANENTLY ||
             status == HttpStatus.SC_MOVED_TEMPORARILY ||
-            status == HttpStatus.SC_TEMPORARY_REDIRECT
+            status == HttpStatus.SC_TEMPORARY_REDIRECT ||
+            status == PermanentRedirectCache.SC_PERMANENT_REDIRECT
         while (redirectionsCount < OwnCloudClient.MAX_REDIRECTIONS_COUNT && statusIsRedirection) {
             var location = method.getResponseHeader("Location")
             if (location == null) {
@@ -143,6 +133,9 @@ class NextcloudClient private constructor(
                 // Release the connection to avoid reach the max number of connections per host
                 // due to it will be set a different url
                 method.releaseConnection()
+                if (PermanentRedirectCache.isPermanentRedirection(status)) {
+                    permanentRedirects?.put(method.uri, location)
+                }
                 method.uri = location
                 var destination = method.getRequestHeader("Destination")
 
@@ -28,14 +28,21 @@
 package com.nextcloud.common
 
 import com.owncloud.android.lib.common.OwnCloudClientManagerFactory
+import com.owncloud.android.lib.common.operations.InFlightRequests
 import com.owncloud.android.lib.common.operations.RemoteOperation
 import com.owncloud.android.lib.common.utils.Log_OC
+import okhttp3.Call
 import okhttp3.Headers
 import okhttp3.HttpUrl
 import okhttp3.HttpUrl.Companion.toHttpUrlOrNull
 import okhttp3.Request
 import okhttp3.Response
+import okio.BufferedSource
 import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.ConnectException
+import java.util.Locale
+import java.util.concurrent.TimeUnit
 
 /**
  * Common base class for all new OkHttpMethods
@@ -49,6 +56,7 @@ abstract class OkHttpMethodBase(
         const val UNKNOWN_STATUS_CODE: Int = -1
         const val USER_AGENT = "User-Agent"
         const val AUTHORIZATION = "Authorization"
+        const val DESTINATION = "Destination"
     }
 
     private var response: Response? = null
@@ -57,6 +65,27 @@ abstract class OkHttpMethodBase(
     private val requestBuilder: Request.Builder = Request.Builder()
     private var request: Request? = null
 
+    @Volatile
+    private var call: Call? = null
+
+    /**
+     * True once [abort] was called; an aborted method is not sent nor retried
+     */
+    @Volatile
+    var isAborted = false
+        private set
+
+    /**
+     * Marks the request as safe to be repeated even if its HTTP verb is not idempotent, see [RetryPolicy]
+     */
+    var idempotent = false
+
+    /**
+     * Time to wait for the response of this request, in milliseconds, if it may take longer than the read timeout of
+     * the client, e.g. to assemble a large upload; 0 keeps the timeout of the client
+     */
+    var readTimeoutMillis = 0L
+
     init {
         requestHeaders["http.protocol.single-cookie-header"] = "true"
     }
@@ -100,6 +129,13 @@ abstract class OkHttpMethodBase(
         return response?.body?.string() ?: ""
     }
 
+    /**
+     * Body of the response, to be read as it arrives; null if there is no response.
+     */
+    fun getResponseBodySource(): BufferedSource? {
+        return response?.body?.source()
+    }
+
     fun getResponseContentLength(): Long {
         return response?.body?.contentLength() ?: -1
     }
@@ -108,6 +144,14 @@ abstract class OkHttpMethodBase(
         response?.body?.close()
     }
 
+    /**
+     * Cancels the request, failing the transfer of its body in progress, if any, and any later execution.
+     */
+    fun abort() {
+        isAborted = true
+        call?.cancel()
+    }
+
     fun getStatusCode(): Int {
         return response?.code ?: UNKNOWN_STATUS_CODE
     }
@@ -134,6 +178,8 @@ abstract class OkHttpMethodBase(
      * @return HTTP return code or [UNKNOWN_STATUS_CODE] in case of network error.
      */
     fun execute(nextcloudClient: NextcloudClient): Int {
+        val redirects = nextcloudClient.permanentRedirects
+        applyPermanentRedirects(redirects)
         val temp = requestBuilder.url(buildQueryParameter())
 
         requestHeaders[AUTHORIZATION] = nextcloudClient.credentials
@@ -148,11 +194,18 @@ abstract class OkHttpMethodBase(
 
         val request = temp.build()
 
+        val breaker = CircuitBreakers.forServer(nextcloudClient.baseUri)
         try {
-            response = nextcloudClient.client.newCall(request).execute()
+            response = executeWithRetries(nextcloudClient, request)
         } catch (ex: IOException) {
+            breaker?.onException(ex)
             return UNKNOWN_STATUS_CODE
         }
+        breaker?.onResponse(response?.code ?: UNKNOWN_STATUS_CODE)
+        val finalResponse = response
+        if (redirects != null && finalResponse != null) {
+            recordPermanentRedirects(redirects, finalResponse)
+        }
 
         return if (nextcloudClient.followRedirects) {
             nextcloudClient.followRedirection(this).lastStatus
@@ -161,6 +214,120 @@ abstract class OkHttpMethodBase(
         }
     }
 
+    /**
+     * Sends the request directly to the final location of a known permanent redirection, if any.
+     */
+    private fun applyPermanentRedirects(redirects: PermanentRedirectCache?) {
+        if (redirects == null) {
+            return
+        }
+        redirects.rewrite(uri)?.let { uri = it }
+        for (header in listOf(DESTINATION, DESTINATION.lowercase(Locale.ROOT))) {
+            requestHeaders[header]?.let { destination ->
+                redirects.rewrite(destination)?.let { requestHeaders[header] = it }
+            }
+        }
+    }
+
+    /**
+     * Permanent redirections followed by OkHttp itself are found in the chain of prior responses.
+     */
+    private fun recordPermanentRedirects(redirects: PermanentRedirectCache, response: Response) {
+        var followed: Response = response
+        var prior = response.priorResponse
+        while (prior != null) {
+            if (PermanentRedirectCache.isPermanentRedirection(prior.code)) {
+                redirects.put(prior.request.url.toString(), followed.request.url.toString())
+            }
+            followed = prior
+            prior = prior.priorResponse
+        }
+    }
+
+    /**
+     * Executes the request, repeating it while the retry policy of the client allows.
+     */
+    @Throws(IOException::class)
+    private fun executeWithRetries(nextcloudClient: NextcloudClient, request: Request): Response {
+        val policy = nextcloudClient.retryPolicy
+        val retryable = policy.isRetryableMethod(request.method, idempotent) && request.body?.isOneShot() != true
+        var attempt = 0
+        while (true) {
+            val outcome = try {
+                Outcome(executeLimited(nextcloudClient, request), null)
+            } catch (ex: IOException) {
+                Outcome(null, ex)
+            }
+
+            val delay = when {
+                !retryable || isAborted || InFlightRequests.current()?.isCancelled == true -> RetryPolicy.NO_RETRY
+                outcome.response != null && !policy.isRetryableStatus(outcome.response.code) -> {
+                    policy.onRequestCompleted()
+                    RetryPolicy.NO_RETRY
+                }
+                outcome.error != null && !policy.isRetryableException(outcome.error) -> RetryPolicy.NO_RETRY
+                else -> policy.getRetryDelay(attempt, outcome.response?.header(RetryPolicy.RETRY_AFTER_HEADER))
+            }
+            if (delay == RetryPolicy.NO_RETRY) {
+                return outcome.response ?: throw checkNotNull(outcome.error)
+            }
+
+            outcome.response?.close()
+            attempt++
+            Log_OC.d(this, "Retrying ${request.method} ${request.url} in $delay ms, attempt $attempt")
+            try {
+                Thread.sleep(delay)
+            } catch (ex: InterruptedException) {
+                Thread.currentThread().interrupt()
+                throw InterruptedIOException("Interrupted while waiting to retry")
+            }
+        }
+    }
+
+    private class Outcome(val response: Response?, val error: IOException?)
+
+    /**
+     * Executes the request once a permit of the concurrency limiter of the host is available,
+     * if limiting is enabled.
+     */
+    @Throws(IOException::class)
+    private fun executeLimited(nextcloudClient: NextcloudClient, request: Request): Response {
+        val permit = try {
+            ConcurrencyLimiters.acquire(request.url.host)
+        } catch (ex: InterruptedException) {
+            Thread.currentThread().interrupt()
+            throw InterruptedIOException("Interrupted while waiting for a connection slot")
+        }
+
+        var overloaded = false
+        try {
+            val okHttpClient = if (readTimeoutMillis > 0) {
+                // shares the connection pool and the dispatcher of the client
+                nextcloudClient.client.newBuilder().readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS).build()
+            } else {
+                nextcloudClient.client
+            }
+            val call = okHttpClient.newCall(request)
+            this.call = call
+            if (isAborted) {
+                call.cancel()
+            }
+            InFlightRequests.track(call)
+            val callResponse = call.execute()
+            overloaded = AdaptiveConcurrencyLimiter.isOverload(callResponse.code)
+            return callResponse
+        } catch (ex: InterruptedIOException) {
+            // OkHttp reports timeouts as InterruptedIOException
+            overloaded = true
+            throw ex
+        } catch (ex: ConnectException) {
+            overloaded = true
+            throw ex
+        } finally {
+            permit?.release(overloaded)
+        }
+    }
+
     fun execute(client: PlainClient): Int {
         val temp = requestBuilder.url(buildQueryParameter())
 
@@ -0,0 +1,208 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import com.nextcloud.android.lib.core.ClockImpl
+import org.apache.commons.httpclient.HttpStatus
+
+/**
+ * Permanent (301 and 308) redirections followed by a client, so that later requests are sent to the final
+ * location directly instead of paying an extra round trip, and sending their body twice, every time.
+ *
+ * A redirection is stored by URI prefix only when it moves a path prefix: the original and the redirected URI end
+ * in the same path segments, and what precedes them differs in the path, e.g. a proxy moving "https://a/remote.php" to
+ * "https://b/cloud/remote.php" rewrites every URI under "https://a"; or only the scheme changes, e.g. from http to
+ * https. Any other redirection, e.g. a single resource moved to another host with the same path, or a folder
+ * redirected to the same URI with a trailing slash, only rewrites the very same URI. The cache is bounded in size,
+ * least recently used entries are evicted first, and entries expire after [ttlMillis].
+ *
+ * The [listener] is called synchronously, with the cache locked, and must return quickly.
+ */
+class PermanentRedirectCache @JvmOverloads constructor(
+    val maxEntries: Int = DEFAULT_MAX_ENTRIES,
+    val ttlMillis: Long = DEFAULT_TTL_MILLIS,
+    private val clock: Clock = ClockImpl()
+) {
+    companion object {
+        const val DEFAULT_MAX_ENTRIES = 32
+        const val DEFAULT_TTL_MILLIS = 60 * 60 * 1000L
+
+        /** Not defined in commons-httpclient 3 */
+        const val SC_PERMANENT_REDIRECT = 308
+
+        private const val SCHEME_SEPARATOR = "://"
+        private const val INITIAL_CAPACITY = 16
+        private const val LOAD_FACTOR = 0.75f
+
+        @JvmStatic
+        fun isPermanentRedirection(status: Int): Boolean =
+            status == HttpStatus.SC_MOVED_PERMANENTLY || status == SC_PERMANENT_REDIRECT
+    }
+
+    enum class EvictionReason {
+        EXPIRED,
+        CAPACITY
+    }
+
+    interface Listener {
+        fun onRewrite(originalUri: String, rewrittenUri: String)
+
+        fun onEviction(fromPrefix: String, toPrefix: String, reason: EvictionReason)
+    }
+
+    /**
+     * @param exact only rewrites the URI it was stored for, not the URIs under it
+     */
+    private class Entry(val toPrefix: String, val exact: Boolean, val expiresAt: Long)
+
+    @Volatile
+    var listener: Listener? = null
+
+    private val entries = object : LinkedHashMap<String, Entry>(INITIAL_CAPACITY, LOAD_FACTOR, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<String, Entry>): Boolean {
+            val evict = size > maxEntries
+            if (evict) {
+                listener?.onEviction(eldest.key, eldest.value.toPrefix, EvictionReason.CAPACITY)
+            }
+            return evict
+        }
+    }
+
+    var rewriteCount = 0L
+        @Synchronized get
+        private set
+
+    val size: Int
+        @Synchronized get() = entries.size
+
+    /**
+     * Records a permanent redirection from [fromUri] to [toUri], both absolute.
+     */
+    @Synchronized
+    fun put(fromUri: String, toUri: String) {
+        val expiresAt = clock.currentTimeMillis + ttlMillis
+        val split = findPrefixSplit(fromUri, toUri)
+        val fromPrefix = fromUri.substring(0, split)
+        val toPrefix = toUri.substring(0, toUri.length - (fromUri.length - split))
+        if (split < fromUri.length && isPrefixMove(fromPrefix, toPrefix)) {
+            entries[fromPrefix] = Entry(toPrefix, false, expiresAt)
+        } else if (fromUri != toUri) {
+            entries[fromUri] = Entry(toUri, true, expiresAt)
+        }
+    }
+
+    /**
+     * @return [uri] with the longest known redirected prefix replaced, or null if no redirection applies
+     */
+    @Synchronized
+    fun rewrite(uri: String): String? {
+        val minEnd = getAuthorityEnd(uri)
+        var end = uri.length
+        var rewritten: String? = null
+        while (rewritten == null && end >= minEnd && end > 0) {
+            val prefix = uri.substring(0, end)
+            val entry = entries[prefix]
+            if (entry != null && entry.expiresAt > clock.currentTimeMillis) {
+                if (!entry.exact || end == uri.length) {
+                    rewritten = entry.toPrefix + uri.substring(end)
+                }
+            } else if (entry != null) {
+                entries.remove(prefix)
+                listener?.onEviction(prefix, entry.toPrefix, EvictionReason.EXPIRED)
+            }
+            end = getPreviousBoundary(uri, end)
+        }
+
+        if (rewritten != null) {
+            rewriteCount++
+            listener?.onRewrite(uri, rewritten)
+        }
+        return rewritten
+    }
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    /**
+     * Prefixes only end before a path segment or the query, and always include scheme and authority.
+     */
+    private fun isBoundary(uri: String, index: Int): Boolean =
+        index == uri.length || uri[index] == '/' || uri[index] == '?'
+
+    private fun getPreviousBoundary(uri: String, end: Int): Int {
+        val query = uri.indexOf('?')
+        return if (query in 0 until end) query else uri.lastIndexOf('/', end - 1)
+    }
+
+    private fun getAuthorityEnd(uri: String): Int {
+        val scheme = uri.indexOf(SCHEME_SEPARATOR)
+        val pathStart = if (scheme < 0) -1 else uri.indexOf('/', scheme + SCHEME_SEPARATOR.length)
+        return when {
+            scheme < 0 -> uri.length
+            pathStart < 0 -> uri.length
+            else -> pathStart
+        }
+    }
+
+    /**
+     * A prefix rule is only safe when the redirection moves a path prefix, or only changes the scheme; a host change
+     * keeping the path is as likely to move a single resource. The replaced prefixes never end in a slash, since the
+     * rest of the rewritten URIs starts with one.
+     */
+    private fun isPrefixMove(fromPrefix: String, toPrefix: String): Boolean {
+        if (fromPrefix == toPrefix || toPrefix.endsWith('/') || fromPrefix.endsWith('/')) {
+            return false
+        }
+        val fromPath = fromPrefix.substring(getAuthorityEnd(fromPrefix))
+        val toPath = toPrefix.substring(getAuthorityEnd(toPrefix))
+        return fromPath != toPath || withoutScheme(fromPrefix) == withoutScheme(toPrefix)
+    }
+
+    private fun withoutScheme(uri: String): String = uri.substring(uri.indexOf(SCHEME_SEPARATOR) + 1)
+
+    /**
+     * @return end of the prefix of [fromUri] to replace; everything after it is common to both URIs
+     */
+    private fun findPrefixSplit(fromUri: String, toUri: String): Int {
+        var common = 0
+        while (common < fromUri.length && common < toUri.length &&
+            fromUri[fromUri.length - 1 - common] == toUri[toUri.length - 1 - common]
+        ) {
+            common++
+        }
+
+        var split = maxOf(fromUri.length - common, getAuthorityEnd(fromUri))
+        while (!isBoundary(fromUri, split)) {
+            split++
+        }
+        val toSplit = toUri.length - (fromUri.length - split)
+        return if (toSplit < getAuthorityEnd(toUri) || !isBoundary(toUri, toSplit)) fromUri.length else split
+    }
+}
@@ -29,41 +29,17 @@
 package com.nextcloud.common
 
 import android.content.Context
-import com.owncloud.android.lib.common.OwnCloudClientFactory.DEFAULT_DATA_TIMEOUT_LONG
-import com.owncloud.android.lib.common.network.AdvancedX509TrustManager
-import com.owncloud.android.lib.common.network.NetworkUtils
-import okhttp3.CookieJar
 import okhttp3.OkHttpClient
 import okhttp3.Request
 import java.io.IOException
-import java.util.concurrent.TimeUnit
-import javax.net.ssl.SSLSession
-import javax.net.ssl.TrustManager
 
 class PlainClient(context: Context) {
     var followRedirects = true
-    var client: OkHttpClient = createDefaultClient(context)
+    var client: OkHttpClient = TransportRegistry.newPlainClient(context)
 
     companion object {
         @JvmStatic
         val TAG = PlainClient::class.java.simpleName
-
-        private fun createDefaultClient(context: Context): OkHttpClient {
-            val trustManager = AdvancedX509TrustManager(NetworkUtils.getKnownServersStore(context))
-
-            val sslContext = NetworkUtils.getSSLContext()
-
-            sslContext.init(null, arrayOf<TrustManager>(trustManager), null)
-            val sslSocketFactory = sslContext.socketFactory
-
-            return OkHttpClient.Builder()
-                .cookieJar(CookieJar.NO_COOKIES)
-                .callTimeout(DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
-                .sslSocketFactory(sslSocketFactory, trustManager)
-                .hostnameVerifier { _: String?, _: SSLSession? -> true }
-                .fastFallback(true)
-                .build()
-        }
     }
 
     @Throws(Exception::class)
@@ -0,0 +1,63 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package com.nextcloud.common
+
+/**
+ * Token bucket limiting the share of requests of a client which may be retried.
+ *
+ * Every retry withdraws one token, every request completed without retry deposits [ratio] tokens. When the
+ * server fails most requests the bucket runs empty and failures are reported at once, instead of multiplying
+ * the load on the server by the number of retries. Up to [maxTokens] retries are allowed in a burst.
+ */
+class RetryBudget @JvmOverloads constructor(
+    private val ratio: Double = DEFAULT_RATIO,
+    private val maxTokens: Double = DEFAULT_MAX_TOKENS
+) {
+    companion object {
+        const val DEFAULT_RATIO = 0.1
+        const val DEFAULT_MAX_TOKENS = 10.0
+    }
+
+    private var tokens = maxTokens
+
+    val availableTokens: Double
+        @Synchronized get() = tokens
+
+    @Synchronized
+    fun deposit() {
+        tokens = minOf(maxTokens, tokens + ratio)
+    }
+
+    @Synchronized
+    fun tryWithdraw(): Boolean {
+        if (tokens < 1) {
+            return false
+        }
+        tokens -= 1
+        return true
+    }
+}
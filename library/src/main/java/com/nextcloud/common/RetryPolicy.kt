@@ -0,0 +1,167 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import com.nextcloud.android.lib.core.ClockImpl
+import org.apache.commons.httpclient.HttpMethod
+import org.apache.commons.httpclient.HttpStatus
+import org.apache.commons.httpclient.util.DateParseException
+import org.apache.commons.httpclient.util.DateUtil
+import java.io.IOException
+import java.net.SocketException
+import java.net.SocketTimeoutException
+import java.util.Locale
+import kotlin.math.min
+import kotlin.random.Random
+
+/**
+ * Decides if and when a failed request is sent again, for both OwnCloudClient and NextcloudClient.
+ *
+ * Only idempotent requests are retried: GET, HEAD, OPTIONS and PROPFIND, plus requests explicitly marked as
+ * idempotent, e.g. PUTs of upload chunks, whose repetition on the same URI has the same effect. Retries are
+ * triggered by transient network errors and by the status codes in [isRetryableStatus].
+ *
+ * Attempts are separated by an exponential backoff with jitter, or by the time requested by the server in a
+ * Retry-After header. A server asking to wait longer than [maxDelayMillis] is not retried at all, so the caller
+ * can report e.g. the maintenance mode right away.
+ *
+ * Every client owns a [RetryBudget], which stops retries when most requests fail, so that a server in trouble is
+ * not hammered with retries.
+ */
+open class RetryPolicy @JvmOverloads constructor(
+    val maxRetries: Int = DEFAULT_MAX_RETRIES,
+    val baseDelayMillis: Long = DEFAULT_BASE_DELAY_MILLIS,
+    val maxDelayMillis: Long = DEFAULT_MAX_DELAY_MILLIS,
+    val budget: RetryBudget = RetryBudget(),
+    private val clock: Clock = ClockImpl(),
+    private val random: Random = Random.Default
+) {
+    companion object {
+        const val DEFAULT_MAX_RETRIES = 2
+        const val DEFAULT_BASE_DELAY_MILLIS = 500L
+        const val DEFAULT_MAX_DELAY_MILLIS = 10_000L
+
+        /** Returned by [getRetryDelay] when the request must not be sent again */
+        const val NO_RETRY = -1L
+
+        const val RETRY_AFTER_HEADER = "Retry-After"
+
+        /** Parameter of a legacy [HttpMethod] marking it as safe to be repeated */
+        const val PARAM_IDEMPOTENT = "nc.retry.idempotent"
+
+        private const val HTTP_TOO_MANY_REQUESTS = 429
+        private const val MAX_BACKOFF_SHIFT = 20
+        private const val MILLIS_PER_SECOND = 1000L
+
+        private val IDEMPOTENT_METHODS = setOf("GET", "HEAD", "OPTIONS", "PROPFIND")
+
+        /**
+         * Policy never retrying any request
+         */
+        @JvmStatic
+        fun none(): RetryPolicy = RetryPolicy(maxRetries = 0)
+
+        /**
+         * Marks a legacy method as safe to be repeated, even if its HTTP verb is not idempotent.
+         */
+        @JvmStatic
+        fun markIdempotent(method: HttpMethod) {
+            method.params.setBooleanParameter(PARAM_IDEMPOTENT, true)
+        }
+
+        @JvmStatic
+        fun isMarkedIdempotent(method: HttpMethod): Boolean = method.params.getBooleanParameter(PARAM_IDEMPOTENT, false)
+    }
+
+    open fun isRetryableMethod(method: String, markedIdempotent: Boolean): Boolean =
+        markedIdempotent || method.uppercase(Locale.ROOT) in IDEMPOTENT_METHODS
+
+    open fun isRetryableStatus(status: Int): Boolean =
+        status == HTTP_TOO_MANY_REQUESTS ||
+            status == HttpStatus.SC_BAD_GATEWAY ||
+            status == HttpStatus.SC_SERVICE_UNAVAILABLE ||
+            status == HttpStatus.SC_GATEWAY_TIMEOUT
+
+    /**
+     * Read timeouts and broken connections are worth another try; cancellations and exhausted call timeouts, which
+     * are reported as plain [java.io.InterruptedIOException]s, are not.
+     */
+    open fun isRetryableException(exception: IOException): Boolean =
+        exception is SocketTimeoutException || exception is SocketException
+
+    /**
+     * Computes the wait before the next attempt, consuming one token of the retry budget.
+     *
+     * @param attempt number of retries already made for the request, starting at 0
+     * @param retryAfter value of the Retry-After header of the response, if any
+     * @return milliseconds to wait, or [NO_RETRY] if the request must not be repeated
+     */
+    fun getRetryDelay(attempt: Int, retryAfter: String?): Long {
+        val retryAfterMillis = parseRetryAfter(retryAfter)
+        val delay = when {
+            attempt >= maxRetries -> NO_RETRY
+            retryAfterMillis == null -> getBackoff(attempt)
+            retryAfterMillis > maxDelayMillis -> NO_RETRY
+            else -> retryAfterMillis
+        }
+        return if (delay != NO_RETRY && budget.tryWithdraw()) delay else NO_RETRY
+    }
+
+    /**
+     * Reports a request finished without needing a retry, refilling the retry budget.
+     */
+    fun onRequestCompleted() {
+        budget.deposit()
+    }
+
+    /**
+     * Exponential backoff with "equal jitter": half of the delay is fixed, the other half random, so that clients
+     * failing at the same time do not retry at the same time either.
+     */
+    private fun getBackoff(attempt: Int): Long {
+        val exponential = baseDelayMillis shl min(attempt, MAX_BACKOFF_SHIFT)
+        val delay = min(maxDelayMillis, if (exponential < 0) maxDelayMillis else exponential)
+        val half = delay / 2
+        return half + random.nextLong(half + 1)
+    }
+
+    /**
+     * Retry-After is either a number of seconds or an HTTP date.
+     */
+    private fun parseRetryAfter(retryAfter: String?): Long? {
+        val value = retryAfter?.trim()
+        if (value.isNullOrEmpty()) {
+            return null
+        }
+        return value.toLongOrNull()?.times(MILLIS_PER_SECOND) ?: try {
+            maxOf(0, DateUtil.parseDate(value).time - clock.currentTimeMillis)
+        } catch (e: DateParseException) {
+            null
+        }
+    }
+}
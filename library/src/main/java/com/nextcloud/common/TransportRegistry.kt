@@ -0,0 +1,213 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import android.content.Context
+import com.owncloud.android.lib.common.OwnCloudClientFactory.DEFAULT_CONNECTION_TIMEOUT_LONG
+import com.owncloud.android.lib.common.OwnCloudClientFactory.DEFAULT_DATA_TIMEOUT_LONG
+import com.owncloud.android.lib.common.network.AdvancedX509TrustManager
+import com.owncloud.android.lib.common.network.NetworkUtils
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.ConnectionPool
+import okhttp3.CookieJar
+import okhttp3.Dispatcher
+import okhttp3.EventListener
+import okhttp3.OkHttpClient
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import javax.net.ssl.SSLSession
+import javax.net.ssl.TrustManager
+
+/**
+ * Process-wide OkHttp transport.
+ *
+ * All [NextcloudClient] and [PlainClient] instances derive their [OkHttpClient] from a single root client, so
+ * they share one [ConnectionPool], one [Dispatcher] and one TLS context. Idle sockets and TLS sessions to a server
+ * are therefore reused across accounts instead of being duplicated per client.
+ */
+object TransportRegistry {
+
+    const val DEFAULT_MAX_IDLE_CONNECTIONS = 16
+    const val DEFAULT_KEEP_ALIVE_MILLIS = 5 * 60 * 1000L
+    const val DEFAULT_MAX_REQUESTS = 64
+    const val DEFAULT_MAX_REQUESTS_PER_HOST = 16
+
+    data class Config(
+        val maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS,
+        val keepAliveMillis: Long = DEFAULT_KEEP_ALIVE_MILLIS,
+        val maxRequests: Int = DEFAULT_MAX_REQUESTS,
+        val maxRequestsPerHost: Int = DEFAULT_MAX_REQUESTS_PER_HOST
+    )
+
+    /**
+     * Snapshot of the shared transport.
+     *
+     * @param connectionCount total connections held by the pool
+     * @param idleConnectionCount connections in the pool not carrying any call
+     * @param activeConnectionsPerHost connections currently carrying a call, by host
+     * @param runningCallsPerHost calls currently executed by the dispatcher, by host
+     * @param queuedCallsCount asynchronous calls waiting for a free dispatcher slot
+     */
+    data class PoolStatistics(
+        val connectionCount: Int,
+        val idleConnectionCount: Int,
+        val activeConnectionsPerHost: Map<String, Int>,
+        val runningCallsPerHost: Map<String, Int>,
+        val queuedCallsCount: Int
+    )
+
+    private var config = Config()
+    private var rootClient: OkHttpClient? = null
+    private val activeConnections: ConcurrentHashMap<String, AtomicInteger> = ConcurrentHashMap()
+
+    private val connectionTracker = object : EventListener() {
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            activeConnections.getOrPut(connection.route().address.url.host) { AtomicInteger() }.incrementAndGet()
+        }
+
+        override fun connectionReleased(call: Call, connection: Connection) {
+            activeConnections[connection.route().address.url.host]?.decrementAndGet()
+        }
+    }
+
+    /**
+     * Changes the limits of the shared transport.
+     *
+     * Dispatcher limits apply immediately. Pool size and keep-alive only apply to clients created after this call,
+     * as the pool of already existing clients cannot be resized.
+     */
+    @JvmStatic
+    @Synchronized
+    fun configure(config: Config) {
+        val poolChanged = config.maxIdleConnections != this.config.maxIdleConnections ||
+            config.keepAliveMillis != this.config.keepAliveMillis
+        this.config = config
+
+        val client = rootClient ?: return
+        if (poolChanged) {
+            rootClient = client.newBuilder()
+                .connectionPool(createConnectionPool(config))
+                .build()
+        }
+        applyDispatcherLimits(client.dispatcher, config)
+    }
+
+    @JvmStatic
+    @Synchronized
+    fun getConfig(): Config = config
+
+    /**
+     * Creates a client with the timeouts used by [NextcloudClient], sharing the process-wide transport.
+     */
+    @JvmStatic
+    fun newNextcloudClient(context: Context): OkHttpClient {
+        return getRootClient(context).newBuilder()
+            .connectTimeout(DEFAULT_CONNECTION_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
+            .readTimeout(DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
+            .callTimeout(DEFAULT_CONNECTION_TIMEOUT_LONG + DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
+            .build()
+    }
+
+    /**
+     * Creates a client with the timeouts used by [PlainClient], sharing the process-wide transport.
+     */
+    @JvmStatic
+    fun newPlainClient(context: Context): OkHttpClient {
+        return getRootClient(context).newBuilder()
+            .callTimeout(DEFAULT_DATA_TIMEOUT_LONG, TimeUnit.MILLISECONDS)
+            .build()
+    }
+
+    /**
+     * Live statistics of the shared connection pool and dispatcher.
+     */
+    @JvmStatic
+    @Synchronized
+    fun getPoolStatistics(): PoolStatistics {
+        val client = rootClient
+        val runningCallsPerHost = client?.dispatcher?.runningCalls()
+            ?.groupingBy { it.request().url.host }
+            ?.eachCount()
+            ?: emptyMap()
+
+        return PoolStatistics(
+            connectionCount = client?.connectionPool?.connectionCount() ?: 0,
+            idleConnectionCount = client?.connectionPool?.idleConnectionCount() ?: 0,
+            activeConnectionsPerHost = activeConnections
+                .mapValues { it.value.get() }
+                .filterValues { it > 0 },
+            runningCallsPerHost = runningCallsPerHost,
+            queuedCallsCount = client?.dispatcher?.queuedCallsCount() ?: 0
+        )
+    }
+
+    /**
+     * Closes all idle connections of the shared pool, e.g. after a network change.
+     */
+    @JvmStatic
+    @Synchronized
+    fun evictAll() {
+        rootClient?.connectionPool?.evictAll()
+    }
+
+    @Synchronized
+    private fun getRootClient(context: Context): OkHttpClient {
+        return rootClient ?: createRootClient(context).also { rootClient = it }
+    }
+
+    private fun createRootClient(context: Context): OkHttpClient {
+        val trustManager = AdvancedX509TrustManager(NetworkUtils.getKnownServersStore(context))
+
+        val sslContext = NetworkUtils.getSSLContext()
+
+        sslContext.init(null, arrayOf<TrustManager>(trustManager), null)
+        val sslSocketFactory = sslContext.socketFactory
+
+        val dispatcher = Dispatcher()
+        applyDispatcherLimits(dispatcher, config)
+
+        return OkHttpClient.Builder()
+            .connectionPool(createConnectionPool(config))
+            .dispatcher(dispatcher)
+            .eventListener(connectionTracker)
+            .dns(DNSCache.asDns)
+            .cookieJar(CookieJar.NO_COOKIES)
+            .sslSocketFactory(sslSocketFactory, trustManager)
+            .hostnameVerifier { _: String?, _: SSLSession? -> true }
+            .fastFallback(true)
+            .build()
+    }
+
+    private fun createConnectionPool(config: Config): ConnectionPool =
+        ConnectionPool(config.maxIdleConnections, config.keepAliveMillis, TimeUnit.MILLISECONDS)
+
+    private fun applyDispatcherLimits(dispatcher: Dispatcher, config: Config) {
+        dispatcher.maxRequests = config.maxRequests
+        dispatcher.maxRequestsPerHost = config.maxRequestsPerHost
+    }
+}
@@ -27,28 +27,42 @@ package com.owncloud.android.lib.common;
 
 import android.net.Uri;
 
+import com.nextcloud.common.AdaptiveConcurrencyLimiter;
+import com.nextcloud.common.CircuitBreaker;
+import com.nextcloud.common.CircuitBreakers;
+import com.nextcloud.common.ConcurrencyLimiters;
 import com.nextcloud.common.DNSCache;
 import com.nextcloud.common.NextcloudUriDelegate;
+import com.nextcloud.common.PermanentRedirectCache;
+import com.nextcloud.common.RetryPolicy;
 import com.owncloud.android.lib.common.accounts.AccountUtils;
+import com.owncloud.android.lib.common.network.OwnCloudConnectionManager;
 import com.owncloud.android.lib.common.network.RedirectionPath;
+import com.owncloud.android.lib.common.operations.InFlightRequests;
 import com.owncloud.android.lib.common.utils.Log_OC;
 
+import org.apache.commons.httpclient.ConnectTimeoutException;
 import org.apache.commons.httpclient.Cookie;
+import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.EntityEnclosingMethod;
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HostConfiguration;
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpConnectionManager;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.HttpMethodRetryHandler;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.HttpVersion;
 import org.apache.commons.httpclient.URI;
+import org.apache.commons.httpclient.URIException;
 import org.apache.commons.httpclient.cookie.CookiePolicy;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.httpclient.params.HttpParams;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.ConnectException;
 import java.net.SocketTimeoutException;
 import java.util.Locale;
@@ -61,11 +75,17 @@ public class OwnCloudClient extends HttpClient {
     private static final boolean PARAM_SINGLE_COOKIE_HEADER_VALUE = true;
     private static final String PARAM_PROTOCOL_VERSION = "http.protocol.version";
 
+    /** Retry handler of commons-httpclient never repeating a method; retries are left to the {@link RetryPolicy} */
+    private static final HttpMethodRetryHandler NO_RETRY_HANDLER = new DefaultHttpMethodRetryHandler(0, false);
+
     private static byte[] sExhaustBuffer = new byte[1024];
 
     private static int sInstanceCounter = 0;
     private final NextcloudUriDelegate nextcloudUriDelegate;
     private boolean followRedirects = true;
+    private boolean coalesceRequests = false;
+    private RetryPolicy retryPolicy = new RetryPolicy();
+    private PermanentRedirectCache permanentRedirects = null;
     private OwnCloudCredentials credentials = null;
     private int mInstanceNumber;
 
@@ -140,7 +160,8 @@ public class OwnCloudClient extends HttpClient {
      * <p>
      * Executes the method through the inherited HttpClient.executedMethod(method).
      * <p>
-     * Sets the socket and connection timeouts only for the method received.
+     * Sets the socket and connection timeouts only for the method received; the parameters of the client and of
+     * the shared connection manager are not modified, so the client can run several methods concurrently.
      * <p>
      * The timeouts are both in milliseconds; 0 means 'infinite';
      * < 0 means 'do not change the default'
@@ -150,21 +171,17 @@ public class OwnCloudClient extends HttpClient {
      * @param connectionTimeout Timeout to set for connection establishment
      */
     public int executeMethod(HttpMethodBase method, int readTimeout, int connectionTimeout) throws IOException {
+        if (readTimeout >= 0) {
+            method.getParams().setSoTimeout(readTimeout);
+        }
 
-        int oldSoTimeout = getParams().getSoTimeout();
-        int oldConnectionTimeout = getHttpConnectionManager().getParams().getConnectionTimeout();
+        // connection timeout and SSL handshake timeout are taken from the connection, see OwnCloudConnectionManager
+        OwnCloudConnectionManager.Timeouts previousTimeouts =
+            OwnCloudConnectionManager.setThreadTimeouts(readTimeout, connectionTimeout);
         try {
-            if (readTimeout >= 0) {
-                method.getParams().setSoTimeout(readTimeout);   // this should be enough...
-                getParams().setSoTimeout(readTimeout);          // ... but HTTPS needs this
-            }
-            if (connectionTimeout >= 0) {
-                getHttpConnectionManager().getParams().setConnectionTimeout(connectionTimeout);
-            }
             return executeMethod(method);
         } finally {
-            getParams().setSoTimeout(oldSoTimeout);
-            getHttpConnectionManager().getParams().setConnectionTimeout(oldConnectionTimeout);
+            OwnCloudConnectionManager.restoreThreadTimeouts(previousTimeouts);
         }
     }
 
@@ -178,6 +195,7 @@ public class OwnCloudClient extends HttpClient {
      */
     @Override
     public int executeMethod(HttpMethod method) throws IOException {
+        applyPermanentRedirects(method);
         final String hostname = method.getURI().getHost();
 
         try {
@@ -191,8 +209,9 @@ public class OwnCloudClient extends HttpClient {
 //	        logCookiesAtRequest(method.getRequestHeaders(), "before");
 //	        logCookiesAtState("before");
             method.setFollowRedirects(false);
+            InFlightRequests.track(method);
 
-            int status = super.executeMethod(method);
+            int status = executeRecorded(method);
 
             if (status >= 500 && status < 600 && DNSCache.isIPV6First(hostname)) {
                 return retryMethodWithIPv4(method, hostname);
@@ -220,6 +239,130 @@ public class OwnCloudClient extends HttpClient {
         }
     }
 
+    /**
+     * Executes the method, reporting the final outcome to the circuit breaker of the server, if enabled.
+     */
+    private int executeRecorded(HttpMethod method) throws IOException {
+        CircuitBreaker breaker = CircuitBreakers.forServer(getBaseUri());
+        if (breaker == null) {
+            return executeWithRetries(method);
+        }
+        try {
+            int status = executeWithRetries(method);
+            breaker.onResponse(status);
+            return status;
+        } catch (IOException e) {
+            breaker.onException(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Executes the method, repeating it while the retry policy allows.
+     */
+    private int executeWithRetries(HttpMethod method) throws IOException {
+        // otherwise every attempt would be repeated again underneath, ignoring the retry policy and its budget
+        method.getParams().setParameter(HttpMethodParams.RETRY_HANDLER, NO_RETRY_HANDLER);
+        int attempt = 0;
+        while (true) {
+            long delay;
+            try {
+                int status = executeLimited(method);
+                if (!retryPolicy.isRetryableStatus(status) || !isRetryable(method)) {
+                    retryPolicy.onRequestCompleted();
+                    return status;
+                }
+                Header retryAfter = method.getResponseHeader(RetryPolicy.RETRY_AFTER_HEADER);
+                delay = retryPolicy.getRetryDelay(attempt, retryAfter == null ? null : retryAfter.getValue());
+                if (delay == RetryPolicy.NO_RETRY) {
+                    return status;
+                }
+                exhaustResponse(method.getResponseBodyAsStream());
+                method.releaseConnection();
+
+            } catch (IOException e) {
+                if (!retryPolicy.isRetryableException(e) || !isRetryable(method)) {
+                    throw e;
+                }
+                delay = retryPolicy.getRetryDelay(attempt, null);
+                if (delay == RetryPolicy.NO_RETRY) {
+                    throw e;
+                }
+            }
+
+            attempt++;
+            Log_OC.d(TAG + " #" + mInstanceNumber,
+                     "Retrying " + method.getName() + " " + method.getPath() + " in " + delay + " ms, attempt " +
+                         attempt);
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting to retry");
+            }
+        }
+    }
+
+    private boolean isRetryable(HttpMethod method) {
+        if (method.isAborted() ||
+            !retryPolicy.isRetryableMethod(method.getName(), RetryPolicy.isMarkedIdempotent(method))) {
+            return false;
+        }
+        if (method instanceof EntityEnclosingMethod) {
+            EntityEnclosingMethod entityMethod = (EntityEnclosingMethod) method;
+            return entityMethod.getRequestEntity() == null || entityMethod.getRequestEntity().isRepeatable();
+        }
+        return true;
+    }
+
+    /**
+     * Executes the method once a permit of the concurrency limiter of the host is available, if limiting is enabled.
+     */
+    private int executeLimited(HttpMethod method) throws IOException {
+        AdaptiveConcurrencyLimiter.Permit permit;
+        try {
+            permit = ConcurrencyLimiters.acquire(method.getURI().getHost());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a connection slot");
+        }
+        if (permit == null) {
+            return super.executeMethod(method);
+        }
+
+        boolean overloaded = false;
+        try {
+            int status = super.executeMethod(method);
+            overloaded = AdaptiveConcurrencyLimiter.isOverload(status);
+            return status;
+        } catch (SocketTimeoutException | ConnectException | ConnectTimeoutException e) {
+            overloaded = true;
+            throw e;
+        } finally {
+            permit.release(overloaded);
+        }
+    }
+
+    /**
+     * Sends the method directly to the final location of a known permanent redirection, if any.
+     */
+    private void applyPermanentRedirects(HttpMethod method) throws URIException {
+        if (permanentRedirects == null) {
+            return;
+        }
+        String rewritten = permanentRedirects.rewrite(method.getURI().toString());
+        if (rewritten != null) {
+            method.setURI(new URI(rewritten, true));
+        }
+        Header destination = method.getRequestHeader("Destination");
+        if (destination != null) {
+            String rewrittenDestination = permanentRedirects.rewrite(destination.getValue());
+            if (rewrittenDestination != null) {
+                method.setRequestHeader("Destination", rewrittenDestination);
+            }
+        }
+    }
+
     private int retryMethodWithIPv4(HttpMethod method, String hostname) throws IOException {
         Log_OC.d(TAG, "IPv6 connection failed. Retrying with IPV4");
         DNSCache.setIPVersionPreference(hostname, true);
@@ -234,7 +377,8 @@ public class OwnCloudClient extends HttpClient {
         while (redirectionsCount < MAX_REDIRECTIONS_COUNT &&
                 (status == HttpStatus.SC_MOVED_PERMANENTLY ||
                         status == HttpStatus.SC_MOVED_TEMPORARILY ||
-                        status == HttpStatus.SC_TEMPORARY_REDIRECT)
+                        status == HttpStatus.SC_TEMPORARY_REDIRECT ||
+                        status == PermanentRedirectCache.SC_PERMANENT_REDIRECT)
                 ) {
 
             Header location = method.getResponseHeader("Location");
@@ -253,6 +397,9 @@ public class OwnCloudClient extends HttpClient {
                 exhaustResponse(method.getResponseBodyAsStream());
                 method.releaseConnection();
 
+                if (permanentRedirects != null && PermanentRedirectCache.isPermanentRedirection(status)) {
+                    permanentRedirects.put(method.getURI().toString(), locationStr);
+                }
                 method.setURI(new URI(locationStr, true));
                 Header destination = method.getRequestHeader("Destination");
                 if (destination == null) {
@@ -269,7 +416,7 @@ public class OwnCloudClient extends HttpClient {
                     destination.setValue(redirectedDestination);
                     method.setRequestHeader(destination);
                 }
-                status = super.executeMethod(method);
+                status = executeLimited(method);
                 result.addStatus(status);
                 redirectionsCount++;
 
@@ -447,4 +594,43 @@ public class OwnCloudClient extends HttpClient {
     public void setFollowRedirects(boolean followRedirects) {
         this.followRedirects = followRedirects;
     }
+
+    /**
+     * @return Cache of the permanent redirections followed by this client, or null if disabled.
+     */
+    public PermanentRedirectCache getPermanentRedirects() {
+        return permanentRedirects;
+    }
+
+    /**
+     * Sets the cache of permanent redirections, off by default; null disables it, so every redirection is followed
+     * again.
+     */
+    public void setPermanentRedirects(PermanentRedirectCache permanentRedirects) {
+        this.permanentRedirects = permanentRedirects;
+    }
+
+    public RetryPolicy getRetryPolicy() {
+        return retryPolicy;
+    }
+
+    /**
+     * Replaces the policy deciding which failed requests of this client are repeated; {@link RetryPolicy#none()}
+     * disables retries.
+     */
+    public void setRetryPolicy(RetryPolicy retryPolicy) {
+        this.retryPolicy = retryPolicy;
+    }
+
+    public boolean isCoalesceRequests() {
+        return this.coalesceRequests;
+    }
+
+    /**
+     * Enables sharing the result of identical read operations executed at the same time with this client, see
+     * {@link com.owncloud.android.lib.common.operations.CoalescableOperation}.
+     */
+    public void setCoalesceRequests(boolean coalesceRequests) {
+        this.coalesceRequests = coalesceRequests;
+    }
 }
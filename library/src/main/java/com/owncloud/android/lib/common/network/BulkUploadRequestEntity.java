@@ -0,0 +1,199 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A RequestEntity that represents several files, as the parts of a multipart/related body.
+ * <p>
+ * The content of every file is read from disk while the body is written, so that the files of a batch are never
+ * held in memory together. The length of the body is known in advance.
+ */
+public class BulkUploadRequestEntity implements RequestEntity, ProgressiveDataTransfer {
+
+    private static final String CRLF = "\r\n";
+    private static final String DASHES = "--";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+
+    private final String boundary = "boundary_" + UUID.randomUUID().toString().replace("-", "");
+    private final List<Part> parts = new ArrayList<>();
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+
+    /**
+     * Adds a file as a new part of the body.
+     *
+     * @param file    File to send.
+     * @param headers Headers of the part, sent in the given order; Content-Length is added, headers without a value
+     *                are left out.
+     */
+    public void addPart(File file, Map<String, String> headers) {
+        parts.add(new Part(file, headers));
+    }
+
+    public int getPartCount() {
+        return parts.size();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public String getContentType() {
+        return "multipart/related; boundary=" + boundary;
+    }
+
+    @Override
+    public long getContentLength() {
+        long length = getClosingDelimiter().length;
+        for (Part part : parts) {
+            length += part.getHead(boundary).length + part.length + CRLF.length();
+        }
+        return length;
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.addDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        progressDispatcher.addDataTransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.removeDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        long total = 0;
+        for (Part part : parts) {
+            total += part.length;
+        }
+        final long totalToTransfer = total;
+        final long[] transferred = {0};
+
+        try {
+            for (final Part part : parts) {
+                write(out, part.getHead(boundary));
+                try (RandomAccessFile raf = new RandomAccessFile(part.file, "r")) {
+                    FileChannel channel = raf.getChannel();
+                    // exactly the length announced in the head of the part, even if the file changed meanwhile
+                    long written = FileTransferEngine.transfer(channel, 0, part.length, out, (progressRate, sent) -> {
+                        transferred[0] += progressRate;
+                        progressDispatcher.onTransferProgress(progressRate,
+                                                              transferred[0],
+                                                              totalToTransfer,
+                                                              part.file.getAbsolutePath());
+                    });
+                    if (written < part.length) {
+                        throw new IOException("File shrank while being sent: " + part.file.getAbsolutePath());
+                    }
+                }
+                write(out, CRLF.getBytes(StandardCharsets.US_ASCII));
+            }
+            write(out, getClosingDelimiter());
+
+        } catch (IOException io) {
+            // any read problem will be handled as if the file is not there
+            if (io instanceof FileNotFoundException) {
+                throw io;
+            } else {
+                FileNotFoundException fnf = new FileNotFoundException("Exception reading source file");
+                fnf.initCause(io);
+                throw fnf;
+            }
+
+        } catch (FileRequestEntity.WriteException we) {
+            throw we.getWrapped();
+
+        } finally {
+            progressDispatcher.finish();
+        }
+    }
+
+    private byte[] getClosingDelimiter() {
+        return (DASHES + boundary + DASHES + CRLF).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static void write(OutputStream out, byte[] bytes) throws FileRequestEntity.WriteException {
+        try {
+            out.write(bytes);
+        } catch (IOException io) {
+            // work-around try catch to filter exception in writing
+            throw new FileRequestEntity.WriteException(io);
+        }
+    }
+
+    private static final class Part {
+        private final File file;
+        private final long length;
+        private final Map<String, String> headers;
+
+        private Part(File file, Map<String, String> headers) {
+            this.file = file;
+            this.length = file.length();
+            this.headers = new LinkedHashMap<>(headers);
+        }
+
+        /**
+         * @return Delimiter and headers of the part, up to the empty line before the content.
+         */
+        private byte[] getHead(String boundary) {
+            StringBuilder head = new StringBuilder();
+            head.append(DASHES).append(boundary).append(CRLF);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                if (header.getValue() == null) {
+                    continue;
+                }
+                head.append(header.getKey()).append(": ").append(header.getValue()).append(CRLF);
+            }
+            head.append(CONTENT_LENGTH_HEADER).append(": ").append(length).append(CRLF);
+            head.append(CRLF);
+            // paths may have any character; the server reads the headers of the parts as UTF-8
+            return head.toString().getBytes(StandardCharsets.UTF_8);
+        }
+    }
+}
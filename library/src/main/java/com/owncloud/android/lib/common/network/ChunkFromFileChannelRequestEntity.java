@@ -30,12 +30,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 
 /**
@@ -50,8 +46,9 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
     private final File mFile;
     private long mOffset;
     private long mTransferred;
-    private final Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<>();
-    private ByteBuffer mBuffer = ByteBuffer.allocate(4096);
+    private final ProgressDispatcher mProgressDispatcher = new ProgressDispatcher();
+    private ContentChecksum mInitialChecksum = null;
+    private volatile ContentChecksum mChecksum = null;
 
     public ChunkFromFileChannelRequestEntity(final FileChannel channel, final String contentType, long offset, 
                                              long chunkSize, final File file) {
@@ -86,59 +83,58 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
         return true;
     }
     
+    /**
+     * Sets the checksum of the content of the file before this chunk; the bytes of the chunk are added to a copy of
+     * it while they are sent. Null, the default, computes no checksum.
+     */
+    public void setInitialChecksum(ContentChecksum initialChecksum) {
+        mInitialChecksum = initialChecksum;
+    }
+
+    /**
+     * @return Time the last bytes of the chunk were written to the request, in milliseconds; 0 if none were.
+     */
+    public long getLastProgressTime() {
+        return mProgressDispatcher.getLastProgressTime();
+    }
+
+    /**
+     * @return Checksum of the content of the file up to the end of this chunk, once the chunk was completely sent;
+     * null otherwise.
+     */
+    public ContentChecksum getChecksum() {
+        return mChecksum;
+    }
+
     @Override
     public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.add(listener);
-        }
+        mProgressDispatcher.addDataTransferProgressListener(listener);
     }
     
     @Override
     public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.addAll(listeners);
-        }
+        mProgressDispatcher.addDataTransferProgressListeners(listeners);
     }
     
     @Override
     public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (mDataTransferListeners) {
-            mDataTransferListeners.remove(listener);
-        }
+        mProgressDispatcher.removeDataTransferProgressListener(listener);
     }
 
     public void writeRequest(final OutputStream out) throws IOException {
-        int readCount;
-        Iterator<OnDatatransferProgressListener> progressListenerIterator;
-
         try {
-            mChannel.position(mOffset);
-            long size = mFile.length();
-            if (size == 0) {
-                size = -1;
-            }
-            long maxCount = Math.min(mOffset + length - 1, mChannel.size());
-            while (mChannel.position() < maxCount) {
-                readCount = mChannel.read(mBuffer);
-                try {
-                    out.write(mBuffer.array(), 0, readCount);
-                } catch (IOException io) {
-                    // work-around try catch to filter exception in writing
-                    throw new FileRequestEntity.WriteException(io);
-                }
-                mBuffer.clear();
-                if (mTransferred < maxCount) {  // condition to avoid accumulate progress for repeated chunks
-                    mTransferred += readCount;
-                }
-                synchronized (mDataTransferListeners) {
-                    progressListenerIterator = mDataTransferListeners.iterator();
-
-                    while (progressListenerIterator.hasNext()) {
-                        progressListenerIterator.next().onTransferProgress(readCount, mTransferred, size, 
-                                                                           mFile.getAbsolutePath());
-                    }
-                }
-            }
+            final long size = mFile.length() == 0 ? -1 : mFile.length();
+            // a repeated chunk starts again from the initial checksum
+            ContentChecksum checksum = mInitialChecksum == null ? null : mInitialChecksum.copy();
+            mChecksum = null;
+            FileTransferEngine.ProgressCallback callback = (progressRate, transferred) -> {
+                // a repeated chunk does not accumulate progress
+                mTransferred = Math.max(mTransferred, mOffset + transferred);
+                mProgressDispatcher.onTransferProgress(progressRate, mTransferred, size, mFile.getAbsolutePath());
+            };
+            // exactly the bytes of the chunk, whatever its length
+            FileTransferEngine.transfer(mChannel, mOffset, getContentLength(), out, checksum, callback);
+            mChecksum = checksum;
 
         } catch (IOException io) {
             // any read problem will be handled as if the file is not there
@@ -152,8 +148,10 @@ public class ChunkFromFileChannelRequestEntity implements RequestEntity, Progres
 
         } catch (FileRequestEntity.WriteException we) {
             throw we.getWrapped();
+
+        } finally {
+            mProgressDispatcher.finish();
         }
-            
     }
 
 }
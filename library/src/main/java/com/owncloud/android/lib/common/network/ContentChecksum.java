@@ -0,0 +1,235 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Locale;
+import java.util.zip.Adler32;
+
+/**
+ * Checksum of the content of a file, updated with the bytes of the file while they are sent.
+ * <p>
+ * A checksum can be copied to continue from its current state, so that bytes sent by a request that may fail or be
+ * repeated are only kept once the request succeeded.
+ */
+public abstract class ContentChecksum {
+
+    /** Header carrying the checksum of an upload, as 'algorithm:value' */
+    public static final String OC_CHECKSUM_HEADER = "OC-Checksum";
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    public enum Algorithm {
+        MD5("MD5"),
+        SHA1("SHA1"),
+        ADLER32("Adler32");
+
+        private final String headerName;
+
+        Algorithm(String headerName) {
+            this.headerName = headerName;
+        }
+
+        /**
+         * @return Name of the algorithm in the {@link #OC_CHECKSUM_HEADER} header.
+         */
+        public String getHeaderName() {
+            return headerName;
+        }
+    }
+
+    private final Algorithm algorithm;
+    private long length;
+
+    ContentChecksum(Algorithm algorithm, long length) {
+        this.algorithm = algorithm;
+        this.length = length;
+    }
+
+    public static ContentChecksum create(Algorithm algorithm) {
+        switch (algorithm) {
+            case MD5:
+                return new DigestChecksum(algorithm, "MD5");
+            case SHA1:
+                return new DigestChecksum(algorithm, "SHA-1");
+            case ADLER32:
+            default:
+                return new Adler32Checksum(0x1, 0);
+        }
+    }
+
+    public void update(byte[] bytes, int offset, int count) {
+        updateValue(bytes, offset, count);
+        length += count;
+    }
+
+    abstract void updateValue(byte[] bytes, int offset, int count);
+
+    /**
+     * @return New checksum with the same state as this one, updated independently from now on.
+     */
+    public abstract ContentChecksum copy();
+
+    /**
+     * @return Value of the checksum of the bytes received so far, as lower case hexadecimal string.
+     */
+    public abstract String getValue();
+
+    public Algorithm getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return Number of bytes received so far.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * @return Value for the {@link #OC_CHECKSUM_HEADER} header, e.g. 'SHA1:8843d7f92416211de9ebb963ff4ce28125932878'.
+     */
+    public String getHeaderValue() {
+        return algorithm.getHeaderName() + ":" + getValue();
+    }
+
+    @Override
+    public String toString() {
+        return getHeaderValue();
+    }
+
+    static String toHex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX_DIGITS[(bytes[i] >> 4) & 0xf];
+            hex[2 * i + 1] = HEX_DIGITS[bytes[i] & 0xf];
+        }
+        return new String(hex);
+    }
+
+    private static final class DigestChecksum extends ContentChecksum {
+        private final MessageDigest digest;
+
+        private DigestChecksum(Algorithm algorithm, String digestName) {
+            super(algorithm, 0);
+            try {
+                digest = MessageDigest.getInstance(digestName);
+            } catch (NoSuchAlgorithmException e) {
+                // MD5 and SHA-1 are provided on every platform
+                throw new IllegalStateException(e);
+            }
+        }
+
+        private DigestChecksum(DigestChecksum other) throws CloneNotSupportedException {
+            super(other.getAlgorithm(), other.getLength());
+            digest = (MessageDigest) other.digest.clone();
+        }
+
+        @Override
+        void updateValue(byte[] bytes, int offset, int count) {
+            digest.update(bytes, offset, count);
+        }
+
+        @Override
+        public ContentChecksum copy() {
+            try {
+                return new DigestChecksum(this);
+            } catch (CloneNotSupportedException e) {
+                // digests of the platform providers are cloneable
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public String getValue() {
+            // digesting resets the digest, so a clone is finished instead
+            return toHex(((DigestChecksum) copy()).digest.digest());
+        }
+    }
+
+    /**
+     * {@link Adler32} cannot be started from a given value, so bytes received after a copy are checksummed on their
+     * own and combined with the value at the moment of the copy.
+     */
+    private static final class Adler32Checksum extends ContentChecksum {
+        private static final long BASE = 65521;
+
+        private final long initialValue;
+        private final long initialLength;
+        private final Adler32 adler32 = new Adler32();
+
+        private Adler32Checksum(long initialValue, long initialLength) {
+            super(Algorithm.ADLER32, initialLength);
+            this.initialValue = initialValue;
+            this.initialLength = initialLength;
+        }
+
+        @Override
+        void updateValue(byte[] bytes, int offset, int count) {
+            adler32.update(bytes, offset, count);
+        }
+
+        @Override
+        public ContentChecksum copy() {
+            return new Adler32Checksum(getLongValue(), getLength());
+        }
+
+        @Override
+        public String getValue() {
+            return String.format(Locale.ROOT, "%08x", getLongValue());
+        }
+
+        private long getLongValue() {
+            return combine(initialValue, adler32.getValue(), getLength() - initialLength);
+        }
+
+        /**
+         * Adler-32 of the concatenation of two blocks, from the checksums of both and the length of the second one;
+         * same as adler32_combine() in zlib.
+         */
+        static long combine(long adler1, long adler2, long length2) {
+            long remainder = length2 % BASE;
+            long sum1 = adler1 & 0xffff;
+            long sum2 = (remainder * sum1) % BASE;
+            sum1 += (adler2 & 0xffff) + BASE - 1;
+            sum2 += ((adler1 >> 16) & 0xffff) + ((adler2 >> 16) & 0xffff) + BASE - remainder;
+            if (sum1 >= BASE) {
+                sum1 -= BASE;
+            }
+            if (sum1 >= BASE) {
+                sum1 -= BASE;
+            }
+            if (sum2 >= (BASE << 1)) {
+                sum2 -= (BASE << 1);
+            }
+            if (sum2 >= BASE) {
+                sum2 -= BASE;
+            }
+            return sum1 | (sum2 << 16);
+        }
+    }
+}
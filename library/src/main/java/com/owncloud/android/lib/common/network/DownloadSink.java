@@ -0,0 +1,127 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import androidx.annotation.NonNull;
+import okio.Buffer;
+import okio.ForwardingSink;
+import okio.Sink;
+
+/**
+ * An Okio Sink receiving a download, reporting progress to listeners through a {@link ProgressDispatcher} and
+ * stopping when the transfer is cancelled.
+ * <p>
+ * Segments of the response body are handed over to the target sink as they arrive, with no intermediate copy; a
+ * target slower than the network makes the download wait for it.
+ */
+public class DownloadSink extends ForwardingSink implements ProgressiveDataTransfer {
+
+    private final String name;
+    private final long totalToTransfer;
+    private final AtomicBoolean cancellationRequested;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+    private long transferred;
+
+    /**
+     * @param target                Sink receiving the bytes.
+     * @param name                  Name of the download, reported to the progress listeners.
+     * @param offset                Bytes received before, e.g. by an interrupted download being resumed.
+     * @param totalToTransfer       Expected length of the whole download, or -1 if unknown.
+     * @param cancellationRequested Flag stopping the download with an {@link InterruptedIOException} once set.
+     */
+    public DownloadSink(Sink target,
+                        String name,
+                        long offset,
+                        long totalToTransfer,
+                        AtomicBoolean cancellationRequested) {
+        super(target);
+        this.name = name;
+        this.totalToTransfer = totalToTransfer;
+        this.cancellationRequested = cancellationRequested;
+        transferred = offset;
+    }
+
+    /**
+     * @return Bytes received, including those received before, if any.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    @Override
+    public void write(@NonNull Buffer source, long byteCount) throws IOException {
+        if (cancellationRequested.get()) {
+            throw new InterruptedIOException("Download cancelled");
+        }
+        super.write(source, byteCount);
+        transferred += byteCount;
+        progressDispatcher.onTransferProgress(byteCount, transferred, totalToTransfer, name);
+    }
+
+    /**
+     * Flushes the target, without closing it, and delivers the progress not notified yet; for targets owned by the
+     * caller.
+     */
+    public void finish() throws IOException {
+        try {
+            flush();
+        } finally {
+            progressDispatcher.finish();
+        }
+    }
+
+    /**
+     * Closes the target and delivers the progress not notified yet.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            progressDispatcher.finish();
+        }
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.addDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        progressDispatcher.addDataTransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.removeDataTransferProgressListener(listener);
+    }
+}
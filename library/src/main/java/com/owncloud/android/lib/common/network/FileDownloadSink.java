@@ -0,0 +1,65 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.Okio;
+
+/**
+ * A {@link DownloadSink} writing a download to a file.
+ */
+public class FileDownloadSink extends DownloadSink {
+
+    /**
+     * @param file                  Target file, created or truncated.
+     * @param totalToTransfer       Expected length of the download, or -1 if unknown.
+     * @param cancellationRequested Flag stopping the download with an {@link InterruptedIOException} once set.
+     */
+    public FileDownloadSink(File file, long totalToTransfer, AtomicBoolean cancellationRequested)
+            throws FileNotFoundException {
+        this(file, 0, totalToTransfer, cancellationRequested);
+    }
+
+    /**
+     * @param file                  Target file.
+     * @param offset                Length of the file already downloaded; the download is appended to it. 0 truncates
+     *                              the file.
+     * @param totalToTransfer       Expected length of the whole file, or -1 if unknown.
+     * @param cancellationRequested Flag stopping the download with an {@link InterruptedIOException} once set.
+     */
+    public FileDownloadSink(File file, long offset, long totalToTransfer, AtomicBoolean cancellationRequested)
+            throws FileNotFoundException {
+        super(offset > 0 ? Okio.appendingSink(file) : Okio.sink(file),
+              file.getName(),
+              offset,
+              totalToTransfer,
+              cancellationRequested);
+    }
+}
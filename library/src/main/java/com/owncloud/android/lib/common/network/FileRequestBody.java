@@ -0,0 +1,147 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+
+import androidx.annotation.NonNull;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * An OkHttp RequestBody that represents a File, or a piece of it, the counterpart of {@link FileRequestEntity} and
+ * {@link ChunkFromFileChannelRequestEntity} for {@link com.nextcloud.common.NextcloudClient}.
+ * <p>
+ * Progress is reported as by those entities, as the position in the whole file.
+ */
+public class FileRequestBody extends RequestBody implements ProgressiveDataTransfer {
+
+    private final File file;
+    private final MediaType contentType;
+    private final long offset;
+    private final long length;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+    private ContentChecksum initialChecksum = null;
+    private volatile ContentChecksum checksum = null;
+
+    public FileRequestBody(File file, MediaType contentType) {
+        this(file, contentType, 0, -1);
+    }
+
+    /**
+     * @param offset Position in the file of the first byte to send.
+     * @param length Number of bytes to send, up to the end of the file; -1 to send the file up to its end.
+     */
+    public FileRequestBody(File file, MediaType contentType, long offset, long length) {
+        if (file == null) {
+            throw new IllegalArgumentException("File may not be null");
+        }
+        this.file = file;
+        this.contentType = contentType;
+        this.offset = offset;
+        this.length = length;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+        long remaining = Math.max(0, file.length() - offset);
+        return length < 0 ? remaining : Math.min(length, remaining);
+    }
+
+    /**
+     * Sets the checksum of the content of the file before the piece sent; the bytes sent are added to a copy of it.
+     * Null, the default, computes no checksum.
+     */
+    public void setInitialChecksum(ContentChecksum initialChecksum) {
+        this.initialChecksum = initialChecksum;
+    }
+
+    /**
+     * @return Checksum of the content of the file up to the end of the piece sent, once it was completely sent; null
+     * otherwise.
+     */
+    public ContentChecksum getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return Time the last bytes were written to the request, in milliseconds; 0 if none were.
+     */
+    public long getLastProgressTime() {
+        return progressDispatcher.getLastProgressTime();
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.addDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        progressDispatcher.addDataTransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.removeDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        final long size = file.length() == 0 ? -1 : file.length();
+        // a repeated request starts again from the initial checksum
+        ContentChecksum newChecksum = initialChecksum == null ? null : initialChecksum.copy();
+        checksum = null;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            FileTransferEngine.ProgressCallback callback = (progressRate, transferred) ->
+                    progressDispatcher.onTransferProgress(progressRate,
+                                                          offset + transferred,
+                                                          size,
+                                                          file.getAbsolutePath());
+            SinkOutputStream out = new SinkOutputStream(sink);
+            FileTransferEngine.transfer(channel, offset, contentLength(), out, newChecksum, callback);
+            out.flush();
+            checksum = newChecksum;
+
+        } catch (FileRequestEntity.WriteException we) {
+            throw we.getWrapped();
+
+        } finally {
+            progressDispatcher.finish();
+        }
+    }
+}
@@ -32,12 +32,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.RandomAccessFile;
-import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.Collection;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.Set;
 
 
 
@@ -49,7 +45,9 @@ public class FileRequestEntity implements RequestEntity, ProgressiveDataTransfer
 
     private final File file;
     private final String contentType;
-    private final Set<OnDatatransferProgressListener> dataTransferListeners = new HashSet<>();
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+    private ContentChecksum.Algorithm checksumAlgorithm = null;
+    private volatile ContentChecksum checksum = null;
 
     public FileRequestEntity(final File file, final String contentType) {
         super();
@@ -75,56 +73,49 @@ public class FileRequestEntity implements RequestEntity, ProgressiveDataTransfer
         return true;
     }
 
+    /**
+     * Sets the algorithm of the checksum computed while the file is sent; null, the default, computes none.
+     */
+    public void setChecksumAlgorithm(ContentChecksum.Algorithm checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
+    /**
+     * @return Checksum of the file, once it was completely sent; null otherwise.
+     */
+    public ContentChecksum getChecksum() {
+        return checksum;
+    }
+
     @Override
     public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (dataTransferListeners) {
-            dataTransferListeners.add(listener);
-        }
+        progressDispatcher.addDataTransferProgressListener(listener);
     }
     
     @Override
     public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
-        synchronized (dataTransferListeners) {
-            dataTransferListeners.addAll(listeners);
-        }
+        progressDispatcher.addDataTransferProgressListeners(listeners);
     }
     
     @Override
     public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
-        synchronized (dataTransferListeners) {
-            dataTransferListeners.remove(listener);
-        }
+        progressDispatcher.removeDataTransferProgressListener(listener);
     }
     
     
     @Override
     public void writeRequest(final OutputStream out) throws IOException {
-        ByteBuffer tmp = ByteBuffer.allocate(4096);
-        int readResult;
-
         RandomAccessFile raf = new RandomAccessFile(file, "r");
         FileChannel channel = raf.getChannel();
-        Iterator<OnDatatransferProgressListener> it;
-        long transferred = 0;
-        long size = file.length();
-        if (size == 0) size = -1;
+        final long size = file.length() == 0 ? -1 : file.length();
+        // a repeated request starts a new checksum
+        ContentChecksum newChecksum = checksumAlgorithm == null ? null : ContentChecksum.create(checksumAlgorithm);
+        checksum = null;
         try {
-            while ((readResult = channel.read(tmp)) >= 0) {
-                try {
-                    out.write(tmp.array(), 0, readResult);
-                } catch (IOException io) {
-                    // work-around try catch to filter exception in writing
-                    throw new WriteException(io);
-                }
-                tmp.clear();
-                transferred += readResult;
-                synchronized (dataTransferListeners) {
-                    it = dataTransferListeners.iterator();
-                    while (it.hasNext()) {
-                        it.next().onTransferProgress(readResult, transferred, size, file.getAbsolutePath());
-                    }
-                }
-            }
+            FileTransferEngine.ProgressCallback callback = (progressRate, transferred) ->
+                    progressDispatcher.onTransferProgress(progressRate, transferred, size, file.getAbsolutePath());
+            FileTransferEngine.transfer(channel, 0, channel.size(), out, newChecksum, callback);
+            checksum = newChecksum;
 
         } catch (IOException io) {
             // any read problem will be handled as if the file is not there
@@ -140,6 +131,7 @@ public class FileRequestEntity implements RequestEntity, ProgressiveDataTransfer
             throw we.getWrapped();
 
         } finally {
+            progressDispatcher.finish();
             try {
                 channel.close();
                 raf.close();
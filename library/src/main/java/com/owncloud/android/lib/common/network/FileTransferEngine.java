@@ -0,0 +1,326 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Copies a region of a file, or a stream, to the body of a request, shared by {@link FileRequestEntity},
+ * {@link ChunkFromFileChannelRequestEntity} and {@link StreamRequestEntity}; and the body of a response to a file,
+ * for downloads.
+ * <p>
+ * When the target exposes a {@link WritableByteChannel}, bytes are moved with {@link FileChannel#transferTo}, which
+ * lets the system avoid copying them through the Java heap. Otherwise, and that is the case of sockets wrapped by
+ * TLS or by the HTTP client, bytes are copied through large buffers taken from a pool, so that no buffer is
+ * allocated per request.
+ * <p>
+ * Progress is reported after every buffer or step of {@link FileChannel#transferTo}; callers pass it on to a
+ * {@link ProgressDispatcher}, which limits the rate of notifications.
+ * <p>
+ * A {@link ContentChecksum} can be updated with the bytes while they are sent, so that the content is not read a
+ * second time only to checksum it; such transfers always go through the buffers.
+ */
+public final class FileTransferEngine {
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    public static final int DEFAULT_MAX_POOLED_BUFFERS = 8;
+
+    private static volatile int sBufferSize = DEFAULT_BUFFER_SIZE;
+    private static volatile int sMaxPooledBuffers = DEFAULT_MAX_POOLED_BUFFERS;
+
+    /** Bytes moved by one call of {@link FileChannel#transferTo}, between two reports of progress */
+    private static final long TRANSFER_STEP = 256 * 1024;
+
+    private static final Queue<ByteBuffer> sBufferPool = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Receives the progress of a transfer.
+     */
+    public interface ProgressCallback {
+        /**
+         * @param progressRate     Bytes transferred since the previous call.
+         * @param totalTransferred Bytes transferred since the start of the transfer.
+         */
+        void onProgress(long progressRate, long totalTransferred);
+    }
+
+    private FileTransferEngine() {
+        // utility class
+    }
+
+    /**
+     * Writes a region of a file to a request body.
+     * <p>
+     * The file is read with positional reads, so the position of the channel is not used nor modified.
+     *
+     * @param channel  Channel of the source file.
+     * @param position Position in the file of the first byte to transfer.
+     * @param count    Number of bytes to transfer; fewer are transferred if the file ends before.
+     * @param out      Body of the request.
+     * @param callback Receiver of the progress, may be null.
+     * @return Number of bytes transferred.
+     * @throws IOException                       If the source file could not be read.
+     * @throws FileRequestEntity.WriteException If the request body could not be written.
+     */
+    static long transfer(FileChannel channel, long position, long count, OutputStream out, ProgressCallback callback)
+            throws IOException, FileRequestEntity.WriteException {
+        return transfer(channel, position, count, out, null, callback);
+    }
+
+    /**
+     * Writes a region of a file to a request body, updating a checksum with every byte written.
+     *
+     * @param checksum Checksum to update, may be null.
+     * @see #transfer(FileChannel, long, long, OutputStream, ProgressCallback)
+     */
+    static long transfer(FileChannel channel,
+                         long position,
+                         long count,
+                         OutputStream out,
+                         ContentChecksum checksum,
+                         ProgressCallback callback) throws IOException, FileRequestEntity.WriteException {
+        WritableByteChannel target = checksum == null ? getTargetChannel(out) : null;
+        long transferred;
+        if (target != null) {
+            transferred = transferToChannel(channel, position, count, out, target, callback);
+        } else {
+            transferred = copyThroughBuffer(channel, position, count, out, checksum, callback);
+        }
+        return transferred;
+    }
+
+    /**
+     * Writes the next bytes of a stream to a request body, through the same pooled buffers as files.
+     *
+     * @param in       Source stream, read from its current position.
+     * @param count    Number of bytes to transfer; fewer are transferred if the stream ends before. Negative to
+     *                 transfer up to the end of the stream.
+     * @param out      Body of the request.
+     * @param checksum Checksum to update, may be null.
+     * @param callback Receiver of the progress, may be null.
+     * @return Number of bytes transferred.
+     * @throws IOException                       If the source stream could not be read.
+     * @throws FileRequestEntity.WriteException If the request body could not be written.
+     */
+    static long transfer(InputStream in,
+                         long count,
+                         OutputStream out,
+                         ContentChecksum checksum,
+                         ProgressCallback callback) throws IOException, FileRequestEntity.WriteException {
+        ByteBuffer buffer = acquireBuffer();
+        long transferred = 0;
+        try {
+            while (count < 0 || transferred < count) {
+                int length = count < 0 ? buffer.capacity() : (int) Math.min(buffer.capacity(), count - transferred);
+                int read = in.read(buffer.array(), buffer.arrayOffset(), length);
+                if (read < 0) {
+                    break;
+                }
+                try {
+                    out.write(buffer.array(), buffer.arrayOffset(), read);
+                } catch (IOException io) {
+                    throw new FileRequestEntity.WriteException(io);
+                }
+                if (checksum != null) {
+                    checksum.update(buffer.array(), buffer.arrayOffset(), read);
+                }
+                transferred += read;
+                report(callback, read, transferred);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return transferred;
+    }
+
+    /**
+     * Writes a response body to a file, through the same pooled buffers as uploads.
+     * <p>
+     * The file is written with positional writes, so the position of the channel is not used nor modified.
+     * Cancellation is checked without locking after every buffer; to stop a read blocked on the network, abort the
+     * request too.
+     *
+     * @param in                    Response body, read up to its end.
+     * @param channel               Channel of the target file.
+     * @param position              Position in the file where the first byte is written.
+     * @param cancellationRequested Flag stopping the transfer with an {@link InterruptedIOException} once set; may
+     *                              be null.
+     * @param callback              Receiver of the progress, may be null.
+     * @return Number of bytes written to the file.
+     * @throws IOException If the body could not be read or the file could not be written.
+     */
+    public static long receive(InputStream in,
+                               FileChannel channel,
+                               long position,
+                               AtomicBoolean cancellationRequested,
+                               ProgressCallback callback) throws IOException {
+        ByteBuffer buffer = acquireBuffer();
+        long transferred = 0;
+        try {
+            int read;
+            while ((read = in.read(buffer.array(), buffer.arrayOffset(), buffer.capacity())) >= 0) {
+                if (cancellationRequested != null && cancellationRequested.get()) {
+                    throw new InterruptedIOException("Transfer cancelled");
+                }
+                buffer.clear();
+                buffer.limit(read);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + transferred + buffer.position());
+                }
+                transferred += read;
+                report(callback, read, transferred);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return transferred;
+    }
+
+    private static long transferToChannel(FileChannel channel,
+                                          long position,
+                                          long count,
+                                          OutputStream out,
+                                          WritableByteChannel target,
+                                          ProgressCallback callback) throws FileRequestEntity.WriteException {
+        long transferred = 0;
+        try {
+            out.flush(); // anything buffered in the stream goes before the file
+            long end = Math.min(position + count, channel.size());
+            while (position + transferred < end) {
+                long step = Math.min(end - position - transferred, TRANSFER_STEP);
+                long written = channel.transferTo(position + transferred, step, target);
+                if (written <= 0) {
+                    break;
+                }
+                transferred += written;
+                report(callback, written, transferred);
+            }
+        } catch (IOException e) {
+            // reading and writing fail together in transferTo; failures are much more likely on the network side
+            throw new FileRequestEntity.WriteException(e);
+        }
+        return transferred;
+    }
+
+    private static long copyThroughBuffer(FileChannel channel,
+                                          long position,
+                                          long count,
+                                          OutputStream out,
+                                          ContentChecksum checksum,
+                                          ProgressCallback callback)
+            throws IOException, FileRequestEntity.WriteException {
+        ByteBuffer buffer = acquireBuffer();
+        long transferred = 0;
+        try {
+            while (transferred < count) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), count - transferred));
+                int read = channel.read(buffer, position + transferred);
+                if (read < 0) {
+                    break;
+                }
+                try {
+                    out.write(buffer.array(), buffer.arrayOffset(), read);
+                } catch (IOException io) {
+                    throw new FileRequestEntity.WriteException(io);
+                }
+                if (checksum != null) {
+                    checksum.update(buffer.array(), buffer.arrayOffset(), read);
+                }
+                transferred += read;
+                report(callback, read, transferred);
+            }
+        } finally {
+            releaseBuffer(buffer);
+        }
+        return transferred;
+    }
+
+    private static WritableByteChannel getTargetChannel(OutputStream out) {
+        if (out instanceof WritableByteChannel) {
+            return (WritableByteChannel) out;
+        }
+        if (out instanceof FileOutputStream) {
+            return ((FileOutputStream) out).getChannel();
+        }
+        return null;
+    }
+
+    private static ByteBuffer acquireBuffer() {
+        int size = sBufferSize;
+        ByteBuffer buffer;
+        while ((buffer = sBufferPool.poll()) != null) {
+            if (buffer.capacity() == size) {
+                return buffer;
+            }
+            // left over from a previous buffer size, dropped
+        }
+        return ByteBuffer.allocate(size);
+    }
+
+    private static void releaseBuffer(ByteBuffer buffer) {
+        if (buffer.capacity() == sBufferSize && sBufferPool.size() < sMaxPooledBuffers) {
+            sBufferPool.offer(buffer);
+        }
+    }
+
+    public static int getBufferSize() {
+        return sBufferSize;
+    }
+
+    /**
+     * Sets the size of the buffers used when the target has no channel; buffers of the previous size are released.
+     */
+    public static void setBufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Buffer size must be greater than zero");
+        }
+        sBufferSize = bufferSize;
+    }
+
+    /**
+     * Sets how many idle buffers are kept for later transfers.
+     */
+    public static void setMaxPooledBuffers(int maxPooledBuffers) {
+        sMaxPooledBuffers = Math.max(0, maxPooledBuffers);
+    }
+
+    private static void report(ProgressCallback callback, long progressRate, long totalTransferred) {
+        if (callback != null) {
+            callback.onProgress(progressRate, totalTransferred);
+        }
+    }
+}
@@ -28,7 +28,6 @@ import android.content.Context;
 
 import com.owncloud.android.lib.common.utils.Log_OC;
 
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
 import org.apache.commons.httpclient.protocol.Protocol;
 import org.apache.http.conn.ssl.BrowserCompatHostnameVerifier;
 import org.apache.http.conn.ssl.X509HostnameVerifier;
@@ -68,7 +67,7 @@ public class NetworkUtils {
     /**
      * Connection manager for all the OwnCloudClients
      */
-    private static MultiThreadedHttpConnectionManager mConnManager = null;
+    private static OwnCloudConnectionManager mConnManager = null;
 
     private static Protocol mDefaultHttpsProtocol = null;
 
@@ -198,15 +197,31 @@ public class NetworkUtils {
     }
     
     
-    static public MultiThreadedHttpConnectionManager getMultiThreadedConnManager() {
+    static public synchronized OwnCloudConnectionManager getMultiThreadedConnManager() {
         if (mConnManager == null) {
-            mConnManager = new MultiThreadedHttpConnectionManager();
-            mConnManager.getParams().setDefaultMaxConnectionsPerHost(64);
-            mConnManager.getParams().setMaxTotalConnections(64);
+            mConnManager = new OwnCloudConnectionManager();
+            mConnManager.startIdleConnectionReaper(OwnCloudConnectionManager.DEFAULT_REAPER_INTERVAL,
+                                                   OwnCloudConnectionManager.DEFAULT_IDLE_TIMEOUT);
         }
         return mConnManager;
     }
 
+    /**
+     * Changes the limits of the connection pool shared by all the OwnCloudClients.
+     */
+    public static void setConnectionPoolLimits(int maxConnectionsPerHost, int maxTotalConnections) {
+        OwnCloudConnectionManager connManager = getMultiThreadedConnManager();
+        connManager.setMaxConnectionsPerHost(maxConnectionsPerHost);
+        connManager.setMaxTotalConnections(maxTotalConnections);
+    }
+
+    /**
+     * Changes how often, and after how long of inactivity, idle connections of the shared pool are closed.
+     */
+    public static void setIdleConnectionReaper(long intervalMillis, long idleTimeoutMillis) {
+        getMultiThreadedConnManager().startIdleConnectionReaper(intervalMillis, idleTimeoutMillis);
+    }
+
     public static boolean isCertInKnownServersStore(Certificate cert, Context context) 
     		throws KeyStoreException, NoSuchAlgorithmException, CertificateException, IOException {
     	
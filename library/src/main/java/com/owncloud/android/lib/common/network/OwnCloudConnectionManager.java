@@ -0,0 +1,349 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.ConnectionPoolTimeoutException;
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.params.HttpConnectionParams;
+
+import java.lang.ref.WeakReference;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Connection manager shared by all the OwnCloudClients.
+ * <p>
+ * Timeouts requested for a single method are kept per thread and applied only to the connection handed out to
+ * that thread, so concurrent operations on the same client never overwrite each other's timeouts.
+ * <p>
+ * Pool limits are configurable, idle and stale connections are closed periodically by a background reaper, and
+ * the usage of the pool can be observed through {@link #getStatistics()}.
+ */
+public class OwnCloudConnectionManager extends MultiThreadedHttpConnectionManager {
+
+    private static final String TAG = OwnCloudConnectionManager.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 64;
+    public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 64;
+
+    /** Default period between two runs of the idle connection reaper */
+    public static final long DEFAULT_REAPER_INTERVAL = 30000;
+
+    /** Default time after which an unused connection is closed by the reaper */
+    public static final long DEFAULT_IDLE_TIMEOUT = 60000;
+
+    private static final ThreadLocal<Timeouts> sThreadTimeouts = new ThreadLocal<>();
+
+    private final AtomicLong mCreatedConnections = new AtomicLong();
+    private final AtomicLong mReusedConnections = new AtomicLong();
+    private final AtomicLong mEvictedConnections = new AtomicLong();
+    private final AtomicLong mWaitedForConnections = new AtomicLong();
+    private final AtomicInteger mConnectionsInUse = new AtomicInteger();
+    private final ConcurrentHashMap<String, AtomicInteger> mConnectionsInUsePerHost = new ConcurrentHashMap<>();
+
+    /**
+     * Connections released to the pool, by their parameters, which the connections handed out share with them; the
+     * pool may drop connections at any time, so neither is kept from being collected.
+     */
+    private final Map<HttpConnectionParams, WeakReference<HttpConnection>> mIdleConnections =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    private ScheduledExecutorService mReaperExecutor = null;
+    private ScheduledFuture<?> mReaper = null;
+
+    public OwnCloudConnectionManager() {
+        super();
+        setMaxConnectionsPerHost(DEFAULT_MAX_CONNECTIONS_PER_HOST);
+        setMaxTotalConnections(DEFAULT_MAX_TOTAL_CONNECTIONS);
+    }
+
+    /**
+     * Sets the timeouts to apply to connections obtained by the current thread.
+     * <p>
+     * Timeouts are in milliseconds; 0 means 'infinite'; < 0 means 'do not change the default'.
+     *
+     * @param readTimeout       Timeout to set for data reception
+     * @param connectionTimeout Timeout to set for connection establishment
+     * @return Previous timeouts of the thread, to be passed to {@link #restoreThreadTimeouts(Timeouts)}
+     */
+    public static Timeouts setThreadTimeouts(int readTimeout, int connectionTimeout) {
+        Timeouts previous = sThreadTimeouts.get();
+        sThreadTimeouts.set(new Timeouts(readTimeout, connectionTimeout));
+        return previous;
+    }
+
+    public static void restoreThreadTimeouts(Timeouts previous) {
+        if (previous == null) {
+            sThreadTimeouts.remove();
+        } else {
+            sThreadTimeouts.set(previous);
+        }
+    }
+
+    @Override
+    public HttpConnection getConnectionWithTimeout(HostConfiguration hostConfiguration, long timeout)
+            throws ConnectionPoolTimeoutException {
+        String host = hostConfiguration.getHost();
+        AtomicInteger inUseForHost = getConnectionsInUse(host);
+        if (inUseForHost.get() >= getParams().getMaxConnectionsPerHost(hostConfiguration) ||
+                mConnectionsInUse.get() >= getParams().getMaxTotalConnections()) {
+            mWaitedForConnections.incrementAndGet();
+        }
+
+        HttpConnection connection = super.getConnectionWithTimeout(hostConfiguration, timeout);
+        mIdleConnections.remove(connection.getParams());
+
+        inUseForHost.incrementAndGet();
+        mConnectionsInUse.incrementAndGet();
+        if (connection.isOpen()) {
+            mReusedConnections.incrementAndGet();
+        } else {
+            mCreatedConnections.incrementAndGet();
+        }
+
+        applyThreadTimeouts(connection.getParams());
+        return connection;
+    }
+
+    @Override
+    public void releaseConnection(HttpConnection conn) {
+        AtomicInteger inUseForHost = mConnectionsInUsePerHost.get(conn.getHost());
+        if (inUseForHost != null && inUseForHost.get() > 0) {
+            inUseForHost.decrementAndGet();
+            mConnectionsInUse.decrementAndGet();
+        }
+        // connections release themselves, so this is the pooled connection and not the one handed out
+        mIdleConnections.put(conn.getParams(), new WeakReference<>(conn));
+        super.releaseConnection(conn);
+    }
+
+    public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        getParams().setDefaultMaxConnectionsPerHost(maxConnectionsPerHost);
+    }
+
+    public void setMaxTotalConnections(int maxTotalConnections) {
+        getParams().setMaxTotalConnections(maxTotalConnections);
+    }
+
+    /**
+     * Starts, or restarts with new values, the background task closing idle and stale connections.
+     *
+     * @param intervalMillis    Period between two runs of the reaper
+     * @param idleTimeoutMillis Time after which a connection not used is closed
+     */
+    public synchronized void startIdleConnectionReaper(long intervalMillis, final long idleTimeoutMillis) {
+        stopIdleConnectionReaper();
+        if (mReaperExecutor == null) {
+            mReaperExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, TAG + " reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        mReaper = mReaperExecutor.scheduleWithFixedDelay(() -> reapConnections(idleTimeoutMillis),
+                                                         intervalMillis,
+                                                         intervalMillis,
+                                                         TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void stopIdleConnectionReaper() {
+        if (mReaper != null) {
+            mReaper.cancel(false);
+            mReaper = null;
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than the received time, and removes closed (stale) connections from the
+     * pool.
+     *
+     * @return Number of idle connections found closed, and so removed from the pool; connections created or handed
+     * out meanwhile by other threads are not counted.
+     */
+    public int reapConnections(long idleTimeoutMillis) {
+        closeIdleConnections(idleTimeoutMillis);
+        deleteClosedConnections();
+
+        int evicted = 0;
+        synchronized (mIdleConnections) {
+            Iterator<WeakReference<HttpConnection>> iterator = mIdleConnections.values().iterator();
+            while (iterator.hasNext()) {
+                HttpConnection connection = iterator.next().get();
+                if (connection == null || !connection.isOpen()) {
+                    iterator.remove();
+                    if (connection != null) {
+                        evicted++;
+                    }
+                }
+            }
+        }
+        if (evicted > 0) {
+            mEvictedConnections.addAndGet(evicted);
+            Log_OC.d(TAG, "Evicted " + evicted + " idle or stale connections");
+        }
+        return evicted;
+    }
+
+    @Override
+    public void shutdown() {
+        synchronized (this) {
+            stopIdleConnectionReaper();
+            if (mReaperExecutor != null) {
+                mReaperExecutor.shutdown();
+                mReaperExecutor = null;
+            }
+        }
+        super.shutdown();
+    }
+
+    public Statistics getStatistics() {
+        return new Statistics(mCreatedConnections.get(),
+                              mReusedConnections.get(),
+                              mEvictedConnections.get(),
+                              mWaitedForConnections.get(),
+                              mConnectionsInUse.get(),
+                              getConnectionsInPool());
+    }
+
+    private AtomicInteger getConnectionsInUse(String host) {
+        AtomicInteger counter = mConnectionsInUsePerHost.get(host);
+        if (counter == null) {
+            AtomicInteger newCounter = new AtomicInteger();
+            counter = mConnectionsInUsePerHost.putIfAbsent(host, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Connections are pooled, so values set for a previous owner are always overwritten; a null value falls back to
+     * the defaults of the manager.
+     */
+    private void applyThreadTimeouts(HttpConnectionParams params) {
+        Timeouts timeouts = sThreadTimeouts.get();
+        Integer readTimeout = null;
+        Integer connectionTimeout = null;
+        if (timeouts != null) {
+            if (timeouts.readTimeout >= 0) {
+                readTimeout = timeouts.readTimeout;
+            }
+            if (timeouts.connectionTimeout >= 0) {
+                connectionTimeout = timeouts.connectionTimeout;
+            }
+        }
+        params.setParameter(HttpConnectionParams.SO_TIMEOUT, readTimeout);
+        params.setParameter(HttpConnectionParams.CONNECTION_TIMEOUT, connectionTimeout);
+    }
+
+    public static final class Timeouts {
+        private final int readTimeout;
+        private final int connectionTimeout;
+
+        private Timeouts(int readTimeout, int connectionTimeout) {
+            this.readTimeout = readTimeout;
+            this.connectionTimeout = connectionTimeout;
+        }
+    }
+
+    /**
+     * Snapshot of the counters of the connection pool.
+     */
+    public static final class Statistics {
+        private final long createdConnections;
+        private final long reusedConnections;
+        private final long evictedConnections;
+        private final long waitedForConnections;
+        private final int connectionsInUse;
+        private final int connectionsInPool;
+
+        private Statistics(long createdConnections,
+                           long reusedConnections,
+                           long evictedConnections,
+                           long waitedForConnections,
+                           int connectionsInUse,
+                           int connectionsInPool) {
+            this.createdConnections = createdConnections;
+            this.reusedConnections = reusedConnections;
+            this.evictedConnections = evictedConnections;
+            this.waitedForConnections = waitedForConnections;
+            this.connectionsInUse = connectionsInUse;
+            this.connectionsInPool = connectionsInPool;
+        }
+
+        /** Connections handed out that had to be opened first */
+        public long getCreatedConnections() {
+            return createdConnections;
+        }
+
+        /** Connections handed out that were already open */
+        public long getReusedConnections() {
+            return reusedConnections;
+        }
+
+        /** Idle connections closed by the idle connection reaper, or found stale by it */
+        public long getEvictedConnections() {
+            return evictedConnections;
+        }
+
+        /** Requests for a connection that found the pool exhausted and had to wait */
+        public long getWaitedForConnections() {
+            return waitedForConnections;
+        }
+
+        public int getConnectionsInUse() {
+            return connectionsInUse;
+        }
+
+        public int getConnectionsInPool() {
+            return connectionsInPool;
+        }
+
+        @Override
+        public String toString() {
+            return "created=" + createdConnections +
+                    ", reused=" + reusedConnections +
+                    ", evicted=" + evictedConnections +
+                    ", waited=" + waitedForConnections +
+                    ", inUse=" + connectionsInUse +
+                    ", inPool=" + connectionsInPool;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import androidx.annotation.VisibleForTesting;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers the progress of a transfer to its listeners on a thread of its own, so that slow listeners never hold up
+ * the thread moving the bytes.
+ * <p>
+ * The transfer thread only adds to atomic counters; progress reported meanwhile is coalesced into one notification,
+ * sent once {@link #getIntervalMillis()} milliseconds passed since the previous one, or earlier if the transfer moved
+ * on by {@link #getMinFraction()} of its length, if known. {@link #finish()} delivers whatever is left at the end.
+ * This is the only limit on the rate of progress notifications: transfers report every buffer they move.
+ * <p>
+ * Listeners are kept in a copy-on-write set, so they can be added or removed at any time without waiting for a
+ * notification to end. All the dispatchers share one daemon thread, so the notifications of a transfer arrive in
+ * order.
+ */
+public class ProgressDispatcher implements OnDatatransferProgressListener, ProgressiveDataTransfer {
+
+    private static final String TAG = ProgressDispatcher.class.getSimpleName();
+
+    public static final long DEFAULT_INTERVAL_MILLIS = 250;
+    public static final double DEFAULT_MIN_FRACTION = 0.01;
+
+    private static volatile long sIntervalMillis = DEFAULT_INTERVAL_MILLIS;
+    private static volatile double sMinFraction = DEFAULT_MIN_FRACTION;
+
+    private final Set<OnDatatransferProgressListener> listeners = new CopyOnWriteArraySet<>();
+
+    /** Written by the transfer thread */
+    private final AtomicLong pendingRate = new AtomicLong(0);
+    private volatile long totalTransferred = 0;
+    private volatile long totalToTransfer = -1;
+    private volatile String fileName = null;
+    private volatile long lastProgressTime = 0;
+
+    /** A notification is scheduled at the end of the interval, or sent at once, so later progress joins it */
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicBoolean sentAtOnce = new AtomicBoolean(false);
+    private volatile long lastDispatchTime = 0;
+
+    private final Runnable dispatchTask = () -> {
+        scheduled.set(false);
+        dispatch();
+    };
+    private final Runnable dispatchAtOnceTask = () -> {
+        sentAtOnce.set(false);
+        dispatch();
+    };
+    private final Runnable finishTask = this::dispatch;
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        this.listeners.addAll(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Records progress of the transfer; never blocks.
+     */
+    @Override
+    public void onTransferProgress(long progressRate,
+                                   long totalTransferredSoFar,
+                                   long totalToTransfer,
+                                   String fileAbsoluteName) {
+        this.totalTransferred = totalTransferredSoFar;
+        this.totalToTransfer = totalToTransfer;
+        this.fileName = fileAbsoluteName;
+        lastProgressTime = System.currentTimeMillis();
+        long pending = pendingRate.addAndGet(progressRate);
+
+        if (listeners.isEmpty()) {
+            return;
+        }
+        double minFraction = sMinFraction;
+        if (minFraction > 0 && totalToTransfer > 0 && pending >= totalToTransfer * minFraction) {
+            if (sentAtOnce.compareAndSet(false, true)) {
+                DispatchThread.INSTANCE.execute(dispatchAtOnceTask);
+            }
+        } else if (scheduled.compareAndSet(false, true)) {
+            long delay = Math.max(0, lastDispatchTime + sIntervalMillis - lastProgressTime);
+            DispatchThread.INSTANCE.schedule(dispatchTask, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Delivers the progress not notified yet, at the end of the transfer or of a part of it.
+     */
+    public void finish() {
+        if (pendingRate.get() != 0 && !listeners.isEmpty()) {
+            DispatchThread.INSTANCE.execute(finishTask);
+        }
+    }
+
+    /**
+     * @return Time the last progress was reported by the transfer, in milliseconds; 0 if none was.
+     */
+    public long getLastProgressTime() {
+        return lastProgressTime;
+    }
+
+    private void dispatch() {
+        long rate = pendingRate.get();
+        long transferred = totalTransferred;
+        long total = totalToTransfer;
+        if (rate == 0) {
+            // delivered already by an earlier notification
+            return;
+        }
+        pendingRate.addAndGet(-rate);
+        lastDispatchTime = System.currentTimeMillis();
+        for (OnDatatransferProgressListener listener : listeners) {
+            try {
+                listener.onTransferProgress(rate, transferred, total, fileName);
+            } catch (RuntimeException e) {
+                Log_OC.e(TAG, "Progress listener failed", e);
+            }
+        }
+    }
+
+    public static long getIntervalMillis() {
+        return sIntervalMillis;
+    }
+
+    public static double getMinFraction() {
+        return sMinFraction;
+    }
+
+    /**
+     * Sets the rate of notifications: one once the given number of milliseconds passed since the previous one, or as
+     * soon as the transfer moved on by the given fraction of its length, e.g. 0.01 for 1%, whatever comes first.
+     * Transfers of unknown length, and any transfer with a fraction of 0, are only limited in time.
+     */
+    public static void setRate(long intervalMillis, double minFraction) {
+        sIntervalMillis = Math.max(0, intervalMillis);
+        sMinFraction = Math.max(0, Math.min(1, minFraction));
+    }
+
+    /**
+     * Waits until the notifications requested so far, but not those delayed by the rate limit, were delivered.
+     */
+    @VisibleForTesting
+    public static void awaitDelivered() throws InterruptedException {
+        try {
+            DispatchThread.INSTANCE.submit(() -> { }).get(10, TimeUnit.SECONDS);
+        } catch (ExecutionException | TimeoutException e) {
+            throw new IllegalStateException("Progress notifications not delivered", e);
+        }
+    }
+
+    /**
+     * Thread shared by all the dispatchers, created on first use.
+     */
+    private static final class DispatchThread {
+        private static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            return new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import okio.BufferedSink;
+
+/**
+ * Lets {@link FileTransferEngine} write to an Okio sink, straight into its segments.
+ * <p>
+ * Exposed as a {@link WritableByteChannel}, so that files are moved with
+ * {@link java.nio.channels.FileChannel#transferTo} when no checksum is computed.
+ */
+final class SinkOutputStream extends OutputStream implements WritableByteChannel {
+
+    private final BufferedSink sink;
+
+    SinkOutputStream(BufferedSink sink) {
+        this.sink = sink;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        sink.writeByte(b);
+        sink.emitCompleteSegments();
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        sink.write(b, off, len);
+        sink.emitCompleteSegments();
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        int written = sink.write(src);
+        sink.emitCompleteSegments();
+        return written;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        sink.emit();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return sink.isOpen();
+    }
+
+    /**
+     * The sink belongs to the HTTP client, which closes it.
+     */
+    @Override
+    public void close() {
+        // nothing to close
+    }
+}
@@ -0,0 +1,141 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+
+/**
+ * Reads the content of an {@link InputStreamSupplier} from any position, keeping the stream open between reads.
+ * <p>
+ * Reading on from where the previous read stopped, as consecutive chunks do, reuses the open stream, so the content
+ * is read once; any other position, e.g. to repeat a failed request, opens the content again and skips up to it.
+ */
+public class StreamContentSource implements Closeable {
+
+    private final InputStreamSupplier supplier;
+    private PositionedInputStream stream = null;
+
+    public StreamContentSource(InputStreamSupplier supplier) {
+        if (supplier == null) {
+            throw new IllegalArgumentException("Supplier may not be null");
+        }
+        this.supplier = supplier;
+    }
+
+    /**
+     * @return Stream on the content from the given position; reading it moves the position of the source.
+     */
+    public synchronized InputStream openAt(long position) throws IOException {
+        if (stream == null || stream.position != position) {
+            close();
+            InputStream in = supplier.open();
+            if (in == null) {
+                throw new IOException("Content could not be opened");
+            }
+            stream = new PositionedInputStream(in);
+            while (stream.position < position) {
+                if (stream.skip(position - stream.position) <= 0 && stream.read() < 0) {
+                    close();
+                    throw new EOFException("Content ends before position " + position);
+                }
+            }
+        }
+        return stream;
+    }
+
+    /**
+     * @return True if the content has bytes at the given position; the next byte is read ahead to tell it.
+     */
+    public synchronized boolean hasMoreAt(long position) throws IOException {
+        PositionedInputStream in = (PositionedInputStream) openAt(position);
+        int next = in.read();
+        if (next < 0) {
+            return false;
+        }
+        in.unread(next);
+        return true;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (stream != null) {
+            PositionedInputStream closing = stream;
+            stream = null;
+            closing.close();
+        }
+    }
+
+    /**
+     * Counts the bytes read, and lets one byte be read ahead.
+     */
+    private static final class PositionedInputStream extends FilterInputStream {
+        private long position = 0;
+
+        private PositionedInputStream(InputStream in) {
+            super(new PushbackInputStream(in, 1));
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read >= 0) {
+                position++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int read = super.read(b, off, len);
+            if (read > 0) {
+                position += read;
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            position += skipped;
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void unread(int b) throws IOException {
+            ((PushbackInputStream) in).unread(b);
+            position--;
+        }
+    }
+}
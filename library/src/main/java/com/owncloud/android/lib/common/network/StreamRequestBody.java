@@ -0,0 +1,194 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+
+import androidx.annotation.NonNull;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+
+/**
+ * An OkHttp RequestBody sending content read from a stream, the counterpart of {@link StreamRequestEntity} for
+ * {@link com.nextcloud.common.NextcloudClient}.
+ * <p>
+ * When the length of the content is unknown, the request is sent with chunked transfer encoding.
+ */
+public class StreamRequestBody extends RequestBody implements ProgressiveDataTransfer {
+
+    private final StreamContentSource source;
+    private final boolean ownSource;
+    private final long offset;
+    private final long maxLength;
+    private final long totalLength;
+    private final MediaType contentType;
+    private final String name;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+    private ContentChecksum initialChecksum = null;
+    private volatile ContentChecksum checksum = null;
+    private volatile long transferred = 0;
+
+    /**
+     * Body sending the whole content.
+     *
+     * @see StreamRequestEntity#StreamRequestEntity(InputStreamSupplier, long, String, String)
+     */
+    public StreamRequestBody(InputStreamSupplier supplier, long length, MediaType contentType, String name) {
+        this(new StreamContentSource(supplier), true, 0, -1, length, contentType, name);
+    }
+
+    /**
+     * Body sending a piece of the content.
+     *
+     * @see StreamRequestEntity#StreamRequestEntity(StreamContentSource, long, long, long, String, String)
+     */
+    public StreamRequestBody(StreamContentSource source,
+                             long offset,
+                             long maxLength,
+                             long totalLength,
+                             MediaType contentType,
+                             String name) {
+        this(source, false, offset, maxLength, totalLength, contentType, name);
+    }
+
+    private StreamRequestBody(StreamContentSource source,
+                              boolean ownSource,
+                              long offset,
+                              long maxLength,
+                              long totalLength,
+                              MediaType contentType,
+                              String name) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source may not be null");
+        }
+        this.source = source;
+        this.ownSource = ownSource;
+        this.offset = offset;
+        this.maxLength = maxLength;
+        this.totalLength = totalLength;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    @Override
+    public MediaType contentType() {
+        return contentType;
+    }
+
+    /**
+     * @return Length of the body, or -1 if the length of the content is unknown.
+     */
+    @Override
+    public long contentLength() {
+        if (totalLength < 0) {
+            return -1;
+        }
+        long remaining = Math.max(0, totalLength - offset);
+        return maxLength < 0 ? remaining : Math.min(maxLength, remaining);
+    }
+
+    /**
+     * @see StreamRequestEntity#setInitialChecksum(ContentChecksum)
+     */
+    public void setInitialChecksum(ContentChecksum initialChecksum) {
+        this.initialChecksum = initialChecksum;
+    }
+
+    public ContentChecksum getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return Number of bytes sent by the last request.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return Time the last bytes were written to the request, in milliseconds; 0 if none were.
+     */
+    public long getLastProgressTime() {
+        return progressDispatcher.getLastProgressTime();
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.addDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        progressDispatcher.addDataTransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.removeDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void writeTo(@NonNull BufferedSink sink) throws IOException {
+        // a repeated request starts again from the initial checksum
+        ContentChecksum newChecksum = initialChecksum == null ? null : initialChecksum.copy();
+        checksum = null;
+        transferred = 0;
+        try {
+            InputStream in = source.openAt(offset);
+            FileTransferEngine.ProgressCallback callback = (progressRate, totalTransferred) -> {
+                transferred = totalTransferred;
+                progressDispatcher.onTransferProgress(progressRate, offset + totalTransferred, totalLength, name);
+            };
+            // never more than the length of the body, even if the content grew
+            long expected = contentLength();
+            long count = expected >= 0 ? expected : maxLength;
+            SinkOutputStream out = new SinkOutputStream(sink);
+            long sent = FileTransferEngine.transfer(in, count, out, newChecksum, callback);
+            out.flush();
+            transferred = sent;
+            if (expected >= 0 && sent < expected) {
+                throw new IOException("Content ended after " + (offset + sent) + " bytes of " + totalLength);
+            }
+            checksum = newChecksum;
+
+        } catch (FileRequestEntity.WriteException we) {
+            throw we.getWrapped();
+
+        } finally {
+            progressDispatcher.finish();
+            if (ownSource) {
+                try {
+                    source.close();
+                } catch (IOException io) {
+                    // ignore failures closing source stream
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import org.apache.commons.httpclient.methods.RequestEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+
+/**
+ * A RequestEntity sending content read from a stream, whole or a piece of it, without staging it in a file.
+ * <p>
+ * When the length of the content is unknown, so is the length of the request body, and the request is sent with
+ * chunked transfer encoding.
+ */
+public class StreamRequestEntity implements RequestEntity, ProgressiveDataTransfer {
+
+    private final StreamContentSource source;
+    private final boolean ownSource;
+    private final long offset;
+    private final long maxLength;
+    private final long totalLength;
+    private final String contentType;
+    private final String name;
+    private final ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+    private ContentChecksum initialChecksum = null;
+    private volatile ContentChecksum checksum = null;
+    private volatile long transferred = 0;
+
+    /**
+     * Entity sending the whole content.
+     *
+     * @param supplier    Opens the content, again for every repeated request.
+     * @param length      Length of the content, or -1 if unknown.
+     * @param contentType Type of the content.
+     * @param name        Name of the content, given to the progress listeners.
+     */
+    public StreamRequestEntity(InputStreamSupplier supplier, long length, String contentType, String name) {
+        this(new StreamContentSource(supplier), true, 0, -1, length, contentType, name);
+    }
+
+    /**
+     * Entity sending a piece of the content.
+     *
+     * @param source      Content, shared by the entities of all the pieces.
+     * @param offset      Position of the piece in the content.
+     * @param maxLength   Length of the piece; shorter if the content ends before.
+     * @param totalLength Length of the whole content, or -1 if unknown.
+     * @param contentType Type of the content.
+     * @param name        Name of the content, given to the progress listeners.
+     */
+    public StreamRequestEntity(StreamContentSource source,
+                               long offset,
+                               long maxLength,
+                               long totalLength,
+                               String contentType,
+                               String name) {
+        this(source, false, offset, maxLength, totalLength, contentType, name);
+    }
+
+    private StreamRequestEntity(StreamContentSource source,
+                                boolean ownSource,
+                                long offset,
+                                long maxLength,
+                                long totalLength,
+                                String contentType,
+                                String name) {
+        if (source == null) {
+            throw new IllegalArgumentException("Source may not be null");
+        }
+        this.source = source;
+        this.ownSource = ownSource;
+        this.offset = offset;
+        this.maxLength = maxLength;
+        this.totalLength = totalLength;
+        this.contentType = contentType;
+        this.name = name;
+    }
+
+    /**
+     * @return Length of the body, or -1 if the length of the content is unknown.
+     */
+    @Override
+    public long getContentLength() {
+        if (totalLength < 0) {
+            return -1;
+        }
+        long remaining = Math.max(0, totalLength - offset);
+        return maxLength < 0 ? remaining : Math.min(maxLength, remaining);
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Content is opened again from its supplier to repeat the request.
+     */
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    /**
+     * Sets the checksum of the content before this entity; the bytes sent are added to a copy of it. Null, the
+     * default, computes no checksum.
+     */
+    public void setInitialChecksum(ContentChecksum initialChecksum) {
+        this.initialChecksum = initialChecksum;
+    }
+
+    /**
+     * @return Checksum of the content up to the end of this entity, once it was completely sent; null otherwise.
+     */
+    public ContentChecksum getChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return Number of bytes sent by the last request, which tells the length of a piece of content of unknown
+     * length once the request is done.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return Time the last bytes were written to the request, in milliseconds; 0 if none were.
+     */
+    public long getLastProgressTime() {
+        return progressDispatcher.getLastProgressTime();
+    }
+
+    @Override
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.addDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void addDataTransferProgressListeners(Collection<OnDatatransferProgressListener> listeners) {
+        progressDispatcher.addDataTransferProgressListeners(listeners);
+    }
+
+    @Override
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        progressDispatcher.removeDataTransferProgressListener(listener);
+    }
+
+    @Override
+    public void writeRequest(OutputStream out) throws IOException {
+        // a repeated request starts again from the initial checksum
+        ContentChecksum newChecksum = initialChecksum == null ? null : initialChecksum.copy();
+        checksum = null;
+        transferred = 0;
+        try {
+            InputStream in = source.openAt(offset);
+            FileTransferEngine.ProgressCallback callback = (progressRate, totalTransferred) -> {
+                transferred = totalTransferred;
+                progressDispatcher.onTransferProgress(progressRate, offset + totalTransferred, totalLength, name);
+            };
+            // never more than the length of the body, even if the content grew
+            long expected = getContentLength();
+            long count = expected >= 0 ? expected : maxLength;
+            long sent = FileTransferEngine.transfer(in, count, out, newChecksum, callback);
+            transferred = sent;
+            if (expected >= 0 && sent < expected) {
+                // the length of the body was already sent
+                throw new IOException("Content ended after " + (offset + sent) + " bytes of " + totalLength);
+            }
+            checksum = newChecksum;
+
+        } catch (FileRequestEntity.WriteException we) {
+            throw we.getWrapped();
+
+        } finally {
+            progressDispatcher.finish();
+            if (ownSource) {
+                try {
+                    source.close();
+                } catch (IOException io) {
+                    // ignore failures closing source stream
+                }
+            }
+        }
+    }
+}
@@ -29,6 +29,8 @@ import android.net.Uri;
 
 import androidx.annotation.Nullable;
 
+import com.nextcloud.common.OkHttpMethodBase;
+
 import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpMethod;
 import org.apache.jackrabbit.webdav.property.DavPropertyName;
@@ -207,6 +209,7 @@ public class WebdavUtils {
     public static DavPropertyNameSet getChunksPropSet() {
         DavPropertyNameSet propSet = new DavPropertyNameSet();
         propSet.add(DavPropertyName.GETCONTENTTYPE);
+        propSet.add(DavPropertyName.GETCONTENTLENGTH);
         propSet.add(DavPropertyName.RESOURCETYPE);
 
         return propSet;
@@ -254,4 +257,15 @@ public class WebdavUtils {
         return result;
     }
 
+    /**
+     * @return ETag of the response, preferring OC-ETag, as {@link #getEtagFromResponse(HttpMethod)}; names of
+     * OkHttp headers are case insensitive.
+     */
+    public static String getEtagFromResponse(OkHttpMethodBase method) {
+        String eTag = method.getResponseHeader("OC-ETag");
+        if (eTag == null) {
+            eTag = method.getResponseHeader("ETag");
+        }
+        return eTag == null ? "" : parseEtag(eTag);
+    }
 }
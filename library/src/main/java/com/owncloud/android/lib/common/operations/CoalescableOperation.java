@@ -0,0 +1,47 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.operations;
+
+/**
+ * {@link RemoteOperation} only reading data, whose result can be copied for identical operations executed at the
+ * same time.
+ *
+ * @see RequestCoalescer
+ */
+public interface CoalescableOperation {
+
+    /**
+     * Identifies the requests sent by the operation: HTTP method, path relative to the base URI of the server, and
+     * any parameter or header changing the response. Server and credentials are added by the caller.
+     */
+    String getCoalescingKey();
+
+    /**
+     * Copies the result of the identical operation in flight for a caller waiting for it, including the data, so
+     * that callers never share mutable objects; see {@link RemoteOperationResult#copy()}.
+     */
+    RemoteOperationResult copyResult(RemoteOperationResult result);
+}
@@ -0,0 +1,127 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.operations;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpMethod;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import okhttp3.Call;
+
+/**
+ * Requests in flight on behalf of one asynchronously executed {@link RemoteOperation}.
+ * <p>
+ * Threads running the operation are bound to an instance with {@link #attach(InFlightRequests)}; the HTTP clients
+ * then report every request they send through {@link #track(HttpMethod)} or {@link #track(Call)}. Cancelling the
+ * operation aborts the request each of those threads is currently waiting on, instead of letting it run until
+ * its timeout.
+ */
+public class InFlightRequests {
+
+    private static final String TAG = InFlightRequests.class.getSimpleName();
+
+    private static final ThreadLocal<InFlightRequests> sCurrent = new ThreadLocal<>();
+
+    /** Last request sent by every thread working for the operation; earlier ones are finished already */
+    private final Map<Thread, Object> mRequests = new ConcurrentHashMap<>();
+
+    private volatile boolean mCancelled = false;
+
+    /**
+     * Binds the calling thread to the received requests holder.
+     *
+     * @return Holder bound to the thread before, to be restored with {@link #detach(InFlightRequests)}
+     */
+    public static InFlightRequests attach(InFlightRequests requests) {
+        InFlightRequests previous = sCurrent.get();
+        sCurrent.set(requests);
+        return previous;
+    }
+
+    public static void detach(InFlightRequests previous) {
+        InFlightRequests current = sCurrent.get();
+        if (current != null) {
+            current.mRequests.remove(Thread.currentThread());
+        }
+        if (previous == null) {
+            sCurrent.remove();
+        } else {
+            sCurrent.set(previous);
+        }
+    }
+
+    /**
+     * @return Holder bound to the calling thread, or null if the thread is not running an asynchronous operation.
+     */
+    public static InFlightRequests current() {
+        return sCurrent.get();
+    }
+
+    public static void track(HttpMethod method) {
+        trackRequest(method);
+    }
+
+    public static void track(Call call) {
+        trackRequest(call);
+    }
+
+    private static void trackRequest(Object request) {
+        InFlightRequests requests = sCurrent.get();
+        if (requests != null) {
+            requests.mRequests.put(Thread.currentThread(), request);
+            if (requests.mCancelled) {
+                // cancelled before the request was sent
+                abort(request);
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Aborts all the requests in flight, and any request tracked from now on.
+     */
+    public void cancel() {
+        mCancelled = true;
+        for (Object request : mRequests.values()) {
+            abort(request);
+        }
+    }
+
+    private static void abort(Object request) {
+        Log_OC.d(TAG, "Aborting request in flight");
+        if (request instanceof HttpMethod) {
+            ((HttpMethod) request).abort();
+        } else if (request instanceof Call) {
+            ((Call) request).cancel();
+        }
+    }
+}
@@ -29,10 +29,13 @@ import android.accounts.AccountManager;
 import android.accounts.AccountsException;
 import android.app.Activity;
 import android.content.Context;
+import android.net.Uri;
 import android.os.Handler;
 
 import androidx.annotation.NonNull;
 
+import com.nextcloud.common.CircuitBreaker;
+import com.nextcloud.common.CircuitBreakers;
 import com.nextcloud.common.NextcloudClient;
 import com.nextcloud.common.User;
 import com.owncloud.android.lib.common.OwnCloudAccount;
@@ -43,6 +46,7 @@ import com.owncloud.android.lib.common.OwnCloudCredentials;
 import com.owncloud.android.lib.common.accounts.AccountUtils;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
 import com.owncloud.android.lib.common.utils.Log_OC;
+import com.owncloud.android.lib.resources.status.GetStatusRemoteOperation;
 
 import java.io.IOException;
 
@@ -111,6 +115,86 @@ public abstract class RemoteOperation<T> implements Runnable {
     }
 	
 
+    /**
+     * Fails fast while the circuit breaker of the server is open, probing the server once it was open long enough.
+     */
+    private RemoteOperationResult<T> runGuarded(final OwnCloudClient client) {
+        return runGuarded(client.getBaseUri(),
+                          () -> GetStatusRemoteOperation.isServerAvailable(client),
+                          () -> runCoalescing(client));
+    }
+
+    private RemoteOperationResult<T> runGuarded(final NextcloudClient client) {
+        return runGuarded(client.getBaseUri(),
+                          () -> GetStatusRemoteOperation.isServerAvailable(client),
+                          () -> runCoalescing(client));
+    }
+
+    private RemoteOperationResult<T> runGuarded(Uri baseUri,
+                                                ServerProbe probe,
+                                                RequestCoalescer.Request<RemoteOperationResult<T>> operation) {
+        CircuitBreaker breaker = isGuardedByCircuitBreaker() ? CircuitBreakers.forServer(baseUri) : null;
+        if (breaker != null && !breaker.allowRequest()) {
+            if (breaker.tryStartProbe()) {
+                boolean available = false;
+                try {
+                    available = probe.isServerAvailable();
+                } finally {
+                    breaker.onProbeFinished(available);
+                }
+            }
+            if (!breaker.allowRequest()) {
+                return createCircuitOpenResult(String.valueOf(baseUri));
+            }
+        }
+        return operation.execute();
+    }
+
+    private interface ServerProbe {
+        boolean isServerAvailable();
+    }
+
+    private RemoteOperationResult<T> createCircuitOpenResult(String baseUri) {
+        Log_OC.d(TAG, "Server " + baseUri + " is failing, not running " + getClass().getSimpleName());
+        return new RemoteOperationResult<>(ResultCode.CIRCUIT_BREAKER_OPEN);
+    }
+
+    /**
+     * Operations checking the availability of the server themselves are never failed fast by the circuit breaker.
+     */
+    protected boolean isGuardedByCircuitBreaker() {
+        return true;
+    }
+
+    /**
+     * Runs the operation, sharing the result of an identical operation in flight if the client coalesces requests
+     * and the operation supports it.
+     */
+    private RemoteOperationResult<T> runCoalescing(final OwnCloudClient client) {
+        if (client.isCoalesceRequests() && this instanceof CoalescableOperation) {
+            OwnCloudCredentials credentials = client.getCredentials();
+            String key = getClass().getName() + " " + client.getBaseUri() + " " +
+                    credentials.getUsername() + ":" + credentials.getAuthToken() + " " +
+                    ((CoalescableOperation) this).getCoalescingKey();
+            return RequestCoalescer.getDefault().execute(key, () -> run(client), this::copyCoalescedResult);
+        }
+        return run(client);
+    }
+
+    private RemoteOperationResult<T> runCoalescing(final NextcloudClient client) {
+        if (client.getCoalesceRequests() && this instanceof CoalescableOperation) {
+            String key = getClass().getName() + " " + client.getBaseUri() + " " + client.getCredentials() + " " +
+                    ((CoalescableOperation) this).getCoalescingKey();
+            return RequestCoalescer.getDefault().execute(key, () -> run(client), this::copyCoalescedResult);
+        }
+        return run(client);
+    }
+
+    @SuppressWarnings("unchecked")
+    private RemoteOperationResult<T> copyCoalescedResult(RemoteOperationResult<T> result) {
+        return ((CoalescableOperation) this).copyResult(result);
+    }
+
     /**
      * Synchronously executes the remote operation on the received ownCloud account.
      * 
@@ -141,7 +225,7 @@ public abstract class RemoteOperation<T> implements Runnable {
             Log_OC.e(TAG, "Error while trying to access to " + mAccount.name, e);
             return new RemoteOperationResult<T>(e);
         }
-        return run(mClient);
+        return runGuarded(mClient);
     }
 
     /**
@@ -176,7 +260,7 @@ public abstract class RemoteOperation<T> implements Runnable {
             Log_OC.e(TAG, "Error while trying to access to " + mAccount.name, e);
             return new RemoteOperationResult<T>(e);
         }
-        return run(clientNew);
+        return runGuarded(clientNew);
     }
 
     /**
@@ -202,7 +286,7 @@ public abstract class RemoteOperation<T> implements Runnable {
         }
         mClient = client;
 
-        return run(client);
+        return runGuarded(client);
     }
 
     /**
@@ -217,7 +301,44 @@ public abstract class RemoteOperation<T> implements Runnable {
     public RemoteOperationResult<T> execute(@NonNull NextcloudClient client) {
         clientNew = client;
 
-        return run(client);
+        return runGuarded(client);
+    }
+
+    /**
+     * Asynchronously executes the remote operation on the shared {@link RemoteOperationExecutor}.
+     * <p>
+     * Cancelling the returned future aborts the HTTP request in flight.
+     *
+     * @param client Client object to reach an ownCloud server during the execution of the operation.
+     * @return Future result of the operation.
+     */
+    public RemoteOperationFuture<T> executeAsync(@NonNull OwnCloudClient client) {
+        return executeAsync(client, RemoteOperationExecutor.getDefault());
+    }
+
+    public RemoteOperationFuture<T> executeAsync(@NonNull final OwnCloudClient client,
+                                                 @NonNull RemoteOperationExecutor executor) {
+        return executor.submit(new RemoteOperationFuture<>(() -> {
+            mClient = client;
+            return runGuarded(client);
+        }));
+    }
+
+    /**
+     * Asynchronously executes the remote operation on the shared {@link RemoteOperationExecutor}.
+     * <p>
+     * Cancelling the returned future aborts the HTTP request in flight.
+     *
+     * @param client Client object to reach a Nextcloud server during the execution of the operation.
+     * @return Future result of the operation.
+     */
+    public RemoteOperationFuture<T> executeAsync(@NonNull NextcloudClient client) {
+        return executeAsync(client, RemoteOperationExecutor.getDefault());
+    }
+
+    public RemoteOperationFuture<T> executeAsync(@NonNull final NextcloudClient client,
+                                                 @NonNull RemoteOperationExecutor executor) {
+        return executor.submit(new RemoteOperationFuture<>(() -> execute(client)));
     }
 
     /**
@@ -0,0 +1,125 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.operations;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded executor running the operations started with {@link RemoteOperation#executeAsync}.
+ * <p>
+ * Threads are reused between operations and released when idle; operations exceeding the maximum number of threads
+ * wait in a queue of limited size. When the queue is full, new operations are rejected with a
+ * {@link java.util.concurrent.RejectedExecutionException}.
+ */
+public class RemoteOperationExecutor {
+
+    public static final int DEFAULT_MAX_THREADS = 8;
+    public static final int DEFAULT_MAX_QUEUED_OPERATIONS = 1024;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static RemoteOperationExecutor sDefault = null;
+
+    private final ThreadPoolExecutor mExecutor;
+
+    public RemoteOperationExecutor(int maxThreads, int maxQueuedOperations) {
+        mExecutor = new ThreadPoolExecutor(maxThreads,
+                                           maxThreads,
+                                           KEEP_ALIVE_SECONDS,
+                                           TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<>(maxQueuedOperations),
+                                           new OperationThreadFactory());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Executor shared by default by all the operations.
+     */
+    public static synchronized RemoteOperationExecutor getDefault() {
+        if (sDefault == null) {
+            sDefault = new RemoteOperationExecutor(DEFAULT_MAX_THREADS, DEFAULT_MAX_QUEUED_OPERATIONS);
+        }
+        return sDefault;
+    }
+
+    /**
+     * Replaces the shared executor. Operations already submitted to the previous one are completed.
+     */
+    public static synchronized void setDefault(RemoteOperationExecutor executor) {
+        if (sDefault != null && sDefault != executor) {
+            sDefault.shutdown();
+        }
+        sDefault = executor;
+    }
+
+    <T> RemoteOperationFuture<T> submit(RemoteOperationFuture<T> future) {
+        mExecutor.execute(future);
+        return future;
+    }
+
+    /**
+     * @return Number of operations waiting for a free thread.
+     */
+    public int getQueueDepth() {
+        return mExecutor.getQueue().size();
+    }
+
+    /**
+     * @return Approximate number of operations being executed right now.
+     */
+    public int getActiveTaskCount() {
+        return mExecutor.getActiveCount();
+    }
+
+    /**
+     * @return Approximate number of operations finished since the executor was created.
+     */
+    public long getCompletedTaskCount() {
+        return mExecutor.getCompletedTaskCount();
+    }
+
+    public int getMaxThreads() {
+        return mExecutor.getMaximumPoolSize();
+    }
+
+    public void shutdown() {
+        mExecutor.shutdown();
+    }
+
+    private static final class OperationThreadFactory implements ThreadFactory {
+        private final AtomicInteger mThreadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "RemoteOperation #" + mThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
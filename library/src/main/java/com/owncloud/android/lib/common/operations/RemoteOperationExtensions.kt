@@ -0,0 +1,65 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.owncloud.android.lib.common.operations
+
+import com.nextcloud.common.NextcloudClient
+import com.owncloud.android.lib.common.OwnCloudClient
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executor
+import kotlin.coroutines.suspendCoroutine
+
+private val directExecutor = Executor { it.run() }
+
+/**
+ * Executes the operation on the shared [RemoteOperationExecutor] and suspends until it is finished,
+ * without blocking the calling thread.
+ *
+ * Cancellation of the calling coroutine is not propagated; use [RemoteOperation.executeAsync] and cancel the
+ * returned future to abort the request in flight.
+ */
+suspend fun <T> RemoteOperation<T>.executeSuspending(client: NextcloudClient): RemoteOperationResult<T> =
+    executeAsync(client).await()
+
+/**
+ * See [executeSuspending]
+ */
+suspend fun <T> RemoteOperation<T>.executeSuspending(client: OwnCloudClient): RemoteOperationResult<T> =
+    executeAsync(client).await()
+
+/**
+ * Suspends until the future is finished, and returns its result.
+ *
+ * An exception thrown by the operation is rethrown as is, not wrapped in an [ExecutionException].
+ */
+suspend fun <T> RemoteOperationFuture<T>.await(): RemoteOperationResult<T> = suspendCoroutine { continuation ->
+    addListener(
+        {
+            val result = runCatching { get() }.recoverCatching { throw (it as? ExecutionException)?.cause ?: it }
+            continuation.resumeWith(result)
+        },
+        directExecutor
+    )
+}
@@ -0,0 +1,107 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.operations;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Pending result of a {@link RemoteOperation} executed with {@link RemoteOperation#executeAsync}.
+ * <p>
+ * Cancelling the future with {@link #cancel(boolean)} aborts the HTTP request in flight, if any. Listeners can be
+ * registered to be notified on completion, in the manner of Guava's ListenableFuture.
+ */
+public class RemoteOperationFuture<T> extends FutureTask<RemoteOperationResult<T>> {
+
+    private final InFlightRequests mInFlightRequests = new InFlightRequests();
+
+    private final List<Listener> mListeners = new ArrayList<>();
+    private boolean mDone = false;
+
+    RemoteOperationFuture(Callable<RemoteOperationResult<T>> callable) {
+        super(callable);
+    }
+
+    @Override
+    public void run() {
+        InFlightRequests previous = InFlightRequests.attach(mInFlightRequests);
+        try {
+            super.run();
+        } finally {
+            InFlightRequests.detach(previous);
+        }
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+            mInFlightRequests.cancel();
+        }
+        return cancelled;
+    }
+
+    /**
+     * Registers a listener to be run on the given executor once the operation is finished, failed or cancelled.
+     * <p>
+     * If the operation is already finished, the listener is run immediately.
+     */
+    public void addListener(Runnable listener, Executor executor) {
+        synchronized (mListeners) {
+            if (!mDone) {
+                mListeners.add(new Listener(listener, executor));
+                return;
+            }
+        }
+        executor.execute(listener);
+    }
+
+    @Override
+    protected void done() {
+        List<Listener> listeners;
+        synchronized (mListeners) {
+            mDone = true;
+            listeners = new ArrayList<>(mListeners);
+            mListeners.clear();
+        }
+        for (Listener listener : listeners) {
+            listener.executor.execute(listener.runnable);
+        }
+    }
+
+    private static final class Listener {
+        private final Runnable runnable;
+        private final Executor executor;
+
+        private Listener(Runnable runnable, Executor executor) {
+            this.runnable = runnable;
+            this.executor = executor;
+        }
+    }
+}
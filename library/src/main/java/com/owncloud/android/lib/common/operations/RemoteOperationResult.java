@@ -140,7 +140,8 @@ public class RemoteOperationResult<T extends Object> implements Serializable {
         ETAG_UNCHANGED,
         VIRUS_DETECTED,
         FOLDER_ALREADY_EXISTS,
-        CANNOT_CREATE_FILE
+        CANNOT_CREATE_FILE,
+        CIRCUIT_BREAKER_OPEN
     }
 
     private boolean mSuccess = false;
@@ -152,6 +153,7 @@ public class RemoteOperationResult<T extends Object> implements Serializable {
     private String mRedirectedLocation;
     private ArrayList<String> mAuthenticateHeaders = new ArrayList<>();
     private String mLastPermanentLocation = null;
+    private String mContentChecksum = null;
 
     private ArrayList<Object> mData;
     private T resultData;
@@ -173,6 +175,26 @@ public class RemoteOperationResult<T extends Object> implements Serializable {
         mData = null;
     }
 
+    /**
+     * See {@link #copy()}
+     */
+    private RemoteOperationResult(RemoteOperationResult<T> other) {
+        mSuccess = other.mSuccess;
+        mHttpCode = other.mHttpCode;
+        mHttpPhrase = other.mHttpPhrase;
+        mException = other.mException;
+        mCode = other.mCode;
+        message = other.message;
+        mRedirectedLocation = other.mRedirectedLocation;
+        mAuthenticateHeaders = new ArrayList<>(other.mAuthenticateHeaders);
+        mLastPermanentLocation = other.mLastPermanentLocation;
+        mContentChecksum = other.mContentChecksum;
+        mData = other.mData == null ? null : new ArrayList<>(other.mData);
+        resultData = other.resultData;
+        mNotificationData = other.mNotificationData == null ? null : new ArrayList<>(other.mNotificationData);
+        mPushResponse = other.mPushResponse;
+    }
+
     private RemoteOperationResult(boolean success, int httpCode) {
         mSuccess = success;
         mHttpCode = httpCode;
@@ -471,6 +493,14 @@ public class RemoteOperationResult<T extends Object> implements Serializable {
         }
     }
 
+    /**
+     * Copies the result for another caller of an identical operation. The lists of data are copied, but not the
+     * objects in them, nor the result data.
+     */
+    public RemoteOperationResult<T> copy() {
+        return new RemoteOperationResult<>(this);
+    }
+
     /**
      * @deprecated use setResultData() instead
      */
@@ -745,6 +775,17 @@ public class RemoteOperationResult<T extends Object> implements Serializable {
     public void setLastPermanentLocation(String lastPermanentLocation) {
         mLastPermanentLocation = lastPermanentLocation;
     }
+
+    /**
+     * @return Checksum of the content sent by an upload, as 'algorithm:value', or null if none was computed.
+     */
+    public String getContentChecksum() {
+        return mContentChecksum;
+    }
+
+    public void setContentChecksum(String contentChecksum) {
+        mContentChecksum = contentChecksum;
+    }
     
     public void setMessage(String message) {
         this.message = message;
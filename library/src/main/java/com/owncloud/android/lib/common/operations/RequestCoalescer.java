@@ -0,0 +1,132 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.operations;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Single-flight execution of identical requests.
+ * <p>
+ * While a request for a key is in flight, later requests for the same key wait for it and receive its result, or a
+ * copy of it, instead of being sent to the server again. Nothing is cached once the request is finished.
+ */
+public class RequestCoalescer {
+
+    private static final String TAG = RequestCoalescer.class.getSimpleName();
+
+    private static final RequestCoalescer sDefault = new RequestCoalescer();
+
+    private final ConcurrentHashMap<String, FutureTask<Object>> mInFlight = new ConcurrentHashMap<>();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    public interface Request<R> {
+        R execute();
+    }
+
+    public interface Copier<R> {
+        /**
+         * @return Copy of the result for another caller, sharing no mutable state with it.
+         */
+        R copy(R result);
+    }
+
+    public static RequestCoalescer getDefault() {
+        return sDefault;
+    }
+
+    /**
+     * Executes the request, or waits for an identical request already in flight.
+     *
+     * @param key     Identifies the request, including server and credentials.
+     * @param request Request to execute if none is in flight for the key.
+     * @return Result of the request, shared with all the callers waiting for it.
+     */
+    public <R> R execute(String key, final Request<R> request) {
+        return execute(key, request, null);
+    }
+
+    /**
+     * Executes the request, or waits for an identical request already in flight.
+     *
+     * @param key     Identifies the request, including server and credentials.
+     * @param request Request to execute if none is in flight for the key.
+     * @param copier  Copies the result for every caller waiting for it, or null to share the same result.
+     * @return Result of the request; callers waiting for it receive a copy.
+     */
+    @SuppressWarnings("unchecked")
+    public <R> R execute(String key, final Request<R> request, Copier<R> copier) {
+        FutureTask<Object> task = new FutureTask<>(request::execute);
+        FutureTask<Object> inFlight = mInFlight.putIfAbsent(key, task);
+        boolean waiting = inFlight != null;
+        if (!waiting) {
+            try {
+                task.run();
+            } finally {
+                mInFlight.remove(key, task);
+            }
+            inFlight = task;
+        } else {
+            mCoalescedCount.incrementAndGet();
+            Log_OC.d(TAG, "Waiting for identical request in flight");
+        }
+
+        try {
+            R result = (R) inFlight.get();
+            return waiting && copier != null ? copier.copy(result) : result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        } catch (InterruptedException e) {
+            // stop waiting for the others, but the caller still expects a result
+            Thread.currentThread().interrupt();
+            return request.execute();
+        }
+    }
+
+    /**
+     * @return Number of requests that were not sent because an identical one was in flight.
+     */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * @return Number of distinct requests in flight.
+     */
+    public int getInFlightCount() {
+        return mInFlight.size();
+    }
+}
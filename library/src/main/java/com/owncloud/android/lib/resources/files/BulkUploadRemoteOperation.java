@@ -0,0 +1,335 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.BulkUploadRequestEntity;
+import com.owncloud.android.lib.common.network.ContentChecksum;
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperation;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.utils.Log_OC;
+import com.owncloud.android.lib.resources.status.OCCapability;
+
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remote operation uploading many files, packed into a few multipart requests to the bulk upload endpoint.
+ * <p>
+ * Files are grouped into batches bounded in number of files and bytes; files larger than a whole batch, and all
+ * files when the server does not support bulk uploads, are uploaded one by one with
+ * {@link UploadFileRemoteOperation}.
+ * <p>
+ * The operation succeeds once every file was tried; the result of each file, with its new ETag on success, is
+ * returned by remote path.
+ */
+public class BulkUploadRemoteOperation extends RemoteOperation<Map<String, RemoteOperationResult<String>>> {
+
+    private static final String TAG = BulkUploadRemoteOperation.class.getSimpleName();
+
+    public static final long DEFAULT_MAX_BATCH_SIZE = 10 * 1024 * 1024;
+    public static final int DEFAULT_MAX_BATCH_FILES = 100;
+
+    private static final String BULK_PATH = "/bulk";
+    private static final String X_FILE_PATH_HEADER = "X-File-Path";
+    private static final String X_FILE_MTIME_HEADER = "X-File-Mtime";
+    private static final String X_FILE_MD5_HEADER = "X-File-MD5";
+    private static final String JSON_ERROR = "error";
+    private static final String JSON_ETAG = "etag";
+    private static final String JSON_MESSAGE = "message";
+
+    private static final int MD5_BUFFER_SIZE = 64 * 1024;
+
+    private final List<FileToUpload> files;
+    private final boolean bulkUploadSupported;
+    private long maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+    private int maxBatchFiles = DEFAULT_MAX_BATCH_FILES;
+
+    private final AtomicBoolean cancellationRequested = new AtomicBoolean(false);
+    private PostMethod postMethod = null;
+    private UploadFileRemoteOperation singleUpload = null;
+    private final Set<OnDatatransferProgressListener> dataTransferListeners = new HashSet<>();
+
+    /**
+     * @param files      Files to upload.
+     * @param capability Capabilities of the server, telling if it supports bulk uploads.
+     */
+    public BulkUploadRemoteOperation(List<FileToUpload> files, OCCapability capability) {
+        this.files = new ArrayList<>(files);
+        String bulkUploadVersion = capability == null ? null : capability.getDavBulkUploadVersion();
+        this.bulkUploadSupported = bulkUploadVersion != null && !bulkUploadVersion.isEmpty();
+    }
+
+    @Override
+    protected RemoteOperationResult<Map<String, RemoteOperationResult<String>>> run(OwnCloudClient client) {
+        Map<String, RemoteOperationResult<String>> results = new LinkedHashMap<>();
+
+        List<FileToUpload> batch = new ArrayList<>();
+        long batchSize = 0;
+        for (FileToUpload file : files) {
+            if (cancellationRequested.get()) {
+                break;
+            }
+            long length = new File(file.localPath).length();
+            if (!bulkUploadSupported || length > maxBatchSize) {
+                results.put(file.remotePath, uploadSingleFile(client, file));
+                continue;
+            }
+            if (batch.size() >= maxBatchFiles || batchSize + length > maxBatchSize) {
+                uploadBatch(client, batch, results);
+                batch.clear();
+                batchSize = 0;
+            }
+            batch.add(file);
+            batchSize += length;
+        }
+        if (!batch.isEmpty() && !cancellationRequested.get()) {
+            uploadBatch(client, batch, results);
+        }
+
+        if (cancellationRequested.get()) {
+            return new RemoteOperationResult<>(new OperationCancelledException());
+        }
+        RemoteOperationResult<Map<String, RemoteOperationResult<String>>> result =
+                new RemoteOperationResult<>(RemoteOperationResult.ResultCode.OK);
+        result.setResultData(results);
+        return result;
+    }
+
+    private void uploadBatch(OwnCloudClient client,
+                             List<FileToUpload> batch,
+                             Map<String, RemoteOperationResult<String>> results) {
+        BulkUploadRequestEntity entity = new BulkUploadRequestEntity();
+        List<FileToUpload> sent = new ArrayList<>();
+        for (FileToUpload file : batch) {
+            File localFile = new File(file.localPath);
+            try {
+                // the server checks the content against this header, received before the content
+                Map<String, String> headers = new LinkedHashMap<>();
+                headers.put(X_FILE_PATH_HEADER, file.remotePath);
+                if (file.lastModificationTimestamp != null) {
+                    headers.put(X_FILE_MTIME_HEADER, file.lastModificationTimestamp);
+                }
+                headers.put(X_FILE_MD5_HEADER, md5(localFile));
+                entity.addPart(localFile, headers);
+                sent.add(file);
+            } catch (IOException e) {
+                results.put(file.remotePath, new RemoteOperationResult<>(e));
+            }
+        }
+        if (sent.isEmpty()) {
+            return;
+        }
+        synchronized (dataTransferListeners) {
+            entity.addDataTransferProgressListeners(dataTransferListeners);
+        }
+
+        PostMethod post = new PostMethod(client.getDavUri() + BULK_PATH);
+        post.setRequestEntity(entity);
+        synchronized (cancellationRequested) {
+            postMethod = post;
+            if (cancellationRequested.get()) {
+                post.abort(); // next method will throw an exception
+            }
+        }
+
+        try {
+            int status = client.executeMethod(post);
+            if (status == HttpStatus.SC_NOT_FOUND || status == HttpStatus.SC_METHOD_NOT_ALLOWED ||
+                    status == HttpStatus.SC_NOT_IMPLEMENTED) {
+                // bulk upload disabled on the server despite the capability
+                client.exhaustResponse(post.getResponseBodyAsStream());
+                post.releaseConnection();
+                Log_OC.w(TAG, "Bulk upload not available, HTTP status " + status + "; uploading files one by one");
+                for (FileToUpload file : sent) {
+                    if (!cancellationRequested.get()) {
+                        results.put(file.remotePath, uploadSingleFile(client, file));
+                    }
+                }
+                return;
+            }
+
+            if (status != HttpStatus.SC_OK && status != HttpStatus.SC_CREATED) {
+                for (FileToUpload file : sent) {
+                    results.put(file.remotePath, new RemoteOperationResult<>(false, post));
+                }
+                return;
+            }
+
+            JSONObject fileResults = new JSONObject(post.getResponseBodyAsString());
+            for (FileToUpload file : sent) {
+                results.put(file.remotePath, parseFileResult(fileResults.optJSONObject(file.remotePath)));
+            }
+            Log_OC.d(TAG, "Bulk upload of " + sent.size() + " files, HTTP result status " + status);
+
+        } catch (Exception e) {
+            for (FileToUpload file : sent) {
+                results.put(file.remotePath, new RemoteOperationResult<>(e));
+            }
+        } finally {
+            post.releaseConnection(); // let the connection available for other methods
+        }
+    }
+
+    private RemoteOperationResult<String> parseFileResult(JSONObject fileResult) {
+        RemoteOperationResult<String> result;
+        if (fileResult == null) {
+            result = new RemoteOperationResult<>(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+            result.setMessage("Missing in bulk upload response");
+        } else if (fileResult.optBoolean(JSON_ERROR, true)) {
+            result = new RemoteOperationResult<>(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+            result.setMessage(fileResult.optString(JSON_MESSAGE));
+        } else {
+            result = new RemoteOperationResult<>(RemoteOperationResult.ResultCode.OK);
+            result.setResultData(fileResult.optString(JSON_ETAG).replace("\"", ""));
+        }
+        return result;
+    }
+
+    private RemoteOperationResult<String> uploadSingleFile(OwnCloudClient client, FileToUpload file) {
+        UploadFileRemoteOperation upload = new UploadFileRemoteOperation(file.localPath,
+                                                                         file.remotePath,
+                                                                         file.mimeType,
+                                                                         file.lastModificationTimestamp);
+        synchronized (dataTransferListeners) {
+            for (OnDatatransferProgressListener listener : dataTransferListeners) {
+                upload.addDataTransferProgressListener(listener);
+            }
+        }
+        synchronized (cancellationRequested) {
+            singleUpload = upload;
+            if (cancellationRequested.get()) {
+                upload.cancel(null);
+            }
+        }
+        return upload.execute(client);
+    }
+
+    private static String md5(File file) throws IOException {
+        ContentChecksum md5 = ContentChecksum.create(ContentChecksum.Algorithm.MD5);
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[MD5_BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                md5.update(buffer, 0, read);
+            }
+        }
+        return md5.getValue();
+    }
+
+    public boolean isBulkUploadSupported() {
+        return bulkUploadSupported;
+    }
+
+    public long getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of bytes of the files in a batch; larger files are uploaded alone.
+     */
+    public void setMaxBatchSize(long maxBatchSize) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public int getMaxBatchFiles() {
+        return maxBatchFiles;
+    }
+
+    public void setMaxBatchFiles(int maxBatchFiles) {
+        this.maxBatchFiles = Math.max(1, maxBatchFiles);
+    }
+
+    public void addDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        synchronized (dataTransferListeners) {
+            dataTransferListeners.add(listener);
+        }
+    }
+
+    public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
+        synchronized (dataTransferListeners) {
+            dataTransferListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Stops the upload; files not uploaded yet are not tried.
+     */
+    public void cancel() {
+        synchronized (cancellationRequested) {
+            cancellationRequested.set(true);
+            if (postMethod != null) {
+                postMethod.abort();
+            }
+            if (singleUpload != null) {
+                singleUpload.cancel(null);
+            }
+        }
+    }
+
+    /**
+     * A local file and where to upload it.
+     */
+    public static final class FileToUpload {
+        private final String localPath;
+        private final String remotePath;
+        private final String mimeType;
+        private final String lastModificationTimestamp;
+
+        /**
+         * @param lastModificationTimestamp Modification time of the file, in seconds; null to let the server set it.
+         */
+        public FileToUpload(String localPath, String remotePath, String mimeType, String lastModificationTimestamp) {
+            this.localPath = localPath;
+            this.remotePath = remotePath;
+            this.mimeType = mimeType;
+            this.lastModificationTimestamp = lastModificationTimestamp;
+        }
+
+        public String getLocalPath() {
+            return localPath;
+        }
+
+        public String getRemotePath() {
+            return remotePath;
+        }
+    }
+}
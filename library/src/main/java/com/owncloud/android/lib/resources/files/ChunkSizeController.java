@@ -0,0 +1,138 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+/**
+ * Chooses the length of the next chunk of an upload from the throughput and round trip time measured on the
+ * previous chunks.
+ * <p>
+ * Chunks are sized to take about the target duration to transfer: long enough for the round trip of every PUT to
+ * be negligible, short enough that a chunk lost on a flaky link is cheap to send again. The size changes at most by
+ * a factor of 2 from one chunk to the next and always stays within the configured bounds; a failed chunk halves it.
+ * <p>
+ * A controller with equal minimum and maximum sizes uploads chunks of a fixed size.
+ */
+public class ChunkSizeController {
+
+    public static final long DEFAULT_MIN_CHUNK_SIZE = 256 * 1024;
+    public static final long DEFAULT_MAX_CHUNK_SIZE = 100 * 1024 * 1024;
+
+    /** Time to transfer a chunk aimed at by default, in milliseconds */
+    public static final long DEFAULT_TARGET_CHUNK_DURATION = 10000;
+
+    /** Transferring a chunk should last at least this many round trips, to keep the overhead of requests small */
+    private static final int MIN_ROUND_TRIPS_PER_CHUNK = 10;
+
+    private static final int MAX_STEP_FACTOR = 2;
+
+    /** Weight of the last measure in the moving averages of throughput and round trip time */
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private final long minChunkSize;
+    private final long maxChunkSize;
+    private final long targetChunkDuration;
+
+    private long chunkSize;
+
+    /** Bytes per millisecond; negative until the first chunk is measured */
+    private double throughput = -1;
+
+    /** Milliseconds; negative until the first chunk is measured */
+    private double roundTripTime = -1;
+
+    public ChunkSizeController(long initialChunkSize) {
+        this(initialChunkSize, DEFAULT_MIN_CHUNK_SIZE, DEFAULT_MAX_CHUNK_SIZE, DEFAULT_TARGET_CHUNK_DURATION);
+    }
+
+    public ChunkSizeController(long initialChunkSize,
+                               long minChunkSize,
+                               long maxChunkSize,
+                               long targetChunkDuration) {
+        if (minChunkSize <= 0 || maxChunkSize < minChunkSize) {
+            throw new IllegalArgumentException("Invalid chunk size bounds: " + minChunkSize + " - " + maxChunkSize);
+        }
+        this.minChunkSize = minChunkSize;
+        this.maxChunkSize = maxChunkSize;
+        this.targetChunkDuration = targetChunkDuration;
+        this.chunkSize = clamp(initialChunkSize);
+    }
+
+    /**
+     * @return Length in bytes to use for the next chunk.
+     */
+    public synchronized long getNextChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Adapts the size of the next chunks to the transfer of a chunk.
+     *
+     * @param length         Bytes sent.
+     * @param transferMillis Time spent sending the bytes.
+     * @param responseMillis Time between the last byte sent and the response of the server, taken as round trip
+     *                       time.
+     */
+    public synchronized void onChunkUploaded(long length, long transferMillis, long responseMillis) {
+        if (length <= 0) {
+            return;
+        }
+        throughput = average(throughput, (double) length / Math.max(1, transferMillis));
+        roundTripTime = average(roundTripTime, Math.max(0, responseMillis));
+
+        double duration = Math.max(targetChunkDuration, MIN_ROUND_TRIPS_PER_CHUNK * roundTripTime);
+        long idealSize = (long) (throughput * duration);
+        long nextSize = Math.max(chunkSize / MAX_STEP_FACTOR, Math.min(chunkSize * MAX_STEP_FACTOR, idealSize));
+        chunkSize = clamp(nextSize);
+    }
+
+    public synchronized void onChunkFailed() {
+        chunkSize = clamp(chunkSize / MAX_STEP_FACTOR);
+    }
+
+    public synchronized double getThroughput() {
+        return throughput;
+    }
+
+    public synchronized double getRoundTripTime() {
+        return roundTripTime;
+    }
+
+    public long getMinChunkSize() {
+        return minChunkSize;
+    }
+
+    public long getMaxChunkSize() {
+        return maxChunkSize;
+    }
+
+    private static double average(double current, double sample) {
+        return current < 0 ? sample : SMOOTHING_FACTOR * sample + (1 - SMOOTHING_FACTOR) * current;
+    }
+
+    private long clamp(long size) {
+        return Math.max(minChunkSize, Math.min(maxChunkSize, size));
+    }
+}
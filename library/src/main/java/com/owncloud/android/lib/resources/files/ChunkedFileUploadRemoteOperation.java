@@ -26,21 +26,34 @@ package com.owncloud.android.lib.resources.files;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.nextcloud.common.NextcloudClient;
+import com.nextcloud.common.OkHttpMethodBase;
+import com.nextcloud.common.RetryPolicy;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.network.ChunkFromFileChannelRequestEntity;
-import com.owncloud.android.lib.common.network.ProgressiveDataTransfer;
+import com.owncloud.android.lib.common.network.ContentChecksum;
+import com.owncloud.android.lib.common.network.FileRequestBody;
+import com.owncloud.android.lib.common.network.InputStreamSupplier;
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.network.StreamContentSource;
+import com.owncloud.android.lib.common.network.StreamRequestEntity;
 import com.owncloud.android.lib.common.network.WebdavEntry;
 import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.operations.InFlightRequests;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
 import com.owncloud.android.lib.common.utils.Log_OC;
+import com.owncloud.android.lib.resources.status.OCCapability;
 
 import org.apache.commons.httpclient.DefaultHttpMethodRetryHandler;
+import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.PutMethod;
+import org.apache.commons.httpclient.methods.RequestEntity;
 import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.jackrabbit.webdav.DavConstants;
 import org.apache.jackrabbit.webdav.MultiStatus;
 import org.apache.jackrabbit.webdav.MultiStatusResponse;
+import org.apache.jackrabbit.webdav.client.methods.DeleteMethod;
 import org.apache.jackrabbit.webdav.client.methods.MkColMethod;
 import org.apache.jackrabbit.webdav.client.methods.MoveMethod;
 import org.apache.jackrabbit.webdav.client.methods.PropFindMethod;
@@ -50,17 +63,61 @@ import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
+
+import okhttp3.MediaType;
 
 
 public class ChunkedFileUploadRemoteOperation extends UploadFileRemoteOperation {
 
     public static final long CHUNK_SIZE_MOBILE = 1024000;
     public static final long CHUNK_SIZE_WIFI = 10240000;
+    public static final int DEFAULT_PARALLEL_CHUNKS = 1;
+
+    /** Chunks of chunking v2 may be stored as parts of a multipart upload, limited in size and number */
+    public static final long CHUNK_SIZE_MIN_V2 = 5 * 1024 * 1024;
+    public static final int MAX_CHUNKS_V2 = 10000;
+
+    private static final String DESTINATION_HEADER = "Destination";
+    private static final String OC_TOTAL_LENGTH_HEADER = "OC-Total-Length";
     private static final String TAG = ChunkedFileUploadRemoteOperation.class.getSimpleName();
     private final boolean onWifiConnection;
 
+    /** Maximum number of chunks sent at the same time */
+    private int parallelChunks = DEFAULT_PARALLEL_CHUNKS;
+
+    /** Chooses the size of every chunk; created from the connection type if not set */
+    private ChunkSizeController chunkSizeController = null;
+
+    /** Records the chunks stored by the server, to resume without listing them; none by default */
+    private UploadJournal uploadJournal = null;
+
+    /** Numbered chunks sent with the Destination header, instead of chunks named after their ranges */
+    private boolean chunkingV2 = false;
+
+    /** Maximum size of a chunk and number of parallel chunks accepted by the server; 0 if unknown */
+    private long serverMaxChunkSize = 0;
+    private int serverMaxParallelChunks = 0;
+
+    private ChunkedUploadMetrics metrics = null;
+
+    /** Sends the chunks being uploaded, told to abort them all on cancellation */
+    private volatile ChunkUploader chunkUploader = null;
+
     public final int ASSEMBLE_TIME_MIN = 30 * 1000; // 30s
     public final int ASSEMBLE_TIME_MAX = 30 * 60 * 1000; // 30min
     public final int ASSEMBLE_TIME_PER_GB = 3 * 60 * 1000; // 3 min
@@ -131,13 +188,48 @@ public class ChunkedFileUploadRemoteOperation extends UploadFileRemoteOperation
         this.onWifiConnection = onWifiConnection;
     }
 
+    /**
+     * Uploads content read from a stream, in chunks cut while the content is read, so that it is read once and never
+     * copied to a file.
+     * <p>
+     * Chunks are uploaded one after another, to an upload folder of their own, so an interrupted upload is not
+     * resumed. Chunks of chunking v1 are named after their ranges, so content of unknown length needs chunking v2;
+     * otherwise it is uploaded in a single request with chunked transfer encoding.
+     *
+     * @param contentSupplier Opens the content; called again only to repeat a failed request.
+     * @param contentLength   Length of the content, or -1 if unknown.
+     */
+    public ChunkedFileUploadRemoteOperation(InputStreamSupplier contentSupplier,
+                                            long contentLength,
+                                            String remotePath,
+                                            String mimeType,
+                                            String lastModificationTimestamp,
+                                            boolean onWifiConnection,
+                                            String token,
+                                            Long creationTimestamp,
+                                            boolean disableRetries) {
+        super(contentSupplier,
+                contentLength,
+                remotePath,
+                mimeType,
+                null,
+                lastModificationTimestamp,
+                creationTimestamp,
+                token,
+                disableRetries);
+        this.onWifiConnection = onWifiConnection;
+    }
+
     @Override
     protected RemoteOperationResult run(OwnCloudClient client) {
+        if (contentSupplier != null && contentLength < 0 && !chunkingV2) {
+            Log_OC.d(TAG, "Upload of content of unknown length to " + remotePath + " without chunks");
+            return super.run(client);
+        }
         RemoteOperationResult result;
         DefaultHttpMethodRetryHandler oldRetryHandler = (DefaultHttpMethodRetryHandler) 
                 client.getParams().getParameter(HttpMethodParams.RETRY_HANDLER);
-        File file = new File(localPath);
-        MoveMethod moveMethod = null;
+        File file = contentSupplier == null ? new File(localPath) : null;
         try {
             if (disableRetries) {
                 // prevent that uploads are retried automatically by network library
@@ -145,90 +237,92 @@ public class ChunkedFileUploadRemoteOperation extends UploadFileRemoteOperation
                                                 new DefaultHttpMethodRetryHandler(0, false));
             }
 
+            if (contentSupplier != null) {
+                return uploadStream(client);
+            }
+
             String uploadFolderUri = client.getUploadUri() + "/" + client.getUserId() + "/" + FileUtils.md5Sum(file);
+            String destinationUri = client.getDavUri() + "/files/" + client.getUserId() +
+                    WebdavUtils.encodePath(remotePath);
+            ChunkUploader uploader = new OwnCloudChunkUploader(client, uploadFolderUri, destinationUri);
 
-            // create folder
+            // create folder; with chunking v2, the server is told where the chunks will end up
             MkColMethod createFolder = new MkColMethod(uploadFolderUri);
-
-            client.executeMethod(createFolder, 30000, 5000);
-            
-            // list chunks
-            PropFindMethod listChunks = new PropFindMethod(uploadFolderUri,
-                    WebdavUtils.getChunksPropSet(),
-                                                           DavConstants.DEPTH_1);
-
-            client.executeMethod(listChunks);
-            
-            if (!listChunks.succeeded()) {
-                return new RemoteOperationResult(listChunks.succeeded(), listChunks);
+            if (chunkingV2) {
+                createFolder.addRequestHeader(DESTINATION_HEADER, destinationUri);
             }
-            
-            List<Chunk> chunksOnServer = new ArrayList<>();
-
-            MultiStatus dataInServer = listChunks.getResponseBodyAsMultiStatus();
 
-            WebdavEntry we;
-            for (MultiStatusResponse response : dataInServer.getResponses()) {
-                we = new WebdavEntry(response, client.getUploadUri().getPath());
+            int createFolderStatus = client.executeMethod(createFolder, 30000, 5000);
 
-                if (!".file".equalsIgnoreCase(we.getName()) && !we.isDirectory()) {
-                    String[] part = we.getName().split("-");
-                    chunksOnServer.add(new Chunk(Long.parseLong(part[0]), Long.parseLong(part[1])));
-                }
+            // chunk length, adapted to the measured throughput from the initial size on
+            if (chunkSizeController == null) {
+                chunkSizeController = createChunkSizeController(file.length());
             }
 
-            // chunk length
-            long chunkSize;
-            if (onWifiConnection) {
-                chunkSize = CHUNK_SIZE_WIFI;
+            // check for missing ranges, cut into chunks when each chunk is started
+            List<Chunk> missingRanges;
+            List<Chunk> resentChunks = new ArrayList<>();
+            int firstChunkNumber = 1;
+            if (chunkingV2) {
+                ResumedChunks resumed = new ResumedChunks();
+                if (createFolderStatus != HttpStatus.SC_CREATED) {
+                    RemoteOperationResult resumeResult = resumeNumberedChunks(client, uploadFolderUri, resumed);
+                    if (!resumeResult.isSuccess()) {
+                        return resumeResult;
+                    }
+                }
+                missingRanges = new ArrayList<>();
+                if (resumed.length < file.length() || file.length() == 0) {
+                    missingRanges.add(new Chunk(resumed.length, Math.max(resumed.length, file.length() - 1)));
+                }
+                firstChunkNumber = resumed.count + 1;
             } else {
-                chunkSize = CHUNK_SIZE_MOBILE;
-            }
+                List<Chunk> chunksOnServer = null;
+                if (createFolderStatus == HttpStatus.SC_CREATED) {
+                    // new upload folder, so nothing to resume; anything recorded was for an expired folder
+                    chunksOnServer = new ArrayList<>();
+                    if (uploadJournal != null) {
+                        uploadJournal.remove(uploadFolderUri);
+                    }
+                } else if (createFolderStatus == HttpStatus.SC_METHOD_NOT_ALLOWED && uploadJournal != null) {
+                    // existing upload folder, resumed from the recorded chunks if any
+                    chunksOnServer = getRecordedChunks(uploadFolderUri, resentChunks);
+                }
 
-            // check for missing chunks
-            List<Chunk> missingChunks = checkMissingChunks(chunksOnServer, file.length(), chunkSize);
+                if (chunksOnServer == null) {
+                    // list chunks
+                    PropFindMethod listChunks = new PropFindMethod(uploadFolderUri,
+                                                                   WebdavUtils.getChunksPropSet(),
+                                                                   DavConstants.DEPTH_1);
 
-            // upload chunks
-            for (Chunk missingChunk : missingChunks) {
-                RemoteOperationResult chunkResult = uploadChunk(client, uploadFolderUri, missingChunk);
-                
-                if (!chunkResult.isSuccess()) {
-                    return chunkResult;
-                }
+                    client.executeMethod(listChunks);
 
-                if (cancellationRequested.get()) {
-                    return new RemoteOperationResult(new OperationCancelledException());
-                }
-            }
+                    if (!listChunks.succeeded()) {
+                        return new RemoteOperationResult(listChunks.succeeded(), listChunks);
+                    }
 
-            // assemble
-            String destinationUri = client.getDavUri() + "/files/" + client.getUserId() +
-                    WebdavUtils.encodePath(remotePath);
-            String originUri = uploadFolderUri + "/.file";
+                    chunksOnServer = new ArrayList<>();
 
-            moveMethod = new MoveMethod(originUri, destinationUri, true);
-            moveMethod.addRequestHeader(OC_X_OC_MTIME_HEADER, String.valueOf(file.lastModified() / 1000));
+                    MultiStatus dataInServer = listChunks.getResponseBodyAsMultiStatus();
 
-            if (creationTimestamp != null && creationTimestamp > 0) {
-                moveMethod.addRequestHeader(OC_X_OC_CTIME_HEADER, String.valueOf(creationTimestamp));
-            }
+                    WebdavEntry we;
+                    for (MultiStatusResponse response : dataInServer.getResponses()) {
+                        we = new WebdavEntry(response, client.getUploadUri().getPath());
 
-            if (token != null) {
-                moveMethod.addRequestHeader(E2E_TOKEN, token);
-            }
+                        if (!".file".equalsIgnoreCase(we.getName()) && !we.isDirectory()) {
+                            String[] part = we.getName().split("-");
+                            chunksOnServer.add(new Chunk(Long.parseLong(part[0]), Long.parseLong(part[1])));
+                        }
+                    }
+                }
 
-            final int DO_NOT_CHANGE_DEFAULT = -1;
-            int moveResult = client.executeMethod(moveMethod, calculateAssembleTimeout(file), DO_NOT_CHANGE_DEFAULT);
+                missingRanges = getMissingRanges(chunksOnServer, resentChunks, file.length());
+            }
 
-            result = new RemoteOperationResult(isSuccess(moveResult), moveMethod);
+            result = uploadAndAssemble(uploader, uploadFolderUri, resentChunks, missingRanges, firstChunkNumber, file);
         } catch (Exception e) {
-            if (putMethod != null && putMethod.isAborted()) {
-                if (cancellationRequested.get() && cancellationReason != null) {
-                    result = new RemoteOperationResult(cancellationReason);
-                } else {
-                    result = new RemoteOperationResult(new OperationCancelledException());
-                }
-            } else if (moveMethod != null && moveMethod.isAborted()) {
+            // requests of chunks aborted on cancellation fail with an exception
+            if (cancellationRequested.get()) {
                 if (cancellationRequested.get() && cancellationReason != null) {
                     result = new RemoteOperationResult(cancellationReason);
                 } else {
@@ -246,13 +340,340 @@ public class ChunkedFileUploadRemoteOperation extends UploadFileRemoteOperation
         return result;
     }
 
+    /**
+     * Uploads the file in chunks with OkHttp, as {@link #run(OwnCloudClient)} does.
+     * <p>
+     * The upload folder is not listed on this client: an interrupted upload is resumed from the {@link UploadJournal}
+     * if it recorded the chunks, and restarted in an emptied folder otherwise. Content read from a stream is sent in a
+     * single request.
+     */
+    @Override
+    public RemoteOperationResult run(NextcloudClient client) {
+        if (contentSupplier != null) {
+            return super.run(client);
+        }
+        RemoteOperationResult result;
+        File file = new File(localPath);
+        try {
+            final String uploadFolderUri = client.getUploadUri() + "/" + client.getUserIdEncoded() + "/" +
+                    FileUtils.md5Sum(file);
+            final String destinationUri = client.getDavUri() + "/files/" + client.getUserIdEncoded() +
+                    WebdavUtils.encodePath(remotePath);
+            ChunkUploader uploader = new NextcloudChunkUploader(client, uploadFolderUri, destinationUri);
+
+            // create folder; with chunking v2, the server is told where the chunks will end up
+            com.nextcloud.operations.MkColMethod createFolder =
+                    createUploadFolder(client, uploadFolderUri, destinationUri);
+
+            if (chunkSizeController == null) {
+                chunkSizeController = createChunkSizeController(file.length());
+            }
+
+            List<Chunk> chunksOnServer = null;
+            List<Chunk> resentChunks = new ArrayList<>();
+            if (createFolder.getStatusCode() == HttpStatus.SC_CREATED) {
+                chunksOnServer = new ArrayList<>();
+                if (uploadJournal != null) {
+                    uploadJournal.remove(uploadFolderUri);
+                }
+            } else if (createFolder.getStatusCode() == HttpStatus.SC_METHOD_NOT_ALLOWED) {
+                if (uploadJournal != null && !chunkingV2) {
+                    chunksOnServer = getRecordedChunks(uploadFolderUri, resentChunks);
+                }
+                if (chunksOnServer == null) {
+                    // what the existing folder holds is unknown, so everything is uploaded again into an empty one
+                    com.nextcloud.operations.DeleteMethod deleteFolder =
+                            new com.nextcloud.operations.DeleteMethod(uploadFolderUri, false);
+                    try {
+                        client.execute(deleteFolder);
+                    } finally {
+                        deleteFolder.releaseConnection();
+                    }
+                    if (uploadJournal != null) {
+                        uploadJournal.remove(uploadFolderUri);
+                    }
+                    createFolder = createUploadFolder(client, uploadFolderUri, destinationUri);
+                    if (createFolder.getStatusCode() != HttpStatus.SC_CREATED) {
+                        return new RemoteOperationResult(false, createFolder);
+                    }
+                    chunksOnServer = new ArrayList<>();
+                }
+            } else {
+                return new RemoteOperationResult(false, createFolder);
+            }
+
+            List<Chunk> missingRanges = getMissingRanges(chunksOnServer, resentChunks, file.length());
+            result = uploadAndAssemble(uploader, uploadFolderUri, resentChunks, missingRanges, 1, file);
+        } catch (Exception e) {
+            result = new RemoteOperationResult(e);
+        }
+        if (cancellationRequested.get() && !result.isSuccess()) {
+            // OkHttp reports cancelled calls as failed requests
+            if (cancellationReason != null) {
+                result = new RemoteOperationResult(cancellationReason);
+            } else {
+                result = new RemoteOperationResult(new OperationCancelledException());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Uploads the chunks to send again and the missing ranges of the file with the given uploader, and assembles them
+     * once all of them are stored.
+     */
+    @VisibleForTesting
+    RemoteOperationResult uploadAndAssemble(ChunkUploader uploader,
+                                            String uploadFolderUri,
+                                            List<Chunk> resentChunks,
+                                            List<Chunk> missingRanges,
+                                            int firstChunkNumber,
+                                            File file) throws Exception {
+        chunkUploader = uploader;
+        metrics = new ChunkedUploadMetrics(chunkingV2 ? 2 : 1);
+        long missing = 0;
+        for (Chunk range : resentChunks) {
+            missing += Math.max(0, Math.min(range.end, file.length() - 1) - range.start + 1);
+        }
+        for (Chunk range : missingRanges) {
+            missing += Math.max(0, Math.min(range.end, file.length() - 1) - range.start + 1);
+        }
+        metrics.setResumedBytes(file.length() - missing);
+
+        // checksum of the content, continued with every chunk sent in order
+        ChunkedUploadChecksum contentChecksum = null;
+        if (checksumAlgorithm != null) {
+            contentChecksum = new ChunkedUploadChecksum(checksumAlgorithm);
+        }
+
+        long uploadStart = System.currentTimeMillis();
+        RemoteOperationResult chunksResult = uploadChunks(uploader,
+                                                          resentChunks,
+                                                          missingRanges,
+                                                          firstChunkNumber,
+                                                          file,
+                                                          contentChecksum);
+        metrics.setUploadTimeMillis(System.currentTimeMillis() - uploadStart);
+        if (!chunksResult.isSuccess()) {
+            return chunksResult;
+        }
+        return assemble(uploader, uploadFolderUri, file, contentChecksum);
+    }
+
+    private com.nextcloud.operations.MkColMethod createUploadFolder(NextcloudClient client,
+                                                                    String uploadFolderUri,
+                                                                    String destinationUri) {
+        com.nextcloud.operations.MkColMethod createFolder =
+                new com.nextcloud.operations.MkColMethod(uploadFolderUri, false);
+        if (chunkingV2) {
+            createFolder.addRequestHeader(DESTINATION_HEADER, destinationUri);
+        }
+        try {
+            client.execute(createFolder);
+        } finally {
+            createFolder.releaseConnection();
+        }
+        return createFolder;
+    }
+
+    private RemoteOperationResult assemble(ChunkUploader uploader,
+                                           String uploadFolderUri,
+                                           File file,
+                                           ChunkedUploadChecksum contentChecksum) throws IOException {
+        String checksum = contentChecksum == null ? null : contentChecksum.finish(file).getHeaderValue();
+        return assemble(uploader,
+                        uploadFolderUri,
+                        String.valueOf(file.lastModified() / 1000),
+                        file.length(),
+                        checksum);
+    }
+
+    /**
+     * Sends the MOVE assembling the chunks into the file, and forgets the upload once it succeeds.
+     *
+     * @param length   Length of the assembled file, checked by the server.
+     * @param checksum Value of the {@link ContentChecksum#OC_CHECKSUM_HEADER} header, or null.
+     */
+    private RemoteOperationResult assemble(ChunkUploader uploader,
+                                           String uploadFolderUri,
+                                           String lastModificationTimestamp,
+                                           long length,
+                                           String checksum) throws IOException {
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put(OC_X_OC_MTIME_HEADER, lastModificationTimestamp);
+        // the server checks the assembled length, e.g. against overlapping chunks
+        headers.put(OC_TOTAL_LENGTH_HEADER, String.valueOf(length));
+        if (creationTimestamp != null && creationTimestamp > 0) {
+            headers.put(OC_X_OC_CTIME_HEADER, String.valueOf(creationTimestamp));
+        }
+        if (token != null) {
+            headers.put(E2E_TOKEN, token);
+        }
+        if (checksum != null) {
+            headers.put(ContentChecksum.OC_CHECKSUM_HEADER, checksum);
+        }
+
+        long assemblyStart = System.currentTimeMillis();
+        RemoteOperationResult result = uploader.assemble(headers, calculateAssembleTimeout(length));
+        metrics.setAssemblyTimeMillis(System.currentTimeMillis() - assemblyStart);
+        Log_OC.d(TAG, "Upload to " + remotePath + " assembled with HTTP status " + result.getHttpCode() + ", " +
+                metrics);
+
+        result.setContentChecksum(checksum);
+        if (result.isSuccess() && uploadJournal != null) {
+            uploadJournal.remove(uploadFolderUri);
+        }
+        return result;
+    }
+
+    /**
+     * Uploads the content of {@link #contentSupplier} in consecutive chunks, each one read from the stream while it is
+     * sent, and assembles them.
+     */
+    private RemoteOperationResult uploadStream(OwnCloudClient client) throws Exception {
+        // nothing to resume, since the content is not known before it is read
+        String uploadFolderUri = client.getUploadUri() + "/" + client.getUserId() + "/" +
+                UUID.randomUUID().toString().replace("-", "");
+        String destinationUri = client.getDavUri() + "/files/" + client.getUserId() +
+                WebdavUtils.encodePath(remotePath);
+        OwnCloudChunkUploader uploader = new OwnCloudChunkUploader(client, uploadFolderUri, destinationUri);
+        chunkUploader = uploader;
+        metrics = new ChunkedUploadMetrics(chunkingV2 ? 2 : 1);
+
+        MkColMethod createFolder = new MkColMethod(uploadFolderUri);
+        if (chunkingV2) {
+            createFolder.addRequestHeader(DESTINATION_HEADER, destinationUri);
+        }
+        try {
+            int createFolderStatus = client.executeMethod(createFolder, 30000, 5000);
+            if (createFolderStatus != HttpStatus.SC_CREATED) {
+                return new RemoteOperationResult(false, createFolder);
+            }
+        } finally {
+            createFolder.releaseConnection();
+        }
+
+        if (chunkSizeController == null) {
+            chunkSizeController = createChunkSizeController(Math.max(0, contentLength));
+        }
+
+        // checksum of the content, continued with every chunk
+        ContentChecksum checksum = checksumAlgorithm == null ? null : ContentChecksum.create(checksumAlgorithm);
+
+        long offset = 0;
+        int chunkNumber = 1;
+        long uploadStart = System.currentTimeMillis();
+        StreamContentSource source = new StreamContentSource(contentSupplier);
+        try {
+            do {
+                if (cancellationRequested.get()) {
+                    return new RemoteOperationResult(new OperationCancelledException());
+                }
+                StreamRequestEntity chunkEntity = new StreamRequestEntity(source,
+                                                                          offset,
+                                                                          chunkSizeController.getNextChunkSize(),
+                                                                          contentLength,
+                                                                          mimeType,
+                                                                          remotePath);
+                chunkEntity.setInitialChecksum(checksum);
+                synchronized (dataTransferListeners) {
+                    chunkEntity.addDataTransferProgressListeners(dataTransferListeners);
+                }
+
+                String chunkName = chunkingV2 ? String.valueOf(chunkNumber) : String.format(Locale.ROOT,
+                        "%016d-%016d", offset, Math.max(offset, offset + chunkEntity.getContentLength() - 1));
+                PutMethod chunkPutMethod = uploader.createPutMethod(uploadFolderUri + "/" + chunkName, chunkEntity);
+                try {
+                    if (token != null) {
+                        chunkPutMethod.addRequestHeader(E2E_TOKEN, token);
+                    }
+                    if (chunkingV2) {
+                        chunkPutMethod.addRequestHeader(DESTINATION_HEADER, destinationUri);
+                        if (contentLength >= 0) {
+                            chunkPutMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(contentLength));
+                        }
+                    }
+
+                    long startTime = System.currentTimeMillis();
+                    int status = client.executeMethod(chunkPutMethod);
+                    long endTime = System.currentTimeMillis();
+                    client.exhaustResponse(chunkPutMethod.getResponseBodyAsStream());
+                    Log_OC.d(TAG, "Upload of content to " + remotePath + ", chunk " + chunkName + " from " + offset +
+                            " size: " + chunkEntity.getTransferred() + ", HTTP result status " + status);
+
+                    if (!isSuccess(status)) {
+                        chunkSizeController.onChunkFailed();
+                        return new RemoteOperationResult(false, chunkPutMethod);
+                    }
+                    long sent = chunkEntity.getTransferred();
+                    long lastProgressTime = chunkEntity.getLastProgressTime();
+                    long sentTime = lastProgressTime > 0 ? lastProgressTime : endTime;
+                    metrics.onChunkUploaded(sent);
+                    chunkSizeController.onChunkUploaded(sent, sentTime - startTime, endTime - sentTime);
+                    checksum = chunkEntity.getChecksum();
+                    offset += sent;
+                    chunkNumber++;
+                } finally {
+                    uploader.release(chunkPutMethod);
+                }
+            } while (contentLength >= 0 ? offset < contentLength : source.hasMoreAt(offset));
+        } finally {
+            try {
+                source.close();
+            } catch (IOException e) {
+                Log_OC.e(TAG, "Error closing content stream!", e);
+            }
+        }
+        metrics.setUploadTimeMillis(System.currentTimeMillis() - uploadStart);
+
+        return assemble(uploader,
+                        uploadFolderUri,
+                        lastModificationTimestamp,
+                        offset,
+                        checksum == null ? null : checksum.getHeaderValue());
+    }
+
+    /**
+     * Reads the chunks recorded in the {@link UploadJournal} for an existing upload folder.
+     *
+     * @param resentChunks Receives the chunks sent but not known to be stored, to be sent again under the same name.
+     * @return Chunks stored by the server, or null if nothing was recorded and the folder must be listed.
+     */
+    private List<Chunk> getRecordedChunks(String uploadFolderUri, List<Chunk> resentChunks) {
+        List<Chunk> storedChunks = uploadJournal.getChunks(uploadFolderUri);
+        List<Chunk> pendingChunks = uploadJournal.getPendingChunks(uploadFolderUri);
+        if (storedChunks.isEmpty() && pendingChunks.isEmpty()) {
+            return null;
+        }
+        resentChunks.addAll(pendingChunks);
+        return storedChunks;
+    }
+
+    /**
+     * @return Ranges of the file neither stored by the server nor to be sent again as they were.
+     */
+    private List<Chunk> getMissingRanges(List<Chunk> chunksOnServer, List<Chunk> resentChunks, long length) {
+        List<Chunk> knownChunks = new ArrayList<>(chunksOnServer);
+        knownChunks.addAll(resentChunks);
+        return checkMissingChunks(knownChunks, length, length + 1);
+    }
+
     List<Chunk> checkMissingChunks(List<Chunk> chunks, long length, long chunkSize) {
         List<Chunk> missingChunks = new ArrayList<>();
 
+        // chunks on the server by start, looked up in log(n) instead of scanning them all for every range
+        TreeMap<Long, Chunk> chunksByStart = new TreeMap<>();
+        for (Chunk chunk : chunks) {
+            Chunk sameStart = chunksByStart.get(chunk.start);
+            if (sameStart == null || sameStart.end < chunk.end) {
+                chunksByStart.put(chunk.start, chunk);
+            }
+        }
+
         long start = 0;
 
         while (start <= length) {
-            Chunk nextChunk = findNextFittingChunk(chunks, start, chunkSize);
+            Chunk nextChunk = findNextFittingChunk(chunksByStart, start, chunkSize);
 
             if (nextChunk == null) {
                 // create new chunk
@@ -279,90 +700,701 @@ public class ChunkedFileUploadRemoteOperation extends UploadFileRemoteOperation
         return missingChunks;
     }
 
-    private Chunk findNextFittingChunk(List<Chunk> chunks, long start, long length) {
-        for (Chunk chunk : chunks) {
-            if (chunk.start >= start && (chunk.start - start) <= length) {
-                return chunk;
-            }
+    /**
+     * Chunks on the server may have different sizes and be listed in any order, so the closest one is looked for.
+     */
+    private Chunk findNextFittingChunk(TreeMap<Long, Chunk> chunksByStart, long start, long length) {
+        Map.Entry<Long, Chunk> next = chunksByStart.ceilingEntry(start);
+        if (next != null && next.getKey() - start <= length) {
+            return next.getValue();
         }
         return null;
     }
 
-    private RemoteOperationResult uploadChunk(OwnCloudClient client, String uploadFolderUri, Chunk chunk)
-            throws IOException {
-        int status;
-        RemoteOperationResult result;
+    /**
+     * Uploads the chunks to send again and the missing ranges with up to {@link #getParallelChunks()} chunk PUT
+     * requests in flight, stopping at the first failed chunk.
+     * <p>
+     * The calling thread uploads chunks too; additional threads are only created for parallel uploads.
+     */
+    private RemoteOperationResult uploadChunks(final ChunkUploader uploader,
+                                               List<Chunk> resentChunks,
+                                               List<Chunk> missingRanges,
+                                               int firstChunkNumber,
+                                               File file,
+                                               final ChunkedUploadChecksum contentChecksum) throws Exception {
+        final PendingRanges pendingChunks = new PendingRanges(resentChunks,
+                                                              missingRanges,
+                                                              chunkSizeController,
+                                                              firstChunkNumber);
+        final AtomicReference<RemoteOperationResult> failedResult = new AtomicReference<>();
+        final AtomicReference<Exception> failedException = new AtomicReference<>();
+        List<Chunk> unsentChunks = new ArrayList<>(resentChunks);
+        unsentChunks.addAll(missingRanges);
+        final ChunkedUploadProgress progress = new ChunkedUploadProgress(file, unsentChunks);
+        final InFlightRequests inFlightRequests = InFlightRequests.current();
 
-        String startString = String.format(Locale.ROOT, "%016d", chunk.start);
-        String endString = String.format(Locale.ROOT, "%016d", chunk.end);
+        Runnable worker = () -> {
+            InFlightRequests previous = InFlightRequests.attach(inFlightRequests);
+            try {
+                Chunk chunk;
+                while (failedResult.get() == null && failedException.get() == null &&
+                        !cancellationRequested.get() && (chunk = pendingChunks.nextChunk()) != null) {
+                    String chunkName = chunkingV2 ? String.valueOf(pendingChunks.getChunkNumber(chunk)) :
+                            String.format(Locale.ROOT, "%016d-%016d", chunk.start, chunk.end);
+                    RemoteOperationResult chunkResult = uploader.uploadChunk(chunkName,
+                                                                             chunk,
+                                                                             progress.createChunkListener(chunk),
+                                                                             contentChecksum);
+                    if (!chunkResult.isSuccess()) {
+                        failedResult.compareAndSet(null, chunkResult);
+                    }
+                }
+            } catch (Exception e) {
+                failedException.compareAndSet(null, e);
+            } finally {
+                InFlightRequests.detach(previous);
+            }
+        };
 
-        FileChannel channel = null;
-        RandomAccessFile raf = null;
+        int maxWorkers = parallelChunks;
+        if (serverMaxParallelChunks > 0) {
+            maxWorkers = Math.min(maxWorkers, serverMaxParallelChunks);
+        }
+        int workers = (int) Math.min(maxWorkers, pendingChunks.estimateChunkCount());
+        ExecutorService executor = null;
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            if (workers > 1) {
+                executor = Executors.newFixedThreadPool(workers - 1, runnable -> {
+                    Thread thread = new Thread(runnable, TAG + " chunk upload");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+                for (int i = 1; i < workers; i++) {
+                    futures.add(executor.submit(worker));
+                }
+            }
+            worker.run();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancel(null);
+            return new RemoteOperationResult(new OperationCancelledException());
+        } finally {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+        }
 
-        File file = new File(localPath);
+        if (failedException.get() != null) {
+            throw failedException.get();
+        }
+        if (cancellationRequested.get()) {
+            // chunks aborted on cancellation may have failed with any result
+            return new RemoteOperationResult(new OperationCancelledException());
+        }
+        if (failedResult.get() != null) {
+            return failedResult.get();
+        }
+        return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+    }
+
+    /**
+     * Records a chunk before it is sent, since the server may store it even if its response is lost; it is then sent
+     * again under the same name, not to leave overlapping chunks in the upload folder.
+     */
+    private void onChunkStarted(String uploadFolderUri, Chunk chunk) {
+        if (uploadJournal != null && !chunkingV2) {
+            uploadJournal.addPendingChunk(uploadFolderUri, chunk);
+        }
+    }
 
+    /**
+     * Records a chunk sent, successfully or not, and feeds its timing to the {@link ChunkSizeController}.
+     */
+    private void onChunkDone(String uploadFolderUri,
+                             Chunk chunk,
+                             boolean uploaded,
+                             long length,
+                             long lastProgressTime,
+                             long startTime,
+                             long endTime) {
+        if (uploaded) {
+            metrics.onChunkUploaded(length);
+            if (uploadJournal != null && !chunkingV2) {
+                uploadJournal.addChunk(uploadFolderUri, chunk);
+            }
+            long sentTime = lastProgressTime > 0 ? lastProgressTime : endTime;
+            chunkSizeController.onChunkUploaded(length, sentTime - startTime, endTime - sentTime);
+        } else {
+            chunkSizeController.onChunkFailed();
+        }
+    }
+
+    /**
+     * Finds the numbered chunks to keep from a previous attempt: those from the first one on, numbered one after
+     * another. Chunks after a missing one cannot be placed in the file, so they are deleted and uploaded again, as
+     * anything else in the upload folder.
+     */
+    private RemoteOperationResult resumeNumberedChunks(OwnCloudClient client,
+                                                       String uploadFolderUri,
+                                                       ResumedChunks resumed) throws Exception {
+        PropFindMethod listChunks = null;
         try {
-            raf = new RandomAccessFile(file, "r");
-            channel = raf.getChannel();
-            entity = new ChunkFromFileChannelRequestEntity(channel, mimeType, chunk.start, chunk.length(), file);
-            
+            listChunks = new PropFindMethod(uploadFolderUri, WebdavUtils.getChunksPropSet(), DavConstants.DEPTH_1);
+            client.executeMethod(listChunks);
+            if (!listChunks.succeeded()) {
+                return new RemoteOperationResult(false, listChunks);
+            }
+
+            TreeMap<Integer, Long> chunkLengths = new TreeMap<>();
+            List<String> unexpectedEntries = new ArrayList<>();
+            for (MultiStatusResponse response : listChunks.getResponseBodyAsMultiStatus().getResponses()) {
+                WebdavEntry we = new WebdavEntry(response, client.getUploadUri().getPath());
+                if (!we.isDirectory()) {
+                    try {
+                        chunkLengths.put(Integer.parseInt(we.getName()), we.getContentLength());
+                    } catch (NumberFormatException e) {
+                        // e.g. chunks of an attempt made before the server supported chunking v2
+                        unexpectedEntries.add(we.getName());
+                    }
+                }
+            }
+
+            boolean contiguous = true;
+            for (Map.Entry<Integer, Long> chunk : chunkLengths.entrySet()) {
+                contiguous = contiguous && chunk.getKey() == resumed.count + 1;
+                if (contiguous) {
+                    resumed.count++;
+                    resumed.length += chunk.getValue();
+                } else {
+                    unexpectedEntries.add(String.valueOf(chunk.getKey()));
+                }
+            }
+
+            for (String name : unexpectedEntries) {
+                DeleteMethod delete = new DeleteMethod(uploadFolderUri + WebdavUtils.encodePath(name));
+                try {
+                    client.executeMethod(delete);
+                    client.exhaustResponse(delete.getResponseBodyAsStream());
+                } finally {
+                    delete.releaseConnection();
+                }
+            }
+        } finally {
+            if (listChunks != null) {
+                listChunks.releaseConnection();
+            }
+        }
+        return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+    }
+
+    @VisibleForTesting
+    ChunkSizeController createChunkSizeController(long fileLength) {
+        long initialChunkSize = onWifiConnection ? CHUNK_SIZE_WIFI : CHUNK_SIZE_MOBILE;
+        if (!chunkingV2 && serverMaxChunkSize <= 0) {
+            return new ChunkSizeController(initialChunkSize);
+        }
+        long minChunkSize = ChunkSizeController.DEFAULT_MIN_CHUNK_SIZE;
+        if (chunkingV2) {
+            minChunkSize = Math.max(CHUNK_SIZE_MIN_V2, (fileLength + MAX_CHUNKS_V2 - 1) / MAX_CHUNKS_V2);
+        }
+        long maxChunkSize = serverMaxChunkSize > 0 ? serverMaxChunkSize : ChunkSizeController.DEFAULT_MAX_CHUNK_SIZE;
+        return new ChunkSizeController(initialChunkSize,
+                                       minChunkSize,
+                                       Math.max(minChunkSize, maxChunkSize),
+                                       ChunkSizeController.DEFAULT_TARGET_CHUNK_DURATION);
+    }
+
+    @Override
+    public void cancel(RemoteOperationResult.ResultCode cancellationReason) {
+        synchronized (cancellationRequested) {
+            super.cancel(cancellationReason);
+            ChunkUploader uploader = chunkUploader;
+            if (uploader != null) {
+                uploader.abort();
+            }
+        }
+    }
+
+    public ChunkSizeController getChunkSizeController() {
+        return chunkSizeController;
+    }
+
+    /**
+     * Replaces the default chunk sizing, which starts from {@link #CHUNK_SIZE_WIFI} or {@link #CHUNK_SIZE_MOBILE}
+     * and adapts to the measured throughput within the default bounds of {@link ChunkSizeController}.
+     */
+    public void setChunkSizeController(ChunkSizeController chunkSizeController) {
+        this.chunkSizeController = chunkSizeController;
+    }
+
+    public UploadJournal getUploadJournal() {
+        return uploadJournal;
+    }
+
+    /**
+     * Sets the journal recording the chunks sent and stored by the server; an interrupted upload is then resumed from
+     * the journal, sending again under the same name the chunks whose response was not received, and the upload
+     * folder is only listed when nothing was recorded for it.
+     */
+    public void setUploadJournal(UploadJournal uploadJournal) {
+        this.uploadJournal = uploadJournal;
+    }
+
+    public int getParallelChunks() {
+        return parallelChunks;
+    }
+
+    /**
+     * Sets the maximum number of chunks uploaded at the same time; 1, the default, uploads them one after another.
+     */
+    public void setParallelChunks(int parallelChunks) {
+        this.parallelChunks = Math.max(1, parallelChunks);
+    }
+
+    /**
+     * Adapts the upload to the chunked upload capability of the server: chunking v2 when supported, and the maximum
+     * chunk size and number of parallel chunks accepted by the server, if given. Without the capability, chunks are
+     * uploaded the v1 way.
+     */
+    public void setCapability(OCCapability capability) {
+        chunkingV2 = capability.getFilesChunkedUpload().isTrue();
+        serverMaxChunkSize = Math.max(0, capability.getFilesChunkedUploadMaxSize());
+        serverMaxParallelChunks = Math.max(0, capability.getFilesChunkedUploadMaxParallelCount());
+    }
+
+    public boolean isChunkingV2() {
+        return chunkingV2;
+    }
+
+    /**
+     * Uploads numbered chunks to an upload folder created with the Destination header, letting the server store them
+     * straight into their final storage, e.g. as parts of a multipart upload to an object store.
+     * <p>
+     * Chunks are then at least {@link #CHUNK_SIZE_MIN_V2} long, except the last one, and at most
+     * {@link #MAX_CHUNKS_V2} are sent. Chunks are not recorded in the {@link UploadJournal}, since their names do not
+     * tell their ranges; an interrupted upload lists its upload folder instead.
+     */
+    public void setChunkingV2(boolean chunkingV2) {
+        this.chunkingV2 = chunkingV2;
+    }
+
+    /**
+     * @return Figures of the chunks last uploaded by the operation, or null if it did not get to upload chunks.
+     */
+    public ChunkedUploadMetrics getMetrics() {
+        return metrics;
+    }
+
+    @VisibleForTesting
+    public int calculateAssembleTimeout(File file) {
+        return calculateAssembleTimeout(file.length());
+    }
+
+    private int calculateAssembleTimeout(long length) {
+        final double fileSizeInGb = length / 1e9;
+
+        return Math.max(ASSEMBLE_TIME_MIN, Math.min((int) (ASSEMBLE_TIME_PER_GB * fileSizeInGb), ASSEMBLE_TIME_MAX));
+    }
+
+    /**
+     * Merges the progress of chunks uploaded in parallel into a single stream for the listeners of the operation.
+     * <p>
+     * Chunks already on the server count as transferred; progress repeated by retried chunks is not counted twice.
+     */
+    private final class ChunkedUploadProgress {
+        private final long totalToTransfer;
+        private long transferred;
+
+        private ChunkedUploadProgress(File file, List<Chunk> missingChunks) {
+            totalToTransfer = file.length();
+            long missing = 0;
+            for (Chunk chunk : missingChunks) {
+                missing += Math.max(0, Math.min(chunk.length(), totalToTransfer - chunk.start));
+            }
+            transferred = Math.max(0, totalToTransfer - missing);
+        }
+
+        private ChunkProgressListener createChunkListener(Chunk chunk) {
+            return new ChunkProgressListener(this, chunk);
+        }
+
+        private void onChunkProgress(long progressRate, String fileAbsoluteName) {
             synchronized (dataTransferListeners) {
-                ((ProgressiveDataTransfer) entity).addDataTransferProgressListeners(dataTransferListeners);
+                transferred = Math.min(totalToTransfer, transferred + progressRate);
+                for (OnDatatransferProgressListener listener : dataTransferListeners) {
+                    listener.onTransferProgress(progressRate, transferred, totalToTransfer, fileAbsoluteName);
+                }
             }
+        }
+    }
 
-            String chunkUri = uploadFolderUri + "/" + startString + "-" + endString;
+    private static final class ChunkProgressListener implements OnDatatransferProgressListener {
+        private final ChunkedUploadProgress progress;
+        private final Chunk chunk;
+        private long chunkTransferred = 0;
 
-            if (putMethod != null) {
-                putMethod.releaseConnection(); // let the connection available for other methods
+        private ChunkProgressListener(ChunkedUploadProgress progress, Chunk chunk) {
+            this.progress = progress;
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void onTransferProgress(long progressRate,
+                                       long totalTransferredSoFar,
+                                       long totalToTransfer,
+                                       String fileAbsoluteName) {
+            // chunk entities report their position in the whole file
+            long current = Math.min(chunk.length(), totalTransferredSoFar - chunk.start);
+            if (current > chunkTransferred) {
+                progress.onChunkProgress(current - chunkTransferred, fileAbsoluteName);
+                chunkTransferred = current;
             }
+        }
+    }
 
-            putMethod = createPutMethod(chunkUri);
+    /**
+     * Sends the requests of a chunked upload with the client the operation runs on.
+     */
+    @VisibleForTesting
+    interface ChunkUploader {
+        /**
+         * Sends a chunk, reporting its progress as a position in the whole file.
+         */
+        RemoteOperationResult uploadChunk(String chunkName,
+                                          Chunk chunk,
+                                          OnDatatransferProgressListener progressListener,
+                                          ChunkedUploadChecksum contentChecksum) throws IOException;
 
+        /**
+         * Sends the MOVE assembling the chunks into the file.
+         */
+        RemoteOperationResult assemble(Map<String, String> headers, int timeoutMillis) throws IOException;
+
+        /**
+         * Aborts the requests of all the chunks being sent; called on cancellation, from any thread.
+         */
+        void abort();
+    }
+
+    private final class OwnCloudChunkUploader implements ChunkUploader {
+        private final OwnCloudClient client;
+        private final String uploadFolderUri;
+        private final String destinationUri;
+
+        /** PUT requests of all the chunks being sent */
+        private final Set<PutMethod> putMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        private OwnCloudChunkUploader(OwnCloudClient client, String uploadFolderUri, String destinationUri) {
+            this.client = client;
+            this.uploadFolderUri = uploadFolderUri;
+            this.destinationUri = destinationUri;
+        }
+
+        @Override
+        public RemoteOperationResult uploadChunk(String chunkName,
+                                                 Chunk chunk,
+                                                 OnDatatransferProgressListener progressListener,
+                                                 ChunkedUploadChecksum contentChecksum) throws IOException {
+            int status;
+            RemoteOperationResult result;
+
+            FileChannel channel = null;
+            RandomAccessFile raf = null;
+            PutMethod chunkPutMethod = null;
+            ChunkFromFileChannelRequestEntity chunkEntity = null;
+            ContentChecksum initialChecksum = null;
+            boolean chunkUploaded = false;
+
+            File file = new File(localPath);
+
+            try {
+                // every chunk reads its own region of the file through its own channel
+                raf = new RandomAccessFile(file, "r");
+                channel = raf.getChannel();
+                chunkEntity = new ChunkFromFileChannelRequestEntity(channel,
+                                                                    mimeType,
+                                                                    chunk.start,
+                                                                    chunk.length(),
+                                                                    file);
+                if (contentChecksum != null) {
+                    initialChecksum = contentChecksum.startChunk(chunk);
+                    chunkEntity.setInitialChecksum(initialChecksum);
+                }
+                chunkEntity.addDataTransferProgressListener(progressListener);
+
+                chunkPutMethod = createPutMethod(uploadFolderUri + "/" + chunkName, chunkEntity);
+
+                if (token != null) {
+                    chunkPutMethod.addRequestHeader(E2E_TOKEN, token);
+                }
+                if (chunkingV2) {
+                    chunkPutMethod.addRequestHeader(DESTINATION_HEADER, destinationUri);
+                    chunkPutMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(file.length()));
+                }
+
+                onChunkStarted(uploadFolderUri, chunk);
+                long startTime = System.currentTimeMillis();
+                status = client.executeMethod(chunkPutMethod);
+                long endTime = System.currentTimeMillis();
+
+                result = new RemoteOperationResult(isSuccess(status), chunkPutMethod);
+                chunkUploaded = result.isSuccess();
+                onChunkDone(uploadFolderUri,
+                            chunk,
+                            chunkUploaded,
+                            chunkEntity.getContentLength(),
+                            chunkEntity.getLastProgressTime(),
+                            startTime,
+                            endTime);
+
+                client.exhaustResponse(chunkPutMethod.getResponseBodyAsStream());
+                Log_OC.d(TAG, "Upload of " + localPath + " to " + remotePath + ", chunk " + chunkName + " from " +
+                        chunk.start + " to " + chunk.end + " size: " + chunk.length() + ", HTTP result status " +
+                        status);
+            } finally {
+                if (initialChecksum != null) {
+                    contentChecksum.finishChunk(chunkUploaded ? chunkEntity.getChecksum() : null);
+                }
+                if (channel != null)
+                    try {
+                        channel.close();
+                    } catch (IOException e) {
+                        Log_OC.e(TAG, "Error closing file channel!", e);
+                    }
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException e) {
+                        Log_OC.e(TAG, "Error closing file access!", e);
+                    }
+                }
+                if (chunkPutMethod != null) {
+                    release(chunkPutMethod);
+                }
+            }
+            return result;
+        }
+
+        private PutMethod createPutMethod(String uriPrefix, RequestEntity chunkEntity) {
+            PutMethod method = new PutMethod(uriPrefix);
+            method.setRequestEntity(chunkEntity);
+            if (!disableRetries) {
+                // a chunk is stored under its own URI, so uploading it twice has no further effect
+                RetryPolicy.markIdempotent(method);
+            }
+            synchronized (cancellationRequested) {
+                putMethods.add(method);
+                if (cancellationRequested.get()) {
+                    method.abort(); // next method will throw an exception
+                }
+            }
+
+            return method;
+        }
+
+        private void release(PutMethod method) {
+            putMethods.remove(method);
+            method.releaseConnection(); // let the connection available for other methods
+        }
+
+        @Override
+        public RemoteOperationResult assemble(Map<String, String> headers, int timeoutMillis) throws IOException {
+            MoveMethod moveMethod = new MoveMethod(uploadFolderUri + "/.file", destinationUri, true);
+            try {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    moveMethod.addRequestHeader(header.getKey(), header.getValue());
+                }
+                final int DO_NOT_CHANGE_DEFAULT = -1;
+                int status = client.executeMethod(moveMethod, timeoutMillis, DO_NOT_CHANGE_DEFAULT);
+                return new RemoteOperationResult(isSuccess(status), moveMethod);
+            } finally {
+                moveMethod.releaseConnection();
+            }
+        }
+
+        @Override
+        public void abort() {
+            for (PutMethod method : putMethods) {
+                method.abort();
+            }
+        }
+    }
+
+    private final class NextcloudChunkUploader implements ChunkUploader {
+        private final NextcloudClient client;
+        private final String uploadFolderUri;
+        private final String destinationUri;
+
+        /** PUT requests of all the chunks being sent */
+        private final Set<OkHttpMethodBase> putMethods = Collections.newSetFromMap(new ConcurrentHashMap<>());
+
+        private NextcloudChunkUploader(NextcloudClient client, String uploadFolderUri, String destinationUri) {
+            this.client = client;
+            this.uploadFolderUri = uploadFolderUri;
+            this.destinationUri = destinationUri;
+        }
+
+        @Override
+        public RemoteOperationResult uploadChunk(String chunkName,
+                                                 Chunk chunk,
+                                                 OnDatatransferProgressListener progressListener,
+                                                 ChunkedUploadChecksum contentChecksum) {
+            RemoteOperationResult result;
+            ContentChecksum initialChecksum = null;
+            boolean chunkUploaded = false;
+
+            File file = new File(localPath);
+            MediaType contentType = mimeType == null ? null : MediaType.parse(mimeType);
+            // every chunk reads its own region of the file
+            FileRequestBody chunkBody = new FileRequestBody(file, contentType, chunk.start, chunk.length());
+            if (contentChecksum != null) {
+                initialChecksum = contentChecksum.startChunk(chunk);
+                chunkBody.setInitialChecksum(initialChecksum);
+            }
+            chunkBody.addDataTransferProgressListener(progressListener);
+
+            com.nextcloud.operations.PutMethod chunkPutMethod =
+                    new com.nextcloud.operations.PutMethod(uploadFolderUri + "/" + chunkName, false, chunkBody);
+            if (!disableRetries) {
+                // a chunk is stored under its own URI, so uploading it twice has no further effect
+                chunkPutMethod.setIdempotent(true);
+            }
             if (token != null) {
-                putMethod.addRequestHeader(E2E_TOKEN, token);
+                chunkPutMethod.addRequestHeader(E2E_TOKEN, token);
+            }
+            if (chunkingV2) {
+                chunkPutMethod.addRequestHeader(DESTINATION_HEADER, destinationUri);
+                chunkPutMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(file.length()));
+            }
+            synchronized (cancellationRequested) {
+                putMethods.add(chunkPutMethod);
+                if (cancellationRequested.get()) {
+                    chunkPutMethod.abort();
+                }
             }
 
-            status = client.executeMethod(putMethod);
+            try {
+                onChunkStarted(uploadFolderUri, chunk);
+                long startTime = System.currentTimeMillis();
+                int status = client.execute(chunkPutMethod);
+                long endTime = System.currentTimeMillis();
 
-            result = new RemoteOperationResult(isSuccess(status), putMethod);
+                result = new RemoteOperationResult(isSuccess(status), chunkPutMethod);
+                chunkUploaded = result.isSuccess();
+                onChunkDone(uploadFolderUri,
+                            chunk,
+                            chunkUploaded,
+                            chunkBody.contentLength(),
+                            chunkBody.getLastProgressTime(),
+                            startTime,
+                            endTime);
 
-            client.exhaustResponse(putMethod.getResponseBodyAsStream());
-            Log_OC.d(TAG, "Upload of " + localPath + " to " + remotePath + ", chunk from " + startString + " to " +
-                    endString + " size: "  + chunk.length() + ", HTTP result status " + status);
-        } finally {
-            if (channel != null)
-                try {
-                    channel.close();
-                } catch (IOException e) {
-                    Log_OC.e(TAG, "Error closing file channel!", e);
+                Log_OC.d(TAG, "Upload of " + localPath + " to " + remotePath + ", chunk " + chunkName + " from " +
+                        chunk.start + " to " + chunk.end + " size: " + chunk.length() + ", HTTP result status " +
+                        status);
+            } finally {
+                if (initialChecksum != null) {
+                    contentChecksum.finishChunk(chunkUploaded ? chunkBody.getChecksum() : null);
                 }
-            if (raf != null) {
-                try {
-                    raf.close();
-                } catch (IOException e) {
-                    Log_OC.e(TAG, "Error closing file access!", e);
+                putMethods.remove(chunkPutMethod);
+                chunkPutMethod.releaseConnection(); // let the connection available for other methods
+            }
+            return result;
+        }
+
+        @Override
+        public RemoteOperationResult assemble(Map<String, String> headers, int timeoutMillis) throws IOException {
+            com.nextcloud.operations.MoveMethod moveMethod =
+                    new com.nextcloud.operations.MoveMethod(uploadFolderUri + "/.file", destinationUri, true, false);
+            try {
+                for (Map.Entry<String, String> header : headers.entrySet()) {
+                    moveMethod.addRequestHeader(header.getKey(), header.getValue());
                 }
+                moveMethod.setReadTimeoutMillis(timeoutMillis);
+                int status = client.execute(moveMethod);
+                return new RemoteOperationResult(isSuccess(status), moveMethod);
+            } finally {
+                moveMethod.releaseConnection();
             }
-            if (putMethod != null)
-                putMethod.releaseConnection(); // let the connection available for other methods
         }
-        return result;
-    }
 
-    private PutMethod createPutMethod(String uriPrefix) {
-        putMethod = new PutMethod(uriPrefix);
-        putMethod.setRequestEntity(entity);
-        if (cancellationRequested.get()) {
-            putMethod.abort(); // next method will throw an exception
+        @Override
+        public void abort() {
+            for (OkHttpMethodBase method : putMethods) {
+                method.abort();
+            }
         }
+    }
 
-        return putMethod;
+    /**
+     * Numbered chunks kept from a previous attempt, covering the first bytes of the file.
+     */
+    private static final class ResumedChunks {
+        private int count = 0;
+        private long length = 0;
     }
 
-    @VisibleForTesting
-    public int calculateAssembleTimeout(File file) {
-        final double fileSizeInGb = file.length() / 1e9;
+    /**
+     * Ranges of the file missing on the server, cut into chunks of the size chosen by the {@link ChunkSizeController}
+     * at the moment each chunk is started; chunks of different sizes keep the usual naming, so an interrupted upload
+     * is resumed by {@link #checkMissingChunks(List, long, long)} like any other. Chunks to send again are sent first,
+     * as they are.
+     */
+    private static final class PendingRanges {
+        private final LinkedList<Chunk> resentChunks;
+        private final LinkedList<Chunk> ranges;
+        private final ChunkSizeController controller;
 
-        return Math.max(ASSEMBLE_TIME_MIN, Math.min((int) (ASSEMBLE_TIME_PER_GB * fileSizeInGb), ASSEMBLE_TIME_MAX));
+        /** Numbers of the chunks by start, in the order they were cut, for chunking v2 */
+        private final Map<Long, Integer> chunkNumbers = new HashMap<>();
+        private int nextChunkNumber;
+
+        private PendingRanges(List<Chunk> resentChunks,
+                              List<Chunk> missingRanges,
+                              ChunkSizeController controller,
+                              int firstChunkNumber) {
+            this.resentChunks = new LinkedList<>(resentChunks);
+            this.ranges = new LinkedList<>(missingRanges);
+            this.controller = controller;
+            this.nextChunkNumber = firstChunkNumber;
+        }
+
+        synchronized Chunk nextChunk() {
+            Chunk resent = resentChunks.poll();
+            if (resent != null) {
+                chunkNumbers.put(resent.start, nextChunkNumber++);
+                return resent;
+            }
+            Chunk range = ranges.peek();
+            if (range == null) {
+                return null;
+            }
+            long end = Math.min(range.end, range.start + controller.getNextChunkSize() - 1);
+            if (end == range.end) {
+                ranges.poll();
+            } else {
+                ranges.set(0, new Chunk(end + 1, range.end));
+            }
+            chunkNumbers.put(range.start, nextChunkNumber++);
+            return new Chunk(range.start, end);
+        }
+
+        synchronized int getChunkNumber(Chunk chunk) {
+            return chunkNumbers.get(chunk.start);
+        }
+
+        synchronized long estimateChunkCount() {
+            long chunkSize = controller.getNextChunkSize();
+            long count = resentChunks.size();
+            for (Chunk range : ranges) {
+                count += (range.length() + chunkSize - 1) / chunkSize;
+            }
+            return count;
+        }
     }
 }
@@ -0,0 +1,95 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.owncloud.android.lib.common.network.ContentChecksum;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+/**
+ * Checksum of a file uploaded in chunks, continued with the bytes of every chunk sent right after the bytes already
+ * checksummed.
+ * <p>
+ * A chunk only continues the checksum once it was stored by the server. Chunks already on the server from a previous
+ * attempt, and chunks sent in parallel to the one continuing the checksum, are not checksummed while sent; the file is
+ * read from the first of them on when the checksum is finished.
+ */
+final class ChunkedUploadChecksum {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** Checksum of the first bytes of the file, as many as its length */
+    private ContentChecksum checksum;
+    private boolean chunkInProgress = false;
+
+    ChunkedUploadChecksum(ContentChecksum.Algorithm algorithm) {
+        checksum = ContentChecksum.create(algorithm);
+    }
+
+    /**
+     * @return Checksum to continue with the bytes of the chunk, or null if the chunk does not follow the bytes already
+     * checksummed; in the first case {@link #finishChunk(ContentChecksum)} must be called once the chunk is done.
+     */
+    synchronized ContentChecksum startChunk(Chunk chunk) {
+        if (chunkInProgress || chunk.start != checksum.getLength()) {
+            return null;
+        }
+        chunkInProgress = true;
+        return checksum;
+    }
+
+    /**
+     * @param chunkChecksum Checksum continued with the bytes of the chunk, or null if the chunk failed.
+     */
+    synchronized void finishChunk(ContentChecksum chunkChecksum) {
+        chunkInProgress = false;
+        if (chunkChecksum != null) {
+            checksum = chunkChecksum;
+        }
+    }
+
+    /**
+     * Completes the checksum reading the bytes of the file not checksummed while sent, if any.
+     */
+    synchronized ContentChecksum finish(File file) throws IOException {
+        long position = checksum.getLength();
+        if (position < file.length()) {
+            ContentChecksum remaining = checksum.copy();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+                raf.seek(position);
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int read;
+                while ((read = raf.read(buffer)) >= 0) {
+                    remaining.update(buffer, 0, read);
+                }
+            }
+            checksum = remaining;
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,106 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import java.util.Locale;
+
+/**
+ * Figures of the last run of a {@link ChunkedFileUploadRemoteOperation}, to compare the cost of sending the chunks with
+ * the cost of assembling them on the server.
+ */
+public class ChunkedUploadMetrics {
+
+    private final int chunkingVersion;
+    private long resumedBytes;
+    private int uploadedChunks;
+    private long uploadedBytes;
+    private long uploadTimeMillis;
+    private long assemblyTimeMillis = -1;
+
+    ChunkedUploadMetrics(int chunkingVersion) {
+        this.chunkingVersion = chunkingVersion;
+    }
+
+    synchronized void onChunkUploaded(long bytes) {
+        uploadedChunks++;
+        uploadedBytes += bytes;
+    }
+
+    synchronized void setResumedBytes(long resumedBytes) {
+        this.resumedBytes = resumedBytes;
+    }
+
+    synchronized void setUploadTimeMillis(long uploadTimeMillis) {
+        this.uploadTimeMillis = uploadTimeMillis;
+    }
+
+    synchronized void setAssemblyTimeMillis(long assemblyTimeMillis) {
+        this.assemblyTimeMillis = assemblyTimeMillis;
+    }
+
+    /**
+     * @return 1 for chunks named after their ranges and assembled by a MOVE, 2 for numbered chunks sent with the
+     * Destination header.
+     */
+    public int getChunkingVersion() {
+        return chunkingVersion;
+    }
+
+    /** Bytes already on the server from a previous attempt */
+    public synchronized long getResumedBytes() {
+        return resumedBytes;
+    }
+
+    public synchronized int getUploadedChunks() {
+        return uploadedChunks;
+    }
+
+    public synchronized long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    /** Time spent sending the missing chunks */
+    public synchronized long getUploadTimeMillis() {
+        return uploadTimeMillis;
+    }
+
+    /** Time the server took to assemble the chunks into the final file; -1 if the chunks were not assembled */
+    public synchronized long getAssemblyTimeMillis() {
+        return assemblyTimeMillis;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(Locale.ROOT,
+                             "v%d: %d chunks, %d bytes sent in %d ms, %d bytes resumed, assembled in %d ms",
+                             chunkingVersion,
+                             uploadedChunks,
+                             uploadedBytes,
+                             uploadTimeMillis,
+                             resumedBytes,
+                             assemblyTimeMillis);
+    }
+}
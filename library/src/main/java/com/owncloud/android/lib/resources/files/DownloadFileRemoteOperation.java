@@ -24,8 +24,12 @@
 
 package com.owncloud.android.lib.resources.files;
 
+import com.nextcloud.common.NextcloudClient;
 import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.FileDownloadSink;
+import com.owncloud.android.lib.common.network.FileTransferEngine;
 import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.network.ProgressDispatcher;
 import com.owncloud.android.lib.common.network.WebdavUtils;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
@@ -36,16 +40,16 @@ import org.apache.commons.httpclient.Header;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.httpclient.methods.GetMethod;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.Date;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import okio.BufferedSource;
+
 /**
  * Remote operation performing the download of a remote file in the ownCloud server.
  *
@@ -57,15 +61,23 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
 
     private static final String TAG = DownloadFileRemoteOperation.class.getSimpleName();
 
+    public static final int DEFAULT_SEGMENT_COUNT = 4;
+    public static final long DEFAULT_MIN_SEGMENT_SIZE = 8 * 1024 * 1024;
+
     private Set<OnDatatransferProgressListener> mDataTransferListeners = new HashSet<>();
     private final AtomicBoolean mCancellationRequested = new AtomicBoolean(false);
     private long modificationTimestamp = 0;
     private String eTag = "";
-    private GetMethod getMethod;
+    private volatile GetMethod getMethod;
+    private volatile com.nextcloud.operations.GetMethod okHttpGetMethod;
 
     private String remotePath;
     private String temporalFolderPath;
 
+    private int segmentCount = 1;
+    private long minSegmentSize = DEFAULT_MIN_SEGMENT_SIZE;
+    private volatile SegmentedDownload segmentedDownload;
+
     /**
      * @param remotePath         which file to download
      * @param temporalFolderPath temporal folder where file is stored, to avoid conflicts it use full remote path
@@ -75,6 +87,20 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
         this.temporalFolderPath = temporalFolderPath;
     }
 
+    /**
+     * Downloads files longer than the minimum segment size in several byte ranges fetched at the same time, for links
+     * where a single connection does not get all the bandwidth. Off by default. A download kept to be resumed goes on
+     * in a single request.
+     *
+     * @param segmentCount   Maximum number of ranges fetched at the same time, e.g. {@link #DEFAULT_SEGMENT_COUNT};
+     *                       1 downloads the file in a single request.
+     * @param minSegmentSize Minimum length of a range, in bytes, e.g. {@link #DEFAULT_MIN_SEGMENT_SIZE}.
+     */
+    public void setSegmentedDownload(int segmentCount, long minSegmentSize) {
+        this.segmentCount = Math.max(1, segmentCount);
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+    }
+
 	@Override
 	protected RemoteOperationResult run(OwnCloudClient client) {
         RemoteOperationResult result;
@@ -85,8 +111,12 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
         /// perform the download
         try {
             tmpFile.getParentFile().mkdirs();
-            int status = downloadFile(client, tmpFile);
-            result = new RemoteOperationResult(isSuccess(status), getMethod);
+            result = downloadInSegments(SegmentedDownload.forClient(client, client.getFilesDavUri(remotePath)),
+                                        tmpFile);
+            if (result == null) {
+                int status = downloadFile(client, tmpFile);
+                result = new RemoteOperationResult(isSuccess(status), getMethod);
+            }
             Log_OC.i(TAG, "Download of " + remotePath + " to " + getTmpPath() + ": " +
                 result.getLogMessage());
 
@@ -103,41 +133,70 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
     private int downloadFile(OwnCloudClient client, File targetFile) throws IOException, OperationCancelledException {
         int status;
         boolean savedFile = false;
-        getMethod = new GetMethod(client.getFilesDavUri(remotePath));
-        Iterator<OnDatatransferProgressListener> it;
+        boolean restart = false;
+        PartialDownload partialDownload = new PartialDownload(targetFile);
+        long offset = partialDownload.getResumeOffset();
+        synchronized (mCancellationRequested) {
+            if (mCancellationRequested.get()) {
+                throw new OperationCancelledException();
+            }
+            getMethod = new GetMethod(client.getFilesDavUri(remotePath));
+        }
+        if (offset > 0) {
+            // the rest of the file, if it did not change; the whole file otherwise
+            getMethod.addRequestHeader(PartialDownload.RANGE_HEADER, "bytes=" + offset + "-");
+            getMethod.addRequestHeader(PartialDownload.IF_RANGE_HEADER, partialDownload.getEtag());
+        }
+        ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+        synchronized (mDataTransferListeners) {
+            progressDispatcher.addDataTransferProgressListeners(mDataTransferListeners);
+        }
 
-        FileOutputStream fos = null;
+        RandomAccessFile raf = null;
         try {
             status = client.executeMethod(getMethod);
-            if (isSuccess(status)) {
-                targetFile.createNewFile();
-                BufferedInputStream bis = new BufferedInputStream(getMethod.getResponseBodyAsStream());
-                fos = new FileOutputStream(targetFile);
-                long transferred = 0;
+            Header contentRange = getMethod.getResponseHeader(PartialDownload.CONTENT_RANGE_HEADER);
+            if (mustRestart(offset, status, contentRange == null ? null : contentRange.getValue())) {
+                client.exhaustResponse(getMethod.getResponseBodyAsStream());
+                restart = true;
+
+            } else if (isSuccess(status)) {
+                if (status == HttpStatus.SC_OK) {
+                    // the whole file, replacing any part kept
+                    offset = 0;
+                    Header rawEtag = getMethod.getResponseHeader(PartialDownload.ETAG_HEADER);
+                    partialDownload.start(rawEtag == null ? null : rawEtag.getValue());
+                }
+                raf = new RandomAccessFile(targetFile, "rw");
+                raf.setLength(offset);
 
                 Header contentLength = getMethod.getResponseHeader("Content-Length");
                 long totalToTransfer = (contentLength != null &&
                     contentLength.getValue().length() > 0) ?
                     Long.parseLong(contentLength.getValue()) : 0;
+                if (offset > 0) {
+                    totalToTransfer = getCompleteLength(offset, contentRange.getValue(), totalToTransfer);
+                }
 
-                byte[] bytes = new byte[4096];
-                int readResult;
-                while ((readResult = bis.read(bytes)) != -1) {
-                    synchronized (mCancellationRequested) {
-                        if (mCancellationRequested.get()) {
-                            getMethod.abort();
-                            throw new OperationCancelledException();
-                        }
-                    }
-                    fos.write(bytes, 0, readResult);
-                    transferred += readResult;
-                    synchronized (mDataTransferListeners) {
-                        it = mDataTransferListeners.iterator();
-                        while (it.hasNext()) {
-                            it.next().onTransferProgress(readResult, transferred, totalToTransfer,
-                                targetFile.getName());
-                        }
+                final long start = offset;
+                final long total = totalToTransfer;
+                long transferred;
+                try {
+                    transferred = start + FileTransferEngine.receive(
+                        getMethod.getResponseBodyAsStream(),
+                        raf.getChannel(),
+                        start,
+                        mCancellationRequested,
+                        (progressRate, received) -> progressDispatcher.onTransferProgress(progressRate,
+                                                                                          start + received,
+                                                                                          total,
+                                                                                          targetFile.getName()));
+                } catch (IOException e) {
+                    // cancel() aborts the connection, failing the read in progress
+                    if (mCancellationRequested.get()) {
+                        throw new OperationCancelledException();
                     }
+                    throw e;
                 }
                 // Check if the file is completed
                 // if transfer-encoding: chunked we cannot check if the file is complete
@@ -173,20 +232,212 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
 
             } else {
                 client.exhaustResponse(getMethod.getResponseBodyAsStream());
+                if (isClientError(status)) {
+                    // e.g. the file does not exist anymore
+                    partialDownload.discard();
+                }
             }
 
         } finally {
-            if (fos != null) fos.close();
-            if (!savedFile && targetFile.exists()) {
-                targetFile.delete();
+            progressDispatcher.finish();
+            if (raf != null) raf.close();
+            if (restart) {
+                partialDownload.discard();
+            } else {
+                partialDownload.finish(savedFile);
             }
             getMethod.releaseConnection();    // let the connection available for other methods
         }
+        if (restart) {
+            Log_OC.d(TAG, "Part kept of " + remotePath + " does not match the file anymore, downloading all of it");
+            return downloadFile(client, targetFile);
+        }
         return status;
     }
 
+    @Override
+    public RemoteOperationResult run(NextcloudClient client) {
+        RemoteOperationResult result;
+
+        /// download will be performed to a temporal file, then moved to the final location
+        File tmpFile = new File(getTmpPath());
+
+        /// perform the download
+        try {
+            tmpFile.getParentFile().mkdirs();
+            result = downloadInSegments(SegmentedDownload.forClient(client, client.getFilesDavUri(remotePath)),
+                                        tmpFile);
+            if (result == null) {
+                downloadFile(client, tmpFile);
+                result = new RemoteOperationResult(isSuccess(okHttpGetMethod.getStatusCode()), okHttpGetMethod);
+            }
+            Log_OC.i(TAG, "Download of " + remotePath + " to " + getTmpPath() + ": " +
+                result.getLogMessage());
+
+        } catch (Exception e) {
+            if (mCancellationRequested.get()) {
+                result = new RemoteOperationResult(new OperationCancelledException());
+            } else {
+                result = new RemoteOperationResult(e);
+            }
+            Log_OC.e(TAG, "Download of " + remotePath + " to " + getTmpPath() + ": " +
+                result.getLogMessage(), e);
+        }
+
+        return result;
+    }
+
+    /**
+     * Streams the response body to the file with Okio, handing its segments over to the file as they arrive.
+     */
+    private void downloadFile(NextcloudClient client, File targetFile) throws IOException {
+        boolean savedFile = false;
+        boolean restart = false;
+        PartialDownload partialDownload = new PartialDownload(targetFile);
+        long offset = partialDownload.getResumeOffset();
+        com.nextcloud.operations.GetMethod method =
+            new com.nextcloud.operations.GetMethod(client.getFilesDavUri(remotePath), false);
+        if (offset > 0) {
+            // the rest of the file, if it did not change; the whole file otherwise
+            method.addRequestHeader(PartialDownload.RANGE_HEADER, "bytes=" + offset + "-");
+            method.addRequestHeader(PartialDownload.IF_RANGE_HEADER, partialDownload.getEtag());
+        }
+        synchronized (mCancellationRequested) {
+            okHttpGetMethod = method;
+            if (mCancellationRequested.get()) {
+                method.abort();
+            }
+        }
+
+        try {
+            int status = client.execute(method);
+            String contentRange = method.getResponseHeader(PartialDownload.CONTENT_RANGE_HEADER);
+            BufferedSource body = method.getResponseBodySource();
+            if (mustRestart(offset, status, contentRange)) {
+                restart = true;
+
+            } else if (isSuccess(status) && body != null) {
+                if (status == HttpStatus.SC_OK) {
+                    // the whole file, replacing any part kept
+                    offset = 0;
+                    partialDownload.start(method.getResponseHeader(PartialDownload.ETAG_HEADER));
+                }
+                long totalToTransfer = method.getResponseContentLength();
+                if (offset > 0) {
+                    totalToTransfer = getCompleteLength(offset, contentRange, totalToTransfer);
+                }
+                long transferred;
+                FileDownloadSink sink =
+                    new FileDownloadSink(targetFile, offset, totalToTransfer, mCancellationRequested);
+                try {
+                    synchronized (mDataTransferListeners) {
+                        sink.addDataTransferProgressListeners(mDataTransferListeners);
+                    }
+                    body.readAll(sink);
+                    transferred = sink.getTransferred();
+                } finally {
+                    sink.close();
+                }
+
+                // if transfer-encoding: chunked we cannot check if the file is complete
+                if (totalToTransfer < 0 || transferred == totalToTransfer) {
+                    savedFile = true;
+                    String modificationTime = method.getResponseHeader("Last-Modified");
+                    if (modificationTime != null) {
+                        Date d = WebdavUtils.parseResponseDate(modificationTime);
+                        modificationTimestamp = (d != null) ? d.getTime() : 0;
+                    } else {
+                        Log_OC.e(TAG, "Could not read modification time from response downloading " + remotePath);
+                    }
+
+                    eTag = WebdavUtils.getEtagFromResponse(method);
+                    if (eTag.length() == 0) {
+                        Log_OC.e(TAG, "Could not read eTag from response downloading " + remotePath);
+                    }
+                }
+
+            } else if (isClientError(status)) {
+                // e.g. the file does not exist anymore
+                partialDownload.discard();
+            }
+        } finally {
+            if (restart) {
+                partialDownload.discard();
+            } else {
+                partialDownload.finish(savedFile);
+            }
+            method.releaseConnection();    // let the connection available for other methods
+        }
+        if (restart) {
+            Log_OC.d(TAG, "Part kept of " + remotePath + " does not match the file anymore, downloading all of it");
+            downloadFile(client, targetFile);
+        }
+    }
+
+    /**
+     * Downloads the file in segments, if enabled.
+     *
+     * @return Result of the download, or null if it must be done in a single request.
+     */
+    private RemoteOperationResult downloadInSegments(SegmentedDownload.RangeClient rangeClient, File targetFile)
+            throws IOException {
+        if (segmentCount <= 1 || new PartialDownload(targetFile).getResumeOffset() > 0) {
+            return null;
+        }
+        ProgressDispatcher progressDispatcher = new ProgressDispatcher();
+        synchronized (mDataTransferListeners) {
+            progressDispatcher.addDataTransferProgressListeners(mDataTransferListeners);
+        }
+        SegmentedDownload download = new SegmentedDownload(rangeClient,
+                                                           targetFile,
+                                                           segmentCount,
+                                                           minSegmentSize,
+                                                           mCancellationRequested,
+                                                           progressDispatcher);
+        synchronized (mCancellationRequested) {
+            segmentedDownload = download;
+            if (mCancellationRequested.get()) {
+                download.abort();
+            }
+        }
+        RemoteOperationResult result = download.run();
+        if (result != null && result.isSuccess()) {
+            modificationTimestamp = download.getModificationTimestamp();
+            eTag = download.getEtag();
+        }
+        return result;
+    }
+
+    /**
+     * @return The part of the file kept from a previous download does not match the file on the server anymore, so
+     * the download must start over.
+     */
+    private static boolean mustRestart(long offset, int status, String contentRange) {
+        if (offset == 0) {
+            return false;
+        }
+        return status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE ||
+            (status == HttpStatus.SC_PARTIAL_CONTENT && PartialDownload.parseRangeStart(contentRange) != offset);
+    }
+
+    /**
+     * @return Length of the whole file when the rest of it is sent from the given offset, so that progress is
+     * reported relative to the whole file.
+     */
+    private static long getCompleteLength(long offset, String contentRange, long contentLength) {
+        long completeLength = PartialDownload.parseCompleteLength(contentRange);
+        if (completeLength >= 0) {
+            return completeLength;
+        }
+        return contentLength >= 0 ? offset + contentLength : contentLength;
+    }
+
     private boolean isSuccess(int status) {
-        return (status == HttpStatus.SC_OK);
+        return (status == HttpStatus.SC_OK || status == HttpStatus.SC_PARTIAL_CONTENT);
+    }
+
+    private boolean isClientError(int status) {
+        return status >= HttpStatus.SC_BAD_REQUEST && status < HttpStatus.SC_INTERNAL_SERVER_ERROR;
     }
 
     private String getTmpPath() {
@@ -206,7 +457,19 @@ public class DownloadFileRemoteOperation extends RemoteOperation {
     }
 
     public void cancel() {
-        mCancellationRequested.set(true);   // atomic set; there is no need of synchronizing it
+        synchronized (mCancellationRequested) {
+            mCancellationRequested.set(true);
+            // fails the read of the body in progress at once
+            if (getMethod != null) {
+                getMethod.abort();
+            }
+            if (okHttpGetMethod != null) {
+                okHttpGetMethod.abort();
+            }
+            if (segmentedDownload != null) {
+                segmentedDownload.abort();
+            }
+        }
     }
 
     public long getModificationTimestamp() {
@@ -0,0 +1,298 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.nextcloud.common.NextcloudClient;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.DownloadSink;
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperation;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Sink;
+
+/**
+ * Remote operation downloading a remote file into a sink given by the caller, e.g. to show, play or process it, with
+ * no temporary file.
+ * <p>
+ * The body of the response is handed over to the sink as it arrives; a sink slower than the network makes the
+ * download wait for it. The sink is flushed, but not closed. A download failing in the middle may have written part
+ * of the file to the sink already.
+ */
+public class DownloadToSinkRemoteOperation extends RemoteOperation {
+
+    private static final String TAG = DownloadToSinkRemoteOperation.class.getSimpleName();
+
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+    private static final String CONTENT_TYPE_HEADER = "Content-Type";
+
+    private final Set<OnDatatransferProgressListener> dataTransferListeners = new HashSet<>();
+    private final AtomicBoolean cancellationRequested = new AtomicBoolean(false);
+    private final String remotePath;
+    private final Sink sink;
+    private volatile GetMethod getMethod;
+    private volatile com.nextcloud.operations.GetMethod okHttpGetMethod;
+
+    private long modificationTimestamp = 0;
+    private String eTag = "";
+    private String mimeType;
+    private long contentLength = -1;
+    private long transferred = 0;
+
+    /**
+     * @param remotePath Path of the file to download.
+     * @param sink       Receives the content of the file.
+     */
+    public DownloadToSinkRemoteOperation(String remotePath, Sink sink) {
+        this.remotePath = remotePath;
+        this.sink = sink;
+    }
+
+    /**
+     * @param remotePath Path of the file to download.
+     * @param out        Receives the content of the file.
+     */
+    public DownloadToSinkRemoteOperation(String remotePath, OutputStream out) {
+        this(remotePath, Okio.sink(out));
+    }
+
+    /**
+     * @param remotePath Path of the file to download.
+     * @param channel    Receives the content of the file.
+     */
+    public DownloadToSinkRemoteOperation(String remotePath, WritableByteChannel channel) {
+        this(remotePath, Okio.sink(Channels.newOutputStream(channel)));
+    }
+
+    @Override
+    protected RemoteOperationResult run(OwnCloudClient client) {
+        RemoteOperationResult result;
+        try {
+            synchronized (cancellationRequested) {
+                if (cancellationRequested.get()) {
+                    throw new OperationCancelledException();
+                }
+                getMethod = new GetMethod(client.getFilesDavUri(remotePath));
+            }
+            try {
+                int status = client.executeMethod(getMethod);
+                boolean completed = false;
+                if (status == HttpStatus.SC_OK) {
+                    contentLength = getMethod.getResponseContentLength();
+                    completed = receive(Okio.buffer(Okio.source(getMethod.getResponseBodyAsStream())));
+                    readMetadata(getResponseHeader(getMethod, LAST_MODIFIED_HEADER),
+                                 WebdavUtils.getEtagFromResponse(getMethod),
+                                 getResponseHeader(getMethod, CONTENT_TYPE_HEADER));
+                } else {
+                    client.exhaustResponse(getMethod.getResponseBodyAsStream());
+                }
+                result = completed ? new RemoteOperationResult(true, getMethod) : getFailure(status, getMethod);
+            } finally {
+                getMethod.releaseConnection();    // let the connection available for other methods
+            }
+        } catch (Exception e) {
+            result = getFailure(e);
+        }
+        log(result);
+        return result;
+    }
+
+    @Override
+    public RemoteOperationResult run(NextcloudClient client) {
+        RemoteOperationResult result;
+        com.nextcloud.operations.GetMethod method =
+            new com.nextcloud.operations.GetMethod(client.getFilesDavUri(remotePath), false);
+        synchronized (cancellationRequested) {
+            okHttpGetMethod = method;
+            if (cancellationRequested.get()) {
+                method.abort();
+            }
+        }
+        try {
+            int status = client.execute(method);
+            BufferedSource body = method.getResponseBodySource();
+            boolean completed = false;
+            if (status == HttpStatus.SC_OK && body != null) {
+                contentLength = method.getResponseContentLength();
+                completed = receive(body);
+                readMetadata(method.getResponseHeader(LAST_MODIFIED_HEADER),
+                             WebdavUtils.getEtagFromResponse(method),
+                             method.getResponseHeader(CONTENT_TYPE_HEADER));
+            }
+            result = completed ? new RemoteOperationResult(true, method) : getFailure(status, method);
+        } catch (Exception e) {
+            result = getFailure(e);
+        } finally {
+            method.releaseConnection();    // let the connection available for other methods
+        }
+        log(result);
+        return result;
+    }
+
+    /**
+     * Hands the body over to the sink.
+     *
+     * @return The whole content announced by the server was received.
+     */
+    private boolean receive(BufferedSource body) throws IOException {
+        DownloadSink downloadSink = new DownloadSink(sink, remotePath, 0, contentLength, cancellationRequested);
+        synchronized (dataTransferListeners) {
+            downloadSink.addDataTransferProgressListeners(dataTransferListeners);
+        }
+        try {
+            body.readAll(downloadSink);
+        } finally {
+            transferred = downloadSink.getTransferred();
+            downloadSink.finish();
+        }
+        // if transfer-encoding: chunked we cannot check if the content is complete
+        return contentLength < 0 || transferred == contentLength;
+    }
+
+    private void readMetadata(String lastModified, String eTag, String contentType) {
+        if (lastModified != null) {
+            Date d = WebdavUtils.parseResponseDate(lastModified);
+            modificationTimestamp = (d != null) ? d.getTime() : 0;
+        } else {
+            Log_OC.e(TAG, "Could not read modification time from response downloading " + remotePath);
+        }
+        this.eTag = eTag;
+        if (eTag.length() == 0) {
+            Log_OC.e(TAG, "Could not read eTag from response downloading " + remotePath);
+        }
+        mimeType = contentType;
+    }
+
+    private RemoteOperationResult getFailure(int status, GetMethod method) {
+        if (status == HttpStatus.SC_OK) {
+            return getIncompleteFailure();
+        }
+        return new RemoteOperationResult(false, method);
+    }
+
+    private RemoteOperationResult getFailure(int status, com.nextcloud.operations.GetMethod method) {
+        if (status == HttpStatus.SC_OK) {
+            return getIncompleteFailure();
+        }
+        return new RemoteOperationResult(false, method);
+    }
+
+    private RemoteOperationResult getIncompleteFailure() {
+        return new RemoteOperationResult(new IOException("Download of " + remotePath + " ended after " +
+                                                         transferred + " of " + contentLength + " bytes"));
+    }
+
+    private RemoteOperationResult getFailure(Exception e) {
+        if (cancellationRequested.get()) {
+            return new RemoteOperationResult(new OperationCancelledException());
+        }
+        return new RemoteOperationResult(e);
+    }
+
+    private void log(RemoteOperationResult result) {
+        if (result.isSuccess()) {
+            Log_OC.i(TAG, "Download of " + remotePath + ": " + result.getLogMessage());
+        } else {
+            Log_OC.e(TAG, "Download of " + remotePath + ": " + result.getLogMessage(), result.getException());
+        }
+    }
+
+    private static String getResponseHeader(GetMethod method, String name) {
+        Header header = method.getResponseHeader(name);
+        return header == null ? null : header.getValue();
+    }
+
+    public void addDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        synchronized (dataTransferListeners) {
+            dataTransferListeners.add(listener);
+        }
+    }
+
+    public void removeDatatransferProgressListener(OnDatatransferProgressListener listener) {
+        synchronized (dataTransferListeners) {
+            dataTransferListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Stops the download, failing the read of the body in progress at once.
+     */
+    public void cancel() {
+        synchronized (cancellationRequested) {
+            cancellationRequested.set(true);
+            if (getMethod != null) {
+                getMethod.abort();
+            }
+            if (okHttpGetMethod != null) {
+                okHttpGetMethod.abort();
+            }
+        }
+    }
+
+    /**
+     * @return Bytes written to the sink.
+     */
+    public long getTransferred() {
+        return transferred;
+    }
+
+    /**
+     * @return Length of the file announced by the server, or -1 if unknown.
+     */
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public String getMimeType() {
+        return mimeType;
+    }
+
+    public long getModificationTimestamp() {
+        return modificationTimestamp;
+    }
+
+    public String getEtag() {
+        return eTag;
+    }
+}
@@ -0,0 +1,202 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Part of a file already downloaded by an interrupted download, kept to resume it.
+ * <p>
+ * The ETag of the version of the file the part belongs to is kept in a sidecar file next to it. A download is resumed
+ * asking for the rest of the file only if it still has that ETag ({@code Range} and {@code If-Range} headers); the
+ * server sends the whole file otherwise. A part with no strong ETag recorded cannot be resumed and is discarded.
+ */
+class PartialDownload {
+
+    private static final String TAG = PartialDownload.class.getSimpleName();
+
+    static final String RANGE_HEADER = "Range";
+    static final String IF_RANGE_HEADER = "If-Range";
+    static final String CONTENT_RANGE_HEADER = "Content-Range";
+    static final String ETAG_HEADER = "ETag";
+
+    private static final String SIDECAR_EXTENSION = ".etag";
+    private static final String WEAK_ETAG_PREFIX = "W/";
+    private static final String BYTES_UNIT = "bytes";
+
+    private final File file;
+    private final File sidecar;
+
+    /**
+     * @param file Target file of the download.
+     */
+    PartialDownload(File file) {
+        this.file = file;
+        this.sidecar = new File(file.getPath() + SIDECAR_EXTENSION);
+    }
+
+    /**
+     * @return Length of the part downloaded before, 0 if there is none that can be resumed; such a part is discarded.
+     */
+    long getResumeOffset() {
+        if (file.length() > 0 && getEtag() != null) {
+            return file.length();
+        }
+        discard();
+        return 0;
+    }
+
+    /**
+     * @return ETag, as sent by the server, of the version of the file the part belongs to; null if unknown.
+     */
+    String getEtag() {
+        if (!sidecar.exists()) {
+            return null;
+        }
+        try (InputStream in = new FileInputStream(sidecar)) {
+            byte[] buffer = new byte[(int) Math.min(sidecar.length(), 1024)];
+            int length = 0;
+            int read;
+            while (length < buffer.length && (read = in.read(buffer, length, buffer.length - length)) >= 0) {
+                length += read;
+            }
+            String eTag = new String(buffer, 0, length, StandardCharsets.UTF_8).trim();
+            return isStrong(eTag) ? eTag : null;
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error reading " + sidecar, e);
+            return null;
+        }
+    }
+
+    /**
+     * Records the ETag of the version of the file being written, before any of its bytes are. A file with no strong
+     * ETag is not recorded, so its part would be discarded.
+     *
+     * @param eTag Value of the ETag header of the response, quoted.
+     */
+    void start(String eTag) {
+        if (!isStrong(eTag)) {
+            removeSidecar();
+            return;
+        }
+        try (OutputStream out = new FileOutputStream(sidecar)) {
+            out.write(eTag.getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error writing " + sidecar, e);
+            removeSidecar();
+        }
+    }
+
+    /**
+     * Called when the download ends, keeping the part downloaded if it was not completed and can be resumed.
+     *
+     * @param completed The download is complete, so nothing is left to resume.
+     */
+    void finish(boolean completed) {
+        if (completed) {
+            removeSidecar();
+        } else if (file.length() == 0 || getEtag() == null) {
+            discard();
+        } else {
+            Log_OC.d(TAG, "Keeping " + file.length() + " bytes of " + file + " to resume the download");
+        }
+    }
+
+    /**
+     * Deletes the part and its sidecar.
+     */
+    void discard() {
+        if (file.exists() && !file.delete()) {
+            Log_OC.e(TAG, "Error deleting " + file);
+        }
+        removeSidecar();
+    }
+
+    private void removeSidecar() {
+        if (sidecar.exists() && !sidecar.delete()) {
+            Log_OC.e(TAG, "Error deleting " + sidecar);
+        }
+    }
+
+    /**
+     * Only strong ETags are valid in If-Range.
+     */
+    static boolean isStrong(String eTag) {
+        return eTag != null && eTag.length() > 0 && !eTag.startsWith(WEAK_ETAG_PREFIX);
+    }
+
+    /**
+     * @param contentRange Value of a Content-Range header, e.g. "bytes 100-199/1000".
+     * @return First byte of the range, or -1 if the header is not valid.
+     */
+    static long parseRangeStart(String contentRange) {
+        String range = getRange(contentRange);
+        if (range == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @param contentRange Value of a Content-Range header, e.g. "bytes 100-199/1000".
+     * @return Length of the whole file, or -1 if it is unknown or the header is not valid.
+     */
+    static long parseCompleteLength(String contentRange) {
+        String range = getRange(contentRange);
+        if (range == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(range.substring(range.indexOf('/') + 1).trim());
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            // "*" when unknown
+            return -1;
+        }
+    }
+
+    private static String getRange(String contentRange) {
+        if (contentRange == null) {
+            return null;
+        }
+        String value = contentRange.trim();
+        if (!value.startsWith(BYTES_UNIT) || value.indexOf('/') < 0) {
+            return null;
+        }
+        return value.substring(BYTES_UNIT.length()).trim();
+    }
+}
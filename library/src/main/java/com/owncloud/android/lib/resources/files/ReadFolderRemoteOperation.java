@@ -27,6 +27,7 @@ package com.owncloud.android.lib.resources.files;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.network.WebdavEntry;
 import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.operations.CoalescableOperation;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
 import com.owncloud.android.lib.common.utils.Log_OC;
@@ -46,7 +47,7 @@ import java.util.ArrayList;
  * @author masensio
  */
 
-public class ReadFolderRemoteOperation extends RemoteOperation {
+public class ReadFolderRemoteOperation extends RemoteOperation implements CoalescableOperation {
 
     private static final String TAG = ReadFolderRemoteOperation.class.getSimpleName();
 
@@ -154,4 +155,22 @@ public class ReadFolderRemoteOperation extends RemoteOperation {
         }
 
     }
+
+    @Override
+    public String getCoalescingKey() {
+        return "PROPFIND " + DavConstants.DEPTH_1 + " " + mRemotePath;
+    }
+
+    @Override
+    public RemoteOperationResult copyResult(RemoteOperationResult result) {
+        RemoteOperationResult copy = result.copy();
+        if (result.isSuccess() && result.getData() != null) {
+            ArrayList<Object> folderAndFiles = new ArrayList<>();
+            for (Object file : result.getData()) {
+                folderAndFiles.add(new RemoteFile((RemoteFile) file));
+            }
+            copy.setData(folderAndFiles);
+        }
+        return copy;
+    }
 }
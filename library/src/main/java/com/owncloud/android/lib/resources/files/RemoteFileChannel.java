@@ -0,0 +1,620 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.nextcloud.common.NextcloudClient;
+import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.HttpStatus;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Channel reading a remote file at any position, for media players or archive viewers that only need parts of a
+ * large file. It offers the methods of a {@code SeekableByteChannel}, not available before Android 7, for reading.
+ * <p>
+ * The file is read in blocks, each one fetched with a ranged GET and kept in an LRU cache in memory; blocks evicted
+ * from memory can be kept in a folder on disk too. When reads go through the file sequentially, the next blocks are
+ * fetched in advance, several at the same time.
+ * <p>
+ * The first request pins the ETag of the file; every block after it is requested only if the file still has that
+ * ETag, so a file changing while it is read fails the read with a {@link FileChangedException} instead of mixing
+ * bytes of two versions.
+ * <p>
+ * Options must be set before the first read. Reads may be called from several threads.
+ */
+public class RemoteFileChannel implements ReadableByteChannel {
+
+    private static final String TAG = RemoteFileChannel.class.getSimpleName();
+
+    public static final int DEFAULT_BLOCK_SIZE = 256 * 1024;
+    public static final int DEFAULT_MAX_CACHED_BLOCKS = 32;
+    public static final int DEFAULT_READ_AHEAD_BLOCKS = 4;
+    public static final int DEFAULT_MAX_CONCURRENT_FETCHES = 4;
+
+    /** Blocks read one after another before reading ahead */
+    private static final int SEQUENTIAL_READS_FOR_READ_AHEAD = 2;
+
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final String SPILL_FILE_PREFIX = "block";
+
+    private final SegmentedDownload.RangeClient rangeClient;
+    private final String name;
+
+    private int blockSize = DEFAULT_BLOCK_SIZE;
+    private int maxCachedBlocks = DEFAULT_MAX_CACHED_BLOCKS;
+    private File spillDirectory = null;
+    private int maxSpilledBlocks = 0;
+    private int readAheadBlocks = DEFAULT_READ_AHEAD_BLOCKS;
+    private int maxConcurrentFetches = DEFAULT_MAX_CONCURRENT_FETCHES;
+
+    private volatile boolean opened = false;
+    private volatile boolean closed = false;
+    private long size = -1;
+    private String pinnedEtag;
+    private final AtomicLong position = new AtomicLong(0);
+
+    /** Guards the request of the first block */
+    private final Object openLock = new Object();
+
+    /** Guards the detection of sequential reads */
+    private final Object readPatternLock = new Object();
+    private long lastBlockRead = -1;
+    private int sequentialReads = 0;
+
+    /** Guards the caches and the fetches in progress */
+    private final Object cacheLock = new Object();
+    private final Map<Long, byte[]> memoryCache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+            if (size() <= maxCachedBlocks) {
+                return false;
+            }
+            spill(eldest.getKey(), eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<Long, File> diskCache = new LinkedHashMap<Long, File>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, File> eldest) {
+            if (size() <= maxSpilledBlocks) {
+                return false;
+            }
+            delete(eldest.getValue());
+            return true;
+        }
+    };
+    private final Map<Long, Future<byte[]>> pendingFetches = new HashMap<>();
+    private final Set<SegmentedDownload.RangeRequest> activeRequests = new HashSet<>();
+    private ExecutorService executor;
+
+    /**
+     * @param client     Client of the account the file belongs to.
+     * @param remotePath Path of the file to read.
+     */
+    public RemoteFileChannel(NextcloudClient client, String remotePath) {
+        this(SegmentedDownload.forClient(client, client.getFilesDavUri(remotePath)), remotePath);
+    }
+
+    RemoteFileChannel(SegmentedDownload.RangeClient rangeClient, String name) {
+        this.rangeClient = rangeClient;
+        this.name = name;
+    }
+
+    /**
+     * @param blockSize Bytes fetched by every request, e.g. {@link #DEFAULT_BLOCK_SIZE}.
+     */
+    public void setBlockSize(int blockSize) {
+        checkNotOpened();
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be greater than zero");
+        }
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param maxCachedBlocks Blocks kept in memory, e.g. {@link #DEFAULT_MAX_CACHED_BLOCKS}.
+     */
+    public void setMaxCachedBlocks(int maxCachedBlocks) {
+        checkNotOpened();
+        this.maxCachedBlocks = Math.max(1, maxCachedBlocks);
+    }
+
+    /**
+     * Keeps blocks evicted from memory in a folder, e.g. the cache folder of the app, so that they are not fetched
+     * again. Off by default. The files are deleted when the channel is closed.
+     *
+     * @param spillDirectory   Folder for the blocks, or null to keep blocks only in memory.
+     * @param maxSpilledBlocks Blocks kept in the folder.
+     */
+    public void setSpillDirectory(File spillDirectory, int maxSpilledBlocks) {
+        checkNotOpened();
+        this.spillDirectory = spillDirectory;
+        this.maxSpilledBlocks = spillDirectory == null ? 0 : Math.max(0, maxSpilledBlocks);
+    }
+
+    /**
+     * @param readAheadBlocks Blocks fetched in advance during sequential reads, e.g.
+     *                        {@link #DEFAULT_READ_AHEAD_BLOCKS}; 0 disables reading ahead.
+     */
+    public void setReadAheadBlocks(int readAheadBlocks) {
+        checkNotOpened();
+        this.readAheadBlocks = Math.max(0, readAheadBlocks);
+    }
+
+    /**
+     * @param maxConcurrentFetches Blocks fetched at the same time, e.g. {@link #DEFAULT_MAX_CONCURRENT_FETCHES}.
+     */
+    public void setMaxConcurrentFetches(int maxConcurrentFetches) {
+        checkNotOpened();
+        this.maxConcurrentFetches = Math.max(1, maxConcurrentFetches);
+    }
+
+    /**
+     * Reads from the current position, advancing it. The position is not locked while the blocks are fetched, so
+     * threads sharing the channel should use {@link #read(ByteBuffer, long)} instead.
+     *
+     * @return Bytes read, or -1 at the end of the file.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+        long start = position.get();
+        int read = read(dst, start);
+        if (read > 0) {
+            // a position set meanwhile wins
+            position.compareAndSet(start, start + read);
+        }
+        return read;
+    }
+
+    /**
+     * Reads from the given position, not modifying the current one.
+     *
+     * @return Bytes read, or -1 if the position is at or after the end of the file.
+     */
+    public int read(ByteBuffer dst, long position) throws IOException {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        ensureOpened();
+        if (position >= size) {
+            return -1;
+        }
+        int read = 0;
+        while (dst.hasRemaining() && position < size) {
+            long index = position / blockSize;
+            byte[] block = getBlock(index);
+            int offset = (int) (position - index * blockSize);
+            int length = Math.min(dst.remaining(), block.length - offset);
+            if (length <= 0) {
+                break;
+            }
+            dst.put(block, offset, length);
+            position += length;
+            read += length;
+        }
+        return read;
+    }
+
+    /**
+     * @return Current position in the file.
+     */
+    public long position() throws IOException {
+        checkNotClosed();
+        return position.get();
+    }
+
+    /**
+     * Moves the current position; a position after the end of the file makes reads return -1.
+     */
+    public RemoteFileChannel position(long newPosition) throws IOException {
+        checkNotClosed();
+        if (newPosition < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        position.set(newPosition);
+        return this;
+    }
+
+    /**
+     * @return Length of the file.
+     */
+    public long size() throws IOException {
+        ensureOpened();
+        return size;
+    }
+
+    /**
+     * @return ETag of the version of the file read, unquoted; empty if unknown.
+     */
+    public String getEtag() throws IOException {
+        ensureOpened();
+        return WebdavUtils.parseEtag(pinnedEtag);
+    }
+
+    @Override
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    /**
+     * Stops the fetches in progress and releases the cache, including the blocks on disk.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        synchronized (activeRequests) {
+            for (SegmentedDownload.RangeRequest request : activeRequests) {
+                request.abort();
+            }
+        }
+        synchronized (cacheLock) {
+            if (executor != null) {
+                executor.shutdownNow();
+            }
+            // fetches still queued would never complete
+            for (Future<byte[]> fetch : pendingFetches.values()) {
+                fetch.cancel(true);
+            }
+            pendingFetches.clear();
+            memoryCache.clear();
+            for (File file : diskCache.values()) {
+                delete(file);
+            }
+            diskCache.clear();
+        }
+    }
+
+    /**
+     * Opens the channel on first use; only the first caller waits for the request.
+     */
+    private void ensureOpened() throws IOException {
+        checkNotClosed();
+        if (opened) {
+            return;
+        }
+        synchronized (openLock) {
+            if (!opened) {
+                open();
+            }
+        }
+    }
+
+    /**
+     * Requests the first block, which tells the length and the ETag of the file. Must be called holding
+     * {@link #openLock}.
+     */
+    private void open() throws IOException {
+        SegmentedDownload.RangeRequest probe = rangeClient.newRequest(0, blockSize - 1, null);
+        try {
+            int status = execute(probe);
+            pinnedEtag = probe.getHeader(PartialDownload.ETAG_HEADER);
+            byte[] first;
+            if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                String contentRange = probe.getHeader(PartialDownload.CONTENT_RANGE_HEADER);
+                size = PartialDownload.parseCompleteLength(contentRange);
+                if (size < 0 || PartialDownload.parseRangeStart(contentRange) != 0) {
+                    throw new IOException("Invalid range received for " + name + ": " + contentRange);
+                }
+                first = readFully(probe.getBody(), (int) Math.min(blockSize, size));
+
+            } else if (status == HttpStatus.SC_OK) {
+                // ranges not supported; good enough for files fitting in a block
+                size = parseLength(probe.getHeader(CONTENT_LENGTH_HEADER));
+                if (size < 0 || size > blockSize) {
+                    throw new IOException("Server does not support ranges for " + name);
+                }
+                first = readFully(probe.getBody(), (int) size);
+
+            } else if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE) {
+                // only for an empty file
+                size = 0;
+                first = null;
+
+            } else if (status == HttpStatus.SC_NOT_FOUND) {
+                throw new FileNotFoundException(name + " not found");
+
+            } else {
+                throw new IOException("Unexpected HTTP status " + status + " reading " + name);
+            }
+
+            if (first != null) {
+                synchronized (cacheLock) {
+                    memoryCache.put(0L, first);
+                }
+            }
+            opened = true;
+        } finally {
+            release(probe);
+        }
+    }
+
+    private byte[] getBlock(long index) throws IOException {
+        boolean sequential = onBlockRead(index);
+        Future<byte[]> fetch;
+        synchronized (cacheLock) {
+            byte[] block = getCachedBlock(index);
+            fetch = block == null ? startFetch(index) : null;
+            if (sequential) {
+                for (long next = index + 1; next <= index + readAheadBlocks && next * blockSize < size; next++) {
+                    if (!memoryCache.containsKey(next) && !diskCache.containsKey(next)) {
+                        startFetch(next);
+                    }
+                }
+            }
+            if (block != null) {
+                return block;
+            }
+        }
+        return await(fetch);
+    }
+
+    /**
+     * Follows the blocks read to tell sequential reads from random ones.
+     *
+     * @return Reads are sequential, so the next blocks must be fetched in advance.
+     */
+    private boolean onBlockRead(long index) {
+        synchronized (readPatternLock) {
+            if (index == lastBlockRead + 1) {
+                sequentialReads++;
+            } else if (index != lastBlockRead) {
+                sequentialReads = 0;
+            }
+            lastBlockRead = index;
+            return readAheadBlocks > 0 && sequentialReads >= SEQUENTIAL_READS_FOR_READ_AHEAD;
+        }
+    }
+
+    /**
+     * Must be called holding {@link #cacheLock}.
+     */
+    private byte[] getCachedBlock(long index) {
+        byte[] block = memoryCache.get(index);
+        if (block != null) {
+            return block;
+        }
+        File spilled = diskCache.remove(index);
+        if (spilled == null) {
+            return null;
+        }
+        try {
+            block = readFully(new FileInputStream(spilled), (int) spilled.length());
+            memoryCache.put(index, block);
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Error reading cached block of " + name + ": " + e.getMessage());
+            block = null;
+        } finally {
+            delete(spilled);
+        }
+        return block;
+    }
+
+    /**
+     * Must be called holding {@link #cacheLock}.
+     *
+     * @return The fetch of the block, joining the one in progress if any.
+     */
+    private Future<byte[]> startFetch(long index) throws IOException {
+        Future<byte[]> fetch = pendingFetches.get(index);
+        if (fetch != null) {
+            return fetch;
+        }
+        if (executor == null) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            executor = Executors.newFixedThreadPool(maxConcurrentFetches, runnable -> {
+                Thread thread = new Thread(runnable, TAG);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        fetch = executor.submit(() -> {
+            byte[] block = null;
+            try {
+                block = fetch(index);
+                return block;
+            } finally {
+                synchronized (cacheLock) {
+                    pendingFetches.remove(index);
+                    if (block != null && !closed) {
+                        memoryCache.put(index, block);
+                    }
+                }
+            }
+        });
+        pendingFetches.put(index, fetch);
+        return fetch;
+    }
+
+    private byte[] await(Future<byte[]> fetch) throws IOException {
+        try {
+            return fetch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Read of " + name + " interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException("Error reading " + name, cause);
+        } catch (CancellationException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Fetches a block of the file, only if it still has the ETag pinned.
+     */
+    private byte[] fetch(long index) throws IOException {
+        long start = index * blockSize;
+        long end = Math.min(start + blockSize, size) - 1;
+        SegmentedDownload.RangeRequest request =
+            rangeClient.newRequest(start, end, PartialDownload.isStrong(pinnedEtag) ? pinnedEtag : null);
+        try {
+            int status = execute(request);
+            String eTag = request.getHeader(PartialDownload.ETAG_HEADER);
+            if (status == HttpStatus.SC_PRECONDITION_FAILED ||
+                    (eTag != null && pinnedEtag != null && !eTag.equals(pinnedEtag))) {
+                throw new FileChangedException(name + " changed while reading it, ETag was " + pinnedEtag);
+            }
+            if (status != HttpStatus.SC_PARTIAL_CONTENT ||
+                    PartialDownload.parseRangeStart(request.getHeader(PartialDownload.CONTENT_RANGE_HEADER))
+                            != start) {
+                throw new IOException("Unexpected response to range " + start + "-" + end + " of " + name +
+                                      ", HTTP status " + status);
+            }
+            return readFully(request.getBody(), (int) (end + 1 - start));
+        } finally {
+            release(request);
+        }
+    }
+
+    private int execute(SegmentedDownload.RangeRequest request) throws IOException {
+        synchronized (activeRequests) {
+            if (closed) {
+                throw new ClosedChannelException();
+            }
+            activeRequests.add(request);
+        }
+        int status = request.execute();
+        if (status < 0) {
+            throw new IOException("Request for " + name + " failed");
+        }
+        return status;
+    }
+
+    private void release(SegmentedDownload.RangeRequest request) {
+        synchronized (activeRequests) {
+            activeRequests.remove(request);
+        }
+        request.close();
+    }
+
+    /**
+     * Keeps a block evicted from memory on disk, if enabled. Called holding {@link #cacheLock}.
+     */
+    private void spill(long index, byte[] block) {
+        if (maxSpilledBlocks <= 0 || closed) {
+            return;
+        }
+        File file = null;
+        try {
+            file = File.createTempFile(SPILL_FILE_PREFIX, null, spillDirectory);
+            try (OutputStream out = new FileOutputStream(file)) {
+                out.write(block);
+            }
+            diskCache.put(index, file);
+        } catch (IOException e) {
+            Log_OC.w(TAG, "Error caching block of " + name + " on disk: " + e.getMessage());
+            if (file != null) {
+                delete(file);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        if (file.exists() && !file.delete()) {
+            Log_OC.w(TAG, "Error deleting cached block " + file);
+        }
+    }
+
+    private static byte[] readFully(InputStream in, int length) throws IOException {
+        if (in == null) {
+            throw new IOException("No content received");
+        }
+        byte[] bytes = new byte[length];
+        try {
+            int read = 0;
+            while (read < length) {
+                int count = in.read(bytes, read, length - read);
+                if (count < 0) {
+                    throw new EOFException("Content ended after " + read + " of " + length + " bytes");
+                }
+                read += count;
+            }
+        } finally {
+            in.close();
+        }
+        return bytes;
+    }
+
+    private static long parseLength(String contentLength) {
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private void checkNotOpened() {
+        if (opened) {
+            throw new IllegalStateException("Options must be set before the first read");
+        }
+    }
+
+    private void checkNotClosed() throws ClosedChannelException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * The remote file changed while it was being read.
+     */
+    public static class FileChangedException extends IOException {
+        private static final long serialVersionUID = 4178283735618406651L;
+
+        public FileChangedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,576 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.nextcloud.common.NextcloudClient;
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.ProgressDispatcher;
+import com.owncloud.android.lib.common.network.WebdavUtils;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.methods.GetMethod;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import okio.BufferedSource;
+
+/**
+ * Download of a file in several byte ranges fetched at the same time, each one on its own connection, for links
+ * where a single connection cannot use all the bandwidth.
+ * <p>
+ * A first request asks for the first segment; its response tells the length and the ETag of the file. The file is
+ * preallocated with that length and the rest of it is split in segments of at least the minimum size, fetched in
+ * parallel and written in their own region of the file with positional writes. Every segment is requested only if
+ * the file still has the same ETag ({@code If-Match}), so all of them belong to the same version of the file.
+ * <p>
+ * A segment failing on a network error or a server error is requested again from its first missing byte, up to
+ * {@link #MAX_SEGMENT_RETRIES} times in a row; any other failure stops the whole download. A server not supporting
+ * ranges sends the whole file to the first request, which is then downloaded on that connection only.
+ */
+class SegmentedDownload {
+
+    private static final String TAG = SegmentedDownload.class.getSimpleName();
+
+    static final int MAX_SEGMENT_RETRIES = 3;
+    private static final long RETRY_DELAY_MILLIS = 1000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final String IF_MATCH_HEADER = "If-Match";
+    private static final String OC_ETAG_HEADER = "OC-ETag";
+    private static final String CONTENT_LENGTH_HEADER = "Content-Length";
+    private static final String LAST_MODIFIED_HEADER = "Last-Modified";
+
+    private final RangeClient rangeClient;
+    private final File file;
+    private final int segmentCount;
+    private final long minSegmentSize;
+    private final AtomicBoolean cancellationRequested;
+    private final ProgressDispatcher progressDispatcher;
+
+    private final AtomicBoolean stopped = new AtomicBoolean(false);
+    private final Set<RangeRequest> activeRequests = new HashSet<>();
+    private final AtomicLong transferred = new AtomicLong(0);
+    private long totalToTransfer = -1;
+    private String rawEtag;
+    private String eTag = "";
+    private long modificationTimestamp = 0;
+
+    /**
+     * @param rangeClient           Client sending the requests, see {@link #forClient(OwnCloudClient, String)} and
+     *                              {@link #forClient(NextcloudClient, String)}.
+     * @param file                  Target file, created or truncated.
+     * @param segmentCount          Maximum number of segments fetched at the same time.
+     * @param minSegmentSize        Minimum size of a segment, in bytes; also the size of the first one.
+     * @param cancellationRequested Flag stopping the download once set.
+     * @param progressDispatcher    Receives the progress of the download, relative to the whole file.
+     */
+    SegmentedDownload(RangeClient rangeClient,
+                      File file,
+                      int segmentCount,
+                      long minSegmentSize,
+                      AtomicBoolean cancellationRequested,
+                      ProgressDispatcher progressDispatcher) {
+        this.rangeClient = rangeClient;
+        this.file = file;
+        this.segmentCount = Math.max(1, segmentCount);
+        this.minSegmentSize = Math.max(1, minSegmentSize);
+        this.cancellationRequested = cancellationRequested;
+        this.progressDispatcher = progressDispatcher;
+    }
+
+    /**
+     * Downloads the file. The file is deleted if the download does not succeed; a file with holes cannot be resumed.
+     *
+     * @return Result of the download, or null if the server does not allow downloading this file in segments, e.g.
+     * because it has no strong ETag; then it must be downloaded in a single request.
+     */
+    RemoteOperationResult run() throws IOException {
+        boolean completed = false;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            raf.setLength(0);
+            Segment first = new Segment(0, minSegmentSize - 1);
+            RemoteOperationResult probeResult;
+            RangeRequest probe = rangeClient.newRequest(first.start, first.end, null);
+            try {
+                int status = execute(probe);
+                if (status == HttpStatus.SC_OK) {
+                    // ranges not supported, the whole file comes in this response
+                    totalToTransfer = parseLength(probe.getHeader(CONTENT_LENGTH_HEADER));
+                    readMetadata(probe);
+                    Segment whole = new Segment(0, totalToTransfer < 0 ? Long.MAX_VALUE - 1 : totalToTransfer - 1);
+                    write(probe.getBody(), channel, whole);
+                    completed = totalToTransfer < 0 || whole.isComplete();
+                    return completed ? probe.toResult(true) : new RemoteOperationResult(
+                            new IOException("Download of " + file.getName() + " ended before the end of the file"));
+
+                } else if (status != HttpStatus.SC_PARTIAL_CONTENT) {
+                    return probe.toResult(false);
+                }
+
+                String contentRange = probe.getHeader(PartialDownload.CONTENT_RANGE_HEADER);
+                rawEtag = probe.getHeader(PartialDownload.ETAG_HEADER);
+                totalToTransfer = PartialDownload.parseCompleteLength(contentRange);
+                if (!PartialDownload.isStrong(rawEtag) || totalToTransfer < 0 ||
+                        PartialDownload.parseRangeStart(contentRange) != 0) {
+                    Log_OC.d(TAG, "Segments not supported for " + file.getName() + ", content range " +
+                            contentRange + ", ETag " + rawEtag);
+                    return null;
+                }
+                readMetadata(probe);
+                probeResult = probe.toResult(true);
+                raf.setLength(totalToTransfer);
+                first = new Segment(0, Math.min(first.end, totalToTransfer - 1));
+                try {
+                    write(probe.getBody(), channel, first);
+                } catch (IOException e) {
+                    if (stopped.get()) {
+                        throw e;
+                    }
+                    // what is missing is requested again with the rest of the segments
+                    Log_OC.w(TAG, "First segment of " + file.getName() + " interrupted: " + e.getMessage());
+                }
+            } finally {
+                release(probe);
+            }
+
+            RemoteOperationResult result = fetch(split(first), channel);
+            completed = result == null;
+            return completed ? probeResult : result;
+
+        } catch (IOException e) {
+            if (cancellationRequested.get()) {
+                return new RemoteOperationResult(new OperationCancelledException());
+            }
+            throw e;
+
+        } finally {
+            progressDispatcher.finish();
+            if (!completed) {
+                new PartialDownload(file).discard();
+            }
+        }
+    }
+
+    /**
+     * Stops the download, failing the requests in progress at once.
+     */
+    void abort() {
+        stopped.set(true);
+        synchronized (activeRequests) {
+            for (RangeRequest request : activeRequests) {
+                request.abort();
+            }
+        }
+    }
+
+    long getModificationTimestamp() {
+        return modificationTimestamp;
+    }
+
+    /**
+     * @return ETag of the file downloaded, unquoted; empty if unknown.
+     */
+    String getEtag() {
+        return eTag;
+    }
+
+    /**
+     * @return Segments left after the first one, which is included again if it is not complete.
+     */
+    private List<Segment> split(Segment first) {
+        List<Segment> segments = new ArrayList<>();
+        if (!first.isComplete()) {
+            segments.add(first);
+        }
+        long start = first.end + 1;
+        long remaining = totalToTransfer - start;
+        if (remaining > 0) {
+            int count = (int) Math.max(1, Math.min(segmentCount, remaining / minSegmentSize));
+            long size = (remaining + count - 1) / count;
+            for (; start < totalToTransfer; start += size) {
+                segments.add(new Segment(start, Math.min(start + size, totalToTransfer) - 1));
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Fetches the segments in parallel.
+     *
+     * @return Result of the first segment failing, or null if all of them were downloaded.
+     */
+    private RemoteOperationResult fetch(List<Segment> segments, FileChannel channel) throws IOException {
+        if (segments.isEmpty()) {
+            return null;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(segmentCount, segments.size()), runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+        });
+        CompletionService<RemoteOperationResult> completionService = new ExecutorCompletionService<>(executor);
+        try {
+            for (Segment segment : segments) {
+                completionService.submit(() -> fetch(segment, channel));
+            }
+            for (int i = 0; i < segments.size(); i++) {
+                RemoteOperationResult failure = completionService.take().get();
+                if (failure != null) {
+                    abort();
+                    return failure;
+                }
+            }
+            return null;
+
+        } catch (InterruptedException e) {
+            abort();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Segmented download interrupted");
+
+        } catch (ExecutionException e) {
+            abort();
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException("Segment download failed", cause);
+
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Fetches a segment, requesting it again from its first missing byte when the connection fails.
+     *
+     * @return Result of the failure, or null if the segment was downloaded.
+     */
+    private RemoteOperationResult fetch(Segment segment, FileChannel channel) throws IOException {
+        int retries = 0;
+        while (!segment.isComplete()) {
+            long from = segment.start + segment.received;
+            long receivedBefore = segment.received;
+            RangeRequest request = rangeClient.newRequest(from, segment.end, rawEtag);
+            try {
+                int status = execute(request);
+                String eTagReceived = request.getHeader(PartialDownload.ETAG_HEADER);
+                if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                    if (eTagReceived != null && !eTagReceived.equals(rawEtag)) {
+                        Log_OC.w(TAG, file.getName() + " changed while downloading, from " + rawEtag + " to " +
+                                eTagReceived);
+                        return new RemoteOperationResult(false, HttpStatus.SC_PRECONDITION_FAILED, (Header[]) null);
+                    }
+                    if (PartialDownload.parseRangeStart(request.getHeader(PartialDownload.CONTENT_RANGE_HEADER))
+                            != from) {
+                        return new RemoteOperationResult(ResultCode.WRONG_SERVER_RESPONSE);
+                    }
+                    write(request.getBody(), channel, segment);
+
+                } else if (status == HttpStatus.SC_OK) {
+                    // range ignored now, after honouring it for the first segment
+                    return new RemoteOperationResult(ResultCode.WRONG_SERVER_RESPONSE);
+
+                } else if (!isRetryable(status)) {
+                    // e.g. 412 if the file changed
+                    return request.toResult(false);
+                }
+            } catch (IOException e) {
+                if (stopped.get()) {
+                    throw e;
+                }
+                Log_OC.w(TAG, "Segment " + from + "-" + segment.end + " of " + file.getName() + " failed: " +
+                        e.getMessage());
+            } finally {
+                release(request);
+            }
+
+            if (!segment.isComplete()) {
+                // only failures in a row count; a segment making progress is never given up
+                retries = segment.received > receivedBefore ? 0 : retries + 1;
+                if (retries > MAX_SEGMENT_RETRIES) {
+                    return new RemoteOperationResult(new IOException("Segment " + from + "-" + segment.end +
+                            " of " + file.getName() + " failed " + retries + " times"));
+                }
+                try {
+                    Thread.sleep(RETRY_DELAY_MILLIS * retries);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Segmented download interrupted");
+                }
+            }
+        }
+        return null;
+    }
+
+    private int execute(RangeRequest request) throws IOException {
+        synchronized (activeRequests) {
+            if (stopped.get() || cancellationRequested.get()) {
+                throw new InterruptedIOException("Download of " + file.getName() + " stopped");
+            }
+            activeRequests.add(request);
+        }
+        return request.execute();
+    }
+
+    private void release(RangeRequest request) {
+        synchronized (activeRequests) {
+            activeRequests.remove(request);
+        }
+        request.close();
+    }
+
+    /**
+     * Writes the body of a response in the region of the segment, from its first missing byte on.
+     */
+    private void write(InputStream body, FileChannel channel, Segment segment) throws IOException {
+        if (body == null) {
+            throw new IOException("No content received for " + file.getName());
+        }
+        byte[] bytes = new byte[BUFFER_SIZE];
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        int read;
+        while (!segment.isComplete() &&
+                (read = body.read(bytes, 0, (int) Math.min(bytes.length, segment.remaining()))) >= 0) {
+            if (stopped.get() || cancellationRequested.get()) {
+                throw new InterruptedIOException("Download of " + file.getName() + " stopped");
+            }
+            buffer.clear();
+            buffer.limit(read);
+            long position = segment.start + segment.received;
+            while (buffer.hasRemaining()) {
+                // positional writes, safe from several threads at the same time
+                position += channel.write(buffer, position);
+            }
+            segment.received += read;
+            progressDispatcher.onTransferProgress(read, transferred.addAndGet(read), totalToTransfer, file.getName());
+        }
+    }
+
+    private void readMetadata(RangeRequest request) {
+        String modificationTime = request.getHeader(LAST_MODIFIED_HEADER);
+        if (modificationTime != null) {
+            Date d = WebdavUtils.parseResponseDate(modificationTime);
+            modificationTimestamp = (d != null) ? d.getTime() : 0;
+        } else {
+            Log_OC.e(TAG, "Could not read modification time from response downloading " + file.getName());
+        }
+        String ocEtag = request.getHeader(OC_ETAG_HEADER);
+        eTag = WebdavUtils.parseEtag(ocEtag != null ? ocEtag : request.getHeader(PartialDownload.ETAG_HEADER));
+        if (eTag.length() == 0) {
+            Log_OC.e(TAG, "Could not read eTag from response downloading " + file.getName());
+        }
+    }
+
+    private static boolean isRetryable(int status) {
+        // -1 when the request failed before getting a response
+        return status < 0 || status >= HttpStatus.SC_INTERNAL_SERVER_ERROR;
+    }
+
+    private static long parseLength(String contentLength) {
+        try {
+            return contentLength == null ? -1 : Long.parseLong(contentLength.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Range of bytes of the file, both ends included, and how many of them were written.
+     */
+    private static final class Segment {
+        private final long start;
+        private final long end;
+        private volatile long received = 0;
+
+        private Segment(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        private long remaining() {
+            return end + 1 - start - received;
+        }
+
+        private boolean isComplete() {
+            return remaining() <= 0;
+        }
+    }
+
+    /**
+     * Creates the requests for the ranges of the file.
+     */
+    interface RangeClient {
+        /**
+         * @param start  First byte of the range.
+         * @param end    Last byte of the range.
+         * @param ifMatch ETag the file must still have, or null.
+         */
+        RangeRequest newRequest(long start, long end, String ifMatch);
+    }
+
+    /**
+     * GET request of a range of the file, abortable from any thread.
+     */
+    abstract static class RangeRequest implements Closeable {
+        /**
+         * @return HTTP status of the response, or -1 if the request failed before getting one.
+         */
+        abstract int execute() throws IOException;
+
+        abstract String getHeader(String name);
+
+        abstract InputStream getBody() throws IOException;
+
+        abstract RemoteOperationResult toResult(boolean success);
+
+        abstract void abort();
+
+        /**
+         * Releases the connection of the request.
+         */
+        @Override
+        public abstract void close();
+    }
+
+    static RangeClient forClient(OwnCloudClient client, String uri) {
+        return (start, end, ifMatch) -> new RangeRequest() {
+            private final GetMethod method = createMethod(uri, start, end, ifMatch);
+
+            @Override
+            int execute() throws IOException {
+                return client.executeMethod(method);
+            }
+
+            @Override
+            String getHeader(String name) {
+                Header header = method.getResponseHeader(name);
+                return header == null ? null : header.getValue();
+            }
+
+            @Override
+            InputStream getBody() throws IOException {
+                return method.getResponseBodyAsStream();
+            }
+
+            @Override
+            RemoteOperationResult toResult(boolean success) {
+                return new RemoteOperationResult(success, method);
+            }
+
+            @Override
+            void abort() {
+                method.abort();
+            }
+
+            @Override
+            public void close() {
+                method.releaseConnection();
+            }
+        };
+    }
+
+    static RangeClient forClient(NextcloudClient client, String uri) {
+        return (start, end, ifMatch) -> new RangeRequest() {
+            private final com.nextcloud.operations.GetMethod method = createOkHttpMethod(uri, start, end, ifMatch);
+
+            @Override
+            int execute() {
+                return client.execute(method);
+            }
+
+            @Override
+            String getHeader(String name) {
+                return method.getResponseHeader(name);
+            }
+
+            @Override
+            InputStream getBody() {
+                BufferedSource body = method.getResponseBodySource();
+                return body == null ? null : body.inputStream();
+            }
+
+            @Override
+            RemoteOperationResult toResult(boolean success) {
+                return new RemoteOperationResult(success, method);
+            }
+
+            @Override
+            void abort() {
+                method.abort();
+            }
+
+            @Override
+            public void close() {
+                method.releaseConnection();
+            }
+        };
+    }
+
+    private static GetMethod createMethod(String uri, long start, long end, String ifMatch) {
+        GetMethod method = new GetMethod(uri);
+        method.addRequestHeader(PartialDownload.RANGE_HEADER, "bytes=" + start + "-" + end);
+        if (ifMatch != null) {
+            method.addRequestHeader(IF_MATCH_HEADER, ifMatch);
+        }
+        return method;
+    }
+
+    private static com.nextcloud.operations.GetMethod createOkHttpMethod(String uri,
+                                                                       long start,
+                                                                       long end,
+                                                                       String ifMatch) {
+        com.nextcloud.operations.GetMethod method = new com.nextcloud.operations.GetMethod(uri, false);
+        method.addRequestHeader(PartialDownload.RANGE_HEADER, "bytes=" + start + "-" + end);
+        if (ifMatch != null) {
+            method.addRequestHeader(IF_MATCH_HEADER, ifMatch);
+        }
+        return method;
+    }
+}
@@ -26,10 +26,16 @@ package com.owncloud.android.lib.resources.files;
 
 import androidx.annotation.VisibleForTesting;
 
+import com.nextcloud.common.NextcloudClient;
 import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.network.ContentChecksum;
+import com.owncloud.android.lib.common.network.FileRequestBody;
 import com.owncloud.android.lib.common.network.FileRequestEntity;
+import com.owncloud.android.lib.common.network.InputStreamSupplier;
 import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
 import com.owncloud.android.lib.common.network.ProgressiveDataTransfer;
+import com.owncloud.android.lib.common.network.StreamRequestBody;
+import com.owncloud.android.lib.common.network.StreamRequestEntity;
 import com.owncloud.android.lib.common.operations.OperationCancelledException;
 import com.owncloud.android.lib.common.operations.RemoteOperation;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
@@ -47,6 +53,9 @@ import java.util.HashSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+
 /**
  * Remote operation performing the upload of a remote file to the ownCloud server.
  *
@@ -64,19 +73,30 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
     protected String localPath;
     protected String remotePath;
     protected String mimeType;
-    private String lastModificationTimestamp;
+    protected String lastModificationTimestamp;
     protected Long creationTimestamp = null;
     protected boolean disableRetries = false;
     PutMethod putMethod = null;
     private String requiredEtag = null;
     String token = null;
 
+    /** Content read from a stream instead of the local file, and its length, -1 if unknown */
+    protected InputStreamSupplier contentSupplier = null;
+    protected long contentLength = -1;
+
+    /** Algorithm of the checksum computed while the content is sent; none by default */
+    protected ContentChecksum.Algorithm checksumAlgorithm = null;
+
     final AtomicBoolean cancellationRequested = new AtomicBoolean(false);
     RemoteOperationResult.ResultCode cancellationReason = null;
     final Set<OnDatatransferProgressListener> dataTransferListeners = new HashSet<>();
 
     protected RequestEntity entity = null;
 
+    /** Request sent with {@link NextcloudClient}, and its body */
+    com.nextcloud.operations.PutMethod okHttpPutMethod = null;
+    protected RequestBody requestBody = null;
+
     @VisibleForTesting
     public UploadFileRemoteOperation() {
         // empty
@@ -156,6 +176,45 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         this.creationTimestamp = creationTimestamp;
     }
 
+    /**
+     * Uploads content read from a stream, without a local file.
+     *
+     * @param contentSupplier Opens the content; called again for every attempt to send it.
+     * @param contentLength   Length of the content, or -1 if unknown; content of unknown length is sent with chunked
+     *                        transfer encoding.
+     */
+    public UploadFileRemoteOperation(InputStreamSupplier contentSupplier,
+                                     long contentLength,
+                                     String remotePath,
+                                     String mimeType,
+                                     String lastModificationTimestamp) {
+        this(contentSupplier, contentLength, remotePath, mimeType, null, lastModificationTimestamp, null, null, true);
+    }
+
+    public UploadFileRemoteOperation(InputStreamSupplier contentSupplier,
+                                     long contentLength,
+                                     String remotePath,
+                                     String mimeType,
+                                     String requiredEtag,
+                                     String lastModificationTimestamp,
+                                     Long creationTimestamp,
+                                     String token,
+                                     boolean disableRetries) {
+        this((String) null,
+                remotePath,
+                mimeType,
+                requiredEtag,
+                lastModificationTimestamp,
+                creationTimestamp,
+                token,
+                disableRetries);
+        if (contentSupplier == null) {
+            throw new IllegalArgumentException("Content supplier may not be null");
+        }
+        this.contentSupplier = contentSupplier;
+        this.contentLength = contentLength < 0 ? -1 : contentLength;
+    }
+
     @Override
     protected RemoteOperationResult<String> run(OwnCloudClient client) {
         RemoteOperationResult<String> result;
@@ -203,6 +262,30 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         return result;
     }
 
+    @Override
+    public RemoteOperationResult<String> run(NextcloudClient client) {
+        RemoteOperationResult<String> result;
+        try {
+            if (cancellationRequested.get()) {
+                // the operation was cancelled before getting it's turn to be executed in the queue of uploads
+                result = new RemoteOperationResult<>(new OperationCancelledException());
+            } else {
+                result = uploadFile(client);
+            }
+        } catch (Exception e) {
+            result = new RemoteOperationResult<>(e);
+        }
+        if (cancellationRequested.get() && !result.isSuccess()) {
+            // OkHttp reports cancelled calls as failed requests
+            if (cancellationReason != null) {
+                result = new RemoteOperationResult<>(cancellationReason);
+            } else {
+                result = new RemoteOperationResult<>(new OperationCancelledException());
+            }
+        }
+        return result;
+    }
+
     public boolean isSuccess(int status) {
         return ((status == HttpStatus.SC_OK || status == HttpStatus.SC_CREATED ||
                 status == HttpStatus.SC_NO_CONTENT));
@@ -213,8 +296,23 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         RemoteOperationResult<String> result;
 
         try {
-            File f = new File(localPath);
-            entity = new FileRequestEntity(f, mimeType);
+            FileRequestEntity fileEntity = null;
+            StreamRequestEntity streamEntity = null;
+            long length;
+            if (contentSupplier != null) {
+                streamEntity = new StreamRequestEntity(contentSupplier, contentLength, mimeType, remotePath);
+                if (checksumAlgorithm != null) {
+                    streamEntity.setInitialChecksum(ContentChecksum.create(checksumAlgorithm));
+                }
+                entity = streamEntity;
+                length = contentLength;
+            } else {
+                File f = new File(localPath);
+                fileEntity = new FileRequestEntity(f, mimeType);
+                fileEntity.setChecksumAlgorithm(checksumAlgorithm);
+                entity = fileEntity;
+                length = f.length();
+            }
             synchronized (dataTransferListeners) {
                 ((ProgressiveDataTransfer) entity)
                         .addDataTransferProgressListeners(dataTransferListeners);
@@ -222,7 +320,9 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
             if (requiredEtag != null && requiredEtag.length() > 0) {
                 putMethod.addRequestHeader(IF_MATCH_HEADER, "\"" + requiredEtag + "\"");
             }
-            putMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(f.length()));
+            if (length >= 0) {
+                putMethod.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(length));
+            }
             putMethod.addRequestHeader(OC_X_OC_MTIME_HEADER, lastModificationTimestamp);
 
             if (creationTimestamp != null && creationTimestamp > 0) {
@@ -238,6 +338,10 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
             if (resultEtagHeader != null) {
                 result.setResultData(resultEtagHeader.getValue().replace("\"", ""));
             }
+            ContentChecksum checksum = fileEntity != null ? fileEntity.getChecksum() : streamEntity.getChecksum();
+            if (checksum != null) {
+                result.setContentChecksum(checksum.getHeaderValue());
+            }
 
             client.exhaustResponse(putMethod.getResponseBodyAsStream());
 
@@ -247,6 +351,94 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         return result;
     }
 
+    protected RemoteOperationResult<String> uploadFile(NextcloudClient client) throws IOException {
+        RemoteOperationResult<String> result;
+
+        FileRequestBody fileBody = null;
+        StreamRequestBody streamBody = null;
+        long length;
+        MediaType contentType = mimeType == null ? null : MediaType.parse(mimeType);
+        if (contentSupplier != null) {
+            streamBody = new StreamRequestBody(contentSupplier, contentLength, contentType, remotePath);
+            if (checksumAlgorithm != null) {
+                streamBody.setInitialChecksum(ContentChecksum.create(checksumAlgorithm));
+            }
+            requestBody = streamBody;
+            length = contentLength;
+        } else {
+            File f = new File(localPath);
+            fileBody = new FileRequestBody(f, contentType);
+            if (checksumAlgorithm != null) {
+                fileBody.setInitialChecksum(ContentChecksum.create(checksumAlgorithm));
+            }
+            requestBody = fileBody;
+            length = f.length();
+        }
+        synchronized (dataTransferListeners) {
+            ((ProgressiveDataTransfer) requestBody).addDataTransferProgressListeners(dataTransferListeners);
+        }
+
+        com.nextcloud.operations.PutMethod method =
+                new com.nextcloud.operations.PutMethod(client.getFilesDavUri(remotePath), false, requestBody);
+        if (token != null) {
+            method.addRequestHeader(E2E_TOKEN, token);
+        }
+        if (requiredEtag != null && requiredEtag.length() > 0) {
+            method.addRequestHeader(IF_MATCH_HEADER, "\"" + requiredEtag + "\"");
+        }
+        if (length >= 0) {
+            method.addRequestHeader(OC_TOTAL_LENGTH_HEADER, String.valueOf(length));
+        }
+        method.addRequestHeader(OC_X_OC_MTIME_HEADER, lastModificationTimestamp);
+        if (creationTimestamp != null && creationTimestamp > 0) {
+            method.addRequestHeader(OC_X_OC_CTIME_HEADER, String.valueOf(creationTimestamp));
+        }
+        if (!disableRetries && (requiredEtag == null || requiredEtag.length() == 0)) {
+            // the same content is stored again, so repeating the request has no further effect; not with If-Match,
+            // since a repeated request would fail once the first one changed the ETag
+            method.setIdempotent(true);
+        }
+
+        synchronized (cancellationRequested) {
+            okHttpPutMethod = method;
+            if (cancellationRequested.get()) {
+                method.abort();
+            }
+        }
+
+        try {
+            int status = client.execute(method);
+            result = new RemoteOperationResult<>(isSuccess(status), method);
+
+            String resultEtag = method.getResponseHeader(RESULT_ETAG_HEADER);
+            if (resultEtag != null) {
+                result.setResultData(resultEtag.replace("\"", ""));
+            }
+            ContentChecksum checksum = fileBody != null ? fileBody.getChecksum() : streamBody.getChecksum();
+            if (checksum != null) {
+                result.setContentChecksum(checksum.getHeaderValue());
+            }
+        } finally {
+            method.releaseConnection(); // let the connection available for other methods
+        }
+        return result;
+    }
+
+    public ContentChecksum.Algorithm getChecksumAlgorithm() {
+        return checksumAlgorithm;
+    }
+
+    /**
+     * Sets the algorithm of the checksum of the content, computed while the content is sent and returned with
+     * {@link RemoteOperationResult#getContentChecksum()}; null, the default, computes none.
+     * <p>
+     * Headers of a single PUT are sent before its body, so the checksum is only sent to the server in the
+     * {@link ContentChecksum#OC_CHECKSUM_HEADER} header by chunked uploads, when the chunks are assembled.
+     */
+    public void setChecksumAlgorithm(ContentChecksum.Algorithm checksumAlgorithm) {
+        this.checksumAlgorithm = checksumAlgorithm;
+    }
+
     public Set<OnDatatransferProgressListener> getDataTransferListeners() {
         return dataTransferListeners;
     }
@@ -258,6 +450,9 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         if (entity != null) {
             ((ProgressiveDataTransfer) entity).addDataTransferProgressListener(listener);
         }
+        if (requestBody != null) {
+            ((ProgressiveDataTransfer) requestBody).addDataTransferProgressListener(listener);
+        }
     }
 
     public void removeDataTransferProgressListener(OnDatatransferProgressListener listener) {
@@ -267,6 +462,9 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
         if (entity != null) {
             ((ProgressiveDataTransfer) entity).removeDataTransferProgressListener(listener);
         }
+        if (requestBody != null) {
+            ((ProgressiveDataTransfer) requestBody).removeDataTransferProgressListener(listener);
+        }
     }
 
     public void cancel(RemoteOperationResult.ResultCode cancellationReason) {
@@ -280,6 +478,9 @@ public class UploadFileRemoteOperation extends RemoteOperation<String> {
             if (putMethod != null) {
                 putMethod.abort();
             }
+            if (okHttpPutMethod != null) {
+                okHttpPutMethod.abort();
+            }
         }
     }
 }
@@ -0,0 +1,223 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import com.owncloud.android.lib.common.network.ContentChecksum;
+import com.owncloud.android.lib.common.utils.Log_OC;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/**
+ * Persistent record of the chunks stored by the server for every chunked upload, so that an interrupted upload is
+ * resumed without listing the chunks already in its upload folder.
+ * <p>
+ * Every upload folder is recorded in its own file in the directory of the journal, and a line is appended to it for
+ * every chunk before it is sent, and again once it is stored. A chunk sent but not known to be stored, e.g. because
+ * its response was lost, may be on the server anyway, so it must be sent again under the same name. A line not
+ * completely written, e.g. because the app was killed, is ignored; the chunk is uploaded again.
+ */
+public class UploadJournal {
+
+    private static final String TAG = UploadJournal.class.getSimpleName();
+
+    private static final String JOURNAL_EXTENSION = ".journal";
+    private static final char SEPARATOR = '-';
+    private static final char PENDING_MARK = '?';
+    private static final char END_OF_RECORD = '\n';
+
+    private final File directory;
+
+    /**
+     * @param directory Directory where the journal is kept, e.g. a folder of the private storage of the app.
+     */
+    public UploadJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return Chunks recorded for the upload folder, in the order they were stored; empty if none was recorded.
+     */
+    public synchronized List<Chunk> getChunks(String uploadFolderUri) {
+        List<Chunk> stored = new ArrayList<>();
+        read(uploadFolderUri, stored, new ArrayList<>());
+        return stored;
+    }
+
+    /**
+     * @return Chunks recorded as sent for the upload folder but not as stored, in the order they were sent; they
+     *         must be sent again with the same range, since the server may have stored them.
+     */
+    public synchronized List<Chunk> getPendingChunks(String uploadFolderUri) {
+        List<Chunk> stored = new ArrayList<>();
+        List<Chunk> sent = new ArrayList<>();
+        read(uploadFolderUri, stored, sent);
+        List<Chunk> pending = new ArrayList<>(new LinkedHashSet<>(sent));
+        pending.removeAll(stored);
+        return pending;
+    }
+
+    /**
+     * Records a chunk about to be sent, before it is known whether the server stores it.
+     */
+    public synchronized void addPendingChunk(String uploadFolderUri, Chunk chunk) {
+        write(uploadFolderUri, PENDING_MARK + toRecord(chunk));
+    }
+
+    /**
+     * Records a chunk stored by the server.
+     */
+    public synchronized void addChunk(String uploadFolderUri, Chunk chunk) {
+        write(uploadFolderUri, toRecord(chunk));
+    }
+
+    /**
+     * Forgets the chunks of an upload, once it is finished or its upload folder does not exist anymore.
+     */
+    public synchronized void remove(String uploadFolderUri) {
+        File journalFile = getJournalFile(uploadFolderUri);
+        if (journalFile.exists() && !journalFile.delete()) {
+            Log_OC.e(TAG, "Error deleting upload journal " + journalFile);
+        }
+    }
+
+    /**
+     * Forgets the uploads not resumed for the given time, e.g. because the upload was cancelled by the user.
+     */
+    public synchronized void removeOlderThan(long maxAgeMillis) {
+        File[] journalFiles = directory.listFiles((dir, name) -> name.endsWith(JOURNAL_EXTENSION));
+        if (journalFiles == null) {
+            return;
+        }
+        long limit = System.currentTimeMillis() - maxAgeMillis;
+        for (File journalFile : journalFiles) {
+            if (journalFile.lastModified() < limit && !journalFile.delete()) {
+                Log_OC.e(TAG, "Error deleting upload journal " + journalFile);
+            }
+        }
+    }
+
+    private File getJournalFile(String uploadFolderUri) {
+        ContentChecksum name = ContentChecksum.create(ContentChecksum.Algorithm.MD5);
+        byte[] uri = uploadFolderUri.getBytes(StandardCharsets.UTF_8);
+        name.update(uri, 0, uri.length);
+        return new File(directory, name.getValue() + JOURNAL_EXTENSION);
+    }
+
+    private void read(String uploadFolderUri, List<Chunk> stored, List<Chunk> sent) {
+        File journalFile = getJournalFile(uploadFolderUri);
+        if (!journalFile.exists()) {
+            return;
+        }
+        try {
+            String records = read(journalFile);
+            int recordStart = 0;
+            int recordEnd;
+            while ((recordEnd = records.indexOf(END_OF_RECORD, recordStart)) >= 0) {
+                String record = records.substring(recordStart, recordEnd);
+                boolean pending = !record.isEmpty() && record.charAt(0) == PENDING_MARK;
+                Chunk chunk = parse(pending ? record.substring(1) : record);
+                if (chunk != null) {
+                    (pending ? sent : stored).add(chunk);
+                }
+                recordStart = recordEnd + 1;
+            }
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error reading upload journal " + journalFile, e);
+            stored.clear();
+            sent.clear();
+        }
+    }
+
+    private void write(String uploadFolderUri, String record) {
+        File journalFile = getJournalFile(uploadFolderUri);
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log_OC.e(TAG, "Error creating upload journal folder " + directory);
+            return;
+        }
+        try {
+            if (endsWithIncompleteRecord(journalFile)) {
+                // not to merge the record with the rest of the interrupted one
+                record = END_OF_RECORD + record;
+            }
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error reading upload journal " + journalFile, e);
+        }
+        try (OutputStream out = new FileOutputStream(journalFile, true)) {
+            out.write(record.getBytes(StandardCharsets.US_ASCII));
+        } catch (IOException e) {
+            Log_OC.e(TAG, "Error writing upload journal " + journalFile, e);
+        }
+    }
+
+    private static String toRecord(Chunk chunk) {
+        return chunk.start + String.valueOf(SEPARATOR) + chunk.end + END_OF_RECORD;
+    }
+
+    private static boolean endsWithIncompleteRecord(File file) throws IOException {
+        if (file.length() == 0) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            raf.seek(file.length() - 1);
+            return raf.read() != END_OF_RECORD;
+        }
+    }
+
+    private static Chunk parse(String record) {
+        int separator = record.indexOf(SEPARATOR);
+        try {
+            long start = Long.parseLong(record.substring(0, separator));
+            long end = Long.parseLong(record.substring(separator + 1));
+            return start <= end ? new Chunk(start, end) : null;
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            Log_OC.w(TAG, "Ignoring invalid upload journal record " + record);
+            return null;
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        try (InputStream in = new FileInputStream(file)) {
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = in.read(buffer)) >= 0) {
+                content.write(buffer, 0, read);
+            }
+        }
+        return new String(content.toByteArray(), StandardCharsets.US_ASCII);
+    }
+}
@@ -129,6 +129,40 @@ public class RemoteFile implements Parcelable, Serializable {
         setLockToken(we.getLockToken());
     }
 
+    /**
+     * Creates a copy of another {@link RemoteFile}.
+     */
+    public RemoteFile(RemoteFile other) {
+        remotePath = other.remotePath;
+        mimeType = other.mimeType;
+        length = other.length;
+        creationTimestamp = other.creationTimestamp;
+        modifiedTimestamp = other.modifiedTimestamp;
+        uploadTimestamp = other.uploadTimestamp;
+        etag = other.etag;
+        permissions = other.permissions;
+        remoteId = other.remoteId;
+        size = other.size;
+        favorite = other.favorite;
+        encrypted = other.encrypted;
+        mountType = other.mountType;
+        ownerId = other.ownerId;
+        ownerDisplayName = other.ownerDisplayName;
+        unreadCommentsCount = other.unreadCommentsCount;
+        hasPreview = other.hasPreview;
+        note = other.note;
+        sharees = other.sharees == null ? null : other.sharees.clone();
+        richWorkspace = other.richWorkspace;
+        isLocked = other.isLocked;
+        lockType = other.lockType;
+        lockOwner = other.lockOwner;
+        lockOwnerDisplayName = other.lockOwnerDisplayName;
+        lockTimestamp = other.lockTimestamp;
+        lockOwnerEditor = other.lockOwnerEditor;
+        lockTimeout = other.lockTimeout;
+        lockToken = other.lockToken;
+    }
+
     /**
      * Used internally. Reset all file properties
      */
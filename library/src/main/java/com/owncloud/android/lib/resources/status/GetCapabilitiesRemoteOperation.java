@@ -112,6 +112,13 @@ public class GetCapabilitiesRemoteOperation extends RemoteOperation {
 
     private static final String PROPERTY_LOCKING = "locking";
 
+    private static final String NODE_DAV = "dav";
+    private static final String PROPERTY_BULKUPLOAD = "bulkupload";
+
+    private static final String NODE_CHUNKED_UPLOAD = "chunked_upload";
+    private static final String PROPERTY_MAX_SIZE = "max_size";
+    private static final String PROPERTY_MAX_PARALLEL_COUNT = "max_parallel_count";
+
     private static final String PROPERTY_SERVERNAME = "name";
     private static final String PROPERTY_SERVERSLOGAN = "slogan";
     private static final String PROPERTY_SERVERCOLOR = "color";
@@ -433,6 +440,15 @@ public class GetCapabilitiesRemoteOperation extends RemoteOperation {
                         capability.setFilesLockingVersion(respFiles.getString(PROPERTY_LOCKING));
                     }
 
+                    // chunked upload v2
+                    if (respFiles.has(NODE_CHUNKED_UPLOAD)) {
+                        JSONObject respChunkedUpload = respFiles.getJSONObject(NODE_CHUNKED_UPLOAD);
+                        capability.setFilesChunkedUpload(CapabilityBooleanType.TRUE);
+                        capability.setFilesChunkedUploadMaxSize(respChunkedUpload.optLong(PROPERTY_MAX_SIZE));
+                        capability.setFilesChunkedUploadMaxParallelCount(
+                                respChunkedUpload.optInt(PROPERTY_MAX_PARALLEL_COUNT));
+                    }
+
                     // direct editing
                     if (respFiles.has(NODE_DIRECT_EDITING)) {
                         JSONObject respDirectEditing = respFiles.getJSONObject(NODE_DIRECT_EDITING);
@@ -443,6 +459,14 @@ public class GetCapabilitiesRemoteOperation extends RemoteOperation {
                     Log_OC.d(TAG, "*** Added " + NODE_FILES);
                 }
 
+                if (respCapabilities.has(NODE_DAV)) {
+                    JSONObject respDav = respCapabilities.getJSONObject(NODE_DAV);
+                    if (respDav.has(PROPERTY_BULKUPLOAD)) {
+                        capability.setDavBulkUploadVersion(respDav.getString(PROPERTY_BULKUPLOAD));
+                    }
+                    Log_OC.d(TAG, "*** Added " + NODE_DAV);
+                }
+
                 if (respCapabilities.has(NODE_THEMING)) {
                     JSONObject respTheming = respCapabilities.getJSONObject(NODE_THEMING);
                     // Add theming
@@ -28,6 +28,7 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.Uri;
 
+import com.nextcloud.common.NextcloudClient;
 import com.owncloud.android.lib.common.OwnCloudClient;
 import com.owncloud.android.lib.common.OwnCloudClientManagerFactory;
 import com.owncloud.android.lib.common.accounts.AccountUtils;
@@ -42,6 +43,7 @@ import org.apache.commons.httpclient.params.HttpParams;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.IOException;
 import java.util.ArrayList;
 
 /**
@@ -211,4 +213,42 @@ public class GetStatusRemoteOperation extends RemoteOperation {
         return mLatestResult;
     }
 
+    /**
+     * Checks status.php of the server of the client, without checking the connectivity of the device first.
+     * <p>
+     * Used to probe failing servers, see {@link com.nextcloud.common.CircuitBreaker}.
+     *
+     * @return true if the server answers as an installed instance with a valid version
+     */
+    public static boolean isServerAvailable(OwnCloudClient client) {
+        boolean followRedirects = client.isFollowRedirects();
+        try {
+            return new GetStatusRemoteOperation(null).tryConnection(client);
+        } finally {
+            client.setFollowRedirects(followRedirects);
+        }
+    }
+
+    public static boolean isServerAvailable(NextcloudClient client) {
+        com.nextcloud.operations.GetMethod get =
+            new com.nextcloud.operations.GetMethod(client.getBaseUri() + AccountUtils.STATUS_PATH, false);
+        try {
+            if (client.execute(get) != HttpStatus.SC_OK) {
+                return false;
+            }
+            JSONObject json = new JSONObject(get.getResponseBodyAsString());
+            return json.getBoolean(NODE_INSTALLED) &&
+                new OwnCloudVersion(json.getString(NODE_VERSION)).isVersionValid();
+        } catch (IOException | JSONException e) {
+            Log_OC.e(TAG, "Connection check at " + client.getBaseUri() + " failed", e);
+            return false;
+        } finally {
+            get.releaseConnection();
+        }
+    }
+
+    @Override
+    protected boolean isGuardedByCircuitBreaker() {
+        return false;
+    }
 }
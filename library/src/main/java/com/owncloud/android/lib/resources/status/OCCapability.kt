@@ -76,6 +76,14 @@ class OCCapability {
 
     var filesLockingVersion: String? = null
 
+    // Chunked upload with the Destination header (chunking v2)
+    var filesChunkedUpload = CapabilityBooleanType.UNKNOWN
+    var filesChunkedUploadMaxSize: Long = 0
+    var filesChunkedUploadMaxParallelCount: Int = 0
+
+    // Dav
+    var davBulkUploadVersion: String? = null
+
     var supportsNotificationsV1 = CapabilityBooleanType.UNKNOWN
     var supportsNotificationsV2 = CapabilityBooleanType.UNKNOWN
 
@@ -32,6 +32,7 @@ import com.nextcloud.common.NextcloudClient;
 import com.nextcloud.operations.GetMethod;
 import com.owncloud.android.lib.common.Quota;
 import com.owncloud.android.lib.common.UserInfo;
+import com.owncloud.android.lib.common.operations.CoalescableOperation;
 import com.owncloud.android.lib.common.operations.RemoteOperationResult;
 import com.owncloud.android.lib.common.utils.Log_OC;
 import com.owncloud.android.lib.ocs.ServerResponse;
@@ -39,6 +40,7 @@ import com.owncloud.android.lib.resources.OCSRemoteOperation;
 
 import org.apache.commons.httpclient.HttpStatus;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /**
@@ -48,7 +50,7 @@ import java.util.HashMap;
  * @author David A. Velasco
  * @author Mario Danic
  */
-public class GetUserInfoRemoteOperation extends OCSRemoteOperation<UserInfo> {
+public class GetUserInfoRemoteOperation extends OCSRemoteOperation<UserInfo> implements CoalescableOperation {
 
     private static final String TAG = GetUserInfoRemoteOperation.class.getSimpleName();
 
@@ -130,4 +132,30 @@ public class GetUserInfoRemoteOperation extends OCSRemoteOperation<UserInfo> {
     private boolean isSuccess(int status) {
         return (status == HttpStatus.SC_OK);
     }
+
+    @Override
+    public String getCoalescingKey() {
+        return "GET " + OCS_ROUTE_SELF;
+    }
+
+    @Override
+    public RemoteOperationResult copyResult(RemoteOperationResult result) {
+        RemoteOperationResult<UserInfo> copy = result.copy();
+        if (result.isSuccess() && result.getResultData() != null) {
+            UserInfo userInfo = (UserInfo) result.getResultData();
+            // Quota is immutable
+            copy.setResultData(new UserInfo(userInfo.getId(),
+                                            userInfo.getEnabled(),
+                                            userInfo.getDisplayName(),
+                                            userInfo.getEmail(),
+                                            userInfo.getPhone(),
+                                            userInfo.getAddress(),
+                                            userInfo.getWebsite(),
+                                            userInfo.getTwitter(),
+                                            userInfo.getQuota(),
+                                            userInfo.getGroups() == null ? null :
+                                                new ArrayList<>(userInfo.getGroups())));
+        }
+        return copy;
+    }
 }
@@ -0,0 +1,113 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import org.apache.commons.httpclient.HttpStatus
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private val clock = ClockStub(currentTimeValue = 1000)
+
+    @Test
+    fun overloadCutsLimit() {
+        val sut = AdaptiveConcurrencyLimiter(minLimit = 1, maxLimit = 64, initialLimit = 8, clock = clock)
+
+        sut.acquire().release(HttpStatus.SC_SERVICE_UNAVAILABLE)
+        assertEquals(4, sut.limit)
+
+        sut.acquire().release(429)
+        assertEquals(2, sut.limit)
+
+        sut.acquire().release(true)
+        sut.acquire().release(true)
+        assertEquals("Limit must not go below minimum", 1, sut.limit)
+    }
+
+    @Test
+    fun burstOfOverloadsCutsLimitOnce() {
+        val sut = AdaptiveConcurrencyLimiter(minLimit = 1, maxLimit = 64, initialLimit = 8, clock = clock)
+
+        val permits = (1..8).map { sut.acquire() }
+        permits.forEach { it.release(HttpStatus.SC_SERVICE_UNAVAILABLE) }
+        assertEquals(4, sut.limit)
+
+        sut.acquire().release(HttpStatus.SC_SERVICE_UNAVAILABLE)
+        assertEquals("Requests sent after the decrease cut the limit again", 2, sut.limit)
+    }
+
+    @Test
+    fun successesGrowLimitWhenUsed() {
+        val sut = AdaptiveConcurrencyLimiter(minLimit = 1, maxLimit = 4, initialLimit = 2, clock = clock)
+
+        repeat(20) {
+            val permits = (1..sut.limit).map { sut.acquire() }
+            permits.forEach { it.release(HttpStatus.SC_OK) }
+        }
+
+        assertEquals("Limit must not go above maximum", 4, sut.limit)
+    }
+
+    @Test
+    fun successesDoNotGrowUnusedLimit() {
+        val sut = AdaptiveConcurrencyLimiter(minLimit = 1, maxLimit = 64, initialLimit = 4, clock = clock)
+
+        repeat(20) {
+            val permits = (1 until sut.limit).map { sut.acquire() }
+            permits.forEach { it.release(HttpStatus.SC_OK) }
+        }
+
+        assertEquals(4, sut.limit)
+    }
+
+    @Test
+    fun requestsBeyondLimitQueue() {
+        val sut = AdaptiveConcurrencyLimiter(minLimit = 1, maxLimit = 1, initialLimit = 1, clock = clock)
+        val permit = sut.acquire()
+        val acquired = CountDownLatch(1)
+
+        val waiter = Thread {
+            sut.acquire().release(HttpStatus.SC_OK)
+            acquired.countDown()
+        }
+        waiter.start()
+
+        while (sut.queueLength == 0) {
+            Thread.sleep(1)
+        }
+        assertFalse(acquired.await(50, TimeUnit.MILLISECONDS))
+
+        permit.release(HttpStatus.SC_OK)
+        assertTrue(acquired.await(1, TimeUnit.SECONDS))
+        assertEquals(0, sut.queueLength)
+        assertEquals(0, sut.inFlightCount)
+    }
+}
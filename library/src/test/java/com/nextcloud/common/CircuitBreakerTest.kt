@@ -0,0 +1,103 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import org.apache.commons.httpclient.HttpStatus
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.net.ConnectException
+import java.net.SocketTimeoutException
+
+class CircuitBreakerTest {
+
+    private var now = 0L
+    private val clock = object : Clock {
+        override val currentTimeMillis: Long
+            get() = now
+    }
+
+    private val config = CircuitBreaker.Config(
+        failureRateThreshold = 0.5f,
+        minimumRequests = 4,
+        windowSize = 10,
+        openDurationMillis = 1000
+    )
+
+    @Test
+    fun opensWhenFailureRateIsReached() {
+        val sut = CircuitBreaker(config, clock)
+
+        sut.onResponse(HttpStatus.SC_OK)
+        sut.onResponse(HttpStatus.SC_NOT_FOUND)
+        sut.onException(ConnectException())
+        assertTrue("Not enough requests recorded yet", sut.allowRequest())
+
+        sut.onException(SocketTimeoutException())
+        assertEquals(CircuitBreaker.State.OPEN, sut.state)
+        assertFalse(sut.allowRequest())
+    }
+
+    @Test
+    fun staysClosedBelowFailureRate() {
+        val sut = CircuitBreaker(config, clock)
+
+        repeat(20) {
+            sut.onResponse(HttpStatus.SC_OK)
+            sut.onResponse(HttpStatus.SC_OK)
+            sut.onResponse(HttpStatus.SC_SERVICE_UNAVAILABLE)
+        }
+
+        assertEquals(CircuitBreaker.State.CLOSED, sut.state)
+        assertTrue(sut.failureRate < 0.5f)
+    }
+
+    @Test
+    fun halfOpenProbing() {
+        val sut = CircuitBreaker(config, clock)
+        repeat(4) { sut.onResponse(HttpStatus.SC_BAD_GATEWAY) }
+        assertFalse(sut.allowRequest())
+
+        assertFalse("Too early to probe", sut.tryStartProbe())
+
+        now += 1000
+        assertTrue(sut.tryStartProbe())
+        assertEquals(CircuitBreaker.State.HALF_OPEN, sut.state)
+        assertFalse("Only one probe at a time", sut.tryStartProbe())
+
+        sut.onProbeFinished(false)
+        assertEquals(CircuitBreaker.State.OPEN, sut.state)
+        assertFalse("Failed probe restarts the wait", sut.tryStartProbe())
+
+        now += 1000
+        assertTrue(sut.tryStartProbe())
+        sut.onProbeFinished(true)
+        assertTrue(sut.allowRequest())
+        assertEquals(0f, sut.failureRate)
+    }
+}
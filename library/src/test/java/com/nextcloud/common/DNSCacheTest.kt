@@ -10,6 +10,7 @@ import okhttp3.Dns
 import org.junit.Assert
 import org.junit.Test
 import java.net.InetAddress
+import java.util.concurrent.Executor
 
 class DNSCacheTest : TestCase() {
 
@@ -23,6 +24,8 @@ class DNSCacheTest : TestCase() {
         )
     }
 
+    private val defaultRefreshExecutor = DNSCache.refreshExecutor
+
     private fun setStaticClock() {
         DNSCache.clock = ClockStub(currentTimeValue = 1000)
     }
@@ -35,6 +38,7 @@ class DNSCacheTest : TestCase() {
         DNSCache.ttlMillis = DNSCache.ttlMillis
         DNSCache.clock = ClockImpl()
         DNSCache.dns = Dns.SYSTEM
+        DNSCache.refreshExecutor = defaultRefreshExecutor
         DNSCache.clear()
     }
 
@@ -129,4 +133,60 @@ class DNSCacheTest : TestCase() {
         DNSCache.clock = ClockStub(currentTimeValue = 1501)
         compareLookupLists(secondList, DNSCache.lookup(TEST_HOST))
     }
+
+    @Test
+    fun testDNSLookupRefreshAhead() {
+        val dns: Dns = mock()
+        val initialList = listOf(TEST_IPV4)
+        val secondList = listOf(TEST_IPV6)
+        whenever(dns.lookup(any())) doReturn initialList
+        DNSCache.dns = dns
+        DNSCache.refreshExecutor = Executor { it.run() }
+
+        DNSCache.clock = ClockStub(currentTimeValue = 1000)
+        DNSCache.ttlMillis = 500
+
+        // initial lookup
+        compareLookupLists(initialList, DNSCache.lookup(TEST_HOST))
+
+        // change DNS response upstream
+        whenever(dns.lookup(any())) doReturn secondList
+
+        // close to expiration, cached list is served and refreshed in background
+        DNSCache.clock = ClockStub(currentTimeValue = 1450)
+        compareLookupLists(initialList, DNSCache.lookup(TEST_HOST))
+
+        // refreshed list is served afterwards
+        compareLookupLists(secondList, DNSCache.lookup(TEST_HOST))
+    }
+
+    @Test
+    fun testDNSLookupServesStaleWhileRefreshing() {
+        val dns: Dns = mock()
+        val initialList = listOf(TEST_IPV4)
+        val secondList = listOf(TEST_IPV6)
+        whenever(dns.lookup(any())) doReturn initialList
+        DNSCache.dns = dns
+        val pendingRefreshes = mutableListOf<Runnable>()
+        DNSCache.refreshExecutor = Executor { pendingRefreshes.add(it) }
+
+        DNSCache.clock = ClockStub(currentTimeValue = 1000)
+        DNSCache.ttlMillis = 500
+
+        compareLookupLists(initialList, DNSCache.lookup(TEST_HOST))
+        whenever(dns.lookup(any())) doReturn secondList
+
+        // refresh is scheduled, but does not complete
+        DNSCache.clock = ClockStub(currentTimeValue = 1450)
+        compareLookupLists(initialList, DNSCache.lookup(TEST_HOST))
+        assertEquals(1, pendingRefreshes.size)
+
+        // expired, but refresh still running: stale entry is served
+        DNSCache.clock = ClockStub(currentTimeValue = 1600)
+        compareLookupLists(initialList, DNSCache.lookup(TEST_HOST))
+
+        // refresh completes
+        pendingRefreshes.forEach { it.run() }
+        compareLookupLists(secondList, DNSCache.lookup(TEST_HOST))
+    }
 }
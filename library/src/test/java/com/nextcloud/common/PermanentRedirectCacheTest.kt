@@ -0,0 +1,121 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import com.nextcloud.android.lib.core.Clock
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNull
+import org.junit.Test
+
+class PermanentRedirectCacheTest {
+
+    private var now = 0L
+    private val clock = object : Clock {
+        override val currentTimeMillis: Long
+            get() = now
+    }
+
+    @Test
+    fun commonPathIsRewrittenByPrefix() {
+        val sut = PermanentRedirectCache(clock = clock)
+        sut.put("https://a.com/remote.php/dav/files/u/x.txt", "https://b.com/cloud/remote.php/dav/files/u/x.txt")
+
+        assertEquals(
+            "https://b.com/cloud/remote.php/dav/files/u/y.txt",
+            sut.rewrite("https://a.com/remote.php/dav/files/u/y.txt")
+        )
+        assertEquals("https://b.com/cloud/status.php?x=1", sut.rewrite("https://a.com/status.php?x=1"))
+        assertNull(sut.rewrite("https://a.company.com/status.php"))
+        assertEquals(2, sut.rewriteCount)
+    }
+
+    @Test
+    fun schemeChange() {
+        val sut = PermanentRedirectCache(clock = clock)
+        sut.put("http://a.com/index.php", "https://a.com/index.php")
+
+        assertEquals("https://a.com/ocs/v2.php", sut.rewrite("http://a.com/ocs/v2.php"))
+    }
+
+    @Test
+    fun unrelatedLocationOnlyRewritesSameUri() {
+        val sut = PermanentRedirectCache(clock = clock)
+        sut.put("https://a.com/s/token", "https://b.com/login")
+
+        assertEquals("https://b.com/login", sut.rewrite("https://a.com/s/token"))
+        assertNull(sut.rewrite("https://a.com/s/token/download"))
+        assertNull(sut.rewrite("https://a.com/s/other"))
+    }
+
+    @Test
+    fun trailingSlashOnlyRewritesSameUri() {
+        val sut = PermanentRedirectCache(clock = clock)
+        sut.put("https://a.com/dav/folder", "https://a.com/dav/folder/")
+
+        assertEquals("https://a.com/dav/folder/", sut.rewrite("https://a.com/dav/folder"))
+        assertNull(sut.rewrite("https://a.com/dav/folder/file"))
+    }
+
+    @Test
+    fun singleFileMovedToOtherHostOnlyRewritesSameUri() {
+        val sut = PermanentRedirectCache(clock = clock)
+        sut.put("https://a.com/x/f", "https://b.com/x/f")
+
+        assertEquals("https://b.com/x/f", sut.rewrite("https://a.com/x/f"))
+        assertNull(sut.rewrite("https://a.com/x/g"))
+        assertNull(sut.rewrite("https://a.com/status.php"))
+    }
+
+    @Test
+    fun entriesExpireAndAreBounded() {
+        val evictions = mutableListOf<PermanentRedirectCache.EvictionReason>()
+        val sut = PermanentRedirectCache(maxEntries = 2, ttlMillis = 1000, clock = clock)
+        sut.listener = object : PermanentRedirectCache.Listener {
+            override fun onRewrite(originalUri: String, rewrittenUri: String) = Unit
+
+            override fun onEviction(
+                fromPrefix: String,
+                toPrefix: String,
+                reason: PermanentRedirectCache.EvictionReason
+            ) {
+                evictions.add(reason)
+            }
+        }
+
+        sut.put("https://a.com/1", "https://b.com/1/x")
+        sut.put("https://a.com/2", "https://b.com/2/x")
+        sut.put("https://a.com/3", "https://b.com/3/x")
+        assertEquals(2, sut.size)
+        assertNull("Oldest entry evicted", sut.rewrite("https://a.com/1"))
+
+        now += 1000
+        assertNull("Entry expired", sut.rewrite("https://a.com/3"))
+        assertEquals(
+            listOf(PermanentRedirectCache.EvictionReason.CAPACITY, PermanentRedirectCache.EvictionReason.EXPIRED),
+            evictions
+        )
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import org.apache.commons.httpclient.HttpStatus
+import org.apache.commons.httpclient.methods.PutMethod
+import org.apache.commons.httpclient.util.DateUtil
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.io.IOException
+import java.io.InterruptedIOException
+import java.net.SocketTimeoutException
+import java.util.Date
+import kotlin.random.Random
+
+class RetryPolicyTest {
+
+    private val clock = ClockStub(currentTimeValue = 1_000_000)
+
+    @Test
+    fun onlyIdempotentMethodsAreRetried() {
+        val sut = RetryPolicy()
+
+        assertTrue(sut.isRetryableMethod("GET", false))
+        assertTrue(sut.isRetryableMethod("propfind", false))
+        assertFalse(sut.isRetryableMethod("PUT", false))
+        assertFalse(sut.isRetryableMethod("MOVE", false))
+        assertTrue("Marked methods are retried", sut.isRetryableMethod("PUT", true))
+    }
+
+    @Test
+    fun markIdempotent() {
+        val method = PutMethod("https://example.com/chunk")
+        assertFalse(RetryPolicy.isMarkedIdempotent(method))
+
+        RetryPolicy.markIdempotent(method)
+        assertTrue(RetryPolicy.isMarkedIdempotent(method))
+    }
+
+    @Test
+    fun retryableStatusAndExceptions() {
+        val sut = RetryPolicy()
+
+        assertTrue(sut.isRetryableStatus(HttpStatus.SC_SERVICE_UNAVAILABLE))
+        assertTrue(sut.isRetryableStatus(429))
+        assertFalse(sut.isRetryableStatus(HttpStatus.SC_INTERNAL_SERVER_ERROR))
+        assertFalse(sut.isRetryableStatus(HttpStatus.SC_NOT_FOUND))
+
+        assertTrue(sut.isRetryableException(SocketTimeoutException()))
+        assertFalse("Cancellation must not be retried", sut.isRetryableException(InterruptedIOException()))
+        assertFalse(sut.isRetryableException(IOException()))
+    }
+
+    @Test
+    fun backoffGrowsWithinBounds() {
+        val sut = RetryPolicy(
+            maxRetries = 10,
+            baseDelayMillis = 100,
+            maxDelayMillis = 1000,
+            clock = clock,
+            random = Random(1)
+        )
+
+        for (attempt in 0 until 10) {
+            val expected = minOf(1000L, 100L shl attempt)
+            val delay = sut.getRetryDelay(attempt, null)
+            assertTrue("Delay $delay too short for attempt $attempt", delay >= expected / 2)
+            assertTrue("Delay $delay too long for attempt $attempt", delay <= expected)
+        }
+    }
+
+    @Test
+    fun maxRetries() {
+        val sut = RetryPolicy(maxRetries = 2, clock = clock)
+
+        assertTrue(sut.getRetryDelay(1, null) >= 0)
+        assertEquals(RetryPolicy.NO_RETRY, sut.getRetryDelay(2, null))
+    }
+
+    @Test
+    fun retryAfterIsHonored() {
+        val sut = RetryPolicy(maxDelayMillis = 10_000, clock = clock)
+
+        assertEquals(3000, sut.getRetryDelay(0, "3"))
+
+        val date = DateUtil.formatDate(Date(clock.currentTimeMillis + 5000))
+        assertEquals(5000, sut.getRetryDelay(0, date))
+
+        assertEquals("Waits longer than allowed are not retried", RetryPolicy.NO_RETRY, sut.getRetryDelay(0, "3600"))
+    }
+
+    @Test
+    fun budgetLimitsRetries() {
+        val budget = RetryBudget(ratio = 0.5, maxTokens = 2.0)
+        val sut = RetryPolicy(maxRetries = 5, budget = budget, clock = clock)
+
+        assertTrue(sut.getRetryDelay(0, null) >= 0)
+        assertTrue(sut.getRetryDelay(0, null) >= 0)
+        assertEquals("Budget exhausted", RetryPolicy.NO_RETRY, sut.getRetryDelay(0, null))
+
+        sut.onRequestCompleted()
+        sut.onRequestCompleted()
+        assertTrue("Budget refilled by successful requests", sut.getRetryDelay(0, null) >= 0)
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.nextcloud.common
+
+import android.content.Context
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class TransportRegistryTest {
+
+    @get:Rule
+    val folder = TemporaryFolder()
+
+    private lateinit var context: Context
+
+    @Before
+    fun setUp() {
+        context = mock()
+        whenever(context.filesDir).thenReturn(folder.root)
+    }
+
+    @After
+    fun tearDown() {
+        TransportRegistry.configure(TransportRegistry.Config())
+    }
+
+    @Test
+    fun clientsShareTheTransport() {
+        val nextcloudClient = TransportRegistry.newNextcloudClient(context)
+        val plainClient = TransportRegistry.newPlainClient(context)
+        val otherClient = TransportRegistry.newNextcloudClient(context)
+
+        assertSame(nextcloudClient.connectionPool, plainClient.connectionPool)
+        assertSame(nextcloudClient.connectionPool, otherClient.connectionPool)
+        assertSame(nextcloudClient.dispatcher, plainClient.dispatcher)
+        assertSame(nextcloudClient.sslSocketFactory, plainClient.sslSocketFactory)
+    }
+
+    @Test
+    fun configureRebuildsThePoolForLaterClients() {
+        val earlierClient = TransportRegistry.newNextcloudClient(context)
+        val earlierPool = earlierClient.connectionPool
+        val config = TransportRegistry.getConfig()
+
+        TransportRegistry.configure(config.copy(maxIdleConnections = config.maxIdleConnections + 1))
+        val laterClient = TransportRegistry.newNextcloudClient(context)
+
+        assertNotSame(earlierPool, laterClient.connectionPool)
+        assertSame(earlierPool, earlierClient.connectionPool)
+        assertSame(laterClient.connectionPool, TransportRegistry.newPlainClient(context).connectionPool)
+        assertSame(earlierClient.dispatcher, laterClient.dispatcher)
+    }
+
+    @Test
+    fun configureAppliesDispatcherLimitsToExistingClients() {
+        val earlierClient = TransportRegistry.newNextcloudClient(context)
+        val config = TransportRegistry.getConfig()
+
+        TransportRegistry.configure(
+            config.copy(maxRequests = config.maxRequests + 1, maxRequestsPerHost = config.maxRequestsPerHost + 1)
+        )
+        val laterClient = TransportRegistry.newPlainClient(context)
+
+        assertSame(earlierClient.connectionPool, laterClient.connectionPool)
+        assertEquals(config.maxRequests + 1, earlierClient.dispatcher.maxRequests)
+        assertEquals(config.maxRequestsPerHost + 1, earlierClient.dispatcher.maxRequestsPerHost)
+    }
+}
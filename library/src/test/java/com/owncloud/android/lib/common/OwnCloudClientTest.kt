@@ -0,0 +1,90 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.owncloud.android.lib.common
+
+import android.net.Uri
+import com.nextcloud.common.RetryPolicy
+import com.nhaarman.mockitokotlin2.mock
+import org.apache.commons.httpclient.HostConfiguration
+import org.apache.commons.httpclient.HttpConnection
+import org.apache.commons.httpclient.SimpleHttpConnectionManager
+import org.apache.commons.httpclient.methods.GetMethod
+import org.apache.commons.httpclient.methods.PutMethod
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertThrows
+import org.junit.Before
+import org.junit.Test
+import java.net.SocketException
+
+class OwnCloudClientTest {
+
+    private lateinit var connectionManager: FailingConnectionManager
+    private lateinit var sut: OwnCloudClient
+
+    @Before
+    fun setUp() {
+        connectionManager = FailingConnectionManager()
+        sut = OwnCloudClient(mock<Uri>(), connectionManager)
+        sut.retryPolicy = RetryPolicy(maxRetries = MAX_RETRIES, baseDelayMillis = 1)
+    }
+
+    @Test
+    fun retriesAreLeftToRetryPolicy() {
+        assertThrows(SocketException::class.java) { sut.executeMethod(GetMethod(URL)) }
+
+        // commons-httpclient would repeat every attempt three more times by default
+        assertEquals(MAX_RETRIES + 1, connectionManager.attempts)
+    }
+
+    @Test
+    fun methodNotRetryableIsSentOnce() {
+        assertThrows(SocketException::class.java) { sut.executeMethod(PutMethod(URL)) }
+
+        assertEquals(1, connectionManager.attempts)
+    }
+
+    /**
+     * Hands out connections failing to open, counting the attempts.
+     */
+    private class FailingConnectionManager : SimpleHttpConnectionManager() {
+        var attempts = 0
+
+        override fun getConnectionWithTimeout(hostConfiguration: HostConfiguration, timeout: Long): HttpConnection =
+            object : HttpConnection(hostConfiguration.host, hostConfiguration.port, hostConfiguration.protocol) {
+                override fun open() {
+                    attempts++
+                    throw SocketException("Connection reset")
+                }
+            }
+
+        override fun releaseConnection(conn: HttpConnection) = Unit
+    }
+
+    companion object {
+        private const val URL = "http://example.com/remote.php/dav/files/test/file.txt"
+        private const val MAX_RETRIES = 2
+    }
+}
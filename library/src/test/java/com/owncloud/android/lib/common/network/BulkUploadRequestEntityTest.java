@@ -0,0 +1,94 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class BulkUploadRequestEntityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesAllPartsWithTheAnnouncedLength() throws IOException {
+        BulkUploadRequestEntity sut = new BulkUploadRequestEntity();
+        sut.addPart(createFile("a.txt", "first"), Collections.singletonMap("X-File-Path", "/a.txt"));
+        sut.addPart(createFile("b.txt", "second file"), Collections.singletonMap("X-File-Path", "/b.txt"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sut.writeRequest(out);
+        String body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        assertEquals(2, sut.getPartCount());
+        assertEquals(sut.getContentLength(), out.size());
+
+        String boundary = sut.getContentType().substring(sut.getContentType().indexOf("boundary=") + 9);
+        assertTrue(body.startsWith("--" + boundary + "\r\n"));
+        assertTrue(body.endsWith("--" + boundary + "--\r\n"));
+        assertTrue(body.contains("X-File-Path: /a.txt\r\nContent-Length: 5\r\n\r\nfirst\r\n"));
+        assertTrue(body.contains("X-File-Path: /b.txt\r\nContent-Length: 11\r\n\r\nsecond file\r\n"));
+    }
+
+    @Test
+    public void headersWithoutValueAreLeftOut() throws IOException {
+        BulkUploadRequestEntity sut = new BulkUploadRequestEntity();
+        Map<String, String> headers = new LinkedHashMap<>();
+        headers.put("X-File-Path", "/a.txt");
+        headers.put("X-File-Mtime", null);
+        sut.addPart(createFile("a.txt", "first"), headers);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sut.writeRequest(out);
+        String body = new String(out.toByteArray(), StandardCharsets.UTF_8);
+
+        assertEquals(sut.getContentLength(), out.size());
+        assertFalse(body.contains("X-File-Mtime"));
+        assertTrue(body.contains("X-File-Path: /a.txt\r\nContent-Length: 5\r\n\r\nfirst\r\n"));
+    }
+
+    private File createFile(String name, String content) throws IOException {
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content.getBytes(StandardCharsets.UTF_8));
+        }
+        return file;
+    }
+}
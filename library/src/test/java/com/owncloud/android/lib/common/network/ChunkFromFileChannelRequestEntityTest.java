@@ -0,0 +1,163 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+public class ChunkFromFileChannelRequestEntityTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesExactlyTheChunk() throws IOException {
+        byte[] content = createContent(100 * 1024);
+        File file = createFile(content);
+
+        // not a multiple of any buffer size
+        long offset = 5000;
+        long length = 12345;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ChunkFromFileChannelRequestEntity sut =
+                new ChunkFromFileChannelRequestEntity(channel, "application/octet-stream", offset, length, file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sut.writeRequest(out);
+
+            assertArrayEquals(Arrays.copyOfRange(content, (int) offset, (int) (offset + length)), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void lastChunkStopsAtEndOfFile() throws IOException {
+        byte[] content = createContent(10000);
+        File file = createFile(content);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ChunkFromFileChannelRequestEntity sut =
+                new ChunkFromFileChannelRequestEntity(channel, "application/octet-stream", 8000, 4096, file);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            sut.writeRequest(out);
+
+            assertArrayEquals(Arrays.copyOfRange(content, 8000, 10000), out.toByteArray());
+        }
+    }
+
+    @Test
+    public void progressIsReportedUpToTheEndOfTheChunk() throws IOException, InterruptedException {
+        byte[] content = createContent(1024 * 1024);
+        File file = createFile(content);
+        final long[] last = new long[2];
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ChunkFromFileChannelRequestEntity sut =
+                new ChunkFromFileChannelRequestEntity(channel, "application/octet-stream", 1000, 500000, file);
+            sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+                last[0] += progressRate;
+                last[1] = totalTransferredSoFar;
+            });
+
+            sut.writeRequest(new ByteArrayOutputStream());
+            // a retry of the same chunk does not count twice
+            sut.writeRequest(new ByteArrayOutputStream());
+            ProgressDispatcher.awaitDelivered();
+
+            assertEquals(2 * 500000, last[0]);
+            assertEquals(501000, last[1]);
+        }
+    }
+
+    @Test
+    public void checksumContinuesOverChunks() throws IOException {
+        byte[] content = createContent(200 * 1024);
+        File file = createFile(content);
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            ChunkFromFileChannelRequestEntity first =
+                new ChunkFromFileChannelRequestEntity(channel, "application/octet-stream", 0, 70000, file);
+            first.setInitialChecksum(ContentChecksum.create(ContentChecksum.Algorithm.MD5));
+            first.writeRequest(new ByteArrayOutputStream());
+
+            ChunkFromFileChannelRequestEntity second =
+                new ChunkFromFileChannelRequestEntity(channel, "application/octet-stream", 70000, 200000, file);
+            second.setInitialChecksum(first.getChecksum());
+            second.writeRequest(new ByteArrayOutputStream());
+            // a repeated chunk starts again from the initial checksum
+            second.writeRequest(new ByteArrayOutputStream());
+
+            ContentChecksum expected = ContentChecksum.create(ContentChecksum.Algorithm.MD5);
+            expected.update(content, 0, content.length);
+            assertEquals(expected.getValue(), second.getChecksum().getValue());
+            assertEquals(content.length, second.getChecksum().getLength());
+        }
+    }
+
+    @Test
+    public void writesToFileTargetsThroughChannel() throws IOException {
+        byte[] content = createContent(300 * 1024);
+        File file = createFile(content);
+        File target = folder.newFile();
+
+        try (FileOutputStream out = new FileOutputStream(target)) {
+            FileRequestEntity sut = new FileRequestEntity(file, "application/octet-stream");
+            sut.writeRequest(out);
+        }
+
+        byte[] written = new byte[(int) target.length()];
+        try (RandomAccessFile raf = new RandomAccessFile(target, "r")) {
+            raf.readFully(written);
+        }
+        assertArrayEquals(content, written);
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private File createFile(byte[] content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+}
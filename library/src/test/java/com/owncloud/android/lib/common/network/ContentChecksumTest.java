@@ -0,0 +1,85 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+public class ContentChecksumTest {
+
+    private static final byte[] CONTENT = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.UTF_8);
+
+    @Test
+    public void knownValues() {
+        assertEquals("MD5:9e107d9d372bb6826bd81d3542a419d6", checksum(ContentChecksum.Algorithm.MD5, CONTENT));
+        assertEquals("SHA1:2fd4e1c67a2d28fced849ee1bb76e7391b93eb12", checksum(ContentChecksum.Algorithm.SHA1, CONTENT));
+        assertEquals("Adler32:5bdc0fda", checksum(ContentChecksum.Algorithm.ADLER32, CONTENT));
+        assertEquals("Adler32:00000001", checksum(ContentChecksum.Algorithm.ADLER32, new byte[0]));
+    }
+
+    @Test
+    public void copyContinuesIndependently() {
+        byte[] content = new byte[300000];
+        new Random(42).nextBytes(content);
+
+        for (ContentChecksum.Algorithm algorithm : ContentChecksum.Algorithm.values()) {
+            ContentChecksum first = ContentChecksum.create(algorithm);
+            first.update(content, 0, 100000);
+
+            ContentChecksum copy = first.copy();
+            copy.update(content, 100000, 200000);
+            // a failed attempt diverges from the copy without affecting it
+            first.update(content, 0, 5000);
+
+            ContentChecksum whole = ContentChecksum.create(algorithm);
+            whole.update(content, 0, content.length);
+
+            assertEquals(algorithm.name(), whole.getValue(), copy.getValue());
+            assertEquals(content.length, copy.getLength());
+            assertEquals(105000, first.getLength());
+        }
+    }
+
+    @Test
+    public void valueDoesNotFinishChecksum() {
+        ContentChecksum sut = ContentChecksum.create(ContentChecksum.Algorithm.SHA1);
+        sut.update(CONTENT, 0, 10);
+        sut.getValue();
+        sut.update(CONTENT, 10, CONTENT.length - 10);
+
+        assertEquals("2fd4e1c67a2d28fced849ee1bb76e7391b93eb12", sut.getValue());
+    }
+
+    private String checksum(ContentChecksum.Algorithm algorithm, byte[] content) {
+        ContentChecksum checksum = ContentChecksum.create(algorithm);
+        checksum.update(content, 0, content.length);
+        return checksum.getHeaderValue();
+    }
+}
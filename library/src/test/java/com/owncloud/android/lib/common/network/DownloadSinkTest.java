@@ -0,0 +1,75 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.Buffer;
+import okio.ForwardingSink;
+
+public class DownloadSinkTest {
+
+    @Test
+    public void leavesCallerSinkOpen() throws IOException, InterruptedException {
+        byte[] content = createContent(64 * 1024);
+        Buffer target = new Buffer();
+        final boolean[] closed = new boolean[1];
+        final long[] last = new long[1];
+
+        DownloadSink sut = new DownloadSink(new ForwardingSink(target) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        }, "file", 0, content.length, new AtomicBoolean(false));
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) ->
+                                                last[0] = totalTransferredSoFar);
+        new Buffer().write(content).readAll(sut);
+        sut.finish();
+        ProgressDispatcher.awaitDelivered();
+
+        assertFalse(closed[0]);
+        assertEquals(content.length, sut.getTransferred());
+        assertEquals(content.length, last[0]);
+        assertArrayEquals(content, target.readByteArray());
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,113 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.Okio;
+
+public class FileDownloadSinkTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesFile() throws IOException {
+        byte[] content = createContent(64 * 1024);
+        File target = folder.newFile();
+
+        FileDownloadSink sut = new FileDownloadSink(target, content.length, new AtomicBoolean(false));
+        BufferedSink sink = Okio.buffer(sut);
+        sink.write(content);
+        sink.close();
+
+        assertEquals(content.length, sut.getTransferred());
+        assertArrayEquals(content, Okio.buffer(Okio.source(target)).readByteArray());
+    }
+
+    @Test
+    public void appendsToPartialFile() throws IOException, InterruptedException {
+        byte[] content = createContent(64 * 1024);
+        File target = createFile(Arrays.copyOfRange(content, 0, 10000));
+        final long[] last = new long[2];
+
+        FileDownloadSink sut = new FileDownloadSink(target, 10000, content.length, new AtomicBoolean(false));
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            last[0] = totalTransferredSoFar;
+            last[1] = totalToTransfer;
+        });
+        BufferedSink sink = Okio.buffer(sut);
+        sink.write(content, 10000, content.length - 10000);
+        sink.close();
+        ProgressDispatcher.awaitDelivered();
+
+        assertEquals(content.length, sut.getTransferred());
+        assertEquals("Progress is relative to the whole file", content.length, last[0]);
+        assertEquals(content.length, last[1]);
+        assertArrayEquals(content, Okio.buffer(Okio.source(target)).readByteArray());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void stopsWhenCancelled() throws IOException {
+        byte[] content = createContent(1024);
+        FileDownloadSink sut = new FileDownloadSink(folder.newFile(), content.length, new AtomicBoolean(true));
+        try {
+            sut.write(new Buffer().write(content), content.length);
+        } finally {
+            sut.close();
+        }
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private File createFile(byte[] content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+}
@@ -0,0 +1,98 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import okhttp3.MediaType;
+import okio.Buffer;
+
+public class FileRequestBodyTest {
+
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesWholeFile() throws IOException {
+        byte[] content = createContent(300 * 1024);
+        FileRequestBody sut = new FileRequestBody(createFile(content), OCTET_STREAM);
+
+        Buffer sink = new Buffer();
+        sut.writeTo(sink);
+
+        assertEquals(content.length, sut.contentLength());
+        assertArrayEquals(content, sink.readByteArray());
+    }
+
+    @Test
+    public void writesPieceWithChecksumAndProgress() throws IOException, InterruptedException {
+        byte[] content = createContent(100 * 1024);
+        FileRequestBody sut = new FileRequestBody(createFile(content), OCTET_STREAM, 5000, 12345);
+        sut.setInitialChecksum(ContentChecksum.create(ContentChecksum.Algorithm.SHA1));
+        final long[] last = new long[1];
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) ->
+                                                last[0] = totalTransferredSoFar);
+
+        Buffer sink = new Buffer();
+        sut.writeTo(sink);
+        ProgressDispatcher.awaitDelivered();
+
+        byte[] piece = Arrays.copyOfRange(content, 5000, 5000 + 12345);
+        assertArrayEquals(piece, sink.readByteArray());
+        ContentChecksum expected = ContentChecksum.create(ContentChecksum.Algorithm.SHA1);
+        expected.update(piece, 0, piece.length);
+        assertEquals(expected.getValue(), sut.getChecksum().getValue());
+        assertEquals("Progress is the position in the file", 5000 + 12345, last[0]);
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private File createFile(byte[] content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+}
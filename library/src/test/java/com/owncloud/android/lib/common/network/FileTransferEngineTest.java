@@ -0,0 +1,99 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import okio.Okio;
+
+public class FileTransferEngineTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void receivedBodyIsWrittenFromPosition() throws IOException {
+        byte[] content = createContent(300 * 1024);
+        File target = createFile(Arrays.copyOfRange(content, 0, 1000));
+        final long[] last = new long[1];
+
+        try (RandomAccessFile raf = new RandomAccessFile(target, "rw"); FileChannel channel = raf.getChannel()) {
+            long received = FileTransferEngine.receive(
+                new ByteArrayInputStream(content, 1000, content.length - 1000),
+                channel,
+                1000,
+                new AtomicBoolean(false),
+                (progressRate, totalTransferred) -> last[0] = totalTransferred);
+
+            assertEquals(content.length - 1000, received);
+            assertEquals(content.length - 1000, last[0]);
+        }
+        assertArrayEquals(content, Okio.buffer(Okio.source(target)).readByteArray());
+    }
+
+    @Test(expected = InterruptedIOException.class)
+    public void receiveStopsWhenCancelled() throws IOException {
+        byte[] content = createContent(1024);
+        try (RandomAccessFile raf = new RandomAccessFile(folder.newFile(), "rw")) {
+            FileTransferEngine.receive(new ByteArrayInputStream(content),
+                                       raf.getChannel(),
+                                       0,
+                                       new AtomicBoolean(true),
+                                       null);
+        }
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private File createFile(byte[] content) throws IOException {
+        File file = folder.newFile();
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(content);
+        }
+        return file;
+    }
+}
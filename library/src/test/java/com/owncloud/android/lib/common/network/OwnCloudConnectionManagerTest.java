@@ -0,0 +1,116 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.commons.httpclient.HostConfiguration;
+import org.apache.commons.httpclient.HttpConnection;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+
+public class OwnCloudConnectionManagerTest {
+
+    private static final long TIMEOUT = 5000;
+
+    private ServerSocket server;
+    private HostConfiguration hostConfiguration;
+    private OwnCloudConnectionManager sut;
+
+    @Before
+    public void setUp() throws IOException {
+        // connections are opened against the backlog of the socket, without being accepted
+        server = new ServerSocket(0, 10, InetAddress.getLoopbackAddress());
+        hostConfiguration = new HostConfiguration();
+        hostConfiguration.setHost(server.getInetAddress().getHostAddress(), server.getLocalPort(), "http");
+        sut = new OwnCloudConnectionManager();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        sut.shutdown();
+        server.close();
+    }
+
+    @Test
+    public void idleConnectionsAreEvicted() throws IOException {
+        HttpConnection idle = openConnection();
+        HttpConnection inUse = openConnection();
+        idle.releaseConnection();
+        assertEquals(2, sut.getConnectionsInPool());
+
+        assertEquals(1, sut.reapConnections(0));
+
+        assertTrue("Connection in use is left open", inUse.isOpen());
+        assertEquals(1, sut.getConnectionsInPool());
+        assertEquals(1, sut.getStatistics().getEvictedConnections());
+
+        inUse.releaseConnection();
+        assertEquals(0, sut.reapConnections(60000));
+        assertEquals(1, sut.getConnectionsInPool());
+    }
+
+    @Test
+    public void reusedConnectionIsNotCounted() throws IOException {
+        openConnection().releaseConnection();
+        HttpConnection reused = sut.getConnectionWithTimeout(hostConfiguration, TIMEOUT);
+        assertTrue(reused.isOpen());
+
+        // more connections in the pool do not hide the closed one
+        HttpConnection created = openConnection();
+        openConnection().releaseConnection();
+        assertEquals(3, sut.getConnectionsInPool());
+        assertEquals(1, sut.reapConnections(0));
+
+        assertTrue(reused.isOpen());
+        assertTrue(created.isOpen());
+        assertEquals(1, sut.getStatistics().getEvictedConnections());
+        assertEquals(2, sut.getConnectionsInPool());
+    }
+
+    @Test
+    public void staleConnectionIsCounted() throws IOException {
+        HttpConnection stale = openConnection();
+        stale.close();
+        stale.releaseConnection();
+
+        assertEquals(1, sut.reapConnections(60000));
+        assertEquals(0, sut.getConnectionsInPool());
+        assertEquals(1, sut.getStatistics().getEvictedConnections());
+    }
+
+    private HttpConnection openConnection() throws IOException {
+        HttpConnection connection = sut.getConnectionWithTimeout(hostConfiguration, TIMEOUT);
+        connection.open();
+        return connection;
+    }
+}
@@ -0,0 +1,134 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class ProgressDispatcherTest {
+
+    @After
+    public void resetRate() {
+        ProgressDispatcher.setRate(ProgressDispatcher.DEFAULT_INTERVAL_MILLIS, ProgressDispatcher.DEFAULT_MIN_FRACTION);
+    }
+
+    @Test
+    public void finishDeliversAllTheProgress() throws InterruptedException {
+        ProgressDispatcher sut = new ProgressDispatcher();
+        final AtomicLong rates = new AtomicLong();
+        final AtomicLong last = new AtomicLong();
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            rates.addAndGet(progressRate);
+            last.set(totalTransferredSoFar);
+        });
+
+        for (int i = 1; i <= 1000; i++) {
+            sut.onTransferProgress(10, 10L * i, 10000, "file");
+        }
+        sut.finish();
+        ProgressDispatcher.awaitDelivered();
+
+        assertEquals(10000, rates.get());
+        assertEquals(10000, last.get());
+    }
+
+    @Test
+    public void progressIsCoalesced() throws InterruptedException {
+        ProgressDispatcher.setRate(60000, 0);
+        ProgressDispatcher sut = new ProgressDispatcher();
+        final AtomicLong notifications = new AtomicLong();
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) ->
+                                                notifications.incrementAndGet());
+
+        // the first notification goes at once, the rest waits for the interval or the end
+        for (int i = 1; i <= 1000; i++) {
+            sut.onTransferProgress(1, i, -1, "file");
+        }
+        sut.finish();
+        ProgressDispatcher.awaitDelivered();
+
+        assertTrue("Too many notifications: " + notifications.get(), notifications.get() <= 2);
+    }
+
+    @Test
+    public void fractionIsDeliveredBeforeTheInterval() throws InterruptedException {
+        ProgressDispatcher.setRate(60000, 0.1);
+        ProgressDispatcher sut = new ProgressDispatcher();
+        final AtomicLong notifications = new AtomicLong();
+        final AtomicLong last = new AtomicLong();
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            notifications.incrementAndGet();
+            last.set(totalTransferredSoFar);
+        });
+
+        // the first notification goes at once
+        sut.onTransferProgress(10, 10, 1000, "file");
+        ProgressDispatcher.awaitDelivered();
+        assertEquals(1, notifications.get());
+
+        // less than the fraction waits for the interval, reaching it does not
+        sut.onTransferProgress(50, 60, 1000, "file");
+        ProgressDispatcher.awaitDelivered();
+        assertEquals(1, notifications.get());
+        sut.onTransferProgress(60, 120, 1000, "file");
+        ProgressDispatcher.awaitDelivered();
+
+        assertEquals(2, notifications.get());
+        assertEquals(120, last.get());
+    }
+
+    @Test
+    public void slowListenerDoesNotBlockTheTransfer() throws InterruptedException {
+        ProgressDispatcher.setRate(0, 0);
+        ProgressDispatcher sut = new ProgressDispatcher();
+        final CountDownLatch release = new CountDownLatch(1);
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            try {
+                release.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        long start = System.currentTimeMillis();
+        for (int i = 1; i <= 100; i++) {
+            sut.onTransferProgress(1, i, 100, "file");
+        }
+        long elapsed = System.currentTimeMillis() - start;
+        release.countDown();
+        sut.finish();
+        ProgressDispatcher.awaitDelivered();
+
+        assertTrue("Transfer blocked for " + elapsed + " ms", elapsed < 5000);
+    }
+}
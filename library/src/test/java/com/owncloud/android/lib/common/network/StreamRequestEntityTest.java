@@ -0,0 +1,128 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.common.network;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+public class StreamRequestEntityTest {
+
+    @Test
+    public void wholeContentOfUnknownLength() throws IOException {
+        byte[] content = createContent(200 * 1024);
+        CountingSupplier supplier = new CountingSupplier(content);
+        StreamRequestEntity sut = new StreamRequestEntity(supplier, -1, "application/octet-stream", "test");
+        sut.setInitialChecksum(ContentChecksum.create(ContentChecksum.Algorithm.MD5));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sut.writeRequest(out);
+
+        assertEquals("Unknown length must be sent chunked", -1, sut.getContentLength());
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(content.length, sut.getTransferred());
+        assertEquals(content.length, sut.getChecksum().getLength());
+
+        // repeated request opens the content again
+        out.reset();
+        sut.writeRequest(out);
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(2, supplier.opened);
+    }
+
+    @Test
+    public void consecutivePiecesReadTheContentOnce() throws IOException {
+        byte[] content = createContent(100 * 1000);
+        CountingSupplier supplier = new CountingSupplier(content);
+        StreamContentSource source = new StreamContentSource(supplier);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        long offset = 0;
+        while (source.hasMoreAt(offset)) {
+            StreamRequestEntity piece = new StreamRequestEntity(source, offset, 30000, -1, "text/plain", "test");
+            piece.writeRequest(out);
+            offset += piece.getTransferred();
+        }
+
+        assertArrayEquals(content, out.toByteArray());
+        assertEquals(1, supplier.opened);
+    }
+
+    @Test
+    public void repeatedPieceOpensTheContentAgain() throws IOException {
+        byte[] content = createContent(10000);
+        CountingSupplier supplier = new CountingSupplier(content);
+        StreamContentSource source = new StreamContentSource(supplier);
+        StreamRequestEntity piece = new StreamRequestEntity(source, 4000, 3000, content.length, "text/plain", "test");
+
+        assertEquals(3000, piece.getContentLength());
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        piece.writeRequest(out);
+        out.reset();
+        piece.writeRequest(out);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 4000, 7000), out.toByteArray());
+        assertEquals(2, supplier.opened);
+    }
+
+    @Test(expected = IOException.class)
+    public void contentShorterThanAnnounced() throws IOException {
+        StreamRequestEntity sut = new StreamRequestEntity(new CountingSupplier(createContent(100)),
+                                                          200,
+                                                          "text/plain",
+                                                          "test");
+        sut.writeRequest(new ByteArrayOutputStream());
+    }
+
+    private byte[] createContent(int length) {
+        byte[] content = new byte[length];
+        for (int i = 0; i < length; i++) {
+            content[i] = (byte) (i * 31);
+        }
+        return content;
+    }
+
+    private static class CountingSupplier implements InputStreamSupplier {
+        private final byte[] content;
+        private int opened = 0;
+
+        private CountingSupplier(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public ByteArrayInputStream open() {
+            opened++;
+            return new ByteArrayInputStream(content);
+        }
+    }
+}
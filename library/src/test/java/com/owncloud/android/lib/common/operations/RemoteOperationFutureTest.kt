@@ -0,0 +1,184 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.owncloud.android.lib.common.operations
+
+import com.nextcloud.common.NextcloudClient
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.verify
+import com.owncloud.android.lib.common.operations.RemoteOperationResult.ResultCode
+import okhttp3.Call
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertSame
+import org.junit.Assert.assertTrue
+import org.junit.Test
+import java.util.concurrent.CancellationException
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executor
+import java.util.concurrent.TimeUnit
+import kotlin.coroutines.Continuation
+import kotlin.coroutines.EmptyCoroutineContext
+import kotlin.coroutines.startCoroutine
+
+class RemoteOperationFutureTest {
+
+    companion object {
+        private const val TIMEOUT_SECONDS = 5L
+    }
+
+    private val directExecutor = Executor { it.run() }
+    private val client = mock<NextcloudClient>()
+    private val executor = RemoteOperationExecutor(2, 10)
+
+    @After
+    fun tearDown() {
+        executor.shutdown()
+    }
+
+    @Test
+    fun futureCompletesWithResultOfOperation() {
+        val result = RemoteOperationResult<String>(ResultCode.OK)
+
+        val sut = TestOperation { result }.executeAsync(client, executor)
+
+        assertSame(result, sut.get(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        assertTrue(sut.isDone)
+    }
+
+    @Test
+    fun listenersRunOnCompletion() {
+        val release = CountDownLatch(1)
+        val notified = CountDownLatch(1)
+        val sut = TestOperation {
+            release.await()
+            RemoteOperationResult(ResultCode.OK)
+        }.executeAsync(client, executor)
+
+        sut.addListener({ notified.countDown() }, directExecutor)
+        assertEquals(1, notified.count)
+        release.countDown()
+
+        assertTrue(notified.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+    }
+
+    @Test
+    fun listenerAddedAfterCompletionRunsImmediately() {
+        val sut = TestOperation { RemoteOperationResult(ResultCode.OK) }.executeAsync(client, executor)
+        sut.get(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        var notified = false
+
+        sut.addListener({ notified = true }, directExecutor)
+
+        assertTrue(notified)
+    }
+
+    @Test
+    fun cancelAbortsRequestInFlight() {
+        val call = mock<Call>()
+        val sent = CountDownLatch(1)
+        val aborted = CountDownLatch(1)
+        val sut = TestOperation {
+            InFlightRequests.track(call)
+            sent.countDown()
+            // the request would block until aborted
+            aborted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            RemoteOperationResult(ResultCode.CANCELLED)
+        }.executeAsync(client, executor)
+        assertTrue(sent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+
+        assertTrue(sut.cancel(false))
+
+        verify(call).cancel()
+        aborted.countDown()
+        assertTrue(sut.isCancelled)
+    }
+
+    @Test
+    fun awaitReturnsResultOfOperation() {
+        val result = RemoteOperationResult<String>(ResultCode.OK)
+
+        val outcome = runSuspending { TestOperation { result }.executeAsync(client, executor).await() }
+
+        assertSame(result, outcome.getOrThrow())
+    }
+
+    @Test
+    fun executeSuspendingReturnsResultOfOperation() {
+        val result = RemoteOperationResult<String>(ResultCode.OK)
+
+        val outcome = runSuspending { TestOperation { result }.executeSuspending(client) }
+
+        assertSame(result, outcome.getOrThrow())
+    }
+
+    @Test
+    fun awaitThrowsExceptionOfOperation() {
+        val exception = IllegalStateException("operation failed")
+
+        val outcome = runSuspending { TestOperation { throw exception }.executeAsync(client, executor).await() }
+
+        assertSame(exception, outcome.exceptionOrNull())
+    }
+
+    @Test
+    fun awaitThrowsWhenCancelled() {
+        val release = CountDownLatch(1)
+        val future = TestOperation {
+            release.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)
+            RemoteOperationResult(ResultCode.OK)
+        }.executeAsync(client, executor)
+        future.cancel(false)
+
+        val outcome = runSuspending { future.await() }
+        release.countDown()
+
+        assertTrue(outcome.exceptionOrNull() is CancellationException)
+    }
+
+    /**
+     * Runs a suspending block from a test without any coroutine library, and waits for its outcome.
+     */
+    private fun <R> runSuspending(block: suspend () -> R): Result<R> {
+        val finished = CountDownLatch(1)
+        var outcome: Result<R>? = null
+        block.startCoroutine(
+            Continuation(EmptyCoroutineContext) {
+                outcome = it
+                finished.countDown()
+            }
+        )
+        assertTrue(finished.await(TIMEOUT_SECONDS, TimeUnit.SECONDS))
+        return outcome!!
+    }
+
+    private class TestOperation(
+        private val body: () -> RemoteOperationResult<String>
+    ) : RemoteOperation<String>() {
+        override fun run(client: NextcloudClient): RemoteOperationResult<String> = body()
+
+        override fun isGuardedByCircuitBreaker(): Boolean = false
+    }
+}
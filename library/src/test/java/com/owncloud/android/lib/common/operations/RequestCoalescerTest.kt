@@ -0,0 +1,133 @@
+/*
+ *  Nextcloud Android Library is available under MIT license
+ *
+ *  Copyright (C) 2022 Nextcloud GmbH
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *  EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *  MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *  NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *  BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *  ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *  CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.owncloud.android.lib.common.operations
+
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotSame
+import org.junit.Assert.assertSame
+import org.junit.Test
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+class RequestCoalescerTest {
+
+    companion object {
+        private const val KEY = "GET /status.php"
+        private const val WAITING_CALLERS = 4
+    }
+
+    @Test
+    fun identicalRequestsInFlightShareResult() {
+        val sut = RequestCoalescer()
+        val executions = AtomicInteger()
+        val firstStarted = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val result = Any()
+        val executor = Executors.newFixedThreadPool(WAITING_CALLERS + 1)
+
+        val first = executor.submit<Any> {
+            sut.execute(KEY) {
+                executions.incrementAndGet()
+                firstStarted.countDown()
+                release.await()
+                result
+            }
+        }
+        firstStarted.await()
+
+        val others = (1..WAITING_CALLERS).map {
+            executor.submit<Any> {
+                sut.execute(KEY) {
+                    executions.incrementAndGet()
+                    Any()
+                }
+            }
+        }
+        // wait until all the callers are waiting for the request in flight
+        while (sut.coalescedCount < WAITING_CALLERS) {
+            Thread.sleep(1)
+        }
+        release.countDown()
+
+        assertSame(result, first.get(1, TimeUnit.SECONDS))
+        others.forEach { assertSame(result, it.get(1, TimeUnit.SECONDS)) }
+        assertEquals(1, executions.get())
+        assertEquals(0, sut.inFlightCount)
+        executor.shutdown()
+    }
+
+    @Test
+    fun waitingCallersReceiveCopies() {
+        val sut = RequestCoalescer()
+        val firstStarted = CountDownLatch(1)
+        val release = CountDownLatch(1)
+        val result = mutableListOf("file")
+        val executor = Executors.newFixedThreadPool(WAITING_CALLERS + 1)
+        val copier = RequestCoalescer.Copier<MutableList<String>> { it.toMutableList() }
+
+        val first = executor.submit<MutableList<String>> {
+            sut.execute(
+                KEY,
+                {
+                    firstStarted.countDown()
+                    release.await()
+                    result
+                },
+                copier
+            )
+        }
+        firstStarted.await()
+
+        val others = (1..WAITING_CALLERS).map {
+            executor.submit<MutableList<String>> { sut.execute(KEY, { mutableListOf<String>() }, copier) }
+        }
+        while (sut.coalescedCount < WAITING_CALLERS) {
+            Thread.sleep(1)
+        }
+        release.countDown()
+
+        assertSame(result, first.get(1, TimeUnit.SECONDS))
+        others.map { it.get(1, TimeUnit.SECONDS) }.forEach {
+            assertNotSame(result, it)
+            assertEquals(result, it)
+        }
+        executor.shutdown()
+    }
+
+    @Test
+    fun finishedRequestsAreNotCached() {
+        val sut = RequestCoalescer()
+        val executions = AtomicInteger()
+
+        sut.execute(KEY) { executions.incrementAndGet() }
+        sut.execute(KEY) { executions.incrementAndGet() }
+
+        assertEquals(2, executions.get())
+        assertEquals(0, sut.coalescedCount)
+    }
+}
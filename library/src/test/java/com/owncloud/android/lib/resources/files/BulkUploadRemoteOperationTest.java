@@ -0,0 +1,127 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+
+import com.owncloud.android.lib.common.OwnCloudClient;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+import com.owncloud.android.lib.resources.status.OCCapability;
+
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class BulkUploadRemoteOperationTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OwnCloudClient client;
+    private OCCapability capability;
+    private final List<String> sentBodies = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        client = mock(OwnCloudClient.class);
+        Uri davUri = mock(Uri.class);
+        when(davUri.toString()).thenReturn("http://example.com/remote.php/dav");
+        when(client.getDavUri()).thenReturn(davUri);
+        // the request never reaches a server: its body is kept, and the connection fails
+        when(client.executeMethod(any(HttpMethod.class))).thenAnswer(invocation -> {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ((PostMethod) invocation.getArgument(0)).getRequestEntity().writeRequest(out);
+            sentBodies.add(new String(out.toByteArray(), StandardCharsets.UTF_8));
+            throw new IOException("Connection refused");
+        });
+
+        capability = new OCCapability();
+        capability.setDavBulkUploadVersion("1.0");
+    }
+
+    @Test
+    public void missingModificationTimeIsNotSent() throws IOException {
+        List<BulkUploadRemoteOperation.FileToUpload> files = new ArrayList<>();
+        files.add(new BulkUploadRemoteOperation.FileToUpload(createFile("a.txt"), "/a.txt", "text/plain", null));
+        files.add(new BulkUploadRemoteOperation.FileToUpload(createFile("b.txt"),
+                                                             "/b.txt",
+                                                             "text/plain",
+                                                             "1464818400"));
+
+        new BulkUploadRemoteOperation(files, capability).run(client);
+
+        assertEquals(1, sentBodies.size());
+        String body = sentBodies.get(0);
+        assertTrue(body.contains("X-File-Mtime: 1464818400\r\n"));
+        assertFalse(body.contains("X-File-Mtime: null"));
+        assertEquals(body.indexOf("X-File-Mtime"), body.lastIndexOf("X-File-Mtime"));
+    }
+
+    @Test
+    public void everyFileOfAFailedBatchHasItsOwnResult() throws IOException {
+        List<BulkUploadRemoteOperation.FileToUpload> files = new ArrayList<>();
+        files.add(new BulkUploadRemoteOperation.FileToUpload(createFile("a.txt"), "/a.txt", "text/plain", null));
+        files.add(new BulkUploadRemoteOperation.FileToUpload(createFile("b.txt"), "/b.txt", "text/plain", null));
+
+        RemoteOperationResult<Map<String, RemoteOperationResult<String>>> result =
+                new BulkUploadRemoteOperation(files, capability).run(client);
+
+        assertTrue(result.isSuccess());
+        Map<String, RemoteOperationResult<String>> results = result.getResultData();
+        assertEquals(2, results.size());
+        assertFalse(results.get("/a.txt").isSuccess());
+        assertFalse(results.get("/b.txt").isSuccess());
+        assertNotSame(results.get("/a.txt"), results.get("/b.txt"));
+    }
+
+    private String createFile(String name) throws IOException {
+        File file = folder.newFile(name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(name.getBytes(StandardCharsets.UTF_8));
+        }
+        return file.getAbsolutePath();
+    }
+}
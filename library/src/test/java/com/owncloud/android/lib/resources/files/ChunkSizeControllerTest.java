@@ -0,0 +1,99 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class ChunkSizeControllerTest {
+
+    private static final long MB = 1024 * 1024;
+
+    @Test
+    public void fastLinkGrowsChunksStepByStep() {
+        ChunkSizeController sut = new ChunkSizeController(MB, MB / 4, 64 * MB, 10000);
+
+        // 10 MB/s
+        sut.onChunkUploaded(MB, 100, 20);
+        assertEquals("Size must not more than double at once", 2 * MB, sut.getNextChunkSize());
+
+        for (int i = 0; i < 10; i++) {
+            long size = sut.getNextChunkSize();
+            sut.onChunkUploaded(size, size / (10 * 1024), 20);
+        }
+        assertEquals("Size must not exceed maximum", 64 * MB, sut.getNextChunkSize());
+    }
+
+    @Test
+    public void slowLinkShrinksChunks() {
+        ChunkSizeController sut = new ChunkSizeController(10 * MB, MB / 4, 64 * MB, 10000);
+
+        // 10 kB/s
+        sut.onChunkUploaded(10 * MB, 1000 * 1000, 200);
+        assertEquals(5 * MB, sut.getNextChunkSize());
+
+        for (int i = 0; i < 10; i++) {
+            sut.onChunkUploaded(sut.getNextChunkSize(), 1000 * 1000, 200);
+        }
+        assertEquals("Size must not go below minimum", MB / 4, sut.getNextChunkSize());
+    }
+
+    @Test
+    public void longRoundTripKeepsChunksLarger() {
+        ChunkSizeController shortRoundTrip = new ChunkSizeController(MB, MB / 4, 64 * MB, 1000);
+        ChunkSizeController longRoundTrip = new ChunkSizeController(MB, MB / 4, 64 * MB, 1000);
+
+        // 1 MB/s
+        shortRoundTrip.onChunkUploaded(MB, 1000, 10);
+        longRoundTrip.onChunkUploaded(MB, 1000, 500);
+
+        assertTrue(longRoundTrip.getNextChunkSize() > shortRoundTrip.getNextChunkSize());
+    }
+
+    @Test
+    public void failureHalvesChunks() {
+        ChunkSizeController sut = new ChunkSizeController(8 * MB);
+
+        sut.onChunkFailed();
+        assertEquals(4 * MB, sut.getNextChunkSize());
+    }
+
+    @Test
+    public void fixedSize() {
+        ChunkSizeController sut = new ChunkSizeController(MB, MB, MB, 10000);
+
+        sut.onChunkUploaded(MB, 1, 1);
+        sut.onChunkFailed();
+        assertEquals(MB, sut.getNextChunkSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidBounds() {
+        new ChunkSizeController(MB, 2 * MB, MB, 10000);
+    }
+}
@@ -0,0 +1,251 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.owncloud.android.lib.common.network.OnDatatransferProgressListener;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads of chunks in parallel, with a fake {@link ChunkedFileUploadRemoteOperation.ChunkUploader} instead of a
+ * server.
+ */
+public class ChunkedFileUploadParallelTest {
+
+    private static final long CHUNK_SIZE = 1024;
+    private static final long TIMEOUT_SECONDS = 10;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = folder.newFile("content");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(8 * CHUNK_SIZE - 100);
+        }
+    }
+
+    @Test
+    public void chunksAreUploadedInParallelAndAssembledOnce() throws Exception {
+        ChunkedFileUploadRemoteOperation sut = createOperation(3);
+        FakeChunkUploader uploader = new FakeChunkUploader(3);
+
+        RemoteOperationResult result = upload(sut, uploader);
+
+        assertTrue(result.isSuccess());
+        assertEquals(3, uploader.maxInFlight.get());
+        List<String> expectedNames = new ArrayList<>();
+        for (long start = 0; start < file.length(); start += CHUNK_SIZE) {
+            expectedNames.add(String.format("%016d-%016d", start, Math.min(start + CHUNK_SIZE, file.length()) - 1));
+        }
+        List<String> uploadedNames = new ArrayList<>(uploader.uploadedNames);
+        Collections.sort(uploadedNames);
+        assertEquals(expectedNames, uploadedNames);
+
+        assertEquals(1, uploader.assembleCount.get());
+        assertEquals(expectedNames.size(), uploader.uploadedBeforeAssembly);
+        assertEquals(String.valueOf(file.length()), uploader.assembleHeaders.get("OC-Total-Length"));
+    }
+
+    @Test
+    public void progressOfChunksIsMerged() throws Exception {
+        ChunkedFileUploadRemoteOperation sut = createOperation(2);
+        final List<Long> transferred = Collections.synchronizedList(new ArrayList<>());
+        final AtomicInteger sumOfRates = new AtomicInteger();
+        sut.addDataTransferProgressListener((progressRate, totalTransferredSoFar, totalToTransfer, fileName) -> {
+            assertEquals(file.length(), totalToTransfer);
+            sumOfRates.addAndGet((int) progressRate);
+            transferred.add(totalTransferredSoFar);
+        });
+
+        assertTrue(upload(sut, new FakeChunkUploader(2)).isSuccess());
+
+        assertEquals(file.length(), sumOfRates.get());
+        assertEquals(Long.valueOf(file.length()), transferred.get(transferred.size() - 1));
+        for (int i = 1; i < transferred.size(); i++) {
+            assertTrue(transferred.get(i) > transferred.get(i - 1));
+        }
+    }
+
+    @Test
+    public void cancelAbortsEveryChunkInFlight() throws Exception {
+        final ChunkedFileUploadRemoteOperation sut = createOperation(3);
+        final FakeChunkUploader uploader = new FakeChunkUploader(3);
+        uploader.blockUntilAborted = true;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<RemoteOperationResult> upload = executor.submit(() -> upload(sut, uploader));
+            assertTrue(uploader.started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+            sut.cancel(RemoteOperationResult.ResultCode.CANCELLED);
+
+            RemoteOperationResult result = upload.get(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            assertEquals(RemoteOperationResult.ResultCode.CANCELLED, result.getCode());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(3, uploader.abortedInFlight);
+        assertEquals(3, uploader.startedCount.get());
+        assertEquals(0, uploader.assembleCount.get());
+    }
+
+    @Test
+    public void failedChunkIsNotAssembled() throws Exception {
+        ChunkedFileUploadRemoteOperation sut = createOperation(2);
+        FakeChunkUploader uploader = new FakeChunkUploader(1);
+        uploader.failedStart = 2 * CHUNK_SIZE;
+
+        RemoteOperationResult result = upload(sut, uploader);
+
+        assertFalse(result.isSuccess());
+        assertEquals(RemoteOperationResult.ResultCode.UNKNOWN_ERROR, result.getCode());
+        assertEquals(0, uploader.assembleCount.get());
+        assertNull(uploader.assembleHeaders);
+    }
+
+    private ChunkedFileUploadRemoteOperation createOperation(int parallelChunks) {
+        ChunkedFileUploadRemoteOperation sut = new ChunkedFileUploadRemoteOperation(file.getAbsolutePath(),
+                                                                                    "/content",
+                                                                                    "application/octet-stream",
+                                                                                    null,
+                                                                                    "1464818400",
+                                                                                    true);
+        sut.setChunkSizeController(new ChunkSizeController(CHUNK_SIZE,
+                                                           CHUNK_SIZE,
+                                                           CHUNK_SIZE,
+                                                           ChunkSizeController.DEFAULT_TARGET_CHUNK_DURATION));
+        sut.setParallelChunks(parallelChunks);
+        return sut;
+    }
+
+    private RemoteOperationResult upload(ChunkedFileUploadRemoteOperation sut,
+                                         ChunkedFileUploadRemoteOperation.ChunkUploader uploader) throws Exception {
+        List<Chunk> missingRanges = new ArrayList<>();
+        missingRanges.add(new Chunk(0, file.length() - 1));
+        return sut.uploadAndAssemble(uploader, "uploads/content", new ArrayList<>(), missingRanges, 1, file);
+    }
+
+    /**
+     * Reports the progress of every chunk in two steps; the first chunks started wait for each other, so that they
+     * are in flight at the same time.
+     */
+    private static final class FakeChunkUploader implements ChunkedFileUploadRemoteOperation.ChunkUploader {
+        private final CountDownLatch started;
+        private final CountDownLatch aborted = new CountDownLatch(1);
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger maxInFlight = new AtomicInteger();
+        private final AtomicInteger startedCount = new AtomicInteger();
+        private final AtomicInteger assembleCount = new AtomicInteger();
+        private final List<String> uploadedNames = Collections.synchronizedList(new ArrayList<>());
+
+        private volatile boolean blockUntilAborted = false;
+        private volatile long failedStart = -1;
+        private volatile int abortedInFlight = -1;
+        private volatile int uploadedBeforeAssembly = -1;
+        private volatile Map<String, String> assembleHeaders = null;
+
+        private FakeChunkUploader(int concurrentChunks) {
+            started = new CountDownLatch(concurrentChunks);
+        }
+
+        @Override
+        public RemoteOperationResult uploadChunk(String chunkName,
+                                                 Chunk chunk,
+                                                 OnDatatransferProgressListener progressListener,
+                                                 ChunkedUploadChecksum contentChecksum) throws IOException {
+            startedCount.incrementAndGet();
+            int current = inFlight.incrementAndGet();
+            maxInFlight.accumulateAndGet(current, Math::max);
+            try {
+                started.countDown();
+                if (!started.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                    throw new IOException("Chunks not started in parallel");
+                }
+                if (blockUntilAborted) {
+                    if (!aborted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                        throw new IOException("Chunk not aborted");
+                    }
+                    return new RemoteOperationResult(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+                }
+                if (chunk.start == failedStart) {
+                    return new RemoteOperationResult(RemoteOperationResult.ResultCode.UNKNOWN_ERROR);
+                }
+
+                // chunk entities report their position in the whole file
+                long half = chunk.length() / 2;
+                progressListener.onTransferProgress(half, chunk.start + half, 0, chunkName);
+                progressListener.onTransferProgress(chunk.length() - half, chunk.end + 1, 0, chunkName);
+                uploadedNames.add(chunkName);
+                return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+            } catch (InterruptedException e) {
+                throw new IOException(e);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        @Override
+        public RemoteOperationResult assemble(Map<String, String> headers, int timeoutMillis) {
+            assembleCount.incrementAndGet();
+            uploadedBeforeAssembly = uploadedNames.size();
+            assembleHeaders = headers;
+            return new RemoteOperationResult(RemoteOperationResult.ResultCode.OK);
+        }
+
+        @Override
+        public void abort() {
+            abortedInFlight = inFlight.get();
+            aborted.countDown();
+        }
+    }
+}
@@ -28,10 +28,14 @@
 package com.owncloud.android.lib.resources.files;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
+import com.owncloud.android.lib.resources.status.CapabilityBooleanType;
+import com.owncloud.android.lib.resources.status.OCCapability;
+
 import org.junit.Test;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
@@ -144,6 +148,43 @@ public class ChunkedFileUploadRemoteOperationTest {
         assertTrue(test(existingChunks, expectedMissingChunks, chunkSize, length));
     }
 
+    @Test
+    public void testUploadChunksMissingChunksOfMixedSizes() {
+        long length = 10000;
+
+        List<Chunk> existingChunks = new ArrayList<>();
+        existingChunks.add(new Chunk(5000, 9999));
+        existingChunks.add(new Chunk(0, 999));
+        existingChunks.add(new Chunk(1000, 2999));
+
+        List<Chunk> expectedMissingChunks = new ArrayList<>();
+        expectedMissingChunks.add(new Chunk(3000, 3999));
+        expectedMissingChunks.add(new Chunk(4000, 4999));
+        expectedMissingChunks.add(new Chunk(10000, 10000));
+
+        assertTrue(test(existingChunks, expectedMissingChunks, 1000, length));
+    }
+
+    @Test
+    public void testUploadChunksManyChunksInAnyOrder() {
+        long length = 100000 * chunkSize;
+
+        List<Chunk> existingChunks = new ArrayList<>();
+        for (long i = 99999; i >= 0; i--) {
+            if (i != 50000) {
+                existingChunks.add(new Chunk(i * chunkSize, (i + 1) * chunkSize - 1));
+            }
+        }
+        // recorded twice, e.g. listed by the server and by the upload journal
+        existingChunks.add(new Chunk(0, chunkSize - 1));
+
+        List<Chunk> expectedMissingChunks = new ArrayList<>();
+        expectedMissingChunks.add(new Chunk(50000 * chunkSize, 50001 * chunkSize - 1));
+        expectedMissingChunks.add(new Chunk(length, length));
+
+        assertTrue(test(existingChunks, expectedMissingChunks, chunkSize, length));
+    }
+
     @Test
     public void testAssembleTimeout() {
         MockitoAnnotations.openMocks(this);
@@ -193,6 +234,36 @@ public class ChunkedFileUploadRemoteOperationTest {
         assertEquals(sut.ASSEMBLE_TIME_MAX, sut.calculateAssembleTimeout(file));
     }
 
+    @Test
+    public void testChunkingFromCapability() {
+        String modificationTimestamp = String.valueOf(System.currentTimeMillis() / 1000);
+        ChunkedFileUploadRemoteOperation sut = new ChunkedFileUploadRemoteOperation(null,
+                                                                                    null,
+                                                                                    null,
+                                                                                    null,
+                                                                                    modificationTimestamp,
+                                                                                    true);
+
+        OCCapability capability = new OCCapability();
+        sut.setCapability(capability);
+        assertFalse(sut.isChunkingV2());
+        assertEquals(ChunkSizeController.DEFAULT_MIN_CHUNK_SIZE, sut.createChunkSizeController(1024).getMinChunkSize());
+
+        capability.setFilesChunkedUpload(CapabilityBooleanType.TRUE);
+        capability.setFilesChunkedUploadMaxSize(50 * 1024 * 1024);
+        sut.setCapability(capability);
+        assertTrue(sut.isChunkingV2());
+
+        ChunkSizeController controller = sut.createChunkSizeController(1024);
+        assertEquals(ChunkedFileUploadRemoteOperation.CHUNK_SIZE_MIN_V2, controller.getMinChunkSize());
+        assertEquals(50 * 1024 * 1024, controller.getMaxChunkSize());
+
+        // no more than 10000 parts
+        long huge = 200L * 1024 * 1024 * 1024;
+        controller = sut.createChunkSizeController(huge);
+        assertTrue(huge / controller.getMinChunkSize() <= ChunkedFileUploadRemoteOperation.MAX_CHUNKS_V2);
+    }
+
     @Test
     public void testChunks() {
         Chunk chunk1 = new Chunk(0, 5);
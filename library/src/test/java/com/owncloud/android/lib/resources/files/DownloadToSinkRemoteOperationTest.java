@@ -0,0 +1,189 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+import android.net.Uri;
+
+import com.nextcloud.common.NextcloudClient;
+import com.owncloud.android.lib.common.operations.OperationCancelledException;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+
+import okhttp3.Call;
+import okhttp3.Credentials;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSink;
+
+public class DownloadToSinkRemoteOperationTest {
+
+    private static final String URL = "http://example.com/remote.php/dav/files/test/file.bin";
+    private static final String ETAG = "\"5f2b3c1a9e\"";
+    private static final MediaType OCTET_STREAM = MediaType.parse("application/octet-stream");
+
+    private OkHttpClient okHttpClient;
+    private Call call;
+    private NextcloudClient client;
+
+    @Before
+    public void setUp() {
+        okHttpClient = mock(OkHttpClient.class);
+        call = mock(Call.class);
+        when(okHttpClient.newCall(any())).thenReturn(call);
+        client = spy(new NextcloudClient(mock(Uri.class),
+                                         "test",
+                                         Credentials.basic("username", "password"),
+                                         okHttpClient));
+        // Uri.parse is not available in unit tests
+        doReturn(URL).when(client).getFilesDavUri(anyString());
+    }
+
+    @Test
+    public void bodyIsWrittenToSink() throws IOException {
+        byte[] content = createContent(100000);
+        when(call.execute()).thenReturn(createResponse(200, ResponseBody.create(content, OCTET_STREAM)));
+        Buffer target = new Buffer();
+        final boolean[] closed = new boolean[1];
+        DownloadToSinkRemoteOperation sut = new DownloadToSinkRemoteOperation("/file.bin", new ForwardingSink(target) {
+            @Override
+            public void close() throws IOException {
+                closed[0] = true;
+                super.close();
+            }
+        });
+
+        RemoteOperationResult result = sut.run(client);
+
+        assertTrue(result.isSuccess());
+        assertArrayEquals(content, target.readByteArray());
+        assertFalse("The sink of the caller is left open", closed[0]);
+        assertEquals(content.length, sut.getTransferred());
+        assertEquals(content.length, sut.getContentLength());
+        assertEquals("5f2b3c1a9e", sut.getEtag());
+        assertEquals("application/octet-stream", sut.getMimeType());
+        assertTrue(sut.getModificationTimestamp() > 0);
+    }
+
+    @Test
+    public void truncatedBodyFails() throws IOException {
+        final byte[] content = createContent(100000);
+        ResponseBody truncated = new ResponseBody() {
+            @Override
+            public MediaType contentType() {
+                return OCTET_STREAM;
+            }
+
+            @Override
+            public long contentLength() {
+                return content.length + 1000;
+            }
+
+            @Override
+            public BufferedSource source() {
+                return new Buffer().write(content);
+            }
+        };
+        when(call.execute()).thenReturn(createResponse(200, truncated));
+        Buffer target = new Buffer();
+        DownloadToSinkRemoteOperation sut = new DownloadToSinkRemoteOperation("/file.bin", target);
+
+        RemoteOperationResult result = sut.run(client);
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getException() instanceof IOException);
+        assertEquals(content.length, sut.getTransferred());
+        assertEquals(content.length, target.size());
+    }
+
+    @Test
+    public void errorResponseIsNotWritten() throws IOException {
+        when(call.execute()).thenReturn(createResponse(404, ResponseBody.create(createContent(100), OCTET_STREAM)));
+        Buffer target = new Buffer();
+        DownloadToSinkRemoteOperation sut = new DownloadToSinkRemoteOperation("/file.bin", target);
+
+        RemoteOperationResult result = sut.run(client);
+
+        assertFalse(result.isSuccess());
+        assertEquals(404, result.getHttpCode());
+        assertEquals(0, target.size());
+    }
+
+    @Test
+    public void cancelledDownloadIsNotWritten() throws IOException {
+        when(call.execute()).thenReturn(createResponse(200, ResponseBody.create(createContent(100), OCTET_STREAM)));
+        Buffer target = new Buffer();
+        DownloadToSinkRemoteOperation sut = new DownloadToSinkRemoteOperation("/file.bin", target);
+        sut.cancel();
+
+        RemoteOperationResult result = sut.run(client);
+
+        assertFalse(result.isSuccess());
+        assertTrue(result.getException() instanceof OperationCancelledException);
+        assertEquals(0, target.size());
+    }
+
+    private Response createResponse(int code, ResponseBody body) {
+        return new Response.Builder()
+            .request(new Request.Builder().url(URL).build())
+            .protocol(Protocol.HTTP_1_1)
+            .code(code)
+            .message(code == 200 ? "OK" : "Not Found")
+            .header("ETag", ETAG)
+            .header("Content-Type", "application/octet-stream")
+            .header("Last-Modified", "Tue, 11 Oct 2022 10:20:30 GMT")
+            .body(body)
+            .build();
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+}
@@ -0,0 +1,104 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class PartialDownloadTest {
+
+    private static final String ETAG = "\"5f2b3c1a9e\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void interruptedDownloadIsResumed() throws IOException {
+        File file = new File(folder.getRoot(), "file.bin");
+        PartialDownload sut = new PartialDownload(file);
+        assertEquals(0, sut.getResumeOffset());
+
+        sut.start(ETAG);
+        write(file, 1000);
+        sut.finish(false);
+
+        PartialDownload resumed = new PartialDownload(file);
+        assertEquals(1000, resumed.getResumeOffset());
+        assertEquals(ETAG, resumed.getEtag());
+
+        resumed.finish(true);
+        assertTrue(file.exists());
+        assertNull(new PartialDownload(file).getEtag());
+    }
+
+    @Test
+    public void partWithoutStrongEtagIsDiscarded() throws IOException {
+        File file = new File(folder.getRoot(), "file.bin");
+        PartialDownload sut = new PartialDownload(file);
+
+        sut.start("W/\"5f2b3c1a9e\"");
+        write(file, 1000);
+        sut.finish(false);
+
+        assertFalse(file.exists());
+        assertEquals(0, new PartialDownload(file).getResumeOffset());
+    }
+
+    @Test
+    public void partWithoutSidecarIsDiscarded() throws IOException {
+        File file = new File(folder.getRoot(), "file.bin");
+        write(file, 1000);
+
+        assertEquals(0, new PartialDownload(file).getResumeOffset());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void contentRangeIsParsed() {
+        assertEquals(100, PartialDownload.parseRangeStart("bytes 100-199/1000"));
+        assertEquals(1000, PartialDownload.parseCompleteLength("bytes 100-199/1000"));
+        assertEquals(-1, PartialDownload.parseCompleteLength("bytes 100-199/*"));
+        assertEquals(-1, PartialDownload.parseRangeStart("bytes */1000"));
+        assertEquals(-1, PartialDownload.parseRangeStart(null));
+        assertEquals(-1, PartialDownload.parseRangeStart("items 1-2/3"));
+    }
+
+    private void write(File file, int length) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write(new byte[length]);
+        }
+    }
+}
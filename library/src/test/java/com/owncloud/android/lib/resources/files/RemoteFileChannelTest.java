@@ -0,0 +1,287 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class RemoteFileChannelTest {
+
+    private static final String ETAG = "\"5f2b3c1a9e\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void readsFromAnyPosition() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        RemoteFileChannel sut = createChannel(server, 0);
+
+        ByteBuffer buffer = ByteBuffer.allocate(20000);
+        int read = sut.position(45000).read(buffer);
+
+        assertEquals(20000, read);
+        assertEquals(65000, sut.position());
+        assertEquals(100000, sut.size());
+        assertArrayEquals(Arrays.copyOfRange(content, 45000, 65000), buffer.array());
+        assertEquals(Arrays.asList("0-9999", "40000-49999", "50000-59999", "60000-69999"), server.requests);
+        assertEquals("5f2b3c1a9e", sut.getEtag());
+    }
+
+    @Test
+    public void cachedBlocksAreNotFetchedAgain() throws IOException {
+        FakeServer server = new FakeServer(createContent(100000));
+        RemoteFileChannel sut = createChannel(server, 0);
+
+        sut.read(ByteBuffer.allocate(100), 75000);
+        sut.read(ByteBuffer.allocate(100), 5000);
+        sut.read(ByteBuffer.allocate(100), 75500);
+
+        assertEquals(Arrays.asList("0-9999", "70000-79999"), server.requests);
+    }
+
+    @Test
+    public void sequentialReadsFetchEveryBlockOnce() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        RemoteFileChannel sut = createChannel(server, 3);
+
+        ByteBuffer all = ByteBuffer.allocate(content.length);
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        while (sut.read(buffer) >= 0) {
+            buffer.flip();
+            all.put(buffer);
+            buffer.clear();
+        }
+
+        assertArrayEquals(content, all.array());
+        assertEquals(10, server.requests.size());
+        assertEquals(10, new HashSet<>(server.requests).size());
+    }
+
+    @Test
+    public void slowFetchDoesNotBlockOtherReads() throws Exception {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        server.stalledRange = "50000-59999";
+        RemoteFileChannel sut = createChannel(server, 0);
+        sut.size();
+
+        ByteBuffer stalled = ByteBuffer.allocate(100);
+        Thread reader = new Thread(() -> {
+            try {
+                sut.position(50000).read(stalled);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        reader.start();
+        assertTrue(server.stalled.await(5, TimeUnit.SECONDS));
+
+        ByteBuffer buffer = ByteBuffer.allocate(100);
+        sut.read(buffer, 0);
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 100), buffer.array());
+        assertEquals(50000, sut.position());
+
+        server.resume.countDown();
+        reader.join(5000);
+        assertEquals(50100, sut.position());
+        assertArrayEquals(Arrays.copyOfRange(content, 50000, 50100), stalled.array());
+    }
+
+    @Test
+    public void evictedBlocksAreSpilledToDisk() throws IOException {
+        byte[] content = createContent(50000);
+        FakeServer server = new FakeServer(content);
+        File spillDirectory = folder.newFolder();
+        RemoteFileChannel sut = createChannel(server, 0);
+        sut.setMaxCachedBlocks(1);
+        sut.setSpillDirectory(spillDirectory, 10);
+
+        for (long position = 0; position < content.length; position += 10000) {
+            sut.read(ByteBuffer.allocate(10), position);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(10000);
+        sut.read(buffer, 0);
+
+        assertArrayEquals(Arrays.copyOfRange(content, 0, 10000), buffer.array());
+        assertEquals(5, server.requests.size());
+        sut.close();
+        assertEquals(0, spillDirectory.listFiles().length);
+    }
+
+    @Test(expected = RemoteFileChannel.FileChangedException.class)
+    public void changedFileFailsRead() throws IOException {
+        FakeServer server = new FakeServer(createContent(100000));
+        RemoteFileChannel sut = createChannel(server, 0);
+        sut.size();
+
+        server.eTag = "\"changed\"";
+        sut.read(ByteBuffer.allocate(100), 50000);
+    }
+
+    @Test
+    public void emptyFileHasNoContent() throws IOException {
+        RemoteFileChannel sut = createChannel(new FakeServer(new byte[0]), 0);
+
+        assertEquals(0, sut.size());
+        assertEquals(-1, sut.read(ByteBuffer.allocate(100)));
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void closedChannelIsNotRead() throws IOException {
+        RemoteFileChannel sut = createChannel(new FakeServer(createContent(100000)), 0);
+        sut.size();
+
+        sut.close();
+
+        assertFalse(sut.isOpen());
+        sut.read(ByteBuffer.allocate(100));
+    }
+
+    private RemoteFileChannel createChannel(FakeServer server, int readAheadBlocks) {
+        RemoteFileChannel channel = new RemoteFileChannel(server, "/file.bin");
+        channel.setBlockSize(10000);
+        channel.setReadAheadBlocks(readAheadBlocks);
+        return channel;
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    private static final class FakeServer implements SegmentedDownload.RangeClient {
+        private final byte[] content;
+        private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        private volatile String eTag = ETAG;
+        private volatile String stalledRange;
+        private final CountDownLatch stalled = new CountDownLatch(1);
+        private final CountDownLatch resume = new CountDownLatch(1);
+
+        private FakeServer(byte[] content) {
+            this.content = content;
+        }
+
+        private void stall() throws IOException {
+            stalled.countDown();
+            try {
+                if (!resume.await(5, TimeUnit.SECONDS)) {
+                    throw new IOException("Stalled request not resumed");
+                }
+            } catch (InterruptedException e) {
+                throw new InterruptedIOException("Interrupted while stalled");
+            }
+        }
+
+        @Override
+        public SegmentedDownload.RangeRequest newRequest(long start, long end, String ifMatch) {
+            return new SegmentedDownload.RangeRequest() {
+                private final Map<String, String> headers = new HashMap<>();
+                private int status;
+                private InputStream body;
+
+                @Override
+                int execute() throws IOException {
+                    requests.add(start + "-" + end);
+                    if ((start + "-" + end).equals(stalledRange)) {
+                        stall();
+                    }
+                    headers.put(PartialDownload.ETAG_HEADER, eTag);
+                    if (ifMatch != null && !ifMatch.equals(eTag)) {
+                        status = HttpStatus.SC_PRECONDITION_FAILED;
+                    } else if (start >= content.length) {
+                        status = HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+                        headers.put(PartialDownload.CONTENT_RANGE_HEADER, "bytes */" + content.length);
+                    } else {
+                        long last = Math.min(end, content.length - 1);
+                        status = HttpStatus.SC_PARTIAL_CONTENT;
+                        headers.put(PartialDownload.CONTENT_RANGE_HEADER,
+                                    "bytes " + start + "-" + last + "/" + content.length);
+                        body = new ByteArrayInputStream(content, (int) start, (int) (last + 1 - start));
+                    }
+                    return status;
+                }
+
+                @Override
+                String getHeader(String name) {
+                    return headers.get(name);
+                }
+
+                @Override
+                InputStream getBody() {
+                    return body;
+                }
+
+                @Override
+                RemoteOperationResult toResult(boolean success) {
+                    return new RemoteOperationResult(success, status, (Header[]) null);
+                }
+
+                @Override
+                void abort() {
+                    // nothing in progress to abort
+                }
+
+                @Override
+                public void close() {
+                    // no connection to release
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,250 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.owncloud.android.lib.common.network.ProgressDispatcher;
+import com.owncloud.android.lib.common.operations.RemoteOperationResult;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpStatus;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SegmentedDownloadTest {
+
+    private static final String ETAG = "\"5f2b3c1a9e\"";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void fileIsDownloadedInSegments() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        File file = new File(folder.getRoot(), "file.bin");
+
+        RemoteOperationResult result = createDownload(server, file, 4, 10000).run();
+
+        assertTrue(result.isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        // the first segment, and the rest split in four
+        assertEquals(5, server.requests.size());
+        assertTrue(server.requests.contains("0-9999"));
+        assertTrue(server.requests.contains("10000-32499"));
+        assertTrue(server.requests.contains("77500-99999"));
+    }
+
+    @Test
+    public void failedSegmentIsRetriedFromItsFirstMissingByte() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        server.failingRanges.put("55000-99999", 1000);
+        File file = new File(folder.getRoot(), "file.bin");
+
+        RemoteOperationResult result = createDownload(server, file, 2, 10000).run();
+
+        assertTrue(result.isSuccess());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+        assertTrue(server.requests.contains("56000-99999"));
+    }
+
+    @Test
+    public void changedFileStopsTheDownload() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        server.changeAfterRequests = 1;
+        File file = new File(folder.getRoot(), "file.bin");
+
+        RemoteOperationResult result = createDownload(server, file, 4, 10000).run();
+
+        assertFalse(result.isSuccess());
+        assertEquals(HttpStatus.SC_PRECONDITION_FAILED, result.getHttpCode());
+        assertFalse(file.exists());
+    }
+
+    @Test
+    public void serverWithoutRangesSendsTheWholeFile() throws IOException {
+        byte[] content = createContent(100000);
+        FakeServer server = new FakeServer(content);
+        server.rangesSupported = false;
+        File file = new File(folder.getRoot(), "file.bin");
+
+        RemoteOperationResult result = createDownload(server, file, 4, 10000).run();
+
+        assertTrue(result.isSuccess());
+        assertEquals(1, server.requests.size());
+        assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    public void fileWithoutStrongEtagIsNotDownloadedInSegments() throws IOException {
+        FakeServer server = new FakeServer(createContent(100000));
+        server.eTag = "W/" + ETAG;
+        File file = new File(folder.getRoot(), "file.bin");
+
+        assertNull(createDownload(server, file, 4, 10000).run());
+        assertFalse(file.exists());
+    }
+
+    private SegmentedDownload createDownload(FakeServer server, File file, int segmentCount, long minSegmentSize) {
+        return new SegmentedDownload(server,
+                                     file,
+                                     segmentCount,
+                                     minSegmentSize,
+                                     new AtomicBoolean(false),
+                                     new ProgressDispatcher());
+    }
+
+    private byte[] createContent(int size) {
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) (i * 31 + i / 256);
+        }
+        return content;
+    }
+
+    /**
+     * Answers range requests from memory.
+     */
+    private static final class FakeServer implements SegmentedDownload.RangeClient {
+        private final byte[] content;
+        private final List<String> requests = Collections.synchronizedList(new ArrayList<>());
+        /** Ranges whose response breaks after the given number of bytes, once */
+        private final Map<String, Integer> failingRanges = Collections.synchronizedMap(new HashMap<>());
+        private final AtomicInteger requestCount = new AtomicInteger();
+        private volatile String eTag = ETAG;
+        private volatile boolean rangesSupported = true;
+        private volatile int changeAfterRequests = -1;
+
+        private FakeServer(byte[] content) {
+            this.content = content;
+        }
+
+        @Override
+        public SegmentedDownload.RangeRequest newRequest(long start, long end, String ifMatch) {
+            return new SegmentedDownload.RangeRequest() {
+                private final Map<String, String> headers = new HashMap<>();
+                private int status;
+                private InputStream body;
+
+                @Override
+                int execute() {
+                    String range = start + "-" + end;
+                    requests.add(range);
+                    if (requestCount.incrementAndGet() - 1 == changeAfterRequests) {
+                        eTag = "\"changed\"";
+                    }
+                    headers.put(PartialDownload.ETAG_HEADER, eTag);
+                    if (ifMatch != null && !ifMatch.equals(eTag)) {
+                        status = HttpStatus.SC_PRECONDITION_FAILED;
+                        return status;
+                    }
+                    if (!rangesSupported) {
+                        status = HttpStatus.SC_OK;
+                        headers.put("Content-Length", String.valueOf(content.length));
+                        body = new ByteArrayInputStream(content);
+                        return status;
+                    }
+                    long last = Math.min(end, content.length - 1);
+                    status = HttpStatus.SC_PARTIAL_CONTENT;
+                    headers.put(PartialDownload.CONTENT_RANGE_HEADER,
+                                "bytes " + start + "-" + last + "/" + content.length);
+                    body = new ByteArrayInputStream(content, (int) start, (int) (last + 1 - start));
+                    Integer failAfter = failingRanges.remove(range);
+                    if (failAfter != null) {
+                        body = new BreakingInputStream(body, failAfter);
+                    }
+                    return status;
+                }
+
+                @Override
+                String getHeader(String name) {
+                    return headers.get(name);
+                }
+
+                @Override
+                InputStream getBody() {
+                    return body;
+                }
+
+                @Override
+                RemoteOperationResult toResult(boolean success) {
+                    return new RemoteOperationResult(success, status, (Header[]) null);
+                }
+
+                @Override
+                void abort() {
+                    // nothing in progress to abort
+                }
+
+                @Override
+                public void close() {
+                    // no connection to release
+                }
+            };
+        }
+    }
+
+    private static final class BreakingInputStream extends FilterInputStream {
+        private int left;
+
+        private BreakingInputStream(InputStream in, int left) {
+            super(in);
+            this.left = left;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (left <= 0) {
+                throw new IOException("Connection reset");
+            }
+            int read = super.read(b, off, Math.min(len, left));
+            left -= Math.max(0, read);
+            return read;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class UploadJournalTest {
+
+    private static final String UPLOAD_FOLDER = "https://cloud.example.com/remote.php/dav/uploads/user/abc";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void recordedChunksAreReadBack() {
+        UploadJournal sut = new UploadJournal(new File(folder.getRoot(), "journal"));
+        assertTrue(sut.getChunks(UPLOAD_FOLDER).isEmpty());
+
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(2048, 4096));
+        sut.addChunk(UPLOAD_FOLDER + "/other", new Chunk(0, 99));
+
+        UploadJournal reopened = new UploadJournal(new File(folder.getRoot(), "journal"));
+        assertEquals(Arrays.asList(new Chunk(0, 1023), new Chunk(2048, 4096)), reopened.getChunks(UPLOAD_FOLDER));
+
+        reopened.remove(UPLOAD_FOLDER);
+        assertTrue(reopened.getChunks(UPLOAD_FOLDER).isEmpty());
+        assertEquals(1, reopened.getChunks(UPLOAD_FOLDER + "/other").size());
+    }
+
+    @Test
+    public void incompleteRecordIsIgnored() throws IOException {
+        File directory = folder.getRoot();
+        UploadJournal sut = new UploadJournal(directory);
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+
+        // interrupted while appending the next record
+        File[] journalFiles = directory.listFiles();
+        assertEquals(1, journalFiles.length);
+        try (FileOutputStream out = new FileOutputStream(journalFiles[0], true)) {
+            out.write("1024-20".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        assertEquals(Arrays.asList(new Chunk(0, 1023)), sut.getChunks(UPLOAD_FOLDER));
+    }
+
+    @Test
+    public void chunksSentButNotStoredArePending() {
+        UploadJournal sut = new UploadJournal(folder.getRoot());
+        sut.addPendingChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+        sut.addPendingChunk(UPLOAD_FOLDER, new Chunk(1024, 2047));
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+        sut.addPendingChunk(UPLOAD_FOLDER, new Chunk(2048, 4095));
+
+        assertEquals(Arrays.asList(new Chunk(0, 1023)), sut.getChunks(UPLOAD_FOLDER));
+        assertEquals(Arrays.asList(new Chunk(1024, 2047), new Chunk(2048, 4095)), sut.getPendingChunks(UPLOAD_FOLDER));
+
+        // sent again and stored this time
+        sut.addPendingChunk(UPLOAD_FOLDER, new Chunk(1024, 2047));
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(1024, 2047));
+        assertEquals(Arrays.asList(new Chunk(2048, 4095)), sut.getPendingChunks(UPLOAD_FOLDER));
+    }
+
+    @Test
+    public void recordAfterIncompleteOneIsKept() throws IOException {
+        File directory = folder.getRoot();
+        UploadJournal sut = new UploadJournal(directory);
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+        try (FileOutputStream out = new FileOutputStream(directory.listFiles()[0], true)) {
+            out.write("1024-20".getBytes(StandardCharsets.US_ASCII));
+        }
+
+        sut.addPendingChunk(UPLOAD_FOLDER, new Chunk(1024, 2047));
+
+        assertEquals(Arrays.asList(new Chunk(0, 1023)), sut.getChunks(UPLOAD_FOLDER));
+        assertEquals(Arrays.asList(new Chunk(1024, 2047)), sut.getPendingChunks(UPLOAD_FOLDER));
+    }
+
+    @Test
+    public void oldUploadsAreRemoved() {
+        UploadJournal sut = new UploadJournal(folder.getRoot());
+        sut.addChunk(UPLOAD_FOLDER, new Chunk(0, 1023));
+        File[] journalFiles = folder.getRoot().listFiles();
+        assertTrue(journalFiles[0].setLastModified(System.currentTimeMillis() - 10000));
+
+        sut.removeOlderThan(60000);
+        assertEquals(1, sut.getChunks(UPLOAD_FOLDER).size());
+
+        sut.removeOlderThan(5000);
+        assertTrue(sut.getChunks(UPLOAD_FOLDER).isEmpty());
+    }
+}
@@ -0,0 +1,105 @@
+/* Nextcloud Android Library is available under MIT license
+ *
+ *   Copyright (C) 2022 Nextcloud GmbH
+ *
+ *   Permission is hereby granted, free of charge, to any person obtaining a copy
+ *   of this software and associated documentation files (the "Software"), to deal
+ *   in the Software without restriction, including without limitation the rights
+ *   to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *   copies of the Software, and to permit persons to whom the Software is
+ *   furnished to do so, subject to the following conditions:
+ *
+ *   The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ *
+ *   THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND,
+ *   EXPRESS OR IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF
+ *   MERCHANTABILITY, FITNESS FOR A PARTICULAR PURPOSE AND
+ *   NONINFRINGEMENT. IN NO EVENT SHALL THE AUTHORS OR COPYRIGHT HOLDERS
+ *   BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER LIABILITY, WHETHER IN AN
+ *   ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM, OUT OF OR IN
+ *   CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *   THE SOFTWARE.
+ *
+ */
+
+package com.owncloud.android.lib.resources.files.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RemoteFileTest {
+
+    /**
+     * Every field is set to a value different from the one of a new instance, so that a field left out of the copy
+     * constructor makes the test fail.
+     */
+    @Test
+    public void copyHasEveryField() throws IllegalAccessException {
+        RemoteFile original = new RemoteFile("/folder/file.txt");
+        RemoteFile empty = new RemoteFile();
+        List<Field> fields = getInstanceFields();
+        for (int i = 0; i < fields.size(); i++) {
+            Field field = fields.get(i);
+            field.set(original, createValue(field, i + 1));
+            assertNotEquals("No distinct test value for " + field.getName(), field.get(empty), field.get(original));
+        }
+
+        RemoteFile copy = new RemoteFile(original);
+
+        for (Field field : fields) {
+            Object expected = field.get(original);
+            Object actual = field.get(copy);
+            if (field.getType().isArray()) {
+                assertTrue("Field not copied: " + field.getName(),
+                           Arrays.deepEquals((Object[]) expected, (Object[]) actual));
+                assertNotSame("Array shared with the original: " + field.getName(), expected, actual);
+            } else {
+                assertEquals("Field not copied: " + field.getName(), expected, actual);
+            }
+        }
+    }
+
+    private static List<Field> getInstanceFields() {
+        List<Field> fields = new ArrayList<>();
+        for (Field field : RemoteFile.class.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                field.setAccessible(true);
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private static Object createValue(Field field, int seed) {
+        Class<?> type = field.getType();
+        if (type == String.class) {
+            return field.getName();
+        } else if (type == long.class) {
+            return (long) seed;
+        } else if (type == int.class) {
+            return seed;
+        } else if (type == boolean.class) {
+            return true;
+        } else if (type.isEnum()) {
+            Object[] constants = type.getEnumConstants();
+            return constants[constants.length - 1];
+        } else if (type.isArray()) {
+            return Array.newInstance(type.getComponentType(), seed);
+        }
+        fail("No test value for field " + field.getName() + " of type " + type.getName());
+        return null;
+    }
+}
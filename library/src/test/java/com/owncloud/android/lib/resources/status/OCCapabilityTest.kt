@@ -54,6 +54,7 @@ class OCCapabilityTest {
             richDocumentsOptionalMimeTypeList = null
             richDocumentsProductName = null
             directEditingEtag = null
+            davBulkUploadVersion = null
         }
     }
 }